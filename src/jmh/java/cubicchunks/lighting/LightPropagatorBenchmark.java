@@ -0,0 +1,196 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.lighting;
+
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.EnumSkyBlock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Compares the {@link BlockPos} based entry point of {@link LightPropagator} with the packed coordinate one. Each
+ * invocation turns a group of light sources on and spreads the light, then turns them off and removes it again.
+ * <p>
+ * The BlockPos variant goes through an {@link ILightBlockAccess} that only implements the BlockPos methods, like
+ * block accesses of other mods do. It still runs the packed propagation inside, to compare with the BlockPos based
+ * propagator that existed before, run the same method against that version of {@link LightPropagator}. Run with {@code
+ * -prof gc} to see the allocation rate of both.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+@State(Scope.Benchmark)
+public class LightPropagatorBenchmark {
+
+    private static final int SIZE = 64;
+    private static final int CENTER = SIZE / 2;
+
+    @Param({"1", "16"})
+    public int sources;
+
+    private ArrayLightAccess packedAccess;
+    private ILightBlockAccess blockPosAccess;
+    private List<BlockPos> coords;
+    private TIntList packedCoords;
+    private final LightPropagator propagator = new LightPropagator();
+
+    @Setup
+    public void setup() {
+        Random rand = new Random(42);
+        packedAccess = new ArrayLightAccess();
+        for (int i = 0; i < SIZE * SIZE * SIZE / 8; i++) {
+            packedAccess.opacity[rand.nextInt(SIZE * SIZE * SIZE)] = (byte) 15;
+        }
+        blockPosAccess = new BlockPosOnlyAccess(packedAccess);
+        coords = new ArrayList<>();
+        packedCoords = new TIntArrayList();
+        for (int i = 0; i < sources; i++) {
+            int x = rand.nextInt(16) - 8, y = rand.nextInt(16) - 8, z = rand.nextInt(16) - 8;
+            coords.add(new BlockPos(CENTER + x, CENTER + y, CENTER + z));
+            packedCoords.add(LightPropagator.packCoords(x, y, z));
+            int index = ArrayLightAccess.index(CENTER + x, CENTER + y, CENTER + z);
+            packedAccess.opacity[index] = 0;
+            packedAccess.source[index] = true;
+        }
+    }
+
+    @Benchmark
+    public void blockPos(Blackhole bh) {
+        packedAccess.emitted = 15;
+        propagator.propagateLight(new BlockPos(CENTER, CENTER, CENTER), coords, blockPosAccess, EnumSkyBlock.BLOCK,
+                bh::consume);
+        packedAccess.emitted = 0;
+        propagator.propagateLight(new BlockPos(CENTER, CENTER, CENTER), coords, blockPosAccess, EnumSkyBlock.BLOCK,
+                bh::consume);
+    }
+
+    @Benchmark
+    public void packed(Blackhole bh) {
+        packedAccess.emitted = 15;
+        propagator.propagateLight(CENTER, CENTER, CENTER, packedCoords, packedAccess, EnumSkyBlock.BLOCK,
+                (x, y, z) -> bh.consume(x));
+        packedAccess.emitted = 0;
+        propagator.propagateLight(CENTER, CENTER, CENTER, packedCoords, packedAccess, EnumSkyBlock.BLOCK,
+                (x, y, z) -> bh.consume(x));
+    }
+
+    /**
+     * Ignores the light type, all light sources emit {@link #emitted} light.
+     */
+    private static final class ArrayLightAccess implements ILightBlockAccess {
+
+        final byte[] opacity = new byte[SIZE * SIZE * SIZE];
+        final byte[] light = new byte[SIZE * SIZE * SIZE];
+        final boolean[] source = new boolean[SIZE * SIZE * SIZE];
+        int emitted;
+
+        static int index(int x, int y, int z) {
+            return (x * SIZE + y) * SIZE + z;
+        }
+
+        @Override public int getBlockLightOpacity(BlockPos pos) {
+            return getBlockLightOpacity(pos.getX(), pos.getY(), pos.getZ());
+        }
+
+        @Override public int getBlockLightOpacity(int blockX, int blockY, int blockZ) {
+            return opacity[index(blockX, blockY, blockZ)];
+        }
+
+        @Override public int getLightFor(EnumSkyBlock lightType, BlockPos pos) {
+            return getLightFor(lightType, pos.getX(), pos.getY(), pos.getZ());
+        }
+
+        @Override public int getLightFor(EnumSkyBlock lightType, int blockX, int blockY, int blockZ) {
+            return light[index(blockX, blockY, blockZ)];
+        }
+
+        @Override public void setLightFor(EnumSkyBlock lightType, BlockPos pos, int val) {
+            setLightFor(lightType, pos.getX(), pos.getY(), pos.getZ(), val);
+        }
+
+        @Override public void setLightFor(EnumSkyBlock lightType, int blockX, int blockY, int blockZ, int val) {
+            light[index(blockX, blockY, blockZ)] = (byte) val;
+        }
+
+        @Override public boolean canSeeSky(BlockPos pos) {
+            return false;
+        }
+
+        @Override public boolean canSeeSky(int blockX, int blockY, int blockZ) {
+            return false;
+        }
+
+        @Override public int getEmittedLight(BlockPos pos, EnumSkyBlock type) {
+            return getEmittedLight(pos.getX(), pos.getY(), pos.getZ(), type);
+        }
+
+        @Override public int getEmittedLight(int blockX, int blockY, int blockZ, EnumSkyBlock type) {
+            return source[index(blockX, blockY, blockZ)] ? emitted : 0;
+        }
+    }
+
+    /**
+     * Hides the raw coordinate methods of the wrapped access, so every call goes through a new BlockPos.
+     */
+    private static final class BlockPosOnlyAccess implements ILightBlockAccess {
+
+        private final ILightBlockAccess access;
+
+        BlockPosOnlyAccess(ILightBlockAccess access) {
+            this.access = access;
+        }
+
+        @Override public int getBlockLightOpacity(BlockPos pos) {
+            return access.getBlockLightOpacity(pos);
+        }
+
+        @Override public int getLightFor(EnumSkyBlock lightType, BlockPos pos) {
+            return access.getLightFor(lightType, pos);
+        }
+
+        @Override public void setLightFor(EnumSkyBlock lightType, BlockPos pos, int val) {
+            access.setLightFor(lightType, pos, val);
+        }
+
+        @Override public boolean canSeeSky(BlockPos pos) {
+            return access.canSeeSky(pos);
+        }
+
+        @Override public int getEmittedLight(BlockPos pos, EnumSkyBlock type) {
+            return access.getEmittedLight(pos, type);
+        }
+    }
+}
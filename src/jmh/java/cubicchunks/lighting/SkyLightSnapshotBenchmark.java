@@ -0,0 +1,187 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.lighting;
+
+import cubicchunks.util.CubePos;
+import cubicchunks.world.ICubeProvider;
+import cubicchunks.world.ICubicWorld;
+import cubicchunks.world.column.IColumn;
+import cubicchunks.world.cube.Cube;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+import net.minecraft.init.Bootstrap;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.EnumSkyBlock;
+import net.minecraft.world.IBlockAccess;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.lang.reflect.Proxy;
+import java.util.Random;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Measures how long {@link SkyLightSnapshot#capture} takes on the server thread for the area LightingManager captures
+ * around a region, and how long a worker takes to read every block of the snapshot.
+ * <p>
+ * A size of 5 is a single cube with the load radius around it, 6 is a 2x2x2 region. Underground every cube has mixed
+ * blocks, at the surface the two top layers of cubes are empty.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+@State(Scope.Thread)
+public class SkyLightSnapshotBenchmark {
+
+    @Param({"5", "6"})
+    public int size;
+
+    @Param({"underground", "surface"})
+    public String terrain;
+
+    private ICubicWorld world;
+    private ICubeProvider provider;
+    private BlockPos minPos;
+    private BlockPos maxPos;
+
+    @Setup
+    public void setup() {
+        Bootstrap.register();
+        // vanilla blocks don't look at the world to get their opacity
+        world = (ICubicWorld) Proxy.newProxyInstance(ICubicWorld.class.getClassLoader(),
+                new Class<?>[]{ICubicWorld.class, IBlockAccess.class}, (proxy, method, args) -> {
+                    throw new UnsupportedOperationException(method.getName());
+                });
+
+        IBlockState[] states = {
+                Blocks.STONE.getDefaultState(), Blocks.DIRT.getDefaultState(), Blocks.GRAVEL.getDefaultState(),
+                Blocks.COAL_ORE.getDefaultState(), Blocks.IRON_ORE.getDefaultState(), Blocks.AIR.getDefaultState(),
+                Blocks.WATER.getDefaultState(), Blocks.LEAVES.getDefaultState()
+        };
+        Random rand = new Random(42);
+        Cube[] cubes = new Cube[size * size * size];
+        for (int x = 0; x < size; x++) {
+            for (int z = 0; z < size; z++) {
+                IColumn column = createColumn(world, x, z);
+                for (int y = 0; y < size; y++) {
+                    Cube cube = new Cube(column, y);
+                    if (terrain.equals("underground") || y < size - 2) {
+                        ExtendedBlockStorage storage = new ExtendedBlockStorage(y * 16, true);
+                        for (int i = 0; i < 4096; i++) {
+                            storage.set(i & 15, i >> 8, i >> 4 & 15, states[rand.nextInt(states.length)]);
+                        }
+                        cube.setStorage(storage);
+                    }
+                    cubes[(x * size + z) * size + y] = cube;
+                }
+            }
+        }
+        provider = new ArrayCubeProvider(cubes, size);
+        minPos = new BlockPos(0, 0, 0);
+        maxPos = new BlockPos(size * 16 - 1, size * 16 - 1, size * 16 - 1);
+        // counted once and then kept up to date by block changes, like in a running world
+        for (Cube cube : cubes) {
+            cube.getOpacitySummary();
+        }
+    }
+
+    @Benchmark
+    public SkyLightSnapshot capture() {
+        return SkyLightSnapshot.capture(world, provider, minPos, maxPos);
+    }
+
+    @Benchmark
+    public void captureAndReadAll(Blackhole bh) {
+        SkyLightSnapshot snapshot = SkyLightSnapshot.capture(world, provider, minPos, maxPos);
+        int max = size * 16;
+        for (int x = 0; x < max; x++) {
+            for (int y = 0; y < max; y++) {
+                for (int z = 0; z < max; z++) {
+                    bh.consume(snapshot.getBlockLightOpacity(x, y, z));
+                    bh.consume(snapshot.getLightFor(EnumSkyBlock.SKY, x, y, z));
+                }
+            }
+        }
+    }
+
+    private static IColumn createColumn(ICubicWorld world, int columnX, int columnZ) {
+        return (IColumn) Proxy.newProxyInstance(IColumn.class.getClassLoader(), new Class<?>[]{IColumn.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getCubicWorld":
+                            return world;
+                        case "getX":
+                            return columnX;
+                        case "getZ":
+                            return columnZ;
+                        case "getHeightValue":
+                            return 0;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private static final class ArrayCubeProvider implements ICubeProvider {
+
+        private final Cube[] cubes;
+        private final int size;
+
+        ArrayCubeProvider(Cube[] cubes, int size) {
+            this.cubes = cubes;
+            this.size = size;
+        }
+
+        @Nullable @Override public Cube getLoadedCube(int cubeX, int cubeY, int cubeZ) {
+            return cubes[(cubeX * size + cubeZ) * size + cubeY];
+        }
+
+        @Nullable @Override public Cube getLoadedCube(CubePos coords) {
+            return getLoadedCube(coords.getX(), coords.getY(), coords.getZ());
+        }
+
+        @Override public Cube getCube(int cubeX, int cubeY, int cubeZ) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override public Cube getCube(CubePos coords) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Nullable @Override public IColumn getLoadedColumn(int x, int z) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override public IColumn provideColumn(int x, int z) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
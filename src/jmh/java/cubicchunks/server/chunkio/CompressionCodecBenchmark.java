@@ -0,0 +1,149 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import cubicchunks.regionlib.impl.EntryLocation3D;
+import cubicchunks.regionlib.impl.SaveCubeColumns;
+import mcp.MethodsReturnNonnullByDefault;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Compares compression codecs on cube payloads.
+ * <p>
+ * Run with -Dcubicchunks.bench.world=path/to/world to use cubes around (0, 0, 0) from an existing cubic chunks save,
+ * otherwise cube-like payloads (layered terrain with some ores and light data) are generated.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+@State(Scope.Thread)
+public class CompressionCodecBenchmark {
+
+    private static final int PAYLOADS = 256;
+    private static final int RADIUS = 8;
+
+    @Param({"gzip", "lz4", "none"})
+    public String codecName;
+
+    private CompressionCodec codec;
+    private List<byte[]> payloads;
+    private List<byte[]> compressed;
+    private int index;
+
+    @Setup
+    public void setup() throws IOException {
+        this.codec = CompressionCodec.byName(codecName);
+        String world = System.getProperty("cubicchunks.bench.world");
+        this.payloads = world == null ? generatePayloads() : loadPayloads(world);
+        this.compressed = new ArrayList<>(payloads.size());
+        long rawSize = 0, compressedSize = 0;
+        for (byte[] payload : payloads) {
+            byte[] data = codec.compress(payload);
+            compressed.add(data);
+            rawSize += payload.length;
+            compressedSize += data.length;
+        }
+        System.out.printf("%n%s: %d payloads, %d bytes -> %d bytes (%.1f%%)%n", codecName, payloads.size(), rawSize, compressedSize,
+                compressedSize * 100.0 / rawSize);
+    }
+
+    @Benchmark
+    public byte[] compress() throws IOException {
+        return codec.compress(next(payloads));
+    }
+
+    @Benchmark
+    public byte[] decompress() throws IOException {
+        return CompressionCodec.decompress(next(compressed));
+    }
+
+    private byte[] next(List<byte[]> list) {
+        index = (index + 1) % list.size();
+        return list.get(index);
+    }
+
+    private static List<byte[]> loadPayloads(String world) throws IOException {
+        List<byte[]> payloads = new ArrayList<>();
+        SaveCubeColumns save = SaveCubeColumns.create(Paths.get(world));
+        try {
+            for (int x = -RADIUS; x < RADIUS && payloads.size() < PAYLOADS; x++) {
+                for (int z = -RADIUS; z < RADIUS && payloads.size() < PAYLOADS; z++) {
+                    for (int y = -RADIUS; y < RADIUS && payloads.size() < PAYLOADS; y++) {
+                        Optional<ByteBuffer> buf = save.load(new EntryLocation3D(x, y, z));
+                        if (buf.isPresent()) {
+                            payloads.add(CompressionCodec.decompress(buf.get().array()));
+                        }
+                    }
+                }
+            }
+        } finally {
+            save.close();
+        }
+        if (payloads.isEmpty()) {
+            throw new IOException("No cubes found around (0, 0, 0) in " + world);
+        }
+        return payloads;
+    }
+
+    // roughly the layout of NBT cube data: block IDs, metadata, block light and sky light
+    private static List<byte[]> generatePayloads() {
+        Random rand = new Random(42);
+        List<byte[]> payloads = new ArrayList<>(PAYLOADS);
+        for (int i = 0; i < PAYLOADS; i++) {
+            int surface = rand.nextInt(48) - 16;
+            byte[] data = new byte[4096 + 2048 * 3];
+            for (int y = 0; y < 16; y++) {
+                for (int z = 0; z < 16; z++) {
+                    for (int x = 0; x < 16; x++) {
+                        int idx = y << 8 | z << 4 | x;
+                        int height = surface + ((x * 7 + z * 3) >> 4);
+                        byte block = y > height ? 0 : y == height ? (byte) 2 : y > height - 4 ? (byte) 3 : (byte) 1;
+                        if (block == 1 && rand.nextInt(64) == 0) {
+                            block = (byte) (14 + rand.nextInt(3)); // ores
+                        }
+                        data[idx] = block;
+                        int light = block == 0 ? 15 : 0;
+                        int nibble = 4096 + 2048 * 2 + (idx >> 1);
+                        data[nibble] |= (idx & 1) == 0 ? light : light << 4;
+                    }
+                }
+            }
+            payloads.add(data);
+        }
+        return payloads;
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.util;
+
+import mcp.MethodsReturnNonnullByDefault;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Compares {@link ConcurrentXYZMap} and {@link LongXYZMap} with {@link XYZMap} for the access patterns of the server cube map: lookups of
+ * loaded and not loaded cubes, iterating over all cubes, and cubes being loaded and unloaded at the edge of the view distance.
+ * <p>
+ * The cubes are a box around the origin, roughly what a single player with a horizontal view distance of
+ * {@code radius} keeps loaded.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+@State(Scope.Benchmark)
+public class CubeMapBenchmark {
+
+    private static final int VERTICAL_RADIUS = 8;
+    private static final int LOOKUPS = 1024;
+
+    @Param({"4", "10"})
+    public int radius;
+
+    private XYZMap<Pos> xyzMap;
+    private ConcurrentXYZMap<Pos> concurrentMap;
+    private LongXYZMap<Pos> longMap;
+    private Pos[] loaded;
+    private Pos[] missing;
+
+    @Setup
+    public void setup() {
+        xyzMap = new XYZMap<>(0.7f, 8000);
+        concurrentMap = new ConcurrentXYZMap<>(0.7f, 8000);
+        longMap = new LongXYZMap<>(0.7f, 8000);
+        List<Pos> all = new ArrayList<>();
+        for (int x = -radius; x <= radius; x++) {
+            for (int y = -VERTICAL_RADIUS; y <= VERTICAL_RADIUS; y++) {
+                for (int z = -radius; z <= radius; z++) {
+                    Pos pos = new Pos(x, y, z);
+                    all.add(pos);
+                    xyzMap.put(pos);
+                    concurrentMap.put(pos);
+                    longMap.put(pos);
+                }
+            }
+        }
+        Random rand = new Random(42);
+        Collections.shuffle(all, rand);
+        loaded = new Pos[LOOKUPS];
+        missing = new Pos[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            loaded[i] = all.get(i % all.size());
+            // just outside of the loaded box
+            missing[i] = new Pos(radius + 1 + rand.nextInt(4), rand.nextInt(VERTICAL_RADIUS * 2) - VERTICAL_RADIUS,
+                    rand.nextInt(radius * 2) - radius);
+        }
+    }
+
+    @Benchmark
+    public void xyzMapGetLoaded(Blackhole bh) {
+        for (Pos pos : loaded) {
+            bh.consume(xyzMap.get(pos.x, pos.y, pos.z));
+        }
+    }
+
+    @Benchmark
+    public void concurrentMapGetLoaded(Blackhole bh) {
+        for (Pos pos : loaded) {
+            bh.consume(concurrentMap.get(pos.x, pos.y, pos.z));
+        }
+    }
+
+    @Benchmark
+    public void longMapGetLoaded(Blackhole bh) {
+        for (Pos pos : loaded) {
+            bh.consume(longMap.get(pos.x, pos.y, pos.z));
+        }
+    }
+
+    @Benchmark
+    public void xyzMapGetMissing(Blackhole bh) {
+        for (Pos pos : missing) {
+            bh.consume(xyzMap.get(pos.x, pos.y, pos.z));
+        }
+    }
+
+    @Benchmark
+    public void concurrentMapGetMissing(Blackhole bh) {
+        for (Pos pos : missing) {
+            bh.consume(concurrentMap.get(pos.x, pos.y, pos.z));
+        }
+    }
+
+    @Benchmark
+    public void longMapGetMissing(Blackhole bh) {
+        for (Pos pos : missing) {
+            bh.consume(longMap.get(pos.x, pos.y, pos.z));
+        }
+    }
+
+    @Benchmark
+    public void xyzMapIterate(Blackhole bh) {
+        for (Pos pos : xyzMap) {
+            bh.consume(pos);
+        }
+    }
+
+    @Benchmark
+    public void concurrentMapIterate(Blackhole bh) {
+        for (Pos pos : concurrentMap) {
+            bh.consume(pos);
+        }
+    }
+
+    @Benchmark
+    public void longMapIterate(Blackhole bh) {
+        for (Pos pos : longMap) {
+            bh.consume(pos);
+        }
+    }
+
+    // a cube loaded and one unloaded between iterations, like the tick loop of a server where players are moving
+    @Benchmark
+    @Threads(1)
+    public void xyzMapIterateModified(Blackhole bh) {
+        xyzMap.put(missing[0]);
+        xyzMap.remove(missing[0]);
+        for (Pos pos : xyzMap) {
+            bh.consume(pos);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void concurrentMapIterateModified(Blackhole bh) {
+        concurrentMap.put(missing[0]);
+        concurrentMap.remove(missing[0]);
+        for (Pos pos : concurrentMap) {
+            bh.consume(pos);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void longMapIterateModified(Blackhole bh) {
+        longMap.put(missing[0]);
+        longMap.remove(missing[0]);
+        for (Pos pos : longMap) {
+            bh.consume(pos);
+        }
+    }
+
+    // the state is shared, so these must stay single threaded
+    @Benchmark
+    @Threads(1)
+    public void xyzMapPutRemove() {
+        for (Pos pos : missing) {
+            xyzMap.put(pos);
+        }
+        for (Pos pos : missing) {
+            xyzMap.remove(pos);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void concurrentMapPutRemove() {
+        for (Pos pos : missing) {
+            concurrentMap.put(pos);
+        }
+        for (Pos pos : missing) {
+            concurrentMap.remove(pos);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void longMapPutRemove() {
+        for (Pos pos : missing) {
+            longMap.put(pos);
+        }
+        for (Pos pos : missing) {
+            longMap.remove(pos);
+        }
+    }
+
+    // lookups from several worker threads at once, which XYZMap can't do safely at all
+    @Benchmark
+    @Threads(4)
+    public void concurrentMapGetLoaded4Threads(Blackhole bh) {
+        for (Pos pos : loaded) {
+            bh.consume(concurrentMap.get(pos.x, pos.y, pos.z));
+        }
+    }
+
+    private static final class Pos implements XYZAddressable {
+
+        final int x, y, z;
+
+        Pos(int x, int y, int z) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
+        @Override public int getX() {
+            return x;
+        }
+
+        @Override public int getY() {
+            return y;
+        }
+
+        @Override public int getZ() {
+            return z;
+        }
+    }
+}
@@ -93,12 +93,14 @@ public class CommonEventHandler {
         if (savedData == null) {
             savedData = new WorldSavedCubicChunksData("cubicChunksData");
         }
-        int minHeight = savedData.minHeight;
-        int maxHeight = savedData.maxHeight;
-        world.initCubicWorldServer(new IntRange(minHeight, maxHeight), generationRange);
+        // store it before initializing the world, cube IO reads the compression codec from it
         savedData.markDirty();
         evt.getObject().getMapStorage().setData("cubicChunksData", savedData);
         evt.getObject().getMapStorage().saveAllData();
+
+        int minHeight = savedData.minHeight;
+        int maxHeight = savedData.maxHeight;
+        world.initCubicWorldServer(new IntRange(minHeight, maxHeight), generationRange);
     }
 
     @SubscribeEvent
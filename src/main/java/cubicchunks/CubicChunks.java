@@ -31,6 +31,7 @@ import cubicchunks.debug.DebugTools;
 import cubicchunks.debug.DebugWorldType;
 import cubicchunks.network.PacketDispatcher;
 import cubicchunks.proxy.CommonProxy;
+import cubicchunks.server.chunkio.CompressionCodec;
 import cubicchunks.server.chunkio.async.forge.AsyncWorldIOExecutor;
 import cubicchunks.world.type.CustomCubicWorldType;
 import cubicchunks.world.type.FlatCubicWorldType;
@@ -282,7 +283,45 @@ public class CubicChunks {
             VERTICAL_CUBE_LOAD_DISTANCE(2, 32, 8, "Similar to Minecraft's view distance, only for vertical chunks."),
             CHUNK_G_C_INTERVAL(1, Integer.MAX_VALUE, 20 * 10,
                     "Chunk garbage collector update interval. A more lower it is - a more CPU load it will generate. "
-                            + "A more high it is - a more memory will be used to store cubes between launches.");
+                            + "A more high it is - a more memory will be used to store cubes between launches."),
+            CHUNK_G_C_UNLOAD_DELAY(0, Integer.MAX_VALUE, 0,
+                    "How many ticks a cube or column has to be unused before the chunk garbage collector unloads it. "
+                            + "It is unloaded by the first garbage collector update after that."),
+            CHUNK_G_C_TIME_BUDGET_US(0, 1000000, 2000,
+                    "The maximum time in microseconds the chunk garbage collector spends unloading cubes and columns each tick. "
+                            + "Unloading is spread over as many ticks as needed. 0 removes the limit."),
+            HEAP_HIGH_WATERMARK_PERCENT(0, 100, 90,
+                    "When more than this percentage of the heap is still in use after garbage collection, unused cubes are "
+                            + "unloaded early, starting with those furthest from players, and cube generation is slowed down. "
+                            + "0 disables this."),
+            HEAP_LOW_WATERMARK_PERCENT(0, 100, 75,
+                    "Cubes are unloaded early and generation is slowed down until heap usage after garbage collection "
+                            + "drops below this percentage."),
+            SAVE_THREADS(1, 32, 2,
+                    "The number of threads used to compress cubes and columns before they are written to disk. "
+                            + "Each region file is written by only one thread at a time."),
+            MAX_QUEUED_SAVES(256, Integer.MAX_VALUE, 20000,
+                    "The maximum number of cubes and columns waiting to be saved. When the save queue is this long, "
+                            + "the server thread waits for it to shrink before queuing more."),
+            PREFETCH_DISTANCE(0, 16, 3,
+                    "How many cubes beyond the view distance are read ahead of fast moving players, in the direction they are moving. "
+                            + "0 disables prefetching."),
+            PREFETCH_BUFFER_SIZE(0, Integer.MAX_VALUE, 4096,
+                    "The maximum number of prefetched cubes kept in memory per world. 0 disables prefetching."),
+            CUBE_CACHE_SIZE_MB(0, 4096, 0,
+                    "Memory budget in megabytes for caching recently loaded and saved cubes per world, so cubes that are "
+                            + "unloaded and then needed again don't have to be read from disk. 0 disables the cache."),
+            AUTOSAVE_TIME_BUDGET_MS(0, 1000, 10,
+                    "The maximum time in milliseconds spent each tick preparing cubes and columns for autosave. "
+                            + "Autosave is spread over as many ticks as needed. 0 saves everything in one tick."),
+            ASYNC_GENERATION_TIME_BUDGET_MS(1, 1000, 10,
+                    "The time in milliseconds spent each tick generating, populating and lighting cubes requested "
+                            + "asynchronously, for example by mods. Requests are spread over as many ticks as needed. "
+                            + "It can be exceeded by the time it takes to populate and light one cube."),
+            LIGHTING_THREADS(0, 16, 0,
+                    "The number of threads spreading sky light after block changes. Results are copied back to the "
+                            + "world on the server thread, and redone if blocks changed in the meantime. 0 updates light "
+                            + "on the server thread.");
 
             private final int minValue;
             private final int maxValue;
@@ -330,7 +369,11 @@ public class CubicChunks {
                             + CubicChunks.MODID + " will pregenerate cubes in a range of height from 0 to 255."),
             FORCE_CUBIC_CHUNKS(false,
                     "Enabling this will force creating a cubic chunks world, even if it's not cubic chunks world type. This option is automatically"
-                            + " set in world creation GUI when creating cubic chunks world with non-cubicchunks world type");
+                            + " set in world creation GUI when creating cubic chunks world with non-cubicchunks world type"),
+            USE_BINARY_CUBE_FORMAT(false,
+                    "Enabling this will save cubes in a compact binary format instead of NBT, which is faster to save and load."
+                            + " Cubes saved in the old format can still be loaded. Worlds saved with this option enabled"
+                            + " can't be loaded by older versions of " + CubicChunks.MODID + ".");
 
             private final boolean defaultValue;
             private final String description;
@@ -351,6 +394,28 @@ public class CubicChunks {
             }
         }
         
+        public static enum StringOptions {
+            COMPRESSION_CODEC(CompressionCodec.GZIP.getName(), CompressionCodec.names(),
+                    "Compression used to store cubes and columns in newly created worlds. Existing worlds keep the compression they were"
+                            + " created with. lz4 is much faster than gzip but uses more disk space, none stores data uncompressed.");
+
+            private final String defaultValue;
+            private final String[] validValues;
+            private final String description;
+            private String value;
+
+            private StringOptions(String defaultValue1, String[] validValues1, String description1) {
+                defaultValue = defaultValue1;
+                validValues = validValues1;
+                description = description1;
+                value = defaultValue;
+            }
+
+            public String getValue() {
+                return value;
+            }
+        }
+
         public static String getNicelyFormattedName(String name) {
             StringBuffer out = new StringBuffer();
             char char_ = '_';
@@ -386,6 +451,10 @@ public class CubicChunks {
                 configOption.value = configuration.getBoolean(getNicelyFormattedName(configOption.name()), Configuration.CATEGORY_GENERAL,
                         configOption.defaultValue, configOption.description);
             }
+            for (StringOptions configOption : StringOptions.values()) {
+                configOption.value = configuration.getString(getNicelyFormattedName(configOption.name()), Configuration.CATEGORY_GENERAL,
+                        configOption.defaultValue, configOption.description, configOption.validValues);
+            }
             if (configuration.hasChanged()) {
                 configuration.save();
             }
@@ -403,6 +472,62 @@ public class CubicChunks {
             return IntOptions.CHUNK_G_C_INTERVAL.value;
         }
 
+        public int getChunkGCUnloadDelay() {
+            return IntOptions.CHUNK_G_C_UNLOAD_DELAY.value;
+        }
+
+        public int getSaveThreads() {
+            return IntOptions.SAVE_THREADS.value;
+        }
+
+        public int getMaxQueuedSaves() {
+            return IntOptions.MAX_QUEUED_SAVES.value;
+        }
+
+        public String getCompressionCodec() {
+            return StringOptions.COMPRESSION_CODEC.value;
+        }
+
+        public int getPrefetchDistance() {
+            return IntOptions.PREFETCH_DISTANCE.value;
+        }
+
+        public int getPrefetchBufferSize() {
+            return IntOptions.PREFETCH_BUFFER_SIZE.value;
+        }
+
+        public int getCubeCacheSizeMB() {
+            return IntOptions.CUBE_CACHE_SIZE_MB.value;
+        }
+
+        public int getChunkGCTimeBudgetUs() {
+            return IntOptions.CHUNK_G_C_TIME_BUDGET_US.value;
+        }
+
+        public int getHeapHighWatermarkPercent() {
+            return IntOptions.HEAP_HIGH_WATERMARK_PERCENT.value;
+        }
+
+        public int getHeapLowWatermarkPercent() {
+            return IntOptions.HEAP_LOW_WATERMARK_PERCENT.value;
+        }
+
+        public int getAutosaveTimeBudgetMs() {
+            return IntOptions.AUTOSAVE_TIME_BUDGET_MS.value;
+        }
+
+        public int getAsyncGenerationTimeBudgetMs() {
+            return IntOptions.ASYNC_GENERATION_TIME_BUDGET_MS.value;
+        }
+
+        public int getLightingThreads() {
+            return IntOptions.LIGHTING_THREADS.value;
+        }
+
+        public boolean useBinaryCubeFormat() {
+            return BoolOptions.USE_BINARY_CUBE_FORMAT.value;
+        }
+
         public boolean useFastEntitySpawner() {
             return BoolOptions.USE_FAST_ENTITY_SPAWNER.value;
         }
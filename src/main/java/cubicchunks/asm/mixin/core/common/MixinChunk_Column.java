@@ -398,12 +398,7 @@ public abstract class MixinChunk_Column implements IColumn {
     }
 
     @Override public boolean shouldTick() {
-        for (Cube cube : cubeMap) {
-            if (cube.getTickets().shouldTick()) {
-                return true;
-            }
-        }
-        return false;
+        return cubeMap.hasTickingCubes();
     }
 
 
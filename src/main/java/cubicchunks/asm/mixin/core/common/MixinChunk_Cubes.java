@@ -115,6 +115,8 @@ public abstract class MixinChunk_Cubes implements IColumn {
     private CubeMap cubeMap;
     private IHeightMap opacityIndex;
     private Cube cachedCube; // todo: make it always nonnull using BlankCube
+    // light opacity of the block replaced by setBlockState, from right before the storage is changed
+    private int oldOpacityForSetBlockState;
 
     private boolean isColumn = false;
 
@@ -135,6 +137,22 @@ public abstract class MixinChunk_Cubes implements IColumn {
         return cube.getStorage();
     }
 
+    // like getEBS_CubicChunks, but for uniform cubes returns their shared storage instead of copying it
+    @Nullable
+    private ExtendedBlockStorage getReadOnlyEBS_CubicChunks(int index) {
+        if (!isColumn) {
+            return storageArrays[index];
+        }
+        if (cachedCube != null && cachedCube.getY() == index) {
+            return cachedCube.getReadOnlyStorage();
+        }
+        Cube cube = getCubicWorld().getCubeCache().getCube(getX(), index, getZ());
+        if (!(cube instanceof BlankCube)) {
+            cachedCube = cube;
+        }
+        return cube.getReadOnlyStorage();
+    }
+
     // setEBS is unlikely to be used extremely frequently, no caching
     private void setEBS_CubicChunks(int index, ExtendedBlockStorage ebs) {
         if (!isColumn) {
@@ -146,7 +164,7 @@ public abstract class MixinChunk_Cubes implements IColumn {
             return;
         }
         Cube loaded = getCubicWorld().getCubeCache().getLoadedCube(getX(), index, getZ());
-        if (loaded.getStorage() == null) {
+        if (loaded.getReadOnlyStorage() == null) {
             loaded.setStorage(ebs);
         } else {
             throw new IllegalStateException(String.format(
@@ -154,7 +172,7 @@ public abstract class MixinChunk_Cubes implements IColumn {
                             + "This is not supported. "
                             + "CubePos(%d, %d, %d), loadedCube(%s), loadedCubeStorage(%s)",
                     getX(), index, getZ(),
-                    loaded, loaded == null ? null : loaded.getStorage()));
+                    loaded, loaded == null ? null : loaded.getReadOnlyStorage()));
         }
     }
 
@@ -347,7 +365,7 @@ public abstract class MixinChunk_Cubes implements IColumn {
             try {
                 //if (y >= 0 && y >> 4 < this.storageArrays.length)
                 {
-                    ExtendedBlockStorage extendedblockstorage = getEBS_CubicChunks(y >> 4);
+                    ExtendedBlockStorage extendedblockstorage = getReadOnlyEBS_CubicChunks(y >> 4);
 
                     if (extendedblockstorage != NULL_BLOCK_STORAGE) {
                         return extendedblockstorage.get(x & 15, y & 15, z & 15);
@@ -370,13 +388,30 @@ public abstract class MixinChunk_Cubes implements IColumn {
     //                 setBlockState
     // ==============================================
 
+    @Inject(method = "setBlockState", at = @At(value = "INVOKE", target = "Lnet/minecraft/world/chunk/storage/ExtendedBlockStorage;set"
+            + "(IIILnet/minecraft/block/state/IBlockState;)V"))
+    private void onEBSSet_setBlockState_getOldOpacity(BlockPos pos, IBlockState state,
+            CallbackInfoReturnable<IBlockState> cir) {
+        if (!isColumn) {
+            return;
+        }
+        // the block is still the old one here
+        this.oldOpacityForSetBlockState = getBlockState(pos.getX(), pos.getY(), pos.getZ()).getLightOpacity(world, pos);
+    }
+
     @Inject(method = "setBlockState", at = @At(value = "INVOKE", target = "Lnet/minecraft/world/chunk/storage/ExtendedBlockStorage;set"
             + "(IIILnet/minecraft/block/state/IBlockState;)V", shift = At.Shift.AFTER))
     private void onEBSSet_setBlockState_setOpacity(BlockPos pos, IBlockState state, CallbackInfoReturnable<IBlockState> cir) {
         if (!isColumn) {
             return;
         }
-        opacityIndex.onOpacityChange(blockToLocal(pos.getX()), pos.getY(), blockToLocal(pos.getZ()), state.getLightOpacity(world, pos));
+        int newOpacity = state.getLightOpacity(world, pos);
+        opacityIndex.onOpacityChange(blockToLocal(pos.getX()), pos.getY(), blockToLocal(pos.getZ()), newOpacity);
+        int cubeY = blockToCube(pos.getY());
+        Cube cube = cachedCube != null && cachedCube.getY() == cubeY ? cachedCube : getLoadedCube(cubeY);
+        if (cube != null) {
+            cube.onBlockOpacityChange(oldOpacityForSetBlockState, newOpacity);
+        }
         getCubicWorld().getLightingManager().sendHeightMapUpdate(pos);
     }
 
@@ -417,7 +452,7 @@ public abstract class MixinChunk_Cubes implements IColumn {
             args = "array=get"
     ))
     private ExtendedBlockStorage getLightFor_CubicChunks_EBSGetRedirect(ExtendedBlockStorage[] array, int index) {
-        return getEBS_CubicChunks(index);
+        return getReadOnlyEBS_CubicChunks(index);
     }
 
     // ==============================================
@@ -461,7 +496,7 @@ public abstract class MixinChunk_Cubes implements IColumn {
             args = "array=get"
     ))
     private ExtendedBlockStorage getLightSubtracted_CubicChunks_EBSGetRedirect(ExtendedBlockStorage[] array, int index) {
-        return getEBS_CubicChunks(index);
+        return getReadOnlyEBS_CubicChunks(index);
     }
 
     // ==============================================
@@ -716,7 +751,7 @@ public abstract class MixinChunk_Cubes implements IColumn {
         }
 
         for (int i = startY; i <= endY; i += 16) {
-            ExtendedBlockStorage extendedblockstorage = getEBS_CubicChunks(i >> 4);
+            ExtendedBlockStorage extendedblockstorage = getReadOnlyEBS_CubicChunks(i >> 4);
 
             if (extendedblockstorage != NULL_BLOCK_STORAGE && !extendedblockstorage.isEmpty()) {
                 return false;
@@ -0,0 +1,69 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.asm.mixin.core.common;
+
+import cubicchunks.world.ICubicWorldServer;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.world.WorldServer;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Lets cubic worlds tell the periodic autosave apart from other saves. Only the periodic autosave saves silently,
+ * and only that one is spread over several ticks.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+@Mixin(MinecraftServer.class)
+public abstract class MixinMinecraftServer {
+
+    @Shadow public WorldServer[] worlds;
+
+    @Inject(method = "saveAllWorlds", at = @At("HEAD"), require = 1)
+    private void onSaveAllWorldsStart(boolean isSilent, CallbackInfo ci) {
+        setAutosaving(isSilent);
+    }
+
+    @Inject(method = "saveAllWorlds", at = @At("RETURN"), require = 1)
+    private void onSaveAllWorldsEnd(boolean isSilent, CallbackInfo ci) {
+        setAutosaving(false);
+    }
+
+    private void setAutosaving(boolean autosaving) {
+        if (this.worlds == null) {
+            return;
+        }
+        for (WorldServer world : this.worlds) {
+            if (world != null && ((ICubicWorldServer) world).isCubicWorld()) {
+                ((ICubicWorldServer) world).getCubeCache().setAutosaving(autosaving);
+            }
+        }
+    }
+}
@@ -26,7 +26,6 @@ package cubicchunks.asm.mixin.core.common;
 import cubicchunks.CubicChunks;
 import cubicchunks.entity.CubicEntityTracker;
 import cubicchunks.lighting.FirstLightProcessor;
-import cubicchunks.server.ChunkGc;
 import cubicchunks.server.CubeProviderServer;
 import cubicchunks.server.PlayerCubeMap;
 import cubicchunks.util.CubePos;
@@ -75,7 +74,6 @@ public abstract class MixinWorldServer extends MixinWorld implements ICubicWorld
     @Shadow @Mutable @Final private EntityTracker entityTracker;
     @Shadow public boolean disableLevelSaving;
 
-    @Nullable private ChunkGc chunkGc;
     @Nullable private FirstLightProcessor firstLightProcessor;
 
     @Override public void initCubicWorldServer(IntRange heightRange, IntRange generationRange) {
@@ -87,7 +85,6 @@ public abstract class MixinWorldServer extends MixinWorld implements ICubicWorld
                 ((ICubicWorldProvider) this.provider).createCubeGenerator());
 
         this.playerChunkMap = new PlayerCubeMap(this);
-        this.chunkGc = new ChunkGc(getCubeCache());
 
         this.saveHandler = new CubicSaveHandler(this, this.getSaveHandler());
 
@@ -108,8 +105,7 @@ public abstract class MixinWorldServer extends MixinWorld implements ICubicWorld
         if (!this.isCubicWorld()) {
             throw new NotCubicChunksWorldException();
         }
-        assert chunkGc != null;
-        this.chunkGc.tick();
+        getCubeCache().getChunkGc().tick();
     }
 
     @Override public CubicEntityTracker getCubicEntityTracker() {
@@ -42,6 +42,7 @@ import net.minecraft.util.math.AxisAlignedBB;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.MathHelper;
 import net.minecraft.world.World;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 
 @Mixin(value = World.class, priority = 1001)
 public abstract class MixinWorld_CollisionCheck implements ICubicWorld {
@@ -75,7 +76,8 @@ public abstract class MixinWorld_CollisionCheck implements ICubicWorld {
                         int maxBlockY = coords.getMaxBlockY();
                         int maxBlockZ = coords.getMaxBlockZ();
                         Cube loadedCube = this.getCubeCache().getLoadedCube(coords);
-                        if (loadedCube != null && loadedCube.getStorage() != null) {
+                        ExtendedBlockStorage storage = loadedCube == null ? null : loadedCube.getReadOnlyStorage();
+                        if (storage != null) {
                             minBlockX = minBlockX > x1 ? minBlockX : x1;
                             minBlockY = minBlockY > y1 ? minBlockY : y1;
                             minBlockZ = minBlockZ > z1 ? minBlockZ : z1;
@@ -86,7 +88,7 @@ public abstract class MixinWorld_CollisionCheck implements ICubicWorld {
                                 for (int y = minBlockY; y <= maxBlockY; y++)
                                     for (int z = minBlockZ; z <= maxBlockZ; z++) {
                                         pooledmutableblockpos.setPos(x, y, z);
-                                        IBlockState bstate = loadedCube.getStorage().get(blockToLocal(x),blockToLocal(y), blockToLocal(z));
+                                        IBlockState bstate = storage.get(blockToLocal(x),blockToLocal(y), blockToLocal(z));
                                         bstate.addCollisionBoxToList((World) (Object) this, pooledmutableblockpos, aabb, aabbList, entity, false);
                                         net.minecraftforge.common.MinecraftForge.EVENT_BUS
                                                 .post(new net.minecraftforge.event.world.GetCollisionBoxesEvent((World) (Object) this, null, aabb,
@@ -25,7 +25,7 @@ package cubicchunks.client;
 
 import cubicchunks.CubicChunks;
 import cubicchunks.util.CubePos;
-import cubicchunks.util.XYZMap;
+import cubicchunks.util.LongXYZMap;
 import cubicchunks.world.ICubeProvider;
 import cubicchunks.world.ICubicWorldClient;
 import cubicchunks.world.column.IColumn;
@@ -49,7 +49,7 @@ public class CubeProviderClient extends ChunkProviderClient implements ICubeProv
 
     @Nonnull private ICubicWorldClient world;
     @Nonnull private Cube blankCube;
-    @Nonnull private XYZMap<Cube> cubeMap = new XYZMap<>(0.7f, 8000);
+    @Nonnull private LongXYZMap<Cube> cubeMap = new LongXYZMap<>(0.7f, 8000);
 
     public CubeProviderClient(ICubicWorldClient world) {
         super((World) world);
@@ -95,6 +95,7 @@ public class CubeProviderClient extends ChunkProviderClient implements ICubeProv
         for (Cube cube : cubeMap) {
             cube.tickCubeCommon(() -> System.currentTimeMillis() - i > 5L);
         }
+        world.getLightingManager().processUpdates();
 
         if (System.currentTimeMillis() - i > 100L) {
             CubicChunks.LOGGER.info("Warning: Clientside chunk ticking took {} ms", System.currentTimeMillis() - i);
@@ -78,7 +78,7 @@ public class RenderCubeCache extends ChunkCache {
                     Map<BlockPos, TileEntity> teMap;
 
                     Cube cube = world.getCubeFromCubeCoords(currentCubeX, currentCubeY, currentCubeZ);
-                    ebs = cube.getStorage();
+                    ebs = cube.getReadOnlyStorage();
 
                     teMap = cube.getTileEntityMap();
 
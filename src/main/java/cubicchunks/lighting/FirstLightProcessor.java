@@ -29,6 +29,7 @@ import static cubicchunks.util.Coords.cubeToMaxBlock;
 import static cubicchunks.util.Coords.cubeToMinBlock;
 import static cubicchunks.util.Coords.getCubeCenter;
 
+import cubicchunks.util.CubePos;
 import cubicchunks.util.FastCubeBlockAccess;
 import cubicchunks.util.MathUtil;
 import cubicchunks.world.ICubeProvider;
@@ -37,6 +38,9 @@ import cubicchunks.world.ICubicWorldServer;
 import cubicchunks.world.IHeightMap;
 import cubicchunks.world.column.IColumn;
 import cubicchunks.world.cube.Cube;
+import cubicchunks.world.cube.UniformBlockStorage;
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenCustomHashMap;
 import it.unimi.dsi.fastutil.ints.IntHash;
@@ -45,11 +49,11 @@ import net.minecraft.util.EnumFacing;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.BlockPos.MutableBlockPos;
 import net.minecraft.world.EnumSkyBlock;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 import java.util.Objects;
 
 import javax.annotation.Nonnull;
@@ -66,7 +70,6 @@ import javax.annotation.ParametersAreNonnullByDefault;
  * <p>
  * THIS SHOULD ONLY EVER BE USED ONCE PER CUBE.
  */
-//TODO: make it also update blocklight
 @MethodsReturnNonnullByDefault
 @ParametersAreNonnullByDefault
 public class FirstLightProcessor {
@@ -79,6 +82,8 @@ public class FirstLightProcessor {
 
     private static final int UPDATE_RADIUS = LIGHT_UPDATE_RADIUS + CUBE_RADIUS + UPDATE_BUFFER_RADIUS;
 
+    private static final EnumFacing[] FACINGS = EnumFacing.values();
+
     private static final IntHash.Strategy CUBE_Y_HASH = new IntHash.Strategy() {
 
         @Override
@@ -124,10 +129,21 @@ public class FirstLightProcessor {
             return;
         }
 
+        Cube.OpacitySummary opacity = cube.getOpacitySummary();
+        if (opacity == Cube.OpacitySummary.ALL_OPAQUE) {
+            // light can't get into any block, and all of them are occluded
+            return;
+        }
+
         IHeightMap opacityIndex = cube.getColumn().getOpacityIndex();
 
         int cubeMinY = cubeToMinBlock(cube.getY());
 
+        if (opacity == Cube.OpacitySummary.ALL_TRANSPARENT && isAboveTopBlocks(opacityIndex, cubeMinY)) {
+            fillSkylight(cube);
+            return;
+        }
+
         BlockPos startPos = cube.getCoords().getMinBlockPos();
 
         for (int localX = 0; localX < Cube.SIZE; ++localX) {
@@ -144,16 +160,48 @@ public class FirstLightProcessor {
         }
     }
 
+    private static boolean isAboveTopBlocks(IHeightMap opacityIndex, int blockY) {
+        for (int localX = 0; localX < Cube.SIZE; ++localX) {
+            for (int localZ = 0; localZ < Cube.SIZE; ++localZ) {
+                if (opacityIndex.isOccluded(localX, blockY, localZ)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sets skylight of all blocks in the cube to 15, without going through each block.
+     */
+    private static void fillSkylight(Cube cube) {
+        ExtendedBlockStorage storage = cube.getStorage();
+        if (storage == null) {
+            // setting light creates the storage too
+            storage = new ExtendedBlockStorage(cubeToMinBlock(cube.getY()), true);
+            cube.setStorage(storage);
+        }
+        Arrays.fill(storage.getSkyLight().getData(), (byte) 0xFF);
+        cube.markDirty();
+    }
+
     /**
-     * Diffuses skylight in the given cube and all cubes affected by this update.
+     * Diffuses skylight in the given cube and all cubes affected by this update, then spreads block light from light
+     * sources in the cube.
      *
      * @param cube the cube whose skylight is to be initialized
      */
     public void diffuseSkylight(Cube cube) {
-        if (!cube.getCubicWorld().getProvider().hasSkyLight()) {
-            cube.setInitialLightingDone(true);
-            return;
+        Int2ObjectMap<FastCubeBlockAccess> blockAccessMap = new Int2ObjectOpenCustomHashMap<>(10, 0.75f, CUBE_Y_HASH);
+        if (cube.getCubicWorld().getProvider().hasSkyLight()) {
+            diffuseSkylight(cube, blockAccessMap);
         }
+        diffuseBlocklight(cube, blockAccessMap);
+        tracker.sendAll();
+        cube.setInitialLightingDone(true);
+    }
+
+    private void diffuseSkylight(Cube cube, Int2ObjectMap<FastCubeBlockAccess> blockAccessMap) {
         ICubicWorld world = cube.getCubicWorld();
 
         // Cache min/max Y, generating them may be expensive
@@ -185,14 +233,14 @@ public class FirstLightProcessor {
             }
         }
 
-        Int2ObjectMap<FastCubeBlockAccess> blockAccessMap = new Int2ObjectOpenCustomHashMap<>(10, 0.75f, CUBE_Y_HASH);
-
-        List<BlockPos> toUpdate = new ArrayList<>();
+        TIntList toUpdate = new TIntArrayList();
 
         IColumn IColumn = cube.getColumn();
         // Iterate over all affected cubes.
         Iterable<Cube> cubes = IColumn.getLoadedCubes(blockToCube(maxMaxHeight), blockToCube(minMinHeight));
         for (Cube otherCube : cubes) {
+            // no block in opaque cubes needs an update, but the cubes below them still have to be checked
+            boolean opaque = otherCube.getOpacitySummary() == Cube.OpacitySummary.ALL_OPAQUE;
             int minCubeBlockY = otherCube.getCoords().getMinBlockY();
             int maxCubeBlockY = otherCube.getCoords().getMaxBlockY();
             for (int blockX = minBlockX; blockX <= maxBlockX; blockX++) {
@@ -230,6 +278,10 @@ public class FirstLightProcessor {
                         continue;
                     }
 
+                    if (opaque) {
+                        continue;
+                    }
+
                     // Update the block column in this cube.
                     if (!diffuseSkylightInBlockColumn(otherCube, this.mutablePos, minBlockY, maxBlockY, blockAccessMap, toUpdate)) {
                         throw new IllegalStateException("Check light failed at " + this.mutablePos + "!");
@@ -237,13 +289,82 @@ public class FirstLightProcessor {
                 }
             }
             if (!toUpdate.isEmpty()) {
-                propagator.propagateLight(otherCube.getCoords().getCenterBlockPos(), toUpdate,
+                CubePos center = otherCube.getCoords();
+                propagator.propagateLight(center.getXCenter(), center.getYCenter(), center.getZCenter(), toUpdate,
                         blockAccessMap.get(otherCube.getY()), EnumSkyBlock.SKY, tracker::onUpdate);
                 toUpdate.clear();
             }
         }
-        tracker.sendAll();
-        cube.setInitialLightingDone(true);
+    }
+
+    /**
+     * Spreads block light from all light sources in the given cube, and from already lit neighbors into it, in one
+     * pass. Blocks placed by terrain generation don't go through world light checks, so this is where they get lit.
+     *
+     * @param cube the cube whose block light is to be initialized
+     * @param blockAccessMap block access objects already created for the sky light pass, by cube y
+     */
+    private void diffuseBlocklight(Cube cube, Int2ObjectMap<FastCubeBlockAccess> blockAccessMap) {
+        ExtendedBlockStorage storage = cube.getReadOnlyStorage();
+        // uniform cubes are opaque and don't emit light, nothing can change in them
+        if (storage instanceof UniformBlockStorage || !canUpdateCube(cube)) {
+            return;
+        }
+        FastCubeBlockAccess blockAccess = getBlockAccess(cube, blockAccessMap);
+        boolean mayHaveSources = storage != null && !storage.isEmpty();
+
+        TIntList toUpdate = new TIntArrayList();
+        MutableBlockPos pos = this.mutablePos;
+        CubePos cubePos = cube.getCoords();
+        BlockPos minPos = cubePos.getMinBlockPos();
+        for (int localX = 0; localX < Cube.SIZE; localX++) {
+            for (int localY = 0; localY < Cube.SIZE; localY++) {
+                for (int localZ = 0; localZ < Cube.SIZE; localZ++) {
+                    boolean onEdge = isOnEdge(localX) || isOnEdge(localY) || isOnEdge(localZ);
+                    if (!mayHaveSources && !onEdge) {
+                        continue;
+                    }
+                    pos.setPos(minPos.getX() + localX, minPos.getY() + localY, minPos.getZ() + localZ);
+                    if (mayHaveSources && blockAccess.getEmittedLight(pos, EnumSkyBlock.BLOCK) > blockAccess.getLightFor(EnumSkyBlock.BLOCK, pos)) {
+                        toUpdate.add(packRelativeToCenter(cubePos, pos.getX(), pos.getY(), pos.getZ()));
+                        continue;
+                    }
+                    // light coming in from neighbors. Set it here, LightPropagator only spreads light out of blocks
+                    // that emit more than they have, or that have more light than they emit.
+                    if (onEdge && blockAccess.getBlockLightOpacity(pos) < 15) {
+                        int fromNeighbors = blockAccess.getLightFromNeighbors(EnumSkyBlock.BLOCK, pos);
+                        if (fromNeighbors > blockAccess.getLightFor(EnumSkyBlock.BLOCK, pos)) {
+                            blockAccess.setLightFor(EnumSkyBlock.BLOCK, pos, fromNeighbors);
+                            toUpdate.add(packRelativeToCenter(cubePos, pos.getX(), pos.getY(), pos.getZ()));
+                        }
+                    }
+                }
+            }
+        }
+        if (!toUpdate.isEmpty()) {
+            ICubicWorld world = cube.getCubicWorld();
+            propagator.propagateLight(cubePos.getXCenter(), cubePos.getYCenter(), cubePos.getZCenter(), toUpdate,
+                    blockAccess, EnumSkyBlock.BLOCK, (x, y, z) -> world.notifyLightSet(new BlockPos(x, y, z)));
+        }
+    }
+
+    private static int packRelativeToCenter(CubePos cubePos, int blockX, int blockY, int blockZ) {
+        return LightPropagator.packCoords(
+                blockX - cubePos.getXCenter(), blockY - cubePos.getYCenter(), blockZ - cubePos.getZCenter());
+    }
+
+    private static boolean isOnEdge(int local) {
+        return local == 0 || local == Cube.SIZE - 1;
+    }
+
+    private FastCubeBlockAccess getBlockAccess(Cube cube, Int2ObjectMap<FastCubeBlockAccess> blockAccessMap) {
+        FastCubeBlockAccess blockAccess = blockAccessMap.get(cube.getY());
+        if (blockAccess == null) {
+            // this value will be reused later for LightPropagator, so use radius 2
+            blockAccess = new FastCubeBlockAccess(this.cache, cube, 2);
+            blockAccessMap.put(cube.getY(), blockAccess);
+        }
+        return blockAccess;
     }
 
     /**
@@ -258,24 +379,19 @@ public class FirstLightProcessor {
      * @return true if the update was successful, false otherwise
      */
     private boolean diffuseSkylightInBlockColumn(Cube cube, MutableBlockPos pos, int minBlockY, int maxBlockY,
-            Int2ObjectMap<FastCubeBlockAccess> blockAccessMap, List<BlockPos> posToUpdate) {
+            Int2ObjectMap<FastCubeBlockAccess> blockAccessMap, TIntList posToUpdate) {
         int cubeMinBlockY = cubeToMinBlock(cube.getY());
         int cubeMaxBlockY = cubeToMaxBlock(cube.getY());
 
         int maxBlockYInCube = Math.min(cubeMaxBlockY, maxBlockY);
         int minBlockYInCube = Math.max(cubeMinBlockY, minBlockY);
 
-        FastCubeBlockAccess blockAccess = blockAccessMap.get(cube.getY());
-        if (blockAccess == null) {
-            // this value will be reused later for LightPropagator, so use radius 2
-            blockAccess = new FastCubeBlockAccess(this.cache, cube, 2);
-            blockAccessMap.put(cube.getY(), blockAccess);
-        }
+        FastCubeBlockAccess blockAccess = getBlockAccess(cube, blockAccessMap);
 
         for (int blockY = maxBlockYInCube; blockY >= minBlockYInCube; --blockY) {
             pos.setY(blockY);
             if (needsSkylightUpdate(blockAccess, pos)) {
-                posToUpdate.add(pos.toImmutable());
+                posToUpdate.add(packRelativeToCenter(cube.getCoords(), pos.getX(), blockY, pos.getZ()));
             }
         }
 
@@ -303,7 +419,7 @@ public class FirstLightProcessor {
         // It first calculates the expected skylight value of this block and then it checks the neighbors' saved values,
         // if the saved value matches the expected value, it will be updated.
         int computedLight = access.computeLightValue(pos);
-        for (EnumFacing facing : EnumFacing.values()) {
+        for (EnumFacing facing : FACINGS) {
             pos.move(facing);
             int currentLight = access.getLightFor(EnumSkyBlock.SKY, pos);
             int currentOpacity = Math.max(1, access.getBlockLightOpacity(pos));
@@ -23,16 +23,17 @@
  */
 package cubicchunks.lighting;
 
+import static cubicchunks.util.Coords.blockToCube;
+
 import cubicchunks.network.PacketCubeSkyLightUpdates;
 import cubicchunks.server.CubeWatcher;
 import cubicchunks.server.PlayerCubeMap;
 import cubicchunks.util.AddressTools;
 import cubicchunks.util.CubePos;
+import cubicchunks.util.LongXYZMap;
 import cubicchunks.util.XYZAddressable;
-import cubicchunks.util.XYZMap;
 import gnu.trove.list.TShortList;
 import gnu.trove.list.array.TShortArrayList;
-import net.minecraft.util.math.BlockPos;
 
 /**
  * Tracks FirstLightProcessor lighting updates and sends them to client
@@ -40,24 +41,24 @@ import net.minecraft.util.math.BlockPos;
 class FirstLightUpdateTracker {
 
     private final PlayerCubeMap cubeMap;
-    private XYZMap<CubeUpdateList> cubes = new XYZMap<>(0.5f, 100);
+    private final LongXYZMap<CubeUpdateList> cubes = new LongXYZMap<>(0.5f, 128);
 
     FirstLightUpdateTracker(PlayerCubeMap cubeMap) {
         this.cubeMap = cubeMap;
     }
 
-    void onUpdate(BlockPos blockPos) {
-        CubeUpdateList list = cubes.get(blockPos.getX(), blockPos.getY(), blockPos.getZ());
+    void onUpdate(int blockX, int blockY, int blockZ) {
+        CubeUpdateList list = cubes.get(blockToCube(blockX), blockToCube(blockY), blockToCube(blockZ));
         if (list == null) {
-            list = new CubeUpdateList(CubePos.fromBlockCoords(blockPos));
+            list = new CubeUpdateList(CubePos.fromBlockCoords(blockX, blockY, blockZ));
             cubes.put(list);
         }
-        list.add(blockPos);
+        list.add(blockX, blockY, blockZ);
     }
 
     void sendAll() {
         cubes.forEach(CubeUpdateList::send);
-        cubes = new XYZMap<>(0.5f, 100);
+        cubes.clear();
     }
 
     private class CubeUpdateList implements XYZAddressable {
@@ -70,11 +71,11 @@ class FirstLightUpdateTracker {
             this.pos = pos;
         }
 
-        void add(BlockPos pos) {
+        void add(int blockX, int blockY, int blockZ) {
             if (updates.size() >= MAX_COUNT) {
                 return;
             }
-            updates.add(AddressTools.getLocalAddress(pos));
+            updates.add(AddressTools.getLocalAddress(blockX, blockY, blockZ));
         }
 
         void send() {
@@ -24,30 +24,55 @@
 package cubicchunks.lighting;
 
 import mcp.MethodsReturnNonnullByDefault;
-import net.minecraft.util.EnumFacing;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.EnumSkyBlock;
 
 import javax.annotation.ParametersAreNonnullByDefault;
 
+/**
+ * Block access used by {@link LightPropagator}.
+ * <p>
+ * Every method has a variant taking raw block coordinates. The default implementations of these create a {@link
+ * BlockPos} and call the other variant, implementations that care about allocations should override them and implement
+ * the {@link BlockPos} versions using them instead.
+ */
 @MethodsReturnNonnullByDefault
 @ParametersAreNonnullByDefault
 public interface ILightBlockAccess {
 
     int getBlockLightOpacity(BlockPos pos);
 
+    default int getBlockLightOpacity(int blockX, int blockY, int blockZ) {
+        return getBlockLightOpacity(new BlockPos(blockX, blockY, blockZ));
+    }
+
     int getLightFor(EnumSkyBlock lightType, BlockPos pos);
 
+    default int getLightFor(EnumSkyBlock lightType, int blockX, int blockY, int blockZ) {
+        return getLightFor(lightType, new BlockPos(blockX, blockY, blockZ));
+    }
+
     void setLightFor(EnumSkyBlock lightType, BlockPos pos, int val);
 
+    default void setLightFor(EnumSkyBlock lightType, int blockX, int blockY, int blockZ, int val) {
+        setLightFor(lightType, new BlockPos(blockX, blockY, blockZ), val);
+    }
+
     /**
      * Faster version of world.getRawLight that works for skylight
      */
     default int computeLightValue(BlockPos pos) {
-        if (canSeeSky(pos)) {
+        return computeLightValue(pos.getX(), pos.getY(), pos.getZ());
+    }
+
+    /**
+     * Faster version of world.getRawLight that works for skylight
+     */
+    default int computeLightValue(int blockX, int blockY, int blockZ) {
+        if (canSeeSky(blockX, blockY, blockZ)) {
             return 15;
         }
-        int lightSubtract = getBlockLightOpacity(pos);
+        int lightSubtract = getBlockLightOpacity(blockX, blockY, blockZ);
 
         if (lightSubtract < 1) {
             lightSubtract = 1;
@@ -56,39 +81,51 @@ public interface ILightBlockAccess {
         if (lightSubtract >= 15) {
             return 0;
         }
-        BlockPos.PooledMutableBlockPos currentPos = BlockPos.PooledMutableBlockPos.retain();
-        int maxValue = 0;
-        for (EnumFacing enumfacing : EnumFacing.values()) {
-            currentPos.setPos(pos).move(enumfacing);
-            int currentValue = this.getLightFor(EnumSkyBlock.SKY, currentPos) - lightSubtract;
-
-            if (currentValue > maxValue) {
-                maxValue = currentValue;
-            }
-
-            if (maxValue >= 14) {
-                return maxValue;
-            }
+        // same order as EnumFacing.values(), stop as soon as nothing brighter is possible
+        int maxValue = getLightFor(EnumSkyBlock.SKY, blockX, blockY - 1, blockZ) - lightSubtract;
+        if (maxValue < 14) {
+            maxValue = Math.max(maxValue, getLightFor(EnumSkyBlock.SKY, blockX, blockY + 1, blockZ) - lightSubtract);
         }
-
-        currentPos.release();
-        return maxValue;
+        if (maxValue < 14) {
+            maxValue = Math.max(maxValue, getLightFor(EnumSkyBlock.SKY, blockX, blockY, blockZ - 1) - lightSubtract);
+        }
+        if (maxValue < 14) {
+            maxValue = Math.max(maxValue, getLightFor(EnumSkyBlock.SKY, blockX, blockY, blockZ + 1) - lightSubtract);
+        }
+        if (maxValue < 14) {
+            maxValue = Math.max(maxValue, getLightFor(EnumSkyBlock.SKY, blockX - 1, blockY, blockZ) - lightSubtract);
+        }
+        if (maxValue < 14) {
+            maxValue = Math.max(maxValue, getLightFor(EnumSkyBlock.SKY, blockX + 1, blockY, blockZ) - lightSubtract);
+        }
+        return Math.max(0, maxValue);
     }
 
     boolean canSeeSky(BlockPos pos);
 
+    default boolean canSeeSky(int blockX, int blockY, int blockZ) {
+        return canSeeSky(new BlockPos(blockX, blockY, blockZ));
+    }
+
     int getEmittedLight(BlockPos pos, EnumSkyBlock type);
 
+    default int getEmittedLight(int blockX, int blockY, int blockZ, EnumSkyBlock type) {
+        return getEmittedLight(new BlockPos(blockX, blockY, blockZ), type);
+    }
+
     default int getLightFromNeighbors(EnumSkyBlock type, BlockPos pos) {
-        //TODO: use MutableBlockPos?
-        int max = 0;
-        for (EnumFacing direction : EnumFacing.values()) {
-            int light = getLightFor(type, pos.offset(direction));
-            if (light > max) {
-                max = light;
-            }
-        }
-        int decrease = Math.max(1, getBlockLightOpacity(pos));
+        return getLightFromNeighbors(type, pos.getX(), pos.getY(), pos.getZ());
+    }
+
+    default int getLightFromNeighbors(EnumSkyBlock type, int blockX, int blockY, int blockZ) {
+        int max = Math.max(
+                Math.max(getLightFor(type, blockX, blockY - 1, blockZ), getLightFor(type, blockX, blockY + 1, blockZ)),
+                Math.max(
+                        Math.max(getLightFor(type, blockX, blockY, blockZ - 1), getLightFor(type, blockX, blockY, blockZ + 1)),
+                        Math.max(getLightFor(type, blockX - 1, blockY, blockZ), getLightFor(type, blockX + 1, blockY, blockZ))
+                )
+        );
+        int decrease = Math.max(1, getBlockLightOpacity(blockX, blockY, blockZ));
         return Math.max(0, max - decrease);
     }
 }
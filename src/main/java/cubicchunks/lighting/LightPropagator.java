@@ -24,13 +24,17 @@
 package cubicchunks.lighting;
 
 import static cubicchunks.lighting.LightUpdateQueue.MAX_DISTANCE;
+import static cubicchunks.lighting.LightUpdateQueue.MAX_POS;
 import static cubicchunks.lighting.LightUpdateQueue.MIN_DISTANCE;
+import static cubicchunks.lighting.LightUpdateQueue.MIN_POS;
 import static net.minecraft.crash.CrashReportCategory.getCoordinateInfo;
 
+import cubicchunks.util.Bits;
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.crash.CrashReport;
 import net.minecraft.crash.CrashReportCategory;
-import net.minecraft.util.EnumFacing;
 import net.minecraft.util.ReportedException;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.EnumSkyBlock;
@@ -42,16 +46,93 @@ import javax.annotation.ParametersAreNonnullByDefault;
 
 /**
  * Handles propagating light changes from blocks.
+ * <p>
+ * The main entry point works only with primitive coordinates: positions to update are passed in as coordinates packed
+ * into ints relative to the center position (see {@link #packCoords(int, int, int)}), and all block access goes through
+ * the raw x/y/z methods of {@link ILightBlockAccess}, so no objects are created while light is spreading.
  */
 @MethodsReturnNonnullByDefault
 @ParametersAreNonnullByDefault
 public class LightPropagator {
 
+    private static final int PACKED_POS_BITS = 8;
+    private static final int PACKED_X_OFFSET = PACKED_POS_BITS * 0;
+    private static final int PACKED_Y_OFFSET = PACKED_POS_BITS * 1;
+    private static final int PACKED_Z_OFFSET = PACKED_POS_BITS * 2;
+
+    // neighbor offsets, in the same order as EnumFacing.values()
+    private static final int[] NEIGHBOR_X = {0, 0, 0, 0, -1, 1};
+    private static final int[] NEIGHBOR_Y = {-1, 1, 0, 0, 0, 0};
+    private static final int[] NEIGHBOR_Z = {0, 0, -1, 1, 0, 0};
+
     @Nonnull private LightUpdateQueue internalRelightQueue = new LightUpdateQueue();
 
+    /**
+     * Packs a position relative to the center position of a light update into an int, for {@link
+     * #propagateLight(int, int, int, TIntList, ILightBlockAccess, EnumSkyBlock, ILightSetCallback)}.
+     *
+     * @param relativeX x coordinate relative to the center position
+     * @param relativeY y coordinate relative to the center position
+     * @param relativeZ z coordinate relative to the center position
+     *
+     * @return the packed coordinates
+     *
+     * @throws IndexOutOfBoundsException if any coordinate is not between {@link LightUpdateQueue#MIN_POS} and {@link
+     * LightUpdateQueue#MAX_POS}
+     */
+    public static int packCoords(int relativeX, int relativeY, int relativeZ) {
+        if (relativeX < MIN_POS || relativeX > MAX_POS || relativeY < MIN_POS || relativeY > MAX_POS
+                || relativeZ < MIN_POS || relativeZ > MAX_POS) {
+            throw new IndexOutOfBoundsException("Relative position " + relativeX + ", " + relativeY + ", " + relativeZ
+                    + " out of range [" + MIN_POS + ", " + MAX_POS + "]");
+        }
+        return Bits.packSignedToInt(relativeX, PACKED_POS_BITS, PACKED_X_OFFSET)
+                | Bits.packSignedToInt(relativeY, PACKED_POS_BITS, PACKED_Y_OFFSET)
+                | Bits.packSignedToInt(relativeZ, PACKED_POS_BITS, PACKED_Z_OFFSET);
+    }
+
+    public static int unpackX(int packed) {
+        return Bits.unpackSigned(packed, PACKED_POS_BITS, PACKED_X_OFFSET);
+    }
+
+    public static int unpackY(int packed) {
+        return Bits.unpackSigned(packed, PACKED_POS_BITS, PACKED_Y_OFFSET);
+    }
+
+    public static int unpackZ(int packed) {
+        return Bits.unpackSigned(packed, PACKED_POS_BITS, PACKED_Z_OFFSET);
+    }
+
     /**
      * Updates light at all BlockPos in given iterable.
      * <p>
+     * This converts the positions and calls {@link #propagateLight(int, int, int, TIntList, ILightBlockAccess,
+     * EnumSkyBlock, ILightSetCallback)}, and creates a BlockPos for each light change.
+     *
+     * @param centerPos position relative to which calculations are done. usually average position.
+     * @param coords contains all coords that need updating
+     * @param blocks block access object. Must contain all blocks within radius of 17 blocks from all coords
+     * @param type light type to update
+     * @param setLightCallback this will be called for each position where light value is changed
+     */
+    public void propagateLight(BlockPos centerPos, Iterable<BlockPos> coords, ILightBlockAccess blocks, EnumSkyBlock type,
+            Consumer<BlockPos> setLightCallback) {
+        int centerX = centerPos.getX(), centerY = centerPos.getY(), centerZ = centerPos.getZ();
+        TIntList packedCoords = new TIntArrayList();
+        try {
+            for (BlockPos pos : coords) {
+                packedCoords.add(packCoords(pos.getX() - centerX, pos.getY() - centerY, pos.getZ() - centerZ));
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw makeReportedException(e, centerX, centerY, centerZ, packedCoords);
+        }
+        propagateLight(centerX, centerY, centerZ, packedCoords, blocks, type,
+                (x, y, z) -> setLightCallback.accept(new BlockPos(x, y, z)));
+    }
+
+    /**
+     * Updates light at all given positions.
+     * <p>
      * For each block in the volume, if light source is brighter than the light value there was before - it will spread
      * light. If the light source is less bright than the current light value - the method will redo light spreading for
      * these blocks.
@@ -59,41 +140,47 @@ public class LightPropagator {
      * If updating lighting starting at these positions would never end, the algorithm will stop after walking {@link
      * LightUpdateQueue#MAX_DISTANCE} blocks
      * <p>
-     * All coords to update must be between {@code centerPos.getX/Y/Z + }{@link LightUpdateQueue#MIN_POS} and {@code
-     * centerPos.getX/Y/Z + }{@link LightUpdateQueue#MAX_POS} of centerPos (inclusive) with {@code
-     * LightUpdateQueue#MAX_DISTANCE + 1} buffer radius.
+     * All coords to update must be between {@code centerX/Y/Z + }{@link LightUpdateQueue#MIN_POS} and {@code
+     * centerX/Y/Z + }{@link LightUpdateQueue#MAX_POS} (inclusive) with {@code LightUpdateQueue#MAX_DISTANCE + 1} buffer
+     * radius.
      * <p>
      * WARNING: You probably shouldn't use this method directly and use {@link LightingManager#relightMultiBlock(BlockPos,
      * BlockPos, EnumSkyBlock)} instead
      *
-     * @param centerPos position relative to which calculations are done. usually average position.
-     * @param coords contains all coords that need updating
+     * @param centerX x coordinate of the position relative to which calculations are done. usually average position.
+     * @param centerY y coordinate of the center position
+     * @param centerZ z coordinate of the center position
+     * @param coords all coords that need updating, packed relative to the center using {@link #packCoords(int, int,
+     * int)}
      * @param blocks block access object. Must contain all blocks within radius of 17 blocks from all coords
      * @param type light type to update
      * @param setLightCallback this will be called for each position where light value is changed
      */
-     public void propagateLight(BlockPos centerPos, Iterable<BlockPos> coords, ILightBlockAccess blocks, EnumSkyBlock type,
-            Consumer<BlockPos> setLightCallback) {
+    public void propagateLight(int centerX, int centerY, int centerZ, TIntList coords, ILightBlockAccess blocks,
+            EnumSkyBlock type, ILightSetCallback setLightCallback) {
 
-        internalRelightQueue.begin(centerPos);
+        internalRelightQueue.begin(centerX, centerY, centerZ);
         try {
+            int count = coords.size();
             // first add all decreased light values to the queue
-            coords.forEach(pos -> {
-                int emitted = blocks.getEmittedLight(pos, type);
-                if (blocks.getLightFor(type, pos) > emitted) {
+            for (int i = 0; i < count; i++) {
+                int packed = coords.get(i);
+                int x = centerX + unpackX(packed), y = centerY + unpackY(packed), z = centerZ + unpackZ(packed);
+                int emitted = blocks.getEmittedLight(x, y, z, type);
+                if (blocks.getLightFor(type, x, y, z) > emitted) {
                     //add the emitted value even if it's not used here - it will be used when relighting that area
-                    internalRelightQueue.put(pos, emitted, MAX_DISTANCE);
+                    internalRelightQueue.put(x, y, z, emitted, MAX_DISTANCE);
                 }
-            });
+            }
             // follow decreasing light values until it stops decreasing,
             // setting each encountered value to 0 for easy spreading
             while (internalRelightQueue.next()) {
-                BlockPos pos = internalRelightQueue.getPos();
+                int x = internalRelightQueue.getX(), y = internalRelightQueue.getY(), z = internalRelightQueue.getZ();
                 int distance = internalRelightQueue.getDistance();
 
-                int currentValue = blocks.getLightFor(type, pos);
+                int currentValue = blocks.getLightFor(type, x, y, z);
                 // note: min value is 0
-                int lightFromNeighbors = getExpectedLight(blocks, type, pos);
+                int lightFromNeighbors = getExpectedLight(blocks, type, x, y, z);
                 // if this is true, this blocks currently spreads light out, and has no light coming in from neighbors
                 // lightFromNeighbors == currentValue-1 means that some neighbor has the same light value, or that
                 // currentValue == 1 and all surrounding blocks have light 0
@@ -102,8 +189,8 @@ public class LightPropagator {
                 // this would mean that the current block is in the light area from other block, no need to update that
                 if (lightFromNeighbors <= currentValue - 1) {
                     // set it to 0 and add neighbors to the queue
-                    blocks.setLightFor(type, pos, 0);
-                    setLightCallback.accept(pos);
+                    blocks.setLightFor(type, x, y, z, 0);
+                    setLightCallback.onLightSet(x, y, z);
                     // if no distance left - stop spreading, so that it won't run into problems when updating too much
                     if (distance <= MIN_DISTANCE) {
                         continue;
@@ -111,10 +198,11 @@ public class LightPropagator {
                     // add all neighbors even those already checked - the check above will fail for them
                     // because currentValue-1 == -1 (already checked are set to 0)
                     // and min. possible lightFromNeighbors is 0
-                    for (EnumFacing direction : EnumFacing.values()) {
-                        BlockPos offset = pos.offset(direction);
+                    for (int i = 0; i < NEIGHBOR_X.length; i++) {
+                        int nextX = x + NEIGHBOR_X[i], nextY = y + NEIGHBOR_Y[i], nextZ = z + NEIGHBOR_Z[i];
                         //add the emitted value even if it's not used here - it will be used when relighting that area
-                        internalRelightQueue.put(offset, blocks.getEmittedLight(offset, type), distance - 1);
+                        internalRelightQueue.put(nextX, nextY, nextZ, blocks.getEmittedLight(nextX, nextY, nextZ, type),
+                                distance - 1);
                     }
                 }
             }
@@ -122,57 +210,75 @@ public class LightPropagator {
             internalRelightQueue.resetIndex();
 
             // then handle everything
-            coords.forEach(pos -> {
-                int emitted = blocks.getEmittedLight(pos, type);
+            for (int i = 0; i < count; i++) {
+                int packed = coords.get(i);
+                int x = centerX + unpackX(packed), y = centerY + unpackY(packed), z = centerZ + unpackZ(packed);
+                int emitted = blocks.getEmittedLight(x, y, z, type);
                 // blocks where light decreased are already added (previous run over the queue)
-                if (emitted > blocks.getLightFor(type, pos)) {
-                    internalRelightQueue.put(pos, emitted, MAX_DISTANCE);
+                if (emitted > blocks.getLightFor(type, x, y, z)) {
+                    internalRelightQueue.put(x, y, z, emitted, MAX_DISTANCE);
                     // do it here so that the loop below only needs to check if the light from this block can go into
                     // any neighbor. This simplifies logic for decreasing light value. Current code wouldn't work when
                     // decreasing sunlight below a block, because sunlight couldn't spread "into" any block made dark
                     // by light un-spreading code above
-                    blocks.setLightFor(type, pos, emitted);
-                    setLightCallback.accept(pos);
+                    blocks.setLightFor(type, x, y, z, emitted);
+                    setLightCallback.onLightSet(x, y, z);
                 }
-            });
+            }
             // spread out light values
             while (internalRelightQueue.next()) {
-                BlockPos pos = internalRelightQueue.getPos();
+                int x = internalRelightQueue.getX(), y = internalRelightQueue.getY(), z = internalRelightQueue.getZ();
                 int distance = internalRelightQueue.isBeforeReset() ? MAX_DISTANCE : internalRelightQueue.getDistance();
 
-                for (EnumFacing direction : EnumFacing.values()) {
-                    BlockPos nextPos = pos.offset(direction);
-                    int newLight = getExpectedLight(blocks, type, nextPos);
-                    if (newLight <= blocks.getLightFor(type, nextPos)) {
+                for (int i = 0; i < NEIGHBOR_X.length; i++) {
+                    int nextX = x + NEIGHBOR_X[i], nextY = y + NEIGHBOR_Y[i], nextZ = z + NEIGHBOR_Z[i];
+                    int newLight = getExpectedLight(blocks, type, nextX, nextY, nextZ);
+                    if (newLight <= blocks.getLightFor(type, nextX, nextY, nextZ)) {
                         // can't go further, the next block already has the same or higher light value
                         continue;
                     }
-                    blocks.setLightFor(type, nextPos, newLight);
-                    setLightCallback.accept(nextPos);
+                    blocks.setLightFor(type, nextX, nextY, nextZ, newLight);
+                    setLightCallback.onLightSet(nextX, nextY, nextZ);
 
                     // if no distance left - stop spreading, so that it won't run into problems when updating too much
                     if (distance - 1 <= MIN_DISTANCE) {
                         continue;
                     }
-                    internalRelightQueue.put(nextPos, newLight, distance - 1);
+                    internalRelightQueue.put(nextX, nextY, nextZ, newLight, distance - 1);
                 }
             }
         } catch (Throwable t) {
-            CrashReport report = CrashReport.makeCrashReport(t, "Updating skylight");
-            CrashReportCategory category = report.makeCategory("Skylight update");
-            category.addDetail("CenterLocation", () -> getCoordinateInfo(centerPos));
-            int i = 0;
-            for (BlockPos pos : coords) {
-                category.addDetail("UpdateLocation" + i, () -> getCoordinateInfo(pos));
-                i++;
-            }
-            throw new ReportedException(report);
+            throw makeReportedException(t, centerX, centerY, centerZ, coords);
         } finally {
             internalRelightQueue.end();
         }
     }
 
-    private int getExpectedLight(ILightBlockAccess blocks, EnumSkyBlock type, BlockPos pos) {
-        return Math.max(blocks.getEmittedLight(pos, type), blocks.getLightFromNeighbors(type, pos));
+    private static ReportedException makeReportedException(Throwable t, int centerX, int centerY, int centerZ,
+            TIntList coords) {
+        CrashReport report = CrashReport.makeCrashReport(t, "Updating skylight");
+        CrashReportCategory category = report.makeCategory("Skylight update");
+        BlockPos centerPos = new BlockPos(centerX, centerY, centerZ);
+        category.addDetail("CenterLocation", () -> getCoordinateInfo(centerPos));
+        for (int i = 0; i < coords.size(); i++) {
+            int packed = coords.get(i);
+            BlockPos pos = centerPos.add(unpackX(packed), unpackY(packed), unpackZ(packed));
+            category.addDetail("UpdateLocation" + i, () -> getCoordinateInfo(pos));
+        }
+        return new ReportedException(report);
+    }
+
+    private static int getExpectedLight(ILightBlockAccess blocks, EnumSkyBlock type, int blockX, int blockY, int blockZ) {
+        return Math.max(blocks.getEmittedLight(blockX, blockY, blockZ, type),
+                blocks.getLightFromNeighbors(type, blockX, blockY, blockZ));
+    }
+
+    /**
+     * Receives the positions {@link LightPropagator} changed the light value at.
+     */
+    @FunctionalInterface
+    public interface ILightSetCallback {
+
+        void onLightSet(int blockX, int blockY, int blockZ);
     }
 }
@@ -28,6 +28,7 @@ import static cubicchunks.util.Coords.cubeToMaxBlock;
 import static cubicchunks.util.Coords.cubeToMinBlock;
 import static cubicchunks.util.Coords.localToBlock;
 
+import cubicchunks.CubicChunks;
 import cubicchunks.util.Coords;
 import cubicchunks.util.CubePos;
 import cubicchunks.util.FastCubeBlockAccess;
@@ -36,6 +37,8 @@ import cubicchunks.world.column.IColumn;
 import cubicchunks.world.cube.BlankCube;
 import cubicchunks.world.cube.Cube;
 import gnu.trove.iterator.TIntIterator;
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.set.TIntSet;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.util.math.BlockPos;
@@ -43,7 +46,17 @@ import net.minecraft.util.math.MathHelper;
 import net.minecraft.world.EnumSkyBlock;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -55,12 +68,50 @@ import javax.annotation.ParametersAreNonnullByDefault;
 public class LightingManager {
 
     public static final int MAX_CLIENT_LIGHT_SCAN_DEPTH = 64;
+    /**
+     * Queued light updates are merged within aligned regions of 2^REGION_SIZE_BITS cubes on each axis. Bigger regions
+     * mean fewer passes, but also a bigger area that has to be loaded around them.
+     */
+    private static final int REGION_SIZE_BITS = 1;
+    private static final Comparator<CubeLightUpdateInfo> REGION_ORDER = Comparator
+            .<CubeLightUpdateInfo>comparingInt(info -> info.cube.getX() >> REGION_SIZE_BITS)
+            .thenComparingInt(info -> info.cube.getZ() >> REGION_SIZE_BITS)
+            .thenComparingInt(info -> info.cube.getY() >> REGION_SIZE_BITS);
+    // TODO: Figure out why it crashes with value 17
+    private static final int LOAD_RADIUS = 31;
+    // updates that couldn't be applied this many times in a row are done on the server thread
+    private static final int MAX_ASYNC_ATTEMPTS = 3;
+
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+    private static final ThreadLocal<LightPropagator> workerPropagator = ThreadLocal.withInitial(LightPropagator::new);
+
     @Nonnull private ICubicWorld world;
     @Nonnull private LightPropagator lightPropagator = new LightPropagator();
     @Nonnull private final List<IHeightChangeListener> heightUpdateListeners = new ArrayList<>();
+    // cubes with dirty block columns, processed together in processUpdates()
+    @Nonnull private final Set<CubeLightUpdateInfo> pendingUpdates = new LinkedHashSet<>();
+
+    // null when all light updates are done on the calling thread
+    @Nullable private final ThreadPoolExecutor workers;
+    @Nonnull private final Queue<LightJob> finishedJobs = new ConcurrentLinkedQueue<>();
 
     public LightingManager(ICubicWorld world) {
         this.world = world;
+        int threads = world.isRemote() ? 0 : CubicChunks.Config.IntOptions.LIGHTING_THREADS.getValue();
+        if (threads > 0) {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(),
+                    r -> {
+                        Thread thread = new Thread(r, "Cube Lighting Thread #" + threadCounter.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+            );
+            pool.allowCoreThreadTimeOut(true);
+            this.workers = pool;
+        } else {
+            this.workers = null;
+        }
     }
 
     /**
@@ -78,29 +129,19 @@ public class LightingManager {
         return new CubeLightUpdateInfo(cube);
     }
 
-    private void columnSkylightUpdate(UpdateType type, IColumn column, int localX, int minY, int maxY, int localZ) {
+    private void columnSkylightUpdate(IColumn column, int localX, int minY, int maxY, int localZ) {
         if (!world.getProvider().hasSkyLight()) {
             return;
         }
         int blockX = Coords.localToBlock(column.getX(), localX);
         int blockZ = Coords.localToBlock(column.getZ(), localZ);
 
-        if (type == UpdateType.IMMEDIATE) {
-            TIntSet toDiffuse = SkyLightUpdateCubeSelector.getCubesY(column, localX, localZ, minY, maxY);
-            TIntIterator it = toDiffuse.iterator();
-            while (it.hasNext()) {
-                int cubeY = it.next();
-                boolean success = updateDiffuseLight(column.getCube(cubeY), localX, localZ, minY, maxY);
-                if (!success) {
-                    markCubeBlockColumnForUpdate(column.getCube(cubeY), blockX, blockZ);
-                }
-            }
-        } else {
-            assert type == UpdateType.QUEUED;
-            TIntSet toDiffuse = SkyLightUpdateCubeSelector.getCubesY(column, localX, localZ, minY, maxY);
-            TIntIterator it = toDiffuse.iterator();
-            while (it.hasNext()) {
-                int cubeY = it.next();
+        TIntSet toDiffuse = SkyLightUpdateCubeSelector.getCubesY(column, localX, localZ, minY, maxY);
+        TIntIterator it = toDiffuse.iterator();
+        while (it.hasNext()) {
+            int cubeY = it.next();
+            boolean success = updateDiffuseLight(column.getCube(cubeY), localX, localZ, minY, maxY);
+            if (!success) {
                 markCubeBlockColumnForUpdate(column.getCube(cubeY), blockX, blockZ);
             }
         }
@@ -124,14 +165,167 @@ public class LightingManager {
     }
 
     public void doOnBlockSetLightUpdates(IColumn column, int localX, int oldHeight, int changeY, int localZ) {
-        this.columnSkylightUpdate(UpdateType.IMMEDIATE, column, localX, Math.min(oldHeight, changeY), Math.max(oldHeight, changeY), localZ);
+        // a single block change is relit right away, so that light read after setBlockState is already correct.
+        // Only the columns that can't be relit yet are queued
+        this.columnSkylightUpdate(column, localX, Math.min(oldHeight, changeY), Math.max(oldHeight, changeY), localZ);
     }
 
     //TODO: make it private
     public void markCubeBlockColumnForUpdate(Cube cube, int blockX, int blockZ) {
-        CubeLightUpdateInfo data = cube.getCubeLightUpdateInfo();
+        CubeLightUpdateInfo data = cube.getOrCreateCubeLightUpdateInfo();
         if (data != null) {
             data.markBlockColumnForUpdate(Coords.blockToLocal(blockX), Coords.blockToLocal(blockZ));
+            if (!data.queued && data.cube != null) {
+                data.queued = true;
+                pendingUpdates.add(data);
+            }
+        }
+    }
+
+    /**
+     * Forgets about queued light updates of a cube that is being unloaded.
+     *
+     * @param cube the unloaded cube
+     */
+    public void onCubeUnload(Cube cube) {
+        CubeLightUpdateInfo data = cube.getCubeLightUpdateInfo();
+        if (data != null && data.queued) {
+            data.queued = false;
+            pendingUpdates.remove(data);
+        }
+    }
+
+    /**
+     * Runs all light updates queued since the last call. Dirty block columns of cubes in the same {@link
+     * #REGION_SIZE_BITS aligned region} are relit together in one pass with one block access, instead of one pass per
+     * block column. Updates that can't be done yet because some cubes around them aren't loaded stay queued.
+     * <p>
+     * With lighting threads, regions are captured in a {@link SkyLightSnapshot} and relit on a worker thread instead.
+     * Finished results are applied by the next call, and redone if the blocks they changed were modified meanwhile.
+     */
+    public void processUpdates() {
+        applyFinishedJobs();
+        if (pendingUpdates.isEmpty()) {
+            return;
+        }
+        List<CubeLightUpdateInfo> updates = new ArrayList<>(pendingUpdates);
+        updates.sort(REGION_ORDER);
+
+        int start = 0;
+        while (start < updates.size()) {
+            int end = start + 1;
+            while (end < updates.size() && REGION_ORDER.compare(updates.get(start), updates.get(end)) == 0) {
+                end++;
+            }
+            List<CubeLightUpdateInfo> region = updates.subList(start, end);
+            if (isInProgress(region)) {
+                // wait for the result, relighting from the same light values again wouldn't apply anyway
+            } else if (region.size() == 1 || !relightRegion(region)) {
+                // some cube around the region isn't loaded, the cubes may still be updatable one by one
+                for (CubeLightUpdateInfo info : region) {
+                    relightRegion(Collections.singletonList(info));
+                }
+            }
+            start = end;
+        }
+    }
+
+    private static boolean isInProgress(List<CubeLightUpdateInfo> region) {
+        for (CubeLightUpdateInfo info : region) {
+            if (info.inProgress) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean relightRegion(List<CubeLightUpdateInfo> region) {
+        int minCubeX = Integer.MAX_VALUE, minCubeY = Integer.MAX_VALUE, minCubeZ = Integer.MAX_VALUE;
+        int maxCubeX = Integer.MIN_VALUE, maxCubeY = Integer.MIN_VALUE, maxCubeZ = Integer.MIN_VALUE;
+        boolean async = workers != null;
+        for (CubeLightUpdateInfo info : region) {
+            Cube cube = info.cube;
+            assert cube != null;
+            minCubeX = Math.min(minCubeX, cube.getX());
+            minCubeY = Math.min(minCubeY, cube.getY());
+            minCubeZ = Math.min(minCubeZ, cube.getZ());
+            maxCubeX = Math.max(maxCubeX, cube.getX());
+            maxCubeY = Math.max(maxCubeY, cube.getY());
+            maxCubeZ = Math.max(maxCubeZ, cube.getZ());
+            async &= info.failedAttempts < MAX_ASYNC_ATTEMPTS;
+        }
+        BlockPos startPos = new BlockPos(cubeToMinBlock(minCubeX), cubeToMinBlock(minCubeY), cubeToMinBlock(minCubeZ));
+        BlockPos endPos = new BlockPos(cubeToMaxBlock(maxCubeX), cubeToMaxBlock(maxCubeY), cubeToMaxBlock(maxCubeZ));
+        BlockPos midPos = Coords.midPos(startPos, endPos);
+        TIntList coords = new TIntArrayList();
+        for (CubeLightUpdateInfo info : region) {
+            info.collectUpdatePositions(coords, midPos);
+        }
+        if (!coords.isEmpty()) {
+            if (async) {
+                return submitRelight(region, startPos, endPos, coords);
+            }
+            if (!relightMultiBlock(startPos, endPos, coords, EnumSkyBlock.SKY)) {
+                return false;
+            }
+        }
+        for (CubeLightUpdateInfo info : region) {
+            info.clear();
+            info.failedAttempts = 0;
+            info.queued = false;
+            pendingUpdates.remove(info);
+        }
+        return true;
+    }
+
+    private boolean submitRelight(List<CubeLightUpdateInfo> region, BlockPos startPos, BlockPos endPos, TIntList coords) {
+        assert workers != null;
+        BlockPos minLoad = startPos.add(-LOAD_RADIUS, -LOAD_RADIUS, -LOAD_RADIUS);
+        BlockPos maxLoad = endPos.add(LOAD_RADIUS, LOAD_RADIUS, LOAD_RADIUS);
+        if (!world.testForCubes(CubePos.fromBlockCoords(minLoad), CubePos.fromBlockCoords(maxLoad),
+                c -> c != null && !(c instanceof BlankCube))) {
+            return false;
+        }
+        LightJob job = new LightJob(new ArrayList<>(region), Coords.midPos(startPos, endPos), coords,
+                SkyLightSnapshot.capture(world, world.getCubeCache(), minLoad, maxLoad));
+        for (int i = 0; i < job.infos.size(); i++) {
+            CubeLightUpdateInfo info = job.infos.get(i);
+            job.updateCounts[i] = info.updateCount;
+            info.inProgress = true;
+            info.queued = false;
+            pendingUpdates.remove(info);
+        }
+        workers.execute(job);
+        return true;
+    }
+
+    private void applyFinishedJobs() {
+        LightJob job;
+        while ((job = finishedJobs.poll()) != null) {
+            boolean applied = false;
+            if (job.error != null) {
+                CubicChunks.LOGGER.error("Error updating light at {}, it will be updated on the server thread", job.center, job.error);
+            } else {
+                applied = job.snapshot.apply(world);
+            }
+            for (int i = 0; i < job.infos.size(); i++) {
+                CubeLightUpdateInfo info = job.infos.get(i);
+                info.inProgress = false;
+                if (applied) {
+                    info.failedAttempts = 0;
+                    if (info.updateCount == job.updateCounts[i]) {
+                        info.clear();
+                    }
+                    // otherwise it was marked again in the meantime, and is already queued
+                } else {
+                    info.failedAttempts = job.error != null ? MAX_ASYNC_ATTEMPTS : info.failedAttempts + 1;
+                    assert info.cube != null;
+                    if (!info.queued && info.cube.isCubeLoaded()) {
+                        info.queued = true;
+                        pendingUpdates.add(info);
+                    }
+                }
+            }
         }
     }
 
@@ -155,10 +349,32 @@ public class LightingManager {
      * changed.
      */
     boolean relightMultiBlock(BlockPos startPos, BlockPos endPos, EnumSkyBlock type) {
-        // TODO: optimize if needed
+        BlockPos midPos = Coords.midPos(startPos, endPos);
+        TIntList coords = new TIntArrayList();
+        for (int blockX = startPos.getX(); blockX <= endPos.getX(); blockX++) {
+            for (int blockY = startPos.getY(); blockY <= endPos.getY(); blockY++) {
+                for (int blockZ = startPos.getZ(); blockZ <= endPos.getZ(); blockZ++) {
+                    coords.add(LightPropagator.packCoords(
+                            blockX - midPos.getX(), blockY - midPos.getY(), blockZ - midPos.getZ()));
+                }
+            }
+        }
+        return relightMultiBlock(startPos, endPos, coords, type);
+    }
 
-        // TODO: Figure out why it crashes with value 17
-        final int LOAD_RADIUS = 31;
+    /**
+     * Updates light for given blocks.
+     *
+     * @param startPos the minimum block coordinates of the blocks to update (inclusive)
+     * @param endPos the maximum block coordinates of the blocks to update (inclusive)
+     * @param coords the blocks to update packed relative to the middle of startPos and endPos using {@link
+     * LightPropagator#packCoords(int, int, int)}, all of them must be between startPos and endPos
+     * @param type the light type to update
+     *
+     * @return true if update was successful, false if it failed. If the method returns false, no light values are
+     * changed.
+     */
+    private boolean relightMultiBlock(BlockPos startPos, BlockPos endPos, TIntList coords, EnumSkyBlock type) {
         BlockPos midPos = Coords.midPos(startPos, endPos);
         BlockPos minLoad = startPos.add(-LOAD_RADIUS, -LOAD_RADIUS, -LOAD_RADIUS);
         BlockPos maxLoad = endPos.add(LOAD_RADIUS, LOAD_RADIUS, LOAD_RADIUS);
@@ -168,7 +384,8 @@ public class LightingManager {
             return false;
         }
         ILightBlockAccess blocks = FastCubeBlockAccess.forBlockRegion(world.getCubeCache(), minLoad, maxLoad);
-        this.lightPropagator.propagateLight(midPos, BlockPos.getAllInBox(startPos, endPos), blocks, type, world::notifyLightSet);
+        this.lightPropagator.propagateLight(midPos.getX(), midPos.getY(), midPos.getZ(), coords, blocks, type,
+                (x, y, z) -> world.notifyLightSet(new BlockPos(x, y, z)));
         return true;
     }
 
@@ -179,47 +396,49 @@ public class LightingManager {
         }
     }
 
-    private enum UpdateType {
-        IMMEDIATE, QUEUED
-    }
-
     //this will be interface
     public static class CubeLightUpdateInfo {
 
-        private final Cube cube;
+        @Nullable private final Cube cube;
         private final boolean[] toUpdateColumns = new boolean[Cube.SIZE * Cube.SIZE];
         private boolean hasUpdates;
-
-        public CubeLightUpdateInfo(Cube cube) {
+        // incremented whenever a block column is marked, to tell whether it happened while a relight was in progress
+        private int updateCount;
+        // in LightingManager.pendingUpdates
+        private boolean queued;
+        // being relit on a worker thread
+        private boolean inProgress;
+        private int failedAttempts;
+
+        public CubeLightUpdateInfo(@Nullable Cube cube) {
             this.cube = cube;
         }
 
         void markBlockColumnForUpdate(int localX, int localZ) {
             toUpdateColumns[index(localX, localZ)] = true;
             hasUpdates = true;
+            updateCount++;
         }
 
-        public void tick() {
+        private void collectUpdatePositions(TIntList coords, BlockPos center) {
             if (!this.hasUpdates) {
                 return;
             }
+            assert cube != null;
+            int minBlockY = cubeToMinBlock(cube.getY());
+            int maxBlockY = cubeToMaxBlock(cube.getY());
             for (int localX = 0; localX < Cube.SIZE; localX++) {
                 for (int localZ = 0; localZ < Cube.SIZE; localZ++) {
                     if (!toUpdateColumns[index(localX, localZ)]) {
                         continue;
                     }
-                    boolean success = cube.getCubicWorld().getLightingManager().relightMultiBlock(
-                            new BlockPos(localToBlock(cube.getX(), localX), cubeToMinBlock(cube.getY()), localToBlock(cube.getZ(), localZ)),
-                            new BlockPos(localToBlock(cube.getX(), localX), cubeToMaxBlock(cube.getY()), localToBlock(cube.getZ(), localZ)),
-                            EnumSkyBlock.SKY
-                    );
-                    if (!success) {
-                        return;
+                    int relativeX = localToBlock(cube.getX(), localX) - center.getX();
+                    int relativeZ = localToBlock(cube.getZ(), localZ) - center.getZ();
+                    for (int blockY = minBlockY; blockY <= maxBlockY; blockY++) {
+                        coords.add(LightPropagator.packCoords(relativeX, blockY - center.getY(), relativeZ));
                     }
-                    toUpdateColumns[index(localX, localZ)] = false;
                 }
             }
-            this.hasUpdates = false;
         }
 
         private int index(int x, int z) {
@@ -240,6 +459,34 @@ public class LightingManager {
         }
     }
 
+    private class LightJob implements Runnable {
+
+        final List<CubeLightUpdateInfo> infos;
+        final int[] updateCounts;
+        final BlockPos center;
+        final TIntList coords;
+        final SkyLightSnapshot snapshot;
+        @Nullable Throwable error;
+
+        LightJob(List<CubeLightUpdateInfo> infos, BlockPos center, TIntList coords, SkyLightSnapshot snapshot) {
+            this.infos = infos;
+            this.updateCounts = new int[infos.size()];
+            this.center = center;
+            this.coords = coords;
+            this.snapshot = snapshot;
+        }
+
+        @Override public void run() {
+            try {
+                workerPropagator.get().propagateLight(center.getX(), center.getY(), center.getZ(), coords, snapshot,
+                        EnumSkyBlock.SKY, (x, y, z) -> {});
+            } catch (Throwable t) {
+                error = t;
+            }
+            finishedJobs.add(this);
+        }
+    }
+
     public interface IHeightChangeListener {
 
         void heightUpdated(int blockX, int blockZ);
@@ -0,0 +1,355 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.lighting;
+
+import static cubicchunks.util.Coords.blockToCube;
+import static cubicchunks.util.Coords.blockToLocal;
+import static cubicchunks.util.Coords.localToBlock;
+
+import cubicchunks.util.BlockStateContainerCopy;
+import cubicchunks.world.ICubeProvider;
+import cubicchunks.world.ICubicWorld;
+import cubicchunks.world.cube.Cube;
+import cubicchunks.world.cube.UniformBlockStorage;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.EnumSkyBlock;
+import net.minecraft.world.IBlockAccess;
+import net.minecraft.world.chunk.NibbleArray;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+import java.util.Arrays;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * A copy of block opacity, sky light and height map data of a box of cubes, that {@link LightPropagator} can update sky
+ * light in off the server thread.
+ * <p>
+ * Capturing and applying has to be done on the server thread, everything in between only touches the snapshot.
+ * Capturing copies the block container of each cube with {@link BlockStateContainerCopy} and clones its sky light,
+ * block opacity is decoded from the copy on the worker thread when a cube is first read. Light values are copied on
+ * write, so the snapshot knows which values it changed and what they were when it was captured.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+class SkyLightSnapshot implements ILightBlockAccess {
+
+    private final int originX, originY, originZ;
+    private final int sizeX, sizeY, sizeZ;
+    @Nonnull private final CubeData[] cubes;
+    // indexed by cube x/z, then by local x/z
+    @Nonnull private final int[][] heights;
+
+    private SkyLightSnapshot(int originX, int originY, int originZ, int sizeX, int sizeY, int sizeZ) {
+        this.originX = originX;
+        this.originY = originY;
+        this.originZ = originZ;
+        this.sizeX = sizeX;
+        this.sizeY = sizeY;
+        this.sizeZ = sizeZ;
+        this.cubes = new CubeData[sizeX * sizeY * sizeZ];
+        this.heights = new int[sizeX * sizeZ][];
+    }
+
+    /**
+     * Captures the cubes between minPos and maxPos. All of them must be loaded.
+     *
+     * @param world the world the cubes are in
+     * @param provider the cube provider to get the cubes from
+     * @param minPos minimum block position of the box (inclusive)
+     * @param maxPos maximum block position of the box (inclusive)
+     *
+     * @return the snapshot
+     */
+    static SkyLightSnapshot capture(ICubicWorld world, ICubeProvider provider, BlockPos minPos, BlockPos maxPos) {
+        int minCubeX = blockToCube(minPos.getX()), minCubeY = blockToCube(minPos.getY()), minCubeZ = blockToCube(minPos.getZ());
+        int maxCubeX = blockToCube(maxPos.getX()), maxCubeY = blockToCube(maxPos.getY()), maxCubeZ = blockToCube(maxPos.getZ());
+        SkyLightSnapshot snapshot = new SkyLightSnapshot(minCubeX, minCubeY, minCubeZ,
+                maxCubeX - minCubeX + 1, maxCubeY - minCubeY + 1, maxCubeZ - minCubeZ + 1);
+
+        for (int cubeX = minCubeX; cubeX <= maxCubeX; cubeX++) {
+            for (int cubeZ = minCubeZ; cubeZ <= maxCubeZ; cubeZ++) {
+                for (int cubeY = minCubeY; cubeY <= maxCubeY; cubeY++) {
+                    Cube cube = provider.getLoadedCube(cubeX, cubeY, cubeZ);
+                    if (cube == null) {
+                        throw new IllegalStateException("Cube at " + cubeX + ", " + cubeY + ", " + cubeZ + " isn't loaded");
+                    }
+                    snapshot.cubes[snapshot.cubeIndex(cubeX, cubeY, cubeZ)] = new CubeData(world, cube);
+                    if (cubeY == minCubeY) {
+                        int[] columnHeights = new int[Cube.SIZE * Cube.SIZE];
+                        for (int localX = 0; localX < Cube.SIZE; localX++) {
+                            for (int localZ = 0; localZ < Cube.SIZE; localZ++) {
+                                columnHeights[localX << 4 | localZ] = cube.getColumn().getHeightValue(localX, localZ);
+                            }
+                        }
+                        snapshot.heights[(cubeX - minCubeX) * snapshot.sizeZ + cubeZ - minCubeZ] = columnHeights;
+                    }
+                }
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Checks that light and opacity of all blocks this snapshot changed the light of are still the same in the world as
+     * when the snapshot was captured, and if so copies the changed light values into the world.
+     *
+     * @param world the world to apply the changes to
+     *
+     * @return true if the changes were applied, false if nothing was changed because the world changed in the meantime
+     */
+    boolean apply(ICubicWorld world) {
+        BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+        for (CubeData data : cubes) {
+            if (data.light != null && !data.isUnchangedInWorld(world, pos)) {
+                return false;
+            }
+        }
+        for (CubeData data : cubes) {
+            if (data.light != null) {
+                data.applyToWorld(world);
+            }
+        }
+        return true;
+    }
+
+    private int cubeIndex(int cubeX, int cubeY, int cubeZ) {
+        return ((cubeX - originX) * sizeZ + cubeZ - originZ) * sizeY + cubeY - originY;
+    }
+
+    private CubeData getCubeData(int blockX, int blockY, int blockZ) {
+        int cubeX = blockToCube(blockX) - originX;
+        int cubeY = blockToCube(blockY) - originY;
+        int cubeZ = blockToCube(blockZ) - originZ;
+        if (cubeX < 0 || cubeX >= sizeX || cubeY < 0 || cubeY >= sizeY || cubeZ < 0 || cubeZ >= sizeZ) {
+            throw new IndexOutOfBoundsException("Position " + blockX + ", " + blockY + ", " + blockZ + " is outside of the snapshot");
+        }
+        return cubes[(cubeX * sizeZ + cubeZ) * sizeY + cubeY];
+    }
+
+    @Override public int getBlockLightOpacity(BlockPos pos) {
+        return getBlockLightOpacity(pos.getX(), pos.getY(), pos.getZ());
+    }
+
+    @Override public int getBlockLightOpacity(int blockX, int blockY, int blockZ) {
+        return getCubeData(blockX, blockY, blockZ).getOpacity(blockToLocal(blockX), blockToLocal(blockY), blockToLocal(blockZ));
+    }
+
+    @Override public int getLightFor(EnumSkyBlock lightType, BlockPos pos) {
+        return getLightFor(lightType, pos.getX(), pos.getY(), pos.getZ());
+    }
+
+    @Override public int getLightFor(EnumSkyBlock lightType, int blockX, int blockY, int blockZ) {
+        checkSkyLight(lightType);
+        return getCubeData(blockX, blockY, blockZ).getLight(blockToLocal(blockX), blockToLocal(blockY), blockToLocal(blockZ));
+    }
+
+    @Override public void setLightFor(EnumSkyBlock lightType, BlockPos pos, int val) {
+        setLightFor(lightType, pos.getX(), pos.getY(), pos.getZ(), val);
+    }
+
+    @Override public void setLightFor(EnumSkyBlock lightType, int blockX, int blockY, int blockZ, int val) {
+        checkSkyLight(lightType);
+        getCubeData(blockX, blockY, blockZ).setLight(blockToLocal(blockX), blockToLocal(blockY), blockToLocal(blockZ), val);
+    }
+
+    @Override public boolean canSeeSky(BlockPos pos) {
+        return canSeeSky(pos.getX(), pos.getY(), pos.getZ());
+    }
+
+    @Override public boolean canSeeSky(int blockX, int blockY, int blockZ) {
+        int cubeX = blockToCube(blockX) - originX;
+        int cubeZ = blockToCube(blockZ) - originZ;
+        return heights[cubeX * sizeZ + cubeZ][blockToLocal(blockX) << 4 | blockToLocal(blockZ)] <= blockY;
+    }
+
+    @Override public int getEmittedLight(BlockPos pos, EnumSkyBlock type) {
+        return getEmittedLight(pos.getX(), pos.getY(), pos.getZ(), type);
+    }
+
+    @Override public int getEmittedLight(int blockX, int blockY, int blockZ, EnumSkyBlock type) {
+        checkSkyLight(type);
+        return canSeeSky(blockX, blockY, blockZ) ? 15 : 0;
+    }
+
+    private static void checkSkyLight(EnumSkyBlock type) {
+        if (type != EnumSkyBlock.SKY) {
+            throw new UnsupportedOperationException("Only sky light is captured in light snapshots");
+        }
+    }
+
+    private static int index(int localX, int localY, int localZ) {
+        return localY << 8 | localZ << 4 | localX;
+    }
+
+    private static class CubeData {
+
+        @Nonnull private final Cube cube;
+
+        // copy of the block container, null if all blocks have the same opacity
+        @Nullable private final byte[] blocks;
+        private final int constantOpacity;
+        // decoded from blocks when the first block is read
+        @Nullable private byte[] opacity;
+
+        // null if all blocks have the same light
+        @Nullable private final NibbleArray originalLight;
+        private final int constantLight;
+        // copy made on first write
+        @Nullable private NibbleArray light;
+
+        CubeData(ICubicWorld world, Cube cube) {
+            this.cube = cube;
+            ExtendedBlockStorage ebs = cube.getReadOnlyStorage();
+            if (ebs == null) {
+                // same as FastCubeBlockAccess, missing storage is air with full sky light
+                this.blocks = null;
+                this.constantOpacity = 0;
+                this.originalLight = null;
+                this.constantLight = EnumSkyBlock.SKY.defaultLightValue;
+            } else if (ebs instanceof UniformBlockStorage) {
+                BlockPos pos = new BlockPos(cube.getCoords().getMinBlockX(), cube.getCoords().getMinBlockY(),
+                        cube.getCoords().getMinBlockZ());
+                this.blocks = null;
+                this.constantOpacity = ((UniformBlockStorage) ebs).getState().getLightOpacity((IBlockAccess) world, pos);
+                this.originalLight = null;
+                this.constantLight = 0;
+            } else {
+                if (ebs.isEmpty() || cube.getOpacitySummary() == Cube.OpacitySummary.ALL_TRANSPARENT) {
+                    this.blocks = null;
+                } else {
+                    this.blocks = BlockStateContainerCopy.copy(ebs.getData());
+                }
+                this.constantOpacity = 0;
+                this.originalLight = new NibbleArray(ebs.getSkyLight().getData().clone());
+                this.constantLight = 0;
+            }
+        }
+
+        int getOpacity(int localX, int localY, int localZ) {
+            if (blocks == null) {
+                return constantOpacity;
+            }
+            byte[] opacity = this.opacity;
+            if (opacity == null) {
+                opacity = this.opacity = decodeOpacity(blocks);
+            }
+            return opacity[index(localX, localY, localZ)] & 0xFF;
+        }
+
+        // the world can't be accessed from the worker thread, blocks whose opacity depends on their position make
+        // apply() fail and are relit on the server thread
+        @SuppressWarnings("deprecation")
+        private static byte[] decodeOpacity(byte[] blocks) {
+            int[] ids = new int[BlockStateContainerCopy.BLOCKS];
+            BlockStateContainerCopy.getStateIds(blocks, ids);
+            byte[] opacity = new byte[BlockStateContainerCopy.BLOCKS];
+            for (int i = 0; i < ids.length; i++) {
+                IBlockState state = Block.BLOCK_STATE_IDS.getByValue(ids[i]);
+                opacity[i] = state == null ? 0 : (byte) Math.min(255, state.getLightOpacity());
+            }
+            return opacity;
+        }
+
+        int getLight(int localX, int localY, int localZ) {
+            if (light != null) {
+                return light.get(localX, localY, localZ);
+            }
+            return getOriginalLight(localX, localY, localZ);
+        }
+
+        private int getOriginalLight(int localX, int localY, int localZ) {
+            return originalLight == null ? constantLight : originalLight.get(localX, localY, localZ);
+        }
+
+        void setLight(int localX, int localY, int localZ, int value) {
+            if (light == null) {
+                if (getOriginalLight(localX, localY, localZ) == value) {
+                    return;
+                }
+                if (originalLight != null) {
+                    light = new NibbleArray(originalLight.getData().clone());
+                } else {
+                    light = new NibbleArray();
+                    if (constantLight != 0) {
+                        Arrays.fill(light.getData(), (byte) (constantLight << 4 | constantLight));
+                    }
+                }
+            }
+            light.set(localX, localY, localZ, value);
+        }
+
+        boolean isUnchangedInWorld(ICubicWorld world, BlockPos.MutableBlockPos pos) {
+            assert light != null;
+            if (!cube.isCubeLoaded()) {
+                return false;
+            }
+            ExtendedBlockStorage ebs = cube.getReadOnlyStorage();
+            for (int localY = 0; localY < Cube.SIZE; localY++) {
+                for (int localZ = 0; localZ < Cube.SIZE; localZ++) {
+                    for (int localX = 0; localX < Cube.SIZE; localX++) {
+                        int original = getOriginalLight(localX, localY, localZ);
+                        if (light.get(localX, localY, localZ) == original) {
+                            continue;
+                        }
+                        int current = ebs == null ? EnumSkyBlock.SKY.defaultLightValue : ebs.getSkyLight(localX, localY, localZ);
+                        if (current != original) {
+                            return false;
+                        }
+                        pos.setPos(localToBlock(cube.getX(), localX), localToBlock(cube.getY(), localY),
+                                localToBlock(cube.getZ(), localZ));
+                        int opacity = Math.min(255, cube.getBlockState(pos).getLightOpacity((IBlockAccess) world, pos));
+                        if (opacity != getOpacity(localX, localY, localZ)) {
+                            return false;
+                        }
+                    }
+                }
+            }
+            return true;
+        }
+
+        void applyToWorld(ICubicWorld world) {
+            assert light != null;
+            for (int localY = 0; localY < Cube.SIZE; localY++) {
+                for (int localZ = 0; localZ < Cube.SIZE; localZ++) {
+                    for (int localX = 0; localX < Cube.SIZE; localX++) {
+                        int value = light.get(localX, localY, localZ);
+                        if (value == getOriginalLight(localX, localY, localZ)) {
+                            continue;
+                        }
+                        BlockPos pos = new BlockPos(localToBlock(cube.getX(), localX), localToBlock(cube.getY(), localY),
+                                localToBlock(cube.getZ(), localZ));
+                        cube.setLightFor(EnumSkyBlock.SKY, pos, value);
+                        world.notifyLightSet(pos);
+                    }
+                }
+            }
+        }
+    }
+}
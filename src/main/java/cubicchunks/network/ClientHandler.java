@@ -199,7 +199,7 @@ public class ClientHandler implements INetHandler {
             return;
         }
         ExtendedBlockStorage storage = cube.getStorage();
-        if (cube.getStorage() == null) {
+        if (storage == null) {
             cube.setStorage(storage = new ExtendedBlockStorage(cube.getY(), worldClient.getProvider().hasSkyLight()));
         }
         assert storage != null;
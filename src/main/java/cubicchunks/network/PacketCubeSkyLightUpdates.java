@@ -30,6 +30,7 @@ import cubicchunks.world.cube.Cube;
 import gnu.trove.list.TShortList;
 import io.netty.buffer.ByteBuf;
 import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 import net.minecraftforge.fml.common.network.ByteBufUtils;
 import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
 import net.minecraftforge.fml.common.network.simpleimpl.MessageContext;
@@ -48,7 +49,8 @@ public class PacketCubeSkyLightUpdates implements IMessage {
     }
 
     public PacketCubeSkyLightUpdates(Cube cube, TShortList updates) {
-        if (cube.getStorage() == null) {
+        ExtendedBlockStorage storage = cube.getReadOnlyStorage();
+        if (storage == null) {
             // no light
             this.isFullRelight = true;
             this.data = null;
@@ -61,7 +63,7 @@ public class PacketCubeSkyLightUpdates implements IMessage {
             int localX = AddressTools.getLocalX(packed);
             int localY = AddressTools.getLocalY(packed);
             int localZ = AddressTools.getLocalZ(packed);
-            int value = cube.getStorage().getSkyLight(localX, localY, localZ);
+            int value = storage.getSkyLight(localX, localY, localZ);
             byte byte1 = (byte) (Bits.packUnsignedToInt(localX, 4, 0) | Bits.packUnsignedToInt(localY, 4, 4));
             byte byte2 = (byte) (Bits.packUnsignedToInt(localZ, 4, 0) | Bits.packUnsignedToInt(value, 4, 4));
             this.data[i * 2] = byte1;
@@ -71,13 +73,14 @@ public class PacketCubeSkyLightUpdates implements IMessage {
 
     public PacketCubeSkyLightUpdates(Cube cube) {
         this.isFullRelight = true;
-        if (cube.getStorage() == null) {
+        ExtendedBlockStorage storage = cube.getReadOnlyStorage();
+        if (storage == null) {
             // no light
             this.data = null;
             return;
         }
         this.cube = cube.getCoords();
-        this.data = Arrays.copyOf(cube.getStorage().getSkyLight().getData(), Cube.SIZE * Cube.SIZE * Cube.SIZE / 2);
+        this.data = Arrays.copyOf(storage.getSkyLight().getData(), Cube.SIZE * Cube.SIZE * Cube.SIZE / 2);
     }
 
     @Override
@@ -30,7 +30,9 @@ import cubicchunks.world.column.IColumn;
 import cubicchunks.world.cube.Cube;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.DecoderException;
 import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.Block;
 import net.minecraft.network.PacketBuffer;
 import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 
@@ -44,34 +46,51 @@ import javax.annotation.ParametersAreNonnullByDefault;
 @ParametersAreNonnullByDefault
 class WorldEncoder {
 
+    // written before the cube data, bump it when the encoding of cubes changes. Cube data from before the version
+    // was added starts with the isEmpty flag of the first cube, which is 0 or 1
+    static final int CUBES_PROTOCOL_VERSION = 2;
+
+    // what is sent of the cube's block storage
+    private static final int STORAGE_NONE = 0;
+    private static final int STORAGE_FULL = 1;
+    // all blocks are the same opaque block without light, only the block state ID is sent
+    private static final int STORAGE_UNIFORM = 2;
+
     static void encodeCubes(PacketBuffer out, Collection<Cube> cubes) {
         // write first all the flags, then all the block data, then all the light data etc for better compression
 
+        out.writeByte(CUBES_PROTOCOL_VERSION);
+
         // 1. emptiness
         cubes.forEach(cube -> {
             out.writeBoolean(cube.isEmpty());
-            out.writeBoolean(cube.getStorage() != null);
+            out.writeByte(storageType(cube));
         });
 
         // 2. block IDs and metadata
         cubes.forEach(cube -> {
-            if (!cube.isEmpty()) {
+            if (cube.isUniform()) {
+                // the same IDs as in the palette of full storage
+                out.writeVarInt(Block.BLOCK_STATE_IDS.get(cube.getBlockState(0, 0, 0)));
+            } else if (!cube.isEmpty()) {
                 //noinspection ConstantConditions
-                cube.getStorage().getData().write(out);
+                cube.getReadOnlyStorage().getData().write(out);
             }
         });
 
         // 3. block light
         cubes.forEach(cube -> {
-            if (cube.getStorage() != null) {
-                out.writeBytes(cube.getStorage().getBlockLight().getData());
+            if (storageType(cube) == STORAGE_FULL) {
+                //noinspection ConstantConditions
+                out.writeBytes(cube.getReadOnlyStorage().getBlockLight().getData());
             }
         });
 
         // 4. sky light
         cubes.forEach(cube -> {
-            if (cube.getStorage() != null && cube.getCubicWorld().getProvider().hasSkyLight()) {
-                out.writeBytes(cube.getStorage().getSkyLight().getData());
+            if (storageType(cube) == STORAGE_FULL && cube.getCubicWorld().getProvider().hasSkyLight()) {
+                //noinspection ConstantConditions
+                out.writeBytes(cube.getReadOnlyStorage().getSkyLight().getData());
             }
         });
 
@@ -98,16 +117,32 @@ class WorldEncoder {
         in.readBytes(column.getBiomeArray());
     }
 
+    private static int storageType(Cube cube) {
+        if (cube.isUniform()) {
+            return STORAGE_UNIFORM;
+        }
+        return cube.getReadOnlyStorage() != null ? STORAGE_FULL : STORAGE_NONE;
+    }
+
     static void decodeCube(PacketBuffer in, List<Cube> cubes) {
         cubes.stream().filter(Objects::nonNull).forEach(Cube::setClientCube);
 
+        int version = in.readUnsignedByte();
+        if (version != CUBES_PROTOCOL_VERSION) {
+            throw new DecoderException(String.format("Cube data has protocol version %d, expected %d. "
+                    + "The server runs a different version of CubicChunks.", version, CUBES_PROTOCOL_VERSION));
+        }
+
         // 1. emptiness
         boolean[] isEmpty = new boolean[cubes.size()];
         boolean[] hasStorage = new boolean[cubes.size()];
+        boolean[] isUniform = new boolean[cubes.size()];
 
         for (int i = 0; i < cubes.size(); i++) {
             isEmpty[i] = in.readBoolean() || cubes.get(i) == null;
-            hasStorage[i] = in.readBoolean() && cubes.get(i) != null;
+            int storageType = in.readByte();
+            hasStorage[i] = storageType == STORAGE_FULL && cubes.get(i) != null;
+            isUniform[i] = storageType == STORAGE_UNIFORM && cubes.get(i) != null;
         }
 
         for (int i = 0; i < cubes.size(); i++) {
@@ -121,7 +156,10 @@ class WorldEncoder {
 
         // 2. Block IDs and metadata
         for (int i = 0; i < cubes.size(); i++) {
-            if (!isEmpty[i]) {
+            if (isUniform[i]) {
+                //noinspection ConstantConditions
+                cubes.get(i).setUniform(Block.BLOCK_STATE_IDS.getByValue(in.readVarInt()));
+            } else if (!isEmpty[i]) {
                 //noinspection ConstantConditions
                 cubes.get(i).getStorage().getData().read(in);
             }
@@ -154,8 +192,10 @@ class WorldEncoder {
                 ClientHeightMap coi = ((ClientHeightMap) cube.getColumn().getOpacityIndex());
                 coi.setData(heightmaps);
 
-                //noinspection ConstantConditions
-                cube.getStorage().recalculateRefCounts();
+                if (hasStorage[i]) {
+                    //noinspection ConstantConditions
+                    cube.getStorage().recalculateRefCounts();
+                }
             }
         }
     }
@@ -167,18 +207,25 @@ class WorldEncoder {
     static int getEncodedSize(Collection<Cube> cubes) {
         int size = 0;
 
-        size += 2 * cubes.size(); // 1. isEmpty and hasStorage flags
+        size += 1; // protocol version
+        size += 2 * cubes.size(); // 1. isEmpty flag and storage type
 
         // 2. block IDs and metadata
         for (Cube cube : cubes) {
+            if (cube.isUniform()) {
+                size += PacketBuffer.getVarIntSize(Block.BLOCK_STATE_IDS.get(cube.getBlockState(0, 0, 0)));
+                continue;
+            }
+            ExtendedBlockStorage storage = cube.getReadOnlyStorage();
             if (!cube.isEmpty()) {
                 //noinspection ConstantConditions
-                size += cube.getStorage().getData().getSerializedSize();
+                size += storage.getData().getSerializedSize();
             }
-            if (cube.getStorage() != null) {
-                size += cube.getStorage().getBlockLight().getData().length;
+            if (storage != null) {
+                size += storage.getBlockLight().getData().length;
                 if (cube.getCubicWorld().getProvider().hasSkyLight()) {
-                    size += cube.getStorage().getSkyLight().getData().length;
+                    //noinspection ConstantConditions
+                    size += storage.getSkyLight().getData().length;
                 }
             }
         }
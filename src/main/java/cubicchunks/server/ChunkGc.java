@@ -23,47 +23,142 @@
  */
 package cubicchunks.server;
 
+import static cubicchunks.util.Coords.blockToCube;
+
+import com.google.common.collect.ImmutableSetMultimap;
 import cubicchunks.CubicChunks;
 import cubicchunks.CubicChunks.Config;
 import cubicchunks.IConfigUpdateListener;
 import cubicchunks.world.column.IColumn;
 import cubicchunks.world.cube.Cube;
 import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.MathHelper;
+import net.minecraftforge.common.ForgeChunkManager;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
 /**
  * Chunk Garbage Collector, automatically unloads unused chunks.
+ * <p>
+ * Instead of sweeping all loaded cubes, only cubes that lost their last ticket (or were loaded without one) and
+ * columns that lost their last cube are considered. Every update interval, a pass unloads the candidates that have been
+ * unused for the configured unload delay. Only as many candidates are processed each tick as fit into the time budget,
+ * a pass that runs out of time goes on in the following ticks.
+ * <p>
+ * While the {@link MemoryGovernor} reports memory pressure, candidates are unloaded every tick without any delay,
+ * furthest from players and longest unused first.
  */
 @MethodsReturnNonnullByDefault
 @ParametersAreNonnullByDefault
 public class ChunkGc implements IConfigUpdateListener {
 
+    // how often the unload order is recomputed under memory pressure, as players move
+    private static final int PRESSURE_ORDER_INTERVAL = 20;
+    // under memory pressure, being unused for this many ticks counts like being one cube further away from players
+    private static final int UNUSED_TICKS_PER_CUBE = 20 * 5;
+
     private final CubeProviderServer cubeCache;
 
-    private int tick = 0;
+    // candidates in the order they became unused, mapped to the tick they became unused at
+    @Nonnull private final LinkedHashMap<Cube, Long> cubeCandidates = new LinkedHashMap<>();
+    @Nonnull private final LinkedHashMap<IColumn, Long> columnCandidates = new LinkedHashMap<>();
+
+    // cube candidates in the order they are unloaded under memory pressure, recomputed every few ticks
+    @Nullable private Cube[] pressureOrder;
+    private int pressureOrderIndex;
+    private long pressureOrderTick;
+    private boolean wasUnderPressure = false;
+
+    private long tick = 0;
     private volatile int updateInterval = 20 * 10;
+    private volatile int unloadDelay = 0;
+    // start of the current pass, and the tick candidates must have become unused at to be unloaded by it
+    private long passStartTick = 0;
+    private long passUnusedSince = -1;
+    private volatile long timeBudgetNanos = 2_000_000;
+
+    private long unloadedCubes = 0;
+    private long unloadedColumns = 0;
 
     public ChunkGc(CubeProviderServer cubeCache) {
         this.cubeCache = cubeCache;
+        this.updateInterval = Config.IntOptions.CHUNK_G_C_INTERVAL.getValue();
+        this.unloadDelay = Config.IntOptions.CHUNK_G_C_UNLOAD_DELAY.getValue();
+        this.timeBudgetNanos = Config.IntOptions.CHUNK_G_C_TIME_BUDGET_US.getValue() * 1000L;
         CubicChunks.addConfigChangeListener(this);
     }
 
     public void tick() {
         tick++;
-        if (tick > updateInterval) {
-            tick = 0;
-            chunkGc();
-        }
+        chunkGc();
         if (CubicChunks.DEBUG_ENABLED) {
             verifyColumnConsistency();
         }
     }
 
+    /**
+     * Marks the cube as possibly unused. It will be unloaded by the first update after the unload delay if it still has
+     * no tickets then.
+     *
+     * @param cube the cube that has no tickets
+     */
+    public void markUnloadCandidate(Cube cube) {
+        // re-inserting moves the cube to the end, it's unused since now
+        cubeCandidates.remove(cube);
+        cubeCandidates.put(cube, tick);
+    }
+
+    /**
+     * Marks the column as possibly unused. It will be unloaded by the first update after the unload delay if it still
+     * has no loaded cubes then.
+     *
+     * @param column the column that has no loaded cubes
+     */
+    public void markUnloadCandidate(IColumn column) {
+        columnCandidates.remove(column);
+        columnCandidates.put(column, tick);
+    }
+
+    /**
+     * @return the number of cubes that may be unloaded in the following ticks
+     */
+    public int getPendingCubes() {
+        return cubeCandidates.size();
+    }
+
+    /**
+     * @return the number of columns that may be unloaded in the following ticks
+     */
+    public int getPendingColumns() {
+        return columnCandidates.size();
+    }
+
+    /**
+     * @return the total number of cubes unloaded by this garbage collector
+     */
+    public long getUnloadedCubes() {
+        return unloadedCubes;
+    }
+
+    /**
+     * @return the total number of columns unloaded by this garbage collector
+     */
+    public long getUnloadedColumns() {
+        return unloadedColumns;
+    }
+
     private void verifyColumnConsistency() {
         // currently do that every tick, until I'm sure it doesn't happen
         Iterator<Cube> cubeIt = cubeCache.cubesIterator();
@@ -97,23 +192,147 @@ public class ChunkGc implements IConfigUpdateListener {
     }
 
     private void chunkGc() {
-        Iterator<Cube> cubeIt = cubeCache.cubesIterator();
-        while (cubeIt.hasNext()) {
-            if (cubeCache.tryUnloadCube(cubeIt.next())) {
+        MemoryGovernor governor = MemoryGovernor.get();
+        governor.tick();
+        boolean underPressure = governor.isUnderPressure();
+        if (underPressure != this.wasUnderPressure) {
+            this.wasUnderPressure = underPressure;
+            this.pressureOrder = null;
+            if (underPressure) {
+                cubeCache.onMemoryPressure();
+            }
+        }
+        if (tick - passStartTick >= updateInterval) {
+            passStartTick = tick;
+            passUnusedSince = tick - unloadDelay;
+        }
+        if (cubeCandidates.isEmpty() && columnCandidates.isEmpty()) {
+            return;
+        }
+        long budget = timeBudgetNanos;
+        long deadline = budget == 0 ? Long.MAX_VALUE : System.nanoTime() + budget;
+        // under memory pressure, candidates don't have to wait for the unload delay or the next pass
+        long unusedSince = underPressure ? tick : passUnusedSince;
+        ImmutableSetMultimap<ChunkPos, ForgeChunkManager.Ticket> persistentChunks =
+                ForgeChunkManager.getPersistentChunksFor(cubeCache.world);
+
+        // candidates that can't be unloaded yet, retried by a later pass
+        List<Cube> retryCubes = new ArrayList<>();
+        if (underPressure) {
+            if (pressureOrder == null || pressureOrderIndex >= pressureOrder.length || tick - pressureOrderTick >= PRESSURE_ORDER_INTERVAL) {
+                pressureOrder = sortByUnloadPriority();
+                pressureOrderIndex = 0;
+                pressureOrderTick = tick;
+            }
+            while (pressureOrderIndex < pressureOrder.length && System.nanoTime() < deadline) {
+                Cube cube = pressureOrder[pressureOrderIndex];
+                pressureOrder[pressureOrderIndex++] = null;
+                if (cubeCandidates.remove(cube) != null && !unloadCandidate(cube, persistentChunks)) {
+                    retryCubes.add(cube);
+                }
+            }
+        } else {
+            Iterator<Map.Entry<Cube, Long>> cubeIt = cubeCandidates.entrySet().iterator();
+            while (cubeIt.hasNext() && System.nanoTime() < deadline) {
+                Map.Entry<Cube, Long> entry = cubeIt.next();
+                if (entry.getValue() > unusedSince) {
+                    break; // all following candidates became unused even later
+                }
+                Cube cube = entry.getKey();
                 cubeIt.remove();
+                if (!unloadCandidate(cube, persistentChunks)) {
+                    retryCubes.add(cube);
+                }
             }
         }
+        retryCubes.forEach(this::markUnloadCandidate);
 
-        Iterator<IColumn> columnIt = cubeCache.columnsIterator();
-        while (columnIt.hasNext()) {
-            if (cubeCache.tryUnloadColumn(columnIt.next())) {
-                columnIt.remove();
+        List<IColumn> retryColumns = new ArrayList<>();
+        Iterator<Map.Entry<IColumn, Long>> columnIt = columnCandidates.entrySet().iterator();
+        while (columnIt.hasNext() && System.nanoTime() < deadline) {
+            Map.Entry<IColumn, Long> entry = columnIt.next();
+            if (entry.getValue() > unusedSince) {
+                break;
+            }
+            IColumn column = entry.getKey();
+            columnIt.remove();
+            if (cubeCache.getLoadedColumn(column.getX(), column.getZ()) != column || column.hasLoadedCubes()) {
+                continue; // already unloaded, or it will become a candidate again when it loses its last cube
+            }
+            if (cubeCache.tryUnloadColumn(column, persistentChunks)) {
+                unloadedColumns++;
+            } else {
+                retryColumns.add(column);
             }
         }
+        retryColumns.forEach(this::markUnloadCandidate);
+    }
+
+    /**
+     * Tries to unload a cube that has been removed from the candidates.
+     *
+     * @return false if the cube should be retried later
+     */
+    private boolean unloadCandidate(Cube cube, ImmutableSetMultimap<ChunkPos, ForgeChunkManager.Ticket> persistentChunks) {
+        if (!cube.isCubeLoaded() || !cube.getTickets().canUnload()) {
+            return true; // it will become a candidate again when it loses its tickets
+        }
+        if (!cubeCache.tryUnloadCube(cube, persistentChunks)) {
+            return false;
+        }
+        unloadedCubes++;
+        IColumn column = cube.getColumn();
+        if (!column.hasLoadedCubes()) {
+            markUnloadCandidate(column);
+        }
+        return true;
+    }
+
+    /**
+     * Orders the cube candidates for unloading under memory pressure: cubes far away from all players and cubes that
+     * have been unused for a long time come first.
+     *
+     * @return the candidates in the order they should be unloaded
+     */
+    private Cube[] sortByUnloadPriority() {
+        List<EntityPlayer> players = cubeCache.world.playerEntities;
+        int[] playerPos = new int[players.size() * 3];
+        for (int i = 0; i < players.size(); i++) {
+            EntityPlayer player = players.get(i);
+            playerPos[i * 3] = blockToCube(MathHelper.floor(player.posX));
+            playerPos[i * 3 + 1] = blockToCube(MathHelper.floor(player.posY));
+            playerPos[i * 3 + 2] = blockToCube(MathHelper.floor(player.posZ));
+        }
+        Cube[] cubes = cubeCandidates.keySet().toArray(new Cube[0]);
+        // priority in the upper half, index in the lower half, so sorting the keys sorts the cubes by priority
+        long[] keys = new long[cubes.length];
+        int i = 0;
+        for (Map.Entry<Cube, Long> entry : cubeCandidates.entrySet()) {
+            Cube cube = entry.getKey();
+            long minDistSq = playerPos.length == 0 ? 0 : Long.MAX_VALUE;
+            for (int p = 0; p < playerPos.length; p += 3) {
+                long dx = cube.getX() - playerPos[p];
+                long dy = cube.getY() - playerPos[p + 1];
+                long dz = cube.getZ() - playerPos[p + 2];
+                minDistSq = Math.min(minDistSq, dx * dx + dy * dy + dz * dz);
+            }
+            long unusedTicks = tick - entry.getValue();
+            long priority = Math.min(Integer.MAX_VALUE, (long) Math.sqrt(minDistSq) + unusedTicks / UNUSED_TICKS_PER_CUBE);
+            keys[i] = priority << 32 | i;
+            i++;
+        }
+        Arrays.sort(keys);
+        Cube[] ordered = new Cube[cubes.length];
+        for (int j = 0; j < keys.length; j++) {
+            ordered[j] = cubes[(int) keys[keys.length - 1 - j]];
+        }
+        return ordered;
     }
 
     @Override
     public void onConfigUpdate(Config config) {
         this.updateInterval = config.getChunkGCInterval();
+        this.unloadDelay = config.getChunkGCUnloadDelay();
+        this.timeBudgetNanos = config.getChunkGCTimeBudgetUs() * 1000L;
     }
 }
@@ -23,13 +23,16 @@
  */
 package cubicchunks.server;
 
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.Sets;
 import cubicchunks.CubicChunks;
 import cubicchunks.asm.CubicChunksMixinConfig;
+import cubicchunks.server.chunkio.CubeDataCache;
 import cubicchunks.server.chunkio.ICubeIO;
 import cubicchunks.server.chunkio.RegionCubeIO;
 import cubicchunks.server.chunkio.async.forge.AsyncWorldIOExecutor;
+import cubicchunks.util.ConcurrentXYZMap;
 import cubicchunks.util.CubePos;
-import cubicchunks.util.XYZMap;
 import cubicchunks.world.ICubeProvider;
 import cubicchunks.world.ICubicWorldServer;
 import cubicchunks.world.IProviderExtras;
@@ -53,9 +56,12 @@ import net.minecraftforge.fml.common.registry.GameRegistry;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
 import java.util.function.Consumer;
 
 import javax.annotation.Detainted;
@@ -79,13 +85,25 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
     @Nonnull private ICubicWorldServer worldServer;
     @Nonnull private ICubeIO cubeIO;
 
-    // TODO: Use a better hash map!
-    @Nonnull private XYZMap<Cube> cubeMap = new XYZMap<>(0.7f, 8000);
+    // only modified on the server thread, but can be read from any thread
+    @Nonnull private ConcurrentXYZMap<Cube> cubeMap = new ConcurrentXYZMap<>(0.7f, 8000);
 
     @Nonnull private ICubeGenerator cubeGen;
     @Nonnull private Profiler profiler;
     private final boolean doRandomBlockTicksHere;
 
+    // loaded cubes modified since they were last saved, filled by Cube.markDirty, possibly from other threads
+    @Nonnull private final Set<Cube> dirtyCubes = Sets.newConcurrentHashSet();
+    // cubes and columns waiting to be saved by the incremental autosave, saved a few at a time in tick()
+    @Nonnull private final Set<Cube> cubesToAutosave = new LinkedHashSet<>();
+    @Nonnull private final Set<IColumn> columnsToAutosave = new LinkedHashSet<>();
+    // set while MinecraftServer autosaves, see setAutosaving
+    private boolean autosaving = false;
+
+    @Nonnull private final ChunkGc chunkGc;
+    @Nonnull private final TicketManager ticketManager = new TicketManager();
+    @Nonnull private final CubeRequestQueue cubeRequests;
+
     public CubeProviderServer(ICubicWorldServer worldServer, ICubeGenerator cubeGen) {
         super((WorldServer) worldServer,
                 worldServer.getSaveHandler().getChunkLoader(worldServer.getProvider()), // forge uses this in
@@ -101,6 +119,8 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
         }
 
         doRandomBlockTicksHere = CubicChunksMixinConfig.BoolOptions.RANDOM_TICK_IN_CUBE.getValue();
+        this.chunkGc = new ChunkGc(this);
+        this.cubeRequests = new CubeRequestQueue(this, cubeGen, cubeIO);
     }
 
     @Override
@@ -173,28 +193,112 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
         return (Chunk) provideColumn(cubeX, cubeZ);
     }
 
+    /**
+     * Called when a loaded cube is modified after it was saved, so that the next autosave doesn't need to look for it.
+     */
+    public void markCubeDirty(Cube cube) {
+        dirtyCubes.add(cube);
+    }
+
+    /**
+     * Saves all cubes and columns that need saving. During autosave serializing everything at once would stall the
+     * server, so they are only queued and saved over the next ticks by {@link #tick()}, within the autosave time
+     * budget. Other saves, like the save-all command, save everything right away.
+     */
     @Override
     public boolean saveChunks(boolean alwaysTrue) {
-        for (Cube cube : cubeMap) { // save cubes
-            if (cube.needsSaving()) {
-                this.cubeIO.saveCube(cube);
+        for (Iterator<Cube> it = dirtyCubes.iterator(); it.hasNext(); ) {
+            cubesToAutosave.add(it.next());
+            it.remove();
+        }
+        // cubes with entities need saving even when nothing marked them dirty
+        for (Cube cube : cubeMap) {
+            if (cube.getEntityContainer().size() != 0 && cube.needsSaving()) {
+                cubesToAutosave.add(cube);
             }
         }
-        for (Chunk chunk : id2ChunkMap.values()) { // save columns
+        for (Chunk chunk : id2ChunkMap.values()) {
             IColumn column = (IColumn) chunk;
-            // save the column
             if (column.needsSaving(alwaysTrue)) {
-                this.cubeIO.saveColumn(column);
+                columnsToAutosave.add(column);
             }
         }
 
+        if (!autosaving || CubicChunks.Config.IntOptions.AUTOSAVE_TIME_BUDGET_MS.getValue() == 0) {
+            saveQueued(Long.MAX_VALUE);
+        }
+        if (cubeIO instanceof RegionCubeIO) {
+            ((RegionCubeIO) cubeIO).saveExistenceIndex();
+        }
         return true;
     }
 
+    /**
+     * Called by MinecraftServer around its periodic autosave, while this is set {@link #saveChunks} leaves the saving
+     * to {@link #tick()}.
+     */
+    public void setAutosaving(boolean autosaving) {
+        this.autosaving = autosaving;
+    }
+
+    /**
+     * Saves anything still queued by the incremental autosave, and waits until everything is written to disk.
+     * Used by the "save-all flush" command.
+     */
+    @Override
+    public void flushToDisk() {
+        saveQueued(Long.MAX_VALUE);
+        try {
+            this.cubeIO.flushToDisk();
+        } catch (IOException e) {
+            CubicChunks.LOGGER.error("Unable to flush cubes to disk", e);
+        }
+        super.flushToDisk();
+    }
+
+    /**
+     * Saves cubes and columns queued by {@link #saveChunks} until the time runs out.
+     *
+     * @param deadline {@link System#nanoTime()} after which to stop saving
+     */
+    private void saveQueued(long deadline) {
+        Iterator<IColumn> columns = columnsToAutosave.iterator();
+        while (columns.hasNext() && System.nanoTime() < deadline) {
+            IColumn column = columns.next();
+            columns.remove();
+            if (column.needsSaving(true)) {
+                this.cubeIO.saveColumn(column);
+            }
+        }
+        Iterator<Cube> cubes = cubesToAutosave.iterator();
+        while (cubes.hasNext() && System.nanoTime() < deadline) {
+            Cube cube = cubes.next();
+            cubes.remove();
+            // unloaded cubes were already saved when unloading
+            if (cube.isCubeLoaded() && cube.needsSaving()) {
+                this.cubeIO.saveCube(cube);
+            }
+        }
+    }
+
+    /**
+     * @return the number of cubes and columns waiting to be saved by the incremental autosave
+     */
+    public int getAutosaveQueueSize() {
+        return cubesToAutosave.size() + columnsToAutosave.size();
+    }
+
     @Override
     public boolean tick() {
         // NOTE: the return value is completely ignored
         profiler.startSection("providerTick("+cubeMap.getSize()+")");
+        cubeRequests.tick();
+        // with saving disabled (save-off), keep the queue until saving is enabled again
+        if (!this.world.disableLevelSaving && (!cubesToAutosave.isEmpty() || !columnsToAutosave.isEmpty())) {
+            profiler.startSection("autosave");
+            saveQueued(System.nanoTime() + CubicChunks.Config.IntOptions.AUTOSAVE_TIME_BUDGET_MS.getValue() * 1000000L);
+            profiler.endSection();
+        }
         long i = System.currentTimeMillis();
         int randomTickSpeed = this.world.getGameRules().getInt("randomTickSpeed");
         Random rand = this.world.rand;
@@ -212,8 +316,22 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
 
     @Override
     public String makeString() {
-        return "CubeProviderServer: " + this.id2ChunkMap.size() + " columns, "
-                + this.cubeMap.getSize() + " cubes";
+        String str = "CubeProviderServer: " + this.id2ChunkMap.size() + " columns, "
+                + this.cubeMap.getSize() + " cubes, " + chunkGc.getUnloadedCubes() + " unloaded by gc, "
+                + chunkGc.getPendingCubes() + " pending unload";
+        if (cubeRequests.getRequestCount() > 0) {
+            str += ", " + cubeRequests.getRequestCount() + " async requests waiting";
+        }
+        if (cubeIO instanceof RegionCubeIO) {
+            RegionCubeIO regionIO = (RegionCubeIO) cubeIO;
+            str += ", " + regionIO.getSavePipeline().getQueueDepth() + " waiting to save";
+            CubeDataCache cache = regionIO.getCubeCache();
+            if (cache.size() > 0) {
+                str += ", " + cache.size() + " cached (" + cache.getSizeBytes() / (1024 * 1024) + "MB, "
+                        + cache.getHits() + " hits, " + cache.getMisses() + " misses)";
+            }
+        }
+        return str;
     }
 
     @Override
@@ -252,6 +370,10 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
         return getCube(coords.getX(), coords.getY(), coords.getZ());
     }
 
+    /**
+     * Gets the loaded cube at the given position. Unlike most methods of this class, this is safe to call from any
+     * thread.
+     */
     @Nullable @Override
     public Cube getLoadedCube(int cubeX, int cubeY, int cubeZ) {
         return cubeMap.get(cubeX, cubeY, cubeZ);
@@ -262,6 +384,20 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
         return getLoadedCube(coords.getX(), coords.getY(), coords.getZ());
     }
 
+    /**
+     * Read a cube from disk in the background if it's not loaded, so that loading it later doesn't have to wait for
+     * the disk. The cube isn't loaded by this.
+     *
+     * @param cubeX Cube x position
+     * @param cubeY Cube y position
+     * @param cubeZ Cube z position
+     */
+    public void prefetchCube(int cubeX, int cubeY, int cubeZ) {
+        if (getLoadedCube(cubeX, cubeY, cubeZ) == null) {
+            AsyncWorldIOExecutor.queueCubePrefetch(worldServer, cubeIO, cubeX, cubeY, cubeZ);
+        }
+    }
+
     /**
      * Load a cube, asynchronously. The work done to retrieve the column is specified by the
      * {@link Requirement} <code>req</code>
@@ -277,7 +413,7 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
      */
     public void asyncGetCube(int cubeX, int cubeY, int cubeZ, Requirement req, Consumer<Cube> callback) {
         Cube cube = getLoadedCube(cubeX, cubeY, cubeZ);
-        if (req == Requirement.GET_CACHED || (cube != null && req.compareTo(Requirement.GENERATE) <= 0)) {
+        if (req == Requirement.GET_CACHED || (cube != null && hasReached(cube, req))) {
             callback.accept(cube);
             return;
         }
@@ -287,13 +423,84 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
                 IColumn col = getLoadedColumn(cubeX, cubeZ);
                 if (col != null) {
                     onCubeLoaded(loaded, col);
-                    loaded = postCubeLoadAttempt(cubeX, cubeY, cubeZ, loaded, col, req);
+                    loaded = postCubeLoadAttempt(cubeX, cubeY, cubeZ, loaded, col, Requirement.LOAD);
+                    if (req.compareTo(Requirement.GENERATE) >= 0 && (loaded == null || !hasReached(loaded, req))) {
+                        // generating, populating and lighting is done over the next ticks
+                        cubeRequests.queueRequest(cubeX, cubeY, cubeZ, req, callback);
+                        return;
+                    }
                 }
                 callback.accept(loaded);
             });
+        } else {
+            cubeRequests.queueRequest(cubeX, cubeY, cubeZ, req, callback);
+        }
+    }
+
+    /**
+     * Drops a request made with {@link #asyncGetCube(int, int, int, Requirement, Consumer)} that is waiting for the
+     * cube to be generated, populated or lit. The callback won't be called.
+     *
+     * @param cubeX Cube x position
+     * @param cubeY Cube y position
+     * @param cubeZ Cube z position
+     * @param callback The callback passed to asyncGetCube
+     */
+    public void dropQueuedCubeGeneration(int cubeX, int cubeY, int cubeZ, Consumer<Cube> callback) {
+        cubeRequests.dropRequest(cubeX, cubeY, cubeZ, callback);
+    }
+
+    private static boolean hasReached(Cube cube, Requirement req) {
+        switch (req) {
+            case POPULATE:
+                return cube.isFullyPopulated();
+            case LIGHT:
+                return cube.isFullyPopulated() && cube.isInitialLightingDone();
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Load many cubes asynchronously. Cubes that need to be read from disk are read grouped by region file,
+     * nearest to <code>center</code> first.
+     *
+     * @param cubes Positions of the cubes to load
+     * @param center Position from which to measure distance, usually the player position
+     * @param req Work done to retrieve the columns
+     * @param callback Callback to be called for each cube when its load finishes
+     *
+     * @see #asyncGetCube(int, int, int, Requirement, Consumer)
+     */
+    public void asyncGetCubes(Collection<CubePos> cubes, CubePos center, Requirement req, Consumer<Cube> callback) {
+        beginCubeLoadBatch();
+        try {
+            for (CubePos pos : cubes) {
+                asyncGetCube(pos.getX(), pos.getY(), pos.getZ(), req, callback);
+            }
+        } finally {
+            endCubeLoadBatch(center);
         }
     }
 
+    /**
+     * Start batching cube loads: cubes requested with {@link #asyncGetCube} aren't read from disk until
+     * {@link #endCubeLoadBatch}, and then they are read together, grouped by region file.
+     * Every call must be followed by {@link #endCubeLoadBatch}.
+     */
+    public void beginCubeLoadBatch() {
+        AsyncWorldIOExecutor.beginCubeLoadBatch(cubeIO);
+    }
+
+    /**
+     * Read cubes requested since {@link #beginCubeLoadBatch}, nearest to <code>center</code> first.
+     *
+     * @param center Position from which to measure distance, usually the player position
+     */
+    public void endCubeLoadBatch(CubePos center) {
+        AsyncWorldIOExecutor.submitCubeLoadBatch(center);
+    }
+
     @Nullable @Override
     public Cube getCube(int cubeX, int cubeY, int cubeZ, Requirement req) {
         Cube cube = getLoadedCube(cubeX, cubeY, cubeZ);
@@ -533,6 +740,7 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
             id2ChunkMap.put(ChunkPos.asLong(columnX, columnZ), (Chunk) column);
             column.setLastSaveTime(this.worldServer.getTotalWorldTime()); // the column was just loaded
             column.onLoad();
+            chunkGc.markUnloadCandidate(column); // unloaded unless cubes are loaded into it
             return column;
         } else if (req == Requirement.LOAD) {
             return null;
@@ -544,6 +752,7 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
         id2ChunkMap.put(ChunkPos.asLong(columnX, columnZ), (Chunk) column);
         column.setLastSaveTime(this.worldServer.getTotalWorldTime()); // the column was just generated
         column.onLoad();
+        chunkGc.markUnloadCandidate(column);
         return column;
     }
 
@@ -574,6 +783,9 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
     }
 
     public void flush() throws IOException {
+        // finish the incremental autosave before shutting down the save threads
+        saveChunks(true);
+        saveQueued(Long.MAX_VALUE);
         this.cubeIO.flush();
     }
 
@@ -586,8 +798,15 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
         return (Iterator<IColumn>) (Object) id2ChunkMap.values().iterator();
     }
 
-    boolean tryUnloadCube(Cube cube) {
-        if (ForgeChunkManager.getPersistentChunksFor(world).containsKey(cube.getColumn().getPos())) {
+    /**
+     * Unloads the cube and removes it from this provider, unless something still needs it.
+     *
+     * @param cube the cube to unload
+     * @param persistentChunks columns force loaded by mods, see {@link ForgeChunkManager#getPersistentChunksFor}
+     * @return true if the cube has been unloaded
+     */
+    boolean tryUnloadCube(Cube cube, ImmutableSetMultimap<ChunkPos, ForgeChunkManager.Ticket> persistentChunks) {
+        if (persistentChunks.containsKey(cube.getColumn().getPos())) {
             return false; // it will be unloaded later by ChunkGC
         }
         if (!cube.getTickets().canUnload()) {
@@ -596,6 +815,8 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
 
         // unload the Cube!
         cube.onUnload();
+        dirtyCubes.remove(cube);
+        cubesToAutosave.remove(cube);
 
         if (cube.needsSaving()) { // save the Cube, if it needs saving
             this.cubeIO.saveCube(cube);
@@ -604,11 +825,19 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
         if (cube.getColumn().removeCube(cube.getY()) == null) {
             throw new RuntimeException();
         }
+        cubeMap.remove(cube);
         return true;
     }
 
-    boolean tryUnloadColumn(IColumn column) {
-        if (ForgeChunkManager.getPersistentChunksFor(world).containsKey(column.getPos())) {
+    /**
+     * Unloads the column and removes it from this provider, unless something still needs it.
+     *
+     * @param column the column to unload
+     * @param persistentChunks columns force loaded by mods, see {@link ForgeChunkManager#getPersistentChunksFor}
+     * @return true if the column has been unloaded
+     */
+    boolean tryUnloadColumn(IColumn column, ImmutableSetMultimap<ChunkPos, ForgeChunkManager.Ticket> persistentChunks) {
+        if (persistentChunks.containsKey(column.getPos())) {
             return false; // it will be unloaded later by ChunkGC
         }
         if (column.hasLoadedCubes()) {
@@ -624,13 +853,32 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
 
         // unload the Column!
         column.onUnload();
+        columnsToAutosave.remove(column);
 
         if (column.needsSaving(true)) { // save the Column, if it needs saving
             this.cubeIO.saveColumn(column);
         }
+        id2ChunkMap.remove(ChunkPos.asLong(column.getX(), column.getZ()));
         return true;
     }
 
+    /**
+     * Called by ChunkGc when memory pressure starts, drops memory that can be recovered from disk.
+     */
+    void onMemoryPressure() {
+        if (cubeIO instanceof RegionCubeIO) {
+            ((RegionCubeIO) cubeIO).getCubeCache().clear();
+        }
+    }
+
+    public ChunkGc getChunkGc() {
+        return chunkGc;
+    }
+
+    public TicketManager getTicketManager() {
+        return ticketManager;
+    }
+
     public ICubeGenerator getCubeGenerator() {
         return cubeGen;
     }
@@ -0,0 +1,267 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server;
+
+import cubicchunks.CubicChunks;
+import cubicchunks.server.chunkio.ICubeIO;
+import cubicchunks.util.Box;
+import cubicchunks.util.Coords;
+import cubicchunks.util.CubePos;
+import cubicchunks.util.ticket.ITicket;
+import cubicchunks.world.IProviderExtras.Requirement;
+import cubicchunks.world.cube.Cube;
+import cubicchunks.worldgen.generator.ICubeGenerator;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.entity.player.EntityPlayer;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Completes asynchronous requests for cubes that have to be generated, populated or lit, see {@link
+ * CubeProviderServer#asyncGetCube(int, int, int, Requirement, Consumer)}.
+ * <p>
+ * Getting a cube to {@link Requirement#LIGHT} goes through the GENERATE, POPULATE and LIGHT stages, and each stage
+ * needs the cubes around it to be at least generated: population needs the cubes in the population requirement, and
+ * lighting needs the surrounding 5x5x5 cubes. Instead of getting all of them at once, {@link #tick()} gets them a few
+ * at a time, nearest to a player first and within a time budget per tick, and completes a request once all of them
+ * are there.
+ * <p>
+ * This class is only used from the server thread.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class CubeRequestQueue {
+
+    // requests whose dependencies aren't ready are put back, at most this many are checked each tick
+    private static final int MAX_WAITING_REQUESTS_CHECKED = 256;
+
+    @Nonnull private final CubeProviderServer provider;
+    @Nonnull private final ICubeGenerator generator;
+    @Nonnull private final ICubeIO cubeIO;
+
+    // asynchronous requests, nearest to a player first
+    @Nonnull private final PriorityQueue<Request> requests = new PriorityQueue<>(
+            (a, b) -> a.priority != b.priority ? Long.compare(a.priority, b.priority) : Long.compare(a.order, b.order));
+    private long requestCounter;
+
+    // dependencies of the request being worked on that aren't loaded yet
+    private int missing;
+
+    CubeRequestQueue(CubeProviderServer provider, ICubeGenerator generator, ICubeIO cubeIO) {
+        this.provider = provider;
+        this.generator = generator;
+        this.cubeIO = cubeIO;
+    }
+
+    /**
+     * Gets the cubes the request depends on. Cubes that may be saved are loaded through {@link
+     * CubeProviderServer#asyncGetCube}, only the ones that turn out not to exist are generated on the calling thread,
+     * one at a time, until {@code deadline} is reached.
+     * <p>
+     * All dependencies that are loaded hold the request's ticket, so that {@link ChunkGc} doesn't unload them again
+     * before the request completes.
+     *
+     * @return true if all of them are loaded
+     */
+    private boolean loadDependencies(Request request, long deadline) {
+        missing = 0;
+        TicketManager tickets = provider.getTicketManager();
+        forEachDependency(request.cubeX, request.cubeY, request.cubeZ, request.req, (x, y, z) -> {
+            Cube cube = provider.getLoadedCube(x, y, z);
+            if (cube != null) {
+                tickets.add(request, cube);
+                return;
+            }
+            missing++;
+            CubePos pos = new CubePos(x, y, z);
+            if (request.loading.contains(pos)) {
+                return;
+            }
+            if (!request.notSaved.contains(pos) && (provider.getLoadedColumn(x, z) == null
+                    || cubeIO.getCubeExistence(x, y, z) != ICubeIO.Existence.NEVER_SAVED)) {
+                // read it, and the column if needed, on the IO threads
+                request.loading.add(pos);
+                provider.asyncGetCube(x, y, z, Requirement.LOAD, loaded -> onDependencyLoaded(request, pos, loaded));
+                return;
+            }
+            if (System.nanoTime() >= deadline) {
+                return;
+            }
+            tickets.add(request, provider.getCube(x, y, z, Requirement.GENERATE));
+            missing--;
+        });
+        return missing == 0;
+    }
+
+    private void onDependencyLoaded(Request request, CubePos pos, @Nullable Cube cube) {
+        request.loading.remove(pos);
+        if (cube == null) {
+            // not saved, generated by the next loadDependencies call
+            request.notSaved.add(pos);
+        } else if (!request.finished && cube.isCubeLoaded()) {
+            provider.getTicketManager().add(request, cube);
+        }
+    }
+
+    private void finish(Request request) {
+        request.finished = true;
+        provider.getTicketManager().releaseAll(request);
+    }
+
+    private void forEachDependency(int cubeX, int cubeY, int cubeZ, Requirement req, Box.XYZFunction action) {
+        Cube cube = provider.getLoadedCube(cubeX, cubeY, cubeZ);
+        if (cube == null) {
+            action.apply(cubeX, cubeY, cubeZ);
+        }
+        if (req.compareTo(Requirement.POPULATE) >= 0 && (cube == null || !cube.isFullyPopulated())) {
+            // the real requirement can only be known once the cube exists, until then the recommended one is a good guess
+            (cube == null ? ICubeGenerator.RECOMMENDED_POPULATOR_REQUIREMENT : generator.getPopulationRequirement(cube))
+                    .forEachPoint((x, y, z) -> action.apply(cubeX + x, cubeY + y, cubeZ + z));
+        }
+        if (req == Requirement.LIGHT && (cube == null || !cube.isInitialLightingDone())) {
+            // see CubeProviderServer.calculateDiffuseSkylight
+            for (int x = -2; x <= 2; x++) {
+                for (int z = -2; z <= 2; z++) {
+                    for (int y = 2; y >= -2; y--) {
+                        action.apply(cubeX + x, cubeY + y, cubeZ + z);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Queues an asynchronous request for a cube that has to be generated, populated or lit to reach {@code req}. The
+     * callback is called from {@link #tick()} once the cubes it depends on are loaded.
+     *
+     * @param cubeX cube x position
+     * @param cubeY cube y position
+     * @param cubeZ cube z position
+     * @param req the stage the cube is requested at, at least {@link Requirement#GENERATE}
+     * @param callback called with the cube
+     */
+    void queueRequest(int cubeX, int cubeY, int cubeZ, Requirement req, Consumer<Cube> callback) {
+        requests.add(new Request(cubeX, cubeY, cubeZ, req, callback, distanceToPlayersSq(cubeX, cubeY, cubeZ),
+                requestCounter++));
+    }
+
+    /**
+     * Removes queued requests for the cube with the given callback.
+     *
+     * @return true if a request was removed
+     */
+    boolean dropRequest(int cubeX, int cubeY, int cubeZ, Consumer<Cube> callback) {
+        return requests.removeIf(r -> {
+            if (r.callback == callback && r.cubeX == cubeX && r.cubeY == cubeY && r.cubeZ == cubeZ) {
+                finish(r);
+                return true;
+            }
+            return false;
+        });
+    }
+
+    /**
+     * Completes queued requests whose dependencies are loaded, until the time budget for this tick runs out.
+     * <p>
+     * Saved cubes are loaded asynchronously and missing terrain is generated here, one cube at a time, and a request
+     * is continued in the next tick once the budget runs out. Until a request completes, its loaded dependencies hold
+     * its ticket. Populating and lighting the requested cube isn't split, so the budget can still be exceeded by that
+     * much.
+     */
+    void tick() {
+        if (requests.isEmpty()) {
+            return;
+        }
+        long deadline = System.nanoTime()
+                + CubicChunks.Config.IntOptions.ASYNC_GENERATION_TIME_BUDGET_MS.getValue() * 1000000L;
+        List<Request> waiting = new ArrayList<>();
+        while (!requests.isEmpty() && waiting.size() < MAX_WAITING_REQUESTS_CHECKED && System.nanoTime() < deadline) {
+            Request request = requests.poll();
+            if (!loadDependencies(request, deadline)) {
+                waiting.add(request);
+                continue;
+            }
+            Cube cube = provider.getCube(request.cubeX, request.cubeY, request.cubeZ, request.req);
+            finish(request);
+            request.callback.accept(cube);
+        }
+        requests.addAll(waiting);
+    }
+
+    private long distanceToPlayersSq(int cubeX, int cubeY, int cubeZ) {
+        long minDistSq = Long.MAX_VALUE;
+        for (EntityPlayer player : provider.world.playerEntities) {
+            long dx = cubeX - Coords.getCubeXForEntity(player);
+            long dy = cubeY - Coords.getCubeYForEntity(player);
+            long dz = cubeZ - Coords.getCubeZForEntity(player);
+            minDistSq = Math.min(minDistSq, dx * dx + dy * dy + dz * dz);
+        }
+        return minDistSq;
+    }
+
+    /**
+     * @return the number of asynchronous requests waiting for their cube
+     */
+    public int getRequestCount() {
+        return requests.size();
+    }
+
+    private static final class Request implements ITicket {
+
+        private final int cubeX, cubeY, cubeZ;
+        private final Requirement req;
+        private final Consumer<Cube> callback;
+        // squared distance to the nearest player when the request was made
+        private final long priority;
+        private final long order;
+        // dependencies being loaded asynchronously
+        private final Set<CubePos> loading = new HashSet<>();
+        // dependencies that weren't found on disk, they are generated
+        private final Set<CubePos> notSaved = new HashSet<>();
+        private boolean finished;
+
+        Request(int cubeX, int cubeY, int cubeZ, Requirement req, Consumer<Cube> callback, long priority, long order) {
+            this.cubeX = cubeX;
+            this.cubeY = cubeY;
+            this.cubeZ = cubeZ;
+            this.req = req;
+            this.callback = callback;
+            this.priority = priority;
+            this.order = order;
+        }
+
+        @Override public boolean shouldTick() {
+            return false;
+        }
+    }
+}
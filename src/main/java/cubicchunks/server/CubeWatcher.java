@@ -25,7 +25,6 @@ package cubicchunks.server;
 
 import com.google.common.base.Predicate;
 import cubicchunks.CubicChunks;
-import cubicchunks.lighting.LightingManager;
 import cubicchunks.network.PacketCubeBlockChange;
 import cubicchunks.network.PacketDispatcher;
 import cubicchunks.network.PacketUnloadCube;
@@ -162,14 +161,7 @@ public class CubeWatcher implements XYZAddressable, ITicket {
         if (this.cube != null) {
             this.cube.getTickets().add(this);
         }
-        playerCubeMap.getWorld().getProfiler().endStartSection("light");
-        if (this.cube != null) {
-            LightingManager.CubeLightUpdateInfo info = this.cube.getCubeLightUpdateInfo();
-            if (info != null) {
-                info.tick();
-            }
-            assert !this.cube.hasLightUpdates();
-        }
+        // queued light updates are done in PlayerCubeMap before sending cubes
         playerCubeMap.getWorld().getProfiler().endSection();
 
         return this.cube != null;
@@ -0,0 +1,171 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server;
+
+import cubicchunks.CubicChunks;
+import cubicchunks.IConfigUpdateListener;
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.management.NotificationEmitter;
+
+/**
+ * Watches heap usage and reports memory pressure, so that cubes can be unloaded early and generation slowed down
+ * before the server runs out of memory.
+ * <p>
+ * Only the tenured pool is watched, young generation pools are emptied by every minor collection and say nothing
+ * about how much is actually kept alive. The tenured pool is given a collection usage threshold at the high watermark,
+ * so the JVM notifies us as soon as a garbage collection leaves more than that in use. Memory pressure ends once
+ * usage after collection has dropped below the low watermark. Usage is measured after collection because that is what
+ * is actually live, heap usage measured at any other time mostly depends on when the next collection happens.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class MemoryGovernor implements IConfigUpdateListener {
+
+    private static final MemoryGovernor INSTANCE = new MemoryGovernor();
+
+    private static final long CHECK_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    // the old generation, or the only heap pool of single generation collectors. Null if the JVM has no such pool
+    @Nullable private final MemoryPoolMXBean tenuredPool;
+
+    private volatile boolean underPressure = false;
+    private volatile int highWatermark;
+    private volatile int lowWatermark;
+    private long lastCheck;
+
+    private MemoryGovernor() {
+        this.tenuredPool = findTenuredPool(ManagementFactory.getMemoryPoolMXBeans());
+        if (tenuredPool == null) {
+            CubicChunks.LOGGER.warn("Could not find the tenured heap pool, memory pressure won't be detected");
+        }
+        ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).addNotificationListener((notification, handback) -> {
+            if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType())
+                    && highWatermark > 0 && !underPressure) {
+                underPressure = true;
+                CubicChunks.LOGGER.warn("Heap usage after garbage collection is above {}%, unloading cubes early", highWatermark);
+            }
+        }, null, null);
+        onConfigUpdate(CubicChunks.Config.IntOptions.HEAP_HIGH_WATERMARK_PERCENT.getValue(),
+                CubicChunks.Config.IntOptions.HEAP_LOW_WATERMARK_PERCENT.getValue());
+        CubicChunks.addConfigChangeListener(this);
+    }
+
+    public static MemoryGovernor get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return true if heap usage crossed the high watermark and hasn't dropped below the low watermark since
+     */
+    public boolean isUnderPressure() {
+        return underPressure;
+    }
+
+    /**
+     * Checks whether memory pressure has ended. Can be called every tick, the check itself runs at most once a second.
+     */
+    public void tick() {
+        if (!underPressure) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (now - lastCheck < CHECK_INTERVAL) {
+            return;
+        }
+        lastCheck = now;
+        int low = lowWatermark;
+        if (highWatermark == 0 || getUsagePercent() < low) {
+            underPressure = false;
+            CubicChunks.LOGGER.info("Heap usage after garbage collection is below {}% again", low);
+        }
+    }
+
+    /**
+     * Young generation pools (eden, survivor) don't support usage thresholds in any of the HotSpot collectors, the
+     * tenured pool does. On Java 8 this picks "Tenured Gen" with the serial collector, "PS Old Gen" with the parallel
+     * one, "CMS Old Gen" with CMS and "G1 Old Gen" with G1.
+     *
+     * @param pools all memory pools of the JVM
+     *
+     * @return the tenured pool, or null if there is none
+     */
+    @Nullable
+    static MemoryPoolMXBean findTenuredPool(List<MemoryPoolMXBean> pools) {
+        for (MemoryPoolMXBean pool : pools) {
+            if (pool.getType() == MemoryType.HEAP && pool.isUsageThresholdSupported()
+                    && pool.isCollectionUsageThresholdSupported()) {
+                return pool;
+            }
+        }
+        return null;
+    }
+
+    private static long getMaxSize(MemoryPoolMXBean pool) {
+        long max = pool.getUsage().getMax();
+        return max > 0 ? max : Runtime.getRuntime().maxMemory();
+    }
+
+    /**
+     * @return the usage of the tenured pool after the last garbage collection, in percent of the pool's maximum size
+     */
+    private int getUsagePercent() {
+        MemoryPoolMXBean pool = tenuredPool;
+        if (pool == null) {
+            return 0;
+        }
+        MemoryUsage usage = pool.getCollectionUsage();
+        if (usage == null) {
+            return 0;
+        }
+        return (int) (usage.getUsed() * 100 / getMaxSize(pool));
+    }
+
+    @Override
+    public void onConfigUpdate(CubicChunks.Config config) {
+        onConfigUpdate(config.getHeapHighWatermarkPercent(), config.getHeapLowWatermarkPercent());
+    }
+
+    private synchronized void onConfigUpdate(int high, int low) {
+        this.highWatermark = high;
+        this.lowWatermark = Math.min(low, high);
+        if (tenuredPool != null) {
+            // a threshold of 0 disables notifications
+            tenuredPool.setCollectionUsageThreshold(high == 0 ? 0 : getMaxSize(tenuredPool) / 100 * high);
+        }
+        if (high == 0) {
+            underPressure = false;
+        }
+    }
+}
@@ -37,7 +37,7 @@ import cubicchunks.lighting.LightingManager;
 import cubicchunks.network.PacketCubes;
 import cubicchunks.network.PacketDispatcher;
 import cubicchunks.util.CubePos;
-import cubicchunks.util.XYZMap;
+import cubicchunks.util.LongXYZMap;
 import cubicchunks.util.XZMap;
 import cubicchunks.visibility.CubeSelector;
 import cubicchunks.visibility.CuboidalCubeSelector;
@@ -114,7 +114,7 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
      * Mapping of Cube positions to CubeWatchers (Cube equivalent of PlayerManager.PlayerInstance).
      * Contains cube positions of all cubes loaded by players.
      */
-    private final XYZMap<CubeWatcher> cubeWatchers = new XYZMap<>(0.7f, 25 * 25 * 25);
+    private final LongXYZMap<CubeWatcher> cubeWatchers = new LongXYZMap<>(0.7f, 25 * 25 * 25);
 
     /**
      * Mapping of Column positions to ColumnWatchers.
@@ -182,6 +182,24 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
     private final Multimap<EntityPlayerMP, Cube> cubesToSend = Multimaps.newSetMultimap(new HashMap<>(), HashSet::new);
     private volatile int maxGeneratedCubesPerTick = CubicChunks.Config.IntOptions.MAX_GENERATED_CUBES_PER_TICK.getValue();
 
+    /**
+     * How many cubes beyond the view distance to prefetch in the direction players are moving
+     */
+    private volatile int prefetchDistance = CubicChunks.Config.IntOptions.PREFETCH_DISTANCE.getValue();
+    /**
+     * Players slower than this (in blocks per tick) don't trigger prefetching, normal loading keeps up with them
+     */
+    private static final double MIN_PREFETCH_SPEED = 0.5;
+    /**
+     * How far ahead (in ticks) to predict player position when prefetching
+     */
+    private static final int PREFETCH_LOOKAHEAD_TICKS = 40;
+
+    /**
+     * How much slower cubes are generated for players while the server is low on memory
+     */
+    private static final int MEMORY_PRESSURE_GENERATION_DIVISOR = 8;
+
     public PlayerCubeMap(ICubicWorldServer worldServer) {
         super((WorldServer) worldServer);
         this.cubeCache = getWorld().getCubeCache();
@@ -234,6 +252,15 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
         }
 
 
+        getWorld().getProfiler().endStartSection("prefetch");
+        // prefetched cubes only take up more memory under memory pressure
+        if (this.prefetchDistance > 0 && !MemoryGovernor.get().isUnderPressure()) {
+            for (PlayerWrapper playerWrapper : this.players.valueCollection()) {
+                prefetchAhead(playerWrapper);
+            }
+        }
+
+        getWorld().getProfiler().endStartSection("updateEntries");
         //process instances to update
         this.cubeWatchersToUpdate.forEach(CubeWatcher::update);
         this.cubeWatchersToUpdate.clear();
@@ -290,6 +317,10 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
 
             long stopTime = System.nanoTime() + 50000000L;
             int chunksToGenerate = maxGeneratedCubesPerTick;
+            if (MemoryGovernor.get().isUnderPressure()) {
+                // give ChunkGc a chance to catch up
+                chunksToGenerate = Math.max(1, chunksToGenerate / MEMORY_PRESSURE_GENERATION_DIVISOR);
+            }
             Iterator<CubeWatcher> iterator = this.cubesToGenerate.iterator();
 
             while (iterator.hasNext() && chunksToGenerate >= 0 && System.nanoTime() < stopTime) {
@@ -321,6 +352,9 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
 
             getWorld().getProfiler().endSection(); // chunks
         }
+        // cubes with queued light updates can't be sent, so do all of them at once now
+        getWorld().getProfiler().endStartSection("light");
+        getWorld().getLightingManager().processUpdates();
         getWorld().getProfiler().endStartSection("send");
         if (!this.columnsToSendToClients.isEmpty()) {
             getWorld().getProfiler().startSection("columns");
@@ -363,6 +397,41 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
         getWorld().getProfiler().endSection();//playerCubeMapTick
     }
 
+    /**
+     * Predicts where the player will be in a moment from its current velocity, and prefetches cubes
+     * that will become visible there.
+     */
+    private void prefetchAhead(PlayerWrapper player) {
+        player.updateVelocity();
+        double speedSq = player.getSpeedSquared();
+        if (speedSq < MIN_PREFETCH_SPEED * MIN_PREFETCH_SPEED) {
+            player.lastPrefetchPos = null;
+            return;
+        }
+        double speed = Math.sqrt(speedSq);
+        double distance = Math.min(speed * PREFETCH_LOOKAHEAD_TICKS, this.prefetchDistance * Cube.SIZE);
+        double scale = distance / speed;
+        EntityPlayerMP entity = player.playerEntity;
+        CubePos current = player.getManagedCubePos();
+        CubePos predicted = CubePos.fromEntityCoords(
+                entity.posX + player.velocityX * scale,
+                entity.posY + player.velocityY * scale,
+                entity.posZ + player.velocityZ * scale);
+        if (predicted.equals(current) || predicted.equals(player.lastPrefetchPos)) {
+            return;
+        }
+        player.lastPrefetchPos = predicted;
+
+        Set<CubePos> cubesAhead = new HashSet<>();
+        this.cubeSelector.findChanged(current, predicted, horizontalViewDistance, verticalViewDistance,
+                new HashSet<>(), cubesAhead, new HashSet<>(), new HashSet<>());
+        for (CubePos pos : cubesAhead) {
+            if (this.cubeWatchers.get(pos.getX(), pos.getY(), pos.getZ()) == null) {
+                this.cubeCache.prefetchCube(pos.getX(), pos.getY(), pos.getZ());
+            }
+        }
+    }
+
     // CHECKED: 1.10.2-12.18.1.2092
     @Override
     public boolean contains(int cubeX, int cubeZ) {
@@ -455,18 +524,24 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
 
         CubePos playerCubePos = CubePos.fromEntity(player);
 
-        this.cubeSelector.forAllVisibleFrom(playerCubePos, horizontalViewDistance, verticalViewDistance, (currentPos) -> {
-            //create cubeWatcher and chunkWatcher
-            //order is important
-            ColumnWatcher chunkWatcher = getOrCreateColumnWatcher(currentPos.chunkPos());
-            //and add the player to them
-            if (!chunkWatcher.containsPlayer(player)) {
-                chunkWatcher.addPlayer(player);
-            }
-            CubeWatcher cubeWatcher = getOrCreateCubeWatcher(currentPos);
+        // read all the new cubes together instead of one by one
+        this.cubeCache.beginCubeLoadBatch();
+        try {
+            this.cubeSelector.forAllVisibleFrom(playerCubePos, horizontalViewDistance, verticalViewDistance, (currentPos) -> {
+                //create cubeWatcher and chunkWatcher
+                //order is important
+                ColumnWatcher chunkWatcher = getOrCreateColumnWatcher(currentPos.chunkPos());
+                //and add the player to them
+                if (!chunkWatcher.containsPlayer(player)) {
+                    chunkWatcher.addPlayer(player);
+                }
+                CubeWatcher cubeWatcher = getOrCreateCubeWatcher(currentPos);
 
-            cubeWatcher.addPlayer(player);
-        });
+                cubeWatcher.addPlayer(player);
+            });
+        } finally {
+            this.cubeCache.endCubeLoadBatch(playerCubePos);
+        }
         this.players.put(player.getEntityId(), playerWrapper);
         this.setNeedSort();
     }
@@ -550,11 +625,16 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
             columnWatcher.addPlayer(entry.playerEntity);
         });
         getWorld().getProfiler().endStartSection("createCubes");
-        cubesToLoad.forEach(pos -> {
-            CubeWatcher cubeWatcher = this.getOrCreateCubeWatcher(pos);
-            assert cubeWatcher.getCubePos().equals(pos);
-            cubeWatcher.addPlayer(entry.playerEntity);
-        });
+        this.cubeCache.beginCubeLoadBatch();
+        try {
+            cubesToLoad.forEach(pos -> {
+                CubeWatcher cubeWatcher = this.getOrCreateCubeWatcher(pos);
+                assert cubeWatcher.getCubePos().equals(pos);
+                cubeWatcher.addPlayer(entry.playerEntity);
+            });
+        } finally {
+            this.cubeCache.endCubeLoadBatch(newPos);
+        }
         getWorld().getProfiler().endStartSection("removeCubes");
         cubesToRemove.forEach(pos -> {
             CubeWatcher cubeWatcher = this.getCubeWatcher(pos);
@@ -742,11 +822,38 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
 
     private static final class PlayerWrapper {
 
+        private static final double VELOCITY_SMOOTHING = 0.25;
+
         final EntityPlayerMP playerEntity;
         private double managedPosY;
 
+        private double lastTickPosX;
+        private double lastTickPosY;
+        private double lastTickPosZ;
+        // smoothed velocity in blocks per tick, used for prefetching
+        double velocityX;
+        double velocityY;
+        double velocityZ;
+        @Nullable CubePos lastPrefetchPos;
+
         PlayerWrapper(EntityPlayerMP player) {
             this.playerEntity = player;
+            this.lastTickPosX = player.posX;
+            this.lastTickPosY = player.posY;
+            this.lastTickPosZ = player.posZ;
+        }
+
+        void updateVelocity() {
+            velocityX += (playerEntity.posX - lastTickPosX - velocityX) * VELOCITY_SMOOTHING;
+            velocityY += (playerEntity.posY - lastTickPosY - velocityY) * VELOCITY_SMOOTHING;
+            velocityZ += (playerEntity.posZ - lastTickPosZ - velocityZ) * VELOCITY_SMOOTHING;
+            lastTickPosX = playerEntity.posX;
+            lastTickPosY = playerEntity.posY;
+            lastTickPosZ = playerEntity.posZ;
+        }
+
+        double getSpeedSquared() {
+            return velocityX * velocityX + velocityY * velocityY + velocityZ * velocityZ;
         }
 
         void updateManagedPos() {
@@ -26,7 +26,6 @@ package cubicchunks.server;
 import cubicchunks.CubicChunks;
 import cubicchunks.util.Coords;
 import cubicchunks.util.ticket.ITicket;
-import cubicchunks.world.ICubeProvider;
 import cubicchunks.world.ICubicWorld;
 import cubicchunks.world.IProviderExtras;
 import mcp.MethodsReturnNonnullByDefault;
@@ -83,20 +82,8 @@ public class SpawnCubes {
             if (radius < 0 || spawnPoint == null) {
                 return; // no spawn chunks OR nothing to remove
             }
-
-            ICubeProvider serverCubeCache = world.getCubeCache();
-
-            int spawnCubeX = Coords.blockToCube(spawnPoint.getX());
-            int spawnCubeY = Coords.blockToCube(spawnPoint.getY());
-            int spawnCubeZ = Coords.blockToCube(spawnPoint.getZ());
-
-            for (int cubeX = spawnCubeX - radius; cubeX <= spawnCubeX + radius; cubeX++) {
-                for (int cubeZ = spawnCubeZ - radius; cubeZ <= spawnCubeZ + radius; cubeZ++) {
-                    for (int cubeY = spawnCubeY + radius; cubeY >= spawnCubeY - radius; cubeY--) {
-                        serverCubeCache.getCube(cubeX, cubeY, cubeZ).getTickets().remove(this);
-                    }
-                }
-            }
+            // only cubes that got the ticket since the world has been loaded have it, nothing needs to be loaded
+            ((CubeProviderServer) world.getCubeCache()).getTicketManager().releaseAll(this);
         }
 
         private void addTickets(ICubicWorld world) {
@@ -105,6 +92,7 @@ public class SpawnCubes {
             }
 
             CubeProviderServer serverCubeCache = (CubeProviderServer) world.getCubeCache();
+            TicketManager ticketManager = serverCubeCache.getTicketManager();
 
             // load the cubes around the spawn point
             CubicChunks.LOGGER.info("Loading cubes for spawn...");
@@ -121,7 +109,7 @@ public class SpawnCubes {
             for (int cubeX = spawnCubeX - radius; cubeX <= spawnCubeX + radius; cubeX++) {
                 for (int cubeZ = spawnCubeZ - radius; cubeZ <= spawnCubeZ + radius; cubeZ++) {
                     for (int cubeY = spawnCubeY + radius; cubeY >= spawnCubeY - radius; cubeY--) {
-                        serverCubeCache.getCube(cubeX, cubeY, cubeZ, IProviderExtras.Requirement.LIGHT).getTickets().add(this);
+                        ticketManager.add(this, serverCubeCache.getCube(cubeX, cubeY, cubeZ, IProviderExtras.Requirement.LIGHT));
                         generated++;
                         if (System.currentTimeMillis() >= lastTime + progressReportInterval) {
                             lastTime = System.currentTimeMillis();
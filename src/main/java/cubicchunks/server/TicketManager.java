@@ -0,0 +1,104 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server;
+
+import cubicchunks.util.ticket.ITicket;
+import cubicchunks.world.cube.Cube;
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Keeps track of which cubes hold a ticket, for tickets that cover many cubes (like the spawn area). Such a ticket
+ * can then be released from all of its cubes at once, without looking up or loading any of them.
+ * <p>
+ * Tickets that only ever hold a single cube (like {@link CubeWatcher}) don't need this and are added to the cube's
+ * {@link cubicchunks.util.ticket.TicketList} directly.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TicketManager {
+
+    @Nonnull private final Map<ITicket, Set<Cube>> cubesByTicket = new IdentityHashMap<>();
+
+    /**
+     * Adds the ticket to the cube, and remembers the cube so that the ticket can be released with {@link
+     * #releaseAll(ITicket)}.
+     *
+     * @param ticket the ticket
+     * @param cube the cube to hold loaded
+     */
+    public void add(ITicket ticket, Cube cube) {
+        cube.getTickets().add(ticket);
+        cubesByTicket.computeIfAbsent(ticket, t -> new HashSet<>()).add(cube);
+    }
+
+    /**
+     * Removes the ticket from a single cube.
+     *
+     * @param ticket the ticket
+     * @param cube the cube that no longer needs to be held loaded by the ticket
+     */
+    public void remove(ITicket ticket, Cube cube) {
+        cube.getTickets().remove(ticket);
+        Set<Cube> cubes = cubesByTicket.get(ticket);
+        if (cubes != null && cubes.remove(cube) && cubes.isEmpty()) {
+            cubesByTicket.remove(ticket);
+        }
+    }
+
+    /**
+     * Removes the ticket from all cubes it has been added to through this manager. Cubes that lose their last ticket
+     * become candidates for {@link ChunkGc}.
+     *
+     * @param ticket the ticket to release
+     * @return the number of cubes the ticket has been removed from
+     */
+    public int releaseAll(ITicket ticket) {
+        Set<Cube> cubes = cubesByTicket.remove(ticket);
+        if (cubes == null) {
+            return 0;
+        }
+        for (Cube cube : cubes) {
+            cube.getTickets().remove(ticket);
+        }
+        return cubes.size();
+    }
+
+    /**
+     * @param ticket the ticket
+     * @return the cubes the ticket has been added to through this manager
+     */
+    public Set<Cube> getCubes(ITicket ticket) {
+        Set<Cube> cubes = cubesByTicket.get(ticket);
+        return cubes == null ? Collections.emptySet() : Collections.unmodifiableSet(cubes);
+    }
+}
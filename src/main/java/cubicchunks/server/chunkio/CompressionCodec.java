@@ -0,0 +1,145 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import com.google.common.io.ByteStreams;
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Compression used for cubes and columns stored in region files.
+ * <p>
+ * The first byte of every stored entry identifies the codec it was compressed with, so worlds can contain entries
+ * written with different codecs. GZIP entries are stored as plain GZIP streams (like before codecs existed),
+ * and use the first byte of the GZIP header as their ID. All other codecs prefix the data with their ID.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+public enum CompressionCodec {
+    /**
+     * Store entries uncompressed
+     */
+    NONE(0) {
+        @Override public byte[] compress(byte[] data) {
+            byte[] out = new byte[data.length + 1];
+            out[0] = id;
+            System.arraycopy(data, 0, out, 1, data.length);
+            return out;
+        }
+
+        @Override byte[] decompressData(byte[] data) {
+            return Arrays.copyOfRange(data, 1, data.length);
+        }
+    },
+    /**
+     * LZ4 block format, much faster than GZIP at the cost of larger files
+     */
+    LZ4(1) {
+        @Override public byte[] compress(byte[] data) {
+            return LZ4Block.compress(data, id);
+        }
+
+        @Override byte[] decompressData(byte[] data) throws IOException {
+            return LZ4Block.decompress(data, 1);
+        }
+    },
+    /**
+     * The format used by vanilla and older versions of cubic chunks
+     */
+    GZIP(0x1F) {
+        @Override public byte[] compress(byte[] data) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+                gzip.write(data);
+            }
+            return out.toByteArray();
+        }
+
+        @Override byte[] decompressData(byte[] data) throws IOException {
+            try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+                return ByteStreams.toByteArray(in);
+            }
+        }
+    };
+
+    final byte id;
+
+    CompressionCodec(int id) {
+        this.id = (byte) id;
+    }
+
+    public abstract byte[] compress(byte[] data) throws IOException;
+
+    abstract byte[] decompressData(byte[] data) throws IOException;
+
+    /**
+     * @return the name used in config and world data
+     */
+    public String getName() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Decompresses data written by any codec
+     */
+    public static byte[] decompress(byte[] data) throws IOException {
+        if (data.length == 0) {
+            throw new IOException("Empty entry");
+        }
+        for (CompressionCodec codec : values()) {
+            if (codec.id == data[0]) {
+                return codec.decompressData(data);
+            }
+        }
+        throw new IOException("Unknown compression codec ID " + data[0]);
+    }
+
+    @Nullable
+    public static CompressionCodec byName(String name) {
+        for (CompressionCodec codec : values()) {
+            if (codec.getName().equals(name)) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
+    public static String[] names() {
+        String[] names = new String[values().length];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = values()[i].getName();
+        }
+        return names;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import cubicchunks.util.CubePos;
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Size bounded cache of decompressed cube data that was recently read from or written to disk, so that cubes
+ * unloaded and then loaded again soon after don't need to be read and decompressed again. The least recently
+ * used cubes are evicted first when the cache is over its byte budget.
+ * <p>
+ * The cache is only consulted after the save queue, so it's allowed to briefly hold data older than a queued save.
+ * Saving a cube invalidates it, and the new data is put here once it's written.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+public class CubeDataCache {
+
+    // rough memory used by the map entry, key and array header
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private final long maxBytes;
+    private final LinkedHashMap<CubePos, byte[]> cubes = new LinkedHashMap<>(1024, 0.75f, true);
+    private long bytes;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    CubeDataCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    @Nullable synchronized byte[] get(CubePos pos) {
+        byte[] data = cubes.get(pos);
+        if (data == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return data;
+    }
+
+    synchronized boolean contains(CubePos pos) {
+        return cubes.containsKey(pos);
+    }
+
+    synchronized void put(CubePos pos, byte[] data) {
+        long size = sizeOf(data);
+        if (size > maxBytes) {
+            invalidate(pos);
+            return;
+        }
+        byte[] old = cubes.put(pos, data);
+        if (old != null) {
+            bytes -= sizeOf(old);
+        }
+        bytes += size;
+        Iterator<byte[]> it = cubes.values().iterator();
+        while (bytes > maxBytes) {
+            bytes -= sizeOf(it.next());
+            it.remove();
+            evictions++;
+        }
+    }
+
+    synchronized void invalidate(CubePos pos) {
+        if (cubes.isEmpty()) {
+            return;
+        }
+        byte[] old = cubes.remove(pos);
+        if (old != null) {
+            bytes -= sizeOf(old);
+        }
+    }
+
+    /**
+     * Drops all cached cubes, to free memory.
+     */
+    public synchronized void clear() {
+        evictions += cubes.size();
+        cubes.clear();
+        bytes = 0;
+    }
+
+    private static long sizeOf(byte[] data) {
+        return data.length + ENTRY_OVERHEAD;
+    }
+
+    public synchronized int size() {
+        return cubes.size();
+    }
+
+    /**
+     * @return approximate memory used by cached cubes, in bytes
+     */
+    public synchronized long getSizeBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return the number of cube loads that were served from this cache
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of cube loads that weren't in the cache
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the number of cubes dropped to stay within the byte budget
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import cubicchunks.util.BlockStateContainerCopy;
+import cubicchunks.world.cube.Cube;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.world.chunk.NibbleArray;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Copy of everything needed to save a cube, taken on the world thread so that the cube can be encoded and compressed
+ * on save threads without touching the cube.
+ * <p>
+ * Blocks are copied with {@link BlockStateContainerCopy}, and light arrays are cloned. Only entities, tile entities,
+ * scheduled ticks and lighting info are written to NBT on the world thread.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+final class CubeSnapshot {
+
+    final int x, y, z;
+    final boolean populated;
+    final boolean fullyPopulated;
+    final boolean initialLightingDone;
+
+    @Nullable private final byte[] blocks;
+    @Nullable final byte[] blockLight;
+    @Nullable final byte[] skyLight;
+
+    /**
+     * Written by {@link IONbtWriter#writeNonBlockData(Cube)}, not modified afterwards
+     */
+    final NBTTagCompound nonBlockData;
+
+    private CubeSnapshot(Cube cube, NBTTagCompound nonBlockData) {
+        this.x = cube.getX();
+        this.y = cube.getY();
+        this.z = cube.getZ();
+        this.populated = cube.isPopulated();
+        this.fullyPopulated = cube.isFullyPopulated();
+        this.initialLightingDone = cube.isInitialLightingDone();
+
+        ExtendedBlockStorage ebs = cube.getReadOnlyStorage();
+        if (ebs == null) {
+            this.blocks = null;
+            this.blockLight = null;
+            this.skyLight = null;
+        } else {
+            this.blocks = BlockStateContainerCopy.copy(ebs.getData());
+            this.blockLight = ebs.getBlockLight().getData().clone();
+            this.skyLight = cube.getCubicWorld().getProvider().hasSkyLight() ? ebs.getSkyLight().getData().clone() : null;
+        }
+        this.nonBlockData = nonBlockData;
+    }
+
+    /**
+     * Copies the cube. Must be called from the world thread.
+     */
+    static CubeSnapshot of(Cube cube) {
+        return of(cube, IONbtWriter.writeNonBlockData(cube));
+    }
+
+    /**
+     * Copies the blocks of the cube, with the given NBT instead of the entities, tile entities, scheduled ticks and
+     * lighting info of the cube. Must be called from the world thread.
+     */
+    static CubeSnapshot of(Cube cube, NBTTagCompound nonBlockData) {
+        return new CubeSnapshot(cube, nonBlockData);
+    }
+
+    boolean hasStorage() {
+        return blocks != null;
+    }
+
+    /**
+     * Decodes block state IDs of all blocks, index of block x, y, z is (y &lt;&lt; 8 | z &lt;&lt; 4 | x)
+     */
+    void getStateIds(int[] out) {
+        assert blocks != null;
+        BlockStateContainerCopy.getStateIds(blocks, out);
+    }
+
+    /**
+     * Builds the same NBT as {@link IONbtWriter#write(Cube)} would have. Can be called from any thread.
+     */
+    NBTTagCompound toNbt() {
+        NBTTagCompound cubeNbt = new NBTTagCompound();
+        for (String key : nonBlockData.getKeySet()) {
+            if (!key.equals("Level")) {
+                cubeNbt.setTag(key, nonBlockData.getTag(key));
+            }
+        }
+        // the level tag is shared between snapshots, so the tags are added to a new one
+        NBTTagCompound nonBlockLevel = nonBlockData.getCompoundTag("Level");
+        NBTTagCompound level = new NBTTagCompound();
+        for (String key : nonBlockLevel.getKeySet()) {
+            level.setTag(key, nonBlockLevel.getTag(key));
+        }
+        cubeNbt.setTag("Level", level);
+
+        level.setByte("v", (byte) 1);
+        level.setInteger("x", x);
+        level.setInteger("y", y);
+        level.setInteger("z", z);
+        level.setBoolean("populated", populated);
+        level.setBoolean("fullyPopulated", fullyPopulated);
+        level.setBoolean("initLightDone", initialLightingDone);
+
+        if (blocks != null) {
+            writeSection(level);
+        }
+        return cubeNbt;
+    }
+
+    private void writeSection(NBTTagCompound level) {
+        assert blockLight != null;
+        int[] ids = new int[IOBinaryWriter.BLOCKS];
+        getStateIds(ids);
+
+        byte[] blockIds = new byte[IOBinaryWriter.BLOCKS];
+        NibbleArray data = new NibbleArray();
+        NibbleArray add = null;
+        for (int i = 0; i < IOBinaryWriter.BLOCKS; i++) {
+            int id = ids[i];
+            int addBits = (id >> 12) & 0xF;
+            if (addBits != 0) {
+                if (add == null) {
+                    add = new NibbleArray();
+                }
+                add.set(i & 0xF, i >> 8, (i >> 4) & 0xF, addBits);
+            }
+            blockIds[i] = (byte) ((id >> 4) & 0xFF);
+            data.set(i & 0xF, i >> 8, (i >> 4) & 0xF, id & 0xF);
+        }
+
+        NBTTagCompound section = new NBTTagCompound();
+        section.setByteArray("Blocks", blockIds);
+        section.setByteArray("Data", data.getData());
+        if (add != null) {
+            section.setByteArray("Add", add.getData());
+        }
+        section.setByteArray("BlockLight", blockLight);
+        if (skyLight != null) {
+            section.setByteArray("SkyLight", skyLight);
+        }
+        NBTTagList sections = new NBTTagList();
+        sections.appendTag(section);
+        level.setTag("Sections", sections);
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import cubicchunks.CubicChunks;
+import mcp.MethodsReturnNonnullByDefault;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Remembers which cubes or columns were ever saved, so that loading one that was never generated doesn't need to
+ * touch the region files at all.
+ * <p>
+ * Entries are grouped into index regions, each with a bitset stored in its own file. The index is only trusted if it
+ * was created together with the region files, which is recorded by a marker file. Otherwise it's disabled and nothing
+ * is known about any entry.
+ * <p>
+ * Index files are written by {@link #persist()}, so after a crash they may be missing recent entries. To detect that,
+ * index regions are added to a journal before their first change since the last persist. Regions found in the journal
+ * on startup aren't trusted anymore, and are always reported as possibly existing.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+public class ExistenceIndex {
+
+    private static final Logger LOGGER = CubicChunks.LOGGER;
+
+    private static final String COMPLETE_MARKER = "complete";
+    private static final String JOURNAL = "journal";
+    private static final int FORMAT_VERSION = 1;
+    private static final int STATE_TRACKED = 0;
+    private static final int STATE_UNTRACKED = 1;
+
+    private final Path dir;
+    private final String prefix;
+    private final int horizontalBits;
+    private final int verticalBits;
+    private final boolean enabled;
+
+    // null value means the region isn't tracked
+    private final Map<String, long[]> regions = new HashMap<>();
+    private final Set<String> dirtyRegions = new HashSet<>();
+
+    private long skippedReads;
+
+    /**
+     * @param dir directory of the index
+     * @param prefix prefix of index file names, separates indexes sharing a directory
+     * @param horizontalBits log2 of index region size in x and z
+     * @param verticalBits log2 of index region size in y, 0 for columns
+     * @param newRegions whether the region files are created together with the index, so that nothing was saved
+     * yet. The index is only enabled if it was created at that time
+     */
+    ExistenceIndex(Path dir, String prefix, int horizontalBits, int verticalBits, boolean newRegions)
+            throws IOException {
+        this.dir = dir;
+        this.prefix = prefix;
+        this.horizontalBits = horizontalBits;
+        this.verticalBits = verticalBits;
+
+        Path marker = dir.resolve(prefix + "." + COMPLETE_MARKER);
+        if (!Files.exists(marker) && newRegions) {
+            Files.createDirectories(dir);
+            Files.createFile(marker);
+        }
+        this.enabled = Files.exists(marker);
+        if (enabled) {
+            recoverJournal();
+        }
+    }
+
+    private void recoverJournal() throws IOException {
+        Path journal = journalPath();
+        if (!Files.exists(journal)) {
+            return;
+        }
+        List<String> lines = Files.readAllLines(journal, StandardCharsets.UTF_8);
+        LOGGER.warn("{} index regions of {} weren't saved before the last shutdown, they won't be used", lines.size(), prefix);
+        for (String region : lines) {
+            if (!region.isEmpty()) {
+                writeRegion(region, null);
+            }
+        }
+        Files.delete(journal);
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return false only if the entry is known to have never been saved
+     */
+    synchronized boolean mightExist(int x, int y, int z) {
+        if (getExistence(x, y, z) != ICubeIO.Existence.NEVER_SAVED) {
+            return true;
+        }
+        skippedReads++;
+        return false;
+    }
+
+    /**
+     * @return what the index knows about the entry, {@link ICubeIO.Existence#UNKNOWN} if the index is disabled or
+     * the entry's index region isn't tracked
+     */
+    synchronized ICubeIO.Existence getExistence(int x, int y, int z) {
+        if (!enabled) {
+            return ICubeIO.Existence.UNKNOWN;
+        }
+        long[] bits = getRegion(regionName(x, y, z));
+        if (bits == null) {
+            return ICubeIO.Existence.UNKNOWN;
+        }
+        int index = indexInRegion(x, y, z);
+        return (bits[index >>> 6] & (1L << index)) != 0 ? ICubeIO.Existence.SAVED : ICubeIO.Existence.NEVER_SAVED;
+    }
+
+    /**
+     * Records that an entry is going to be saved. Must be called before it's written.
+     */
+    synchronized void markExists(int x, int y, int z) {
+        if (!enabled) {
+            return;
+        }
+        String region = regionName(x, y, z);
+        long[] bits = getRegion(region);
+        if (bits == null) {
+            return;
+        }
+        int index = indexInRegion(x, y, z);
+        long bit = 1L << index;
+        if ((bits[index >>> 6] & bit) != 0) {
+            return;
+        }
+        if (dirtyRegions.add(region)) {
+            try {
+                appendToJournal(region);
+            } catch (IOException e) {
+                // the change can't be persisted safely, stop trusting this region
+                LOGGER.error("Unable to write existence index journal, index region " + region + " won't be used", e);
+                regions.put(region, null);
+                dirtyRegions.remove(region);
+                return;
+            }
+        }
+        bits[index >>> 6] |= bit;
+    }
+
+    /**
+     * Writes all changed index regions to disk
+     */
+    synchronized void persist() throws IOException {
+        if (dirtyRegions.isEmpty()) {
+            return;
+        }
+        for (String region : dirtyRegions) {
+            writeRegion(region, regions.get(region));
+        }
+        dirtyRegions.clear();
+        Files.deleteIfExists(journalPath());
+    }
+
+    /**
+     * @return the number of reads that were skipped because the entry was never saved
+     */
+    public synchronized long getSkippedReads() {
+        return skippedReads;
+    }
+
+    @Nullable private long[] getRegion(String region) {
+        if (regions.containsKey(region)) {
+            return regions.get(region);
+        }
+        long[] bits;
+        try {
+            bits = readRegion(region);
+        } catch (IOException e) {
+            LOGGER.error("Unable to read existence index region " + region + ", it won't be used", e);
+            bits = null;
+        }
+        regions.put(region, bits);
+        return bits;
+    }
+
+    @Nullable private long[] readRegion(String region) throws IOException {
+        Path file = dir.resolve(region);
+        int longs = regionLongs();
+        if (!Files.exists(file)) {
+            // the index was there since the world was created, so nothing was saved in this region yet
+            return new long[longs];
+        }
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+            int version = in.readUnsignedByte();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unknown existence index version " + version);
+            }
+            if (in.readUnsignedByte() == STATE_UNTRACKED) {
+                return null;
+            }
+            long[] bits = new long[longs];
+            for (int i = 0; i < longs; i++) {
+                bits[i] = in.readLong();
+            }
+            return bits;
+        }
+    }
+
+    private void writeRegion(String region, @Nullable long[] bits) throws IOException {
+        Path file = dir.resolve(region);
+        Path tmp = dir.resolve(region + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(tmp))) {
+            out.writeByte(FORMAT_VERSION);
+            out.writeByte(bits == null ? STATE_UNTRACKED : STATE_TRACKED);
+            if (bits != null) {
+                for (long word : bits) {
+                    out.writeLong(word);
+                }
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void appendToJournal(String region) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(journalPath(), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.DSYNC)) {
+            out.write(region);
+            out.newLine();
+        }
+    }
+
+    private Path journalPath() {
+        return dir.resolve(prefix + "." + JOURNAL);
+    }
+
+    private String regionName(int x, int y, int z) {
+        return prefix + "." + (x >> horizontalBits) + "." + (y >> verticalBits) + "." + (z >> horizontalBits);
+    }
+
+    private int indexInRegion(int x, int y, int z) {
+        int mask = (1 << horizontalBits) - 1;
+        int localY = y & ((1 << verticalBits) - 1);
+        return ((localY << horizontalBits | (z & mask)) << horizontalBits) | (x & mask);
+    }
+
+    private int regionLongs() {
+        return Math.max(1, (1 << (2 * horizontalBits + verticalBits)) >> 6);
+    }
+}
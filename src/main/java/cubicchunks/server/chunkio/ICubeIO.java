@@ -23,11 +23,14 @@
  */
 package cubicchunks.server.chunkio;
 
+import cubicchunks.util.CubePos;
 import cubicchunks.world.column.IColumn;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.world.storage.IThreadedFileIO;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
 
 import javax.annotation.Nullable;
 
@@ -36,16 +39,46 @@ import cubicchunks.world.cube.Cube;
 public interface ICubeIO extends IThreadedFileIO {
 	void flush() throws IOException;
 
+	/**
+	 * Waits until all cubes and columns saved so far are written to disk. Unlike {@link #flush()}, saving can continue
+	 * afterwards.
+	 */
+	void flushToDisk() throws IOException;
+
 	@Nullable IColumn loadColumn(int chunkX, int chunkZ) throws IOException;
 
 	@Nullable PartialCubeData loadCubeAsyncPart(IColumn column, int cubeY) throws IOException;
 
 	void loadCubeSyncPart(PartialCubeData info);
 
+	/**
+	 * Reads a cube ahead of time, so that loading it later doesn't need to access the disk.
+	 * Does nothing if the cube doesn't exist.
+	 */
+	void prefetchCube(int cubeX, int cubeY, int cubeZ) throws IOException;
+
+	/**
+	 * Checks whether the cube was saved, without accessing the disk. Tells apart cubes known to be saved, cubes known
+	 * to have never been saved, and cubes nothing is known about, for example in worlds without an existence index.
+	 */
+	Existence getCubeExistence(int cubeX, int cubeY, int cubeZ);
+
+	/**
+	 * Groups cubes by the file they are stored in, so that each group can be read in one go.
+	 * Cubes keep their relative order within a group, and groups are ordered by their first cube.
+	 */
+	Collection<List<CubePos>> groupByRegion(Collection<CubePos> cubes);
+
 	void saveColumn(IColumn column);
 
 	void saveCube(Cube cube);
 
+	enum Existence {
+		SAVED,
+		NEVER_SAVED,
+		UNKNOWN
+	}
+
 	/**
 	 * Stores partially read cube, before sync read but after async read
 	 */
@@ -0,0 +1,176 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import static cubicchunks.server.chunkio.IOBinaryWriter.BLOCKS;
+import static cubicchunks.server.chunkio.IOBinaryWriter.FLAG_FULLY_POPULATED;
+import static cubicchunks.server.chunkio.IOBinaryWriter.FLAG_HAS_SKY_LIGHT;
+import static cubicchunks.server.chunkio.IOBinaryWriter.FLAG_HAS_STORAGE;
+import static cubicchunks.server.chunkio.IOBinaryWriter.FLAG_INIT_LIGHT_DONE;
+import static cubicchunks.server.chunkio.IOBinaryWriter.FLAG_POPULATED;
+
+import cubicchunks.CubicChunks;
+import cubicchunks.util.Coords;
+import cubicchunks.world.column.IColumn;
+import cubicchunks.world.cube.Cube;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.Unpooled;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTSizeTracker;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.network.PacketBuffer;
+import net.minecraft.util.datafix.DataFixer;
+import net.minecraft.util.datafix.FixTypes;
+import net.minecraft.world.chunk.BlockStateContainer;
+import net.minecraft.world.chunk.NibbleArray;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import net.minecraftforge.fml.common.FMLCommonHandler;
+
+import java.io.IOException;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Reads cubes written by {@link IOBinaryWriter}
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+class IOBinaryReader {
+
+    /**
+     * @return true if the data is in the binary format, false if it's NBT
+     */
+    static boolean isBinaryCube(byte[] data) {
+        return data.length > 0 && data[0] == IOBinaryWriter.FORMAT_ID;
+    }
+
+    @Nullable
+    static ICubeIO.PartialCubeData readCubeAsyncPart(IColumn column, final int cubeX, final int cubeY, final int cubeZ, byte[] data)
+            throws IOException {
+        return readCubeAsyncPart(column, cubeX, cubeY, cubeZ, data, FMLCommonHandler.instance().getDataFixer());
+    }
+
+    @Nullable
+    static ICubeIO.PartialCubeData readCubeAsyncPart(IColumn column, final int cubeX, final int cubeY, final int cubeZ,
+            byte[] data, DataFixer fixer) throws IOException {
+        if (column.getX() != cubeX || column.getZ() != cubeZ) {
+            throw new IllegalArgumentException(String.format("Invalid column (%d, %d) for cube at (%d, %d, %d)",
+                    column.getX(), column.getZ(), cubeX, cubeY, cubeZ));
+        }
+        PacketBuffer in = new PacketBuffer(Unpooled.wrappedBuffer(data));
+        byte formatId = in.readByte();
+        byte version = in.readByte();
+        if (formatId != IOBinaryWriter.FORMAT_ID || version != IOBinaryWriter.VERSION) {
+            throw new IOException(String.format("Cube has wrong format or version! format=%d, version=%d", formatId, version));
+        }
+
+        int xCheck = in.readInt();
+        int yCheck = in.readInt();
+        int zCheck = in.readInt();
+        if (xCheck != cubeX || yCheck != cubeY || zCheck != cubeZ) {
+            CubicChunks.LOGGER.error(String
+                    .format("Cube is corrupted! Expected (%d,%d,%d) but got (%d,%d,%d). Cube will be regenerated.", cubeX, cubeY, cubeZ, xCheck,
+                            yCheck, zCheck));
+            return null;
+        }
+
+        int flags = in.readUnsignedByte();
+        final Cube cube = new Cube(column, cubeY);
+        cube.setPopulated((flags & FLAG_POPULATED) != 0);
+        cube.setFullyPopulated((flags & FLAG_FULLY_POPULATED) != 0);
+        cube.setInitialLightingDone((flags & FLAG_INIT_LIGHT_DONE) != 0);
+
+        if ((flags & FLAG_HAS_STORAGE) != 0) {
+            boolean hasSkyLight = column.getCubicWorld().getProvider().hasSkyLight();
+            ExtendedBlockStorage ebs = new ExtendedBlockStorage(Coords.cubeToMinBlock(cubeY), hasSkyLight);
+            readBlocks(in, ebs.getData());
+
+            byte[] blockLight = new byte[BLOCKS / 2];
+            in.readBytes(blockLight);
+            ebs.setBlockLight(new NibbleArray(blockLight));
+
+            if ((flags & FLAG_HAS_SKY_LIGHT) != 0) {
+                byte[] skyLight = new byte[BLOCKS / 2];
+                in.readBytes(skyLight);
+                if (hasSkyLight) {
+                    ebs.setSkyLight(new NibbleArray(skyLight));
+                }
+            }
+            ebs.recalculateRefCounts();
+            cube.setStorage(ebs);
+            cube.compactStorage();
+        }
+
+        NBTTagCompound nbt = CompressedStreamTools.read(new ByteBufInputStream(in), NBTSizeTracker.INFINITE);
+        if (nbt.getInteger("DataVersion") < fixer.version) {
+            nbt = fixer.process(FixTypes.CHUNK, nbt);
+        }
+        return new ICubeIO.PartialCubeData(cube, nbt);
+    }
+
+    private static void readBlocks(PacketBuffer in, BlockStateContainer data) {
+        int paletteSize = in.readVarInt();
+        IBlockState[] palette = new IBlockState[paletteSize];
+        for (int i = 0; i < paletteSize; i++) {
+            IBlockState state = Block.BLOCK_STATE_IDS.getByValue(in.readVarInt());
+            palette[i] = state == null ? Blocks.AIR.getDefaultState() : state;
+        }
+
+        int bits = in.readUnsignedByte();
+        if (bits == 0) {
+            IBlockState state = palette[0];
+            if (state.getBlock() != Blocks.AIR) {
+                for (int i = 0; i < BLOCKS; i++) {
+                    data.set(i & 0xF, i >> 8, (i >> 4) & 0xF, state);
+                }
+            }
+            return;
+        }
+        long mask = (1L << bits) - 1;
+        long word = 0;
+        int available = 0;
+        for (int i = 0; i < BLOCKS; i++) {
+            int index;
+            if (available >= bits) {
+                index = (int) (word & mask);
+                word >>>= bits;
+                available -= bits;
+            } else {
+                long next = in.readLong();
+                index = (int) ((word | next << available) & mask);
+                word = next >>> (bits - available);
+                available = Long.SIZE - (bits - available);
+            }
+            IBlockState state = palette[index];
+            if (state.getBlock() != Blocks.AIR) {
+                data.set(i & 0xF, i >> 8, (i >> 4) & 0xF, state);
+            }
+        }
+    }
+}
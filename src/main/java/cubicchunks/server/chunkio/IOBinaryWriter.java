@@ -0,0 +1,200 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import cubicchunks.world.cube.Cube;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.PooledByteBufAllocator;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.network.PacketBuffer;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Writes cubes in the binary cube format. Block data and light are written directly from a {@link CubeSnapshot} of
+ * the {@link ExtendedBlockStorage}, only entities, tile entities, scheduled ticks and lighting info are stored as NBT.
+ * <p>
+ * Format, version 1:
+ * <pre>
+ * byte      format ID, always {@link #FORMAT_ID}, NBT data always starts with 10 (compound tag ID)
+ * byte      version
+ * int       x, y, z
+ * byte      flags, see FLAG_* constants
+ * if has storage:
+ *   varint     palette size
+ *   varint[]   palette, block state IDs
+ *   byte       bits per block
+ *   long[]     palette indices, 4096 * bits / 64 longs, index of block x, y, z is at (y &lt;&lt; 8 | z &lt;&lt; 4 | x)
+ *   byte[2048] block light
+ *   if has sky light:
+ *     byte[2048] sky light
+ * NBT       the rest of the cube, written by {@link IONbtWriter#writeNonBlockData(Cube)}
+ * </pre>
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+class IOBinaryWriter {
+
+    static final byte FORMAT_ID = (byte) 0xCC;
+    static final byte VERSION = 1;
+
+    static final int FLAG_POPULATED = 1;
+    static final int FLAG_FULLY_POPULATED = 1 << 1;
+    static final int FLAG_INIT_LIGHT_DONE = 1 << 2;
+    static final int FLAG_HAS_STORAGE = 1 << 3;
+    static final int FLAG_HAS_SKY_LIGHT = 1 << 4;
+
+    static final int BLOCKS = Cube.SIZE * Cube.SIZE * Cube.SIZE;
+    // forge block state IDs are (blockId << 4 | meta) with at most 4096 block IDs
+    private static final int MAX_STATE_ID = 4096 << 4;
+
+    private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+
+    private static final ThreadLocal<PaletteBuilder> paletteBuilder = ThreadLocal.withInitial(PaletteBuilder::new);
+
+    /**
+     * Encodes a cube snapshot. Can be called from any thread.
+     */
+    static byte[] write(CubeSnapshot cube) throws IOException {
+        ByteBuf buf = PooledByteBufAllocator.DEFAULT.heapBuffer(INITIAL_BUFFER_SIZE);
+        try {
+            PacketBuffer out = new PacketBuffer(buf);
+            out.writeByte(FORMAT_ID);
+            out.writeByte(VERSION);
+            out.writeInt(cube.x);
+            out.writeInt(cube.y);
+            out.writeInt(cube.z);
+
+            boolean hasSkyLight = cube.skyLight != null;
+            int flags = 0;
+            flags |= cube.populated ? FLAG_POPULATED : 0;
+            flags |= cube.fullyPopulated ? FLAG_FULLY_POPULATED : 0;
+            flags |= cube.initialLightingDone ? FLAG_INIT_LIGHT_DONE : 0;
+            flags |= cube.hasStorage() ? FLAG_HAS_STORAGE : 0;
+            flags |= hasSkyLight ? FLAG_HAS_SKY_LIGHT : 0;
+            out.writeByte(flags);
+
+            if (cube.hasStorage()) {
+                assert cube.blockLight != null;
+                writeBlocks(out, cube);
+                out.writeBytes(cube.blockLight);
+                if (hasSkyLight) {
+                    out.writeBytes(cube.skyLight);
+                }
+            }
+
+            CompressedStreamTools.write(cube.nonBlockData, new ByteBufOutputStream(buf));
+
+            byte[] data = new byte[buf.readableBytes()];
+            buf.readBytes(data);
+            return data;
+        } finally {
+            buf.release();
+        }
+    }
+
+    private static void writeBlocks(PacketBuffer out, CubeSnapshot cube) {
+        PaletteBuilder palette = paletteBuilder.get();
+        int[] stateIds = palette.stateIds;
+        cube.getStateIds(stateIds);
+        short[] indices = palette.indices;
+        for (int i = 0; i < BLOCKS; i++) {
+            indices[i] = palette.indexOf(stateIds[i]);
+        }
+
+        int size = palette.size;
+        out.writeVarInt(size);
+        for (int i = 0; i < size; i++) {
+            out.writeVarInt(palette.ids[i]);
+        }
+        palette.clear();
+
+        int bits = bitsPerBlock(size);
+        out.writeByte(bits);
+        if (bits == 0) {
+            return;
+        }
+        long word = 0;
+        int used = 0;
+        for (int i = 0; i < BLOCKS; i++) {
+            long index = indices[i];
+            word |= index << used;
+            used += bits;
+            if (used >= Long.SIZE) {
+                out.writeLong(word);
+                used -= Long.SIZE;
+                word = used == 0 ? 0 : index >>> (bits - used);
+            }
+        }
+        // 4096 * bits is always a multiple of 64
+        assert used == 0;
+    }
+
+    static int bitsPerBlock(int paletteSize) {
+        return paletteSize <= 1 ? 0 : Integer.SIZE - Integer.numberOfLeadingZeros(paletteSize - 1);
+    }
+
+    /**
+     * Maps block state IDs to palette indices. The lookup table is reused between cubes, only entries that were
+     * used are cleared.
+     */
+    private static class PaletteBuilder {
+
+        final short[] indexById = new short[MAX_STATE_ID];
+        final int[] ids = new int[BLOCKS];
+        final short[] indices = new short[BLOCKS];
+        final int[] stateIds = new int[BLOCKS];
+        int size = 0;
+
+        PaletteBuilder() {
+            Arrays.fill(indexById, (short) -1);
+        }
+
+        short indexOf(int id) {
+            if (id >= MAX_STATE_ID) {
+                id = 0; // can't be saved in the vanilla NBT format either
+            }
+            short index = indexById[id];
+            if (index < 0) {
+                index = (short) size;
+                indexById[id] = index;
+                ids[size++] = id;
+            }
+            return index;
+        }
+
+        void clear() {
+            for (int i = 0; i < size; i++) {
+                indexById[ids[i]] = -1;
+            }
+            size = 0;
+        }
+    }
+}
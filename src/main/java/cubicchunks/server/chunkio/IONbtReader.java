@@ -35,6 +35,8 @@ import cubicchunks.world.column.IColumn;
 import cubicchunks.world.cube.Cube;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.block.Block;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTSizeTracker;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.nbt.NBTTagList;
 import net.minecraft.tileentity.TileEntity;
@@ -45,6 +47,10 @@ import net.minecraft.world.chunk.NibbleArray;
 import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 import net.minecraftforge.common.util.Constants;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
@@ -52,6 +58,14 @@ import javax.annotation.ParametersAreNonnullByDefault;
 @ParametersAreNonnullByDefault
 public class IONbtReader {
 
+    /**
+     * Reads uncompressed NBT data written by {@link IONbtWriter#writeNbtBytes(NBTTagCompound)}. Unlike the vanilla default
+     * there is no size limit, cubes with many tile entities can easily go over 2MB bits (256KB)
+     */
+    static NBTTagCompound readNbtBytes(byte[] data) throws IOException {
+        return CompressedStreamTools.read(new DataInputStream(new ByteArrayInputStream(data)), NBTSizeTracker.INFINITE);
+    }
+
     @Nullable
     static IColumn readColumn(ICubicWorld world, int x, int z, NBTTagCompound nbt) {
         NBTTagCompound level = nbt.getCompoundTag("Level");
@@ -185,6 +199,7 @@ public class IONbtReader {
 
             ebs.recalculateRefCounts();
             cube.setStorage(ebs);
+            cube.compactStorage();
         }
     }
 
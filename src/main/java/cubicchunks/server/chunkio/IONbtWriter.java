@@ -48,6 +48,7 @@ import net.minecraftforge.event.world.ChunkDataEvent;
 import net.minecraftforge.fml.common.FMLCommonHandler;
 
 import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -60,9 +61,12 @@ import javax.annotation.ParametersAreNonnullByDefault;
 @ParametersAreNonnullByDefault
 class IONbtWriter {
     
+    /**
+     * Writes uncompressed NBT data, it's compressed later by the {@link CompressionCodec} of the world
+     */
     static byte[] writeNbtBytes(NBTTagCompound nbt) throws IOException {
         ByteArrayOutputStream buf = new ByteArrayOutputStream();
-        CompressedStreamTools.writeCompressed(nbt, buf);
+        CompressedStreamTools.write(nbt, new DataOutputStream(buf));
         return buf.toByteArray();
     }
 
@@ -80,14 +84,27 @@ class IONbtWriter {
     }
 
     static NBTTagCompound write(final Cube cube) {
+        return write(cube, true);
+    }
+
+    /**
+     * Writes only entities, tile entities, scheduled ticks and lighting info, for cubes saved with {@link IOBinaryWriter}.
+     */
+    static NBTTagCompound writeNonBlockData(final Cube cube) {
+        return write(cube, false);
+    }
+
+    private static NBTTagCompound write(final Cube cube, boolean withBlocks) {
         NBTTagCompound cubeNbt = new NBTTagCompound();
         //Added to preserve compatibility with vanilla NBT chunk format.
         NBTTagCompound level = new NBTTagCompound();
         cubeNbt.setTag("Level", level);
         cubeNbt.setInteger("DataVersion", FMLCommonHandler.instance().getDataFixer().version);
         FMLCommonHandler.instance().getDataFixer().writeVersionData(cubeNbt);
-        writeBaseCube(cube, level);
-        writeBlocks(cube, level);
+        if (withBlocks) {
+            writeBaseCube(cube, level);
+            writeBlocks(cube, level);
+        }
         writeEntities(cube, level);
         writeTileEntities(cube, level);
         writeScheduledTicks(cube, level);
@@ -128,7 +145,7 @@ class IONbtWriter {
     }
 
     private static void writeBlocks(Cube cube, NBTTagCompound cubeNbt) {
-        ExtendedBlockStorage ebs = cube.getStorage();
+        ExtendedBlockStorage ebs = cube.getReadOnlyStorage();
         if (ebs == null) {
             return; // no data to save anyway
         }
@@ -0,0 +1,215 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Pure java implementation of the LZ4 block format. The compressed data starts with a header byte (the codec ID)
+ * and the uncompressed length as a 4 byte little-endian int, followed by a single LZ4 block.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+final class LZ4Block {
+
+    private static final int MIN_MATCH = 4;
+    // the last match must start at least 12 bytes before the end of the block, and the last 5 bytes are always literals
+    private static final int MF_LIMIT = 12;
+    private static final int LAST_LITERALS = 5;
+    private static final int MAX_DISTANCE = 0xFFFF;
+    private static final int RUN_MASK = 0xF;
+
+    private static final int HASH_LOG = 12;
+    private static final int HEADER_SIZE = 5;
+
+    private static final ThreadLocal<int[]> hashTable = ThreadLocal.withInitial(() -> new int[1 << HASH_LOG]);
+
+    private LZ4Block() {
+        throw new Error();
+    }
+
+    static byte[] compress(byte[] src, byte header) {
+        int len = src.length;
+        byte[] dst = new byte[HEADER_SIZE + len + len / 255 + 16];
+        dst[0] = header;
+        writeIntLE(dst, 1, len);
+        int op = HEADER_SIZE;
+
+        int[] table = hashTable.get();
+        Arrays.fill(table, -1);
+
+        int anchor = 0;
+        int ip = 0;
+        int limit = len - MF_LIMIT;
+        int matchLimit = len - LAST_LITERALS;
+        while (ip < limit) {
+            int seq = readIntLE(src, ip);
+            int h = hash(seq);
+            int ref = table[h];
+            table[h] = ip;
+            if (ref < 0 || ip - ref > MAX_DISTANCE || readIntLE(src, ref) != seq) {
+                ip++;
+                continue;
+            }
+            int matchLen = MIN_MATCH;
+            while (ip + matchLen < matchLimit && src[ref + matchLen] == src[ip + matchLen]) {
+                matchLen++;
+            }
+
+            op = writeSequence(src, anchor, ip - anchor, dst, op, ip - ref, matchLen);
+            ip += matchLen;
+            anchor = ip;
+        }
+
+        op = writeLastLiterals(src, anchor, len - anchor, dst, op);
+        return Arrays.copyOf(dst, op);
+    }
+
+    static byte[] decompress(byte[] src, int offset) throws IOException {
+        if (src.length < offset + 4) {
+            throw new IOException("Truncated LZ4 header");
+        }
+        int len = readIntLE(src, offset);
+        if (len < 0) {
+            throw new IOException("Invalid LZ4 length " + len);
+        }
+        byte[] dst = new byte[len];
+        int ip = offset + 4;
+        int op = 0;
+        int end = src.length;
+        try {
+            while (ip < end) {
+                int token = src[ip++] & 0xFF;
+
+                int literals = token >>> 4;
+                if (literals == RUN_MASK) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        literals += b;
+                    } while (b == 0xFF);
+                }
+                System.arraycopy(src, ip, dst, op, literals);
+                ip += literals;
+                op += literals;
+                if (ip >= end) {
+                    break; // the last sequence has no match
+                }
+
+                int distance = (src[ip] & 0xFF) | (src[ip + 1] & 0xFF) << 8;
+                ip += 2;
+                int matchLen = token & RUN_MASK;
+                if (matchLen == RUN_MASK) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        matchLen += b;
+                    } while (b == 0xFF);
+                }
+                matchLen += MIN_MATCH;
+
+                int ref = op - distance;
+                if (distance == 0 || ref < 0) {
+                    throw new IOException("Invalid LZ4 match distance " + distance + " at " + op);
+                }
+                // byte by byte, the match may overlap with itself
+                for (int i = 0; i < matchLen; i++) {
+                    dst[op++] = dst[ref++];
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Corrupted LZ4 data", e);
+        }
+        if (op != len) {
+            throw new IOException("LZ4 data decompressed to " + op + " bytes, expected " + len);
+        }
+        return dst;
+    }
+
+    private static int writeSequence(byte[] src, int literalStart, int literals, byte[] dst, int op, int distance, int matchLen) {
+        int tokenPos = op++;
+        int token;
+        if (literals >= RUN_MASK) {
+            token = RUN_MASK << 4;
+            op = writeLength(dst, op, literals - RUN_MASK);
+        } else {
+            token = literals << 4;
+        }
+        System.arraycopy(src, literalStart, dst, op, literals);
+        op += literals;
+
+        dst[op++] = (byte) distance;
+        dst[op++] = (byte) (distance >>> 8);
+
+        int ml = matchLen - MIN_MATCH;
+        if (ml >= RUN_MASK) {
+            token |= RUN_MASK;
+            op = writeLength(dst, op, ml - RUN_MASK);
+        } else {
+            token |= ml;
+        }
+        dst[tokenPos] = (byte) token;
+        return op;
+    }
+
+    private static int writeLastLiterals(byte[] src, int literalStart, int literals, byte[] dst, int op) {
+        if (literals >= RUN_MASK) {
+            dst[op++] = (byte) (RUN_MASK << 4);
+            op = writeLength(dst, op, literals - RUN_MASK);
+        } else {
+            dst[op++] = (byte) (literals << 4);
+        }
+        System.arraycopy(src, literalStart, dst, op, literals);
+        return op + literals;
+    }
+
+    private static int writeLength(byte[] dst, int op, int length) {
+        while (length >= 0xFF) {
+            dst[op++] = (byte) 0xFF;
+            length -= 0xFF;
+        }
+        dst[op++] = (byte) length;
+        return op;
+    }
+
+    private static int hash(int seq) {
+        return (seq * -1640531535) >>> (Integer.SIZE - HASH_LOG);
+    }
+
+    private static int readIntLE(byte[] buf, int i) {
+        return (buf[i] & 0xFF) | (buf[i + 1] & 0xFF) << 8 | (buf[i + 2] & 0xFF) << 16 | (buf[i + 3] & 0xFF) << 24;
+    }
+
+    private static void writeIntLE(byte[] buf, int i, int value) {
+        buf[i] = (byte) value;
+        buf[i + 1] = (byte) (value >>> 8);
+        buf[i + 2] = (byte) (value >>> 16);
+        buf[i + 3] = (byte) (value >>> 24);
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import cubicchunks.util.CubePos;
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Bounded buffer of cubes read and decompressed ahead of time, before anything requested them. The least recently
+ * prefetched cubes are evicted first.
+ * <p>
+ * Saving a cube invalidates it, so the buffer never returns data older than what's on disk. Prefetches that read
+ * the disk while a cube was being saved are discarded, which is tracked using save stamps shared by groups of cubes.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+public class PrefetchBuffer {
+
+    private static final int STAMP_GROUPS = 256;
+
+    private final int capacity;
+    private final Map<CubePos, byte[]> cubes;
+    private final long[] saveStamps = new long[STAMP_GROUPS];
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    PrefetchBuffer(int capacity) {
+        this.capacity = capacity;
+        this.cubes = new LinkedHashMap<CubePos, byte[]>(Math.min(capacity, 1024), 0.75f, false) {
+            @Override protected boolean removeEldestEntry(Map.Entry<CubePos, byte[]> eldest) {
+                if (size() > PrefetchBuffer.this.capacity) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    boolean isEnabled() {
+        return capacity > 0;
+    }
+
+    /**
+     * @return the save stamp to pass to {@link #put} after reading the cube
+     */
+    synchronized long getSaveStamp(CubePos pos) {
+        return saveStamps[stampIndex(pos)];
+    }
+
+    /**
+     * Stores prefetched cube data, unless the cube was saved since {@code saveStamp} was obtained
+     */
+    synchronized void put(CubePos pos, byte[] data, long saveStamp) {
+        if (saveStamps[stampIndex(pos)] != saveStamp) {
+            return;
+        }
+        cubes.put(pos, data);
+    }
+
+    /**
+     * Removes and returns prefetched data of a cube, once the cube is loaded it's not needed anymore.
+     */
+    @Nullable synchronized byte[] take(CubePos pos) {
+        byte[] data = cubes.remove(pos);
+        (data == null ? misses : hits).incrementAndGet();
+        return data;
+    }
+
+    synchronized boolean contains(CubePos pos) {
+        return cubes.containsKey(pos);
+    }
+
+    synchronized void invalidate(CubePos pos) {
+        saveStamps[stampIndex(pos)]++;
+        if (!cubes.isEmpty()) {
+            cubes.remove(pos);
+        }
+    }
+
+    private static int stampIndex(CubePos pos) {
+        return pos.hashCode() & (STAMP_GROUPS - 1);
+    }
+
+    public synchronized int size() {
+        return cubes.size();
+    }
+
+    /**
+     * @return the number of cube loads that were served from this buffer
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of cube loads that had to read from disk
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of prefetched cubes that were dropped before anything loaded them
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+}
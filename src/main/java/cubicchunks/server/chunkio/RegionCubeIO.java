@@ -24,31 +24,36 @@
 package cubicchunks.server.chunkio;
 
 import cubicchunks.CubicChunks;
-import cubicchunks.regionlib.IKey;
 import cubicchunks.regionlib.impl.EntryLocation2D;
 import cubicchunks.regionlib.impl.EntryLocation3D;
 import cubicchunks.regionlib.impl.SaveCubeColumns;
 import cubicchunks.util.CubePos;
 import cubicchunks.world.ICubicWorldServer;
+import cubicchunks.world.WorldSavedCubicChunksData;
 import cubicchunks.world.column.IColumn;
 import cubicchunks.world.cube.Cube;
-import net.minecraft.nbt.CompressedStreamTools;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.util.datafix.FixTypes;
 import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.World;
 import net.minecraft.world.WorldProvider;
-import net.minecraft.world.storage.ThreadedFileIOBase;
 import net.minecraftforge.fml.common.FMLCommonHandler;
 import org.apache.logging.log4j.Logger;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -58,12 +63,21 @@ public class RegionCubeIO implements ICubeIO {
     private static final long kB = 1024;
     private static final long MB = kB * 1024;
     private static final Logger LOGGER = CubicChunks.LOGGER;
+    // created by SaveCubeColumns.create
+    private static final String REGION_2D_DIRECTORY = "region2d";
+    private static final String REGION_3D_DIRECTORY = "region3d";
 
     @Nonnull private ICubicWorldServer world;
     @Nonnull private SaveCubeColumns save;
     @Nonnull private ConcurrentMap<ChunkPos, SaveEntry<EntryLocation2D>> columnsToSave;
     @Nonnull private ConcurrentMap<CubePos, SaveEntry<EntryLocation3D>> cubesToSave;
-    
+    @Nonnull private SavePipeline savePipeline;
+    @Nonnull private CompressionCodec codec;
+    @Nonnull private PrefetchBuffer prefetchBuffer;
+    @Nonnull private CubeDataCache cubeCache;
+    @Nonnull private ExistenceIndex cubeIndex;
+    @Nonnull private ExistenceIndex columnIndex;
+
     public RegionCubeIO(ICubicWorldServer world) throws IOException {
         this.world = world;
         WorldProvider prov = world.getProvider();
@@ -72,14 +86,49 @@ public class RegionCubeIO implements ICubeIO {
         if (prov.getSaveFolder() != null) {
             path = path.resolve(prov.getSaveFolder());
         }
+        // the index only knows about every saved cube if it's created together with the region directories
+        boolean newRegions = !Files.exists(path.resolve(REGION_2D_DIRECTORY))
+                && !Files.exists(path.resolve(REGION_3D_DIRECTORY));
         this.save = SaveCubeColumns.create(path);
+        Path indexPath = path.resolve("existenceIndex");
+        // one index file for each 16x16x16 cubes and 32x32 columns
+        this.cubeIndex = new ExistenceIndex(indexPath, "cubes", 4, 4, newRegions);
+        this.columnIndex = new ExistenceIndex(indexPath, "columns", 5, 0, newRegions);
+        this.codec = getCompressionCodec(world);
 
         // init chunk save queue
         this.columnsToSave = new ConcurrentHashMap<>();
         this.cubesToSave = new ConcurrentHashMap<>();
+        this.savePipeline = new SavePipeline(
+                CubicChunks.Config.IntOptions.SAVE_THREADS.getValue(),
+                CubicChunks.Config.IntOptions.MAX_QUEUED_SAVES.getValue(),
+                codec);
+        this.prefetchBuffer = new PrefetchBuffer(CubicChunks.Config.IntOptions.PREFETCH_BUFFER_SIZE.getValue());
+        this.cubeCache = new CubeDataCache(CubicChunks.Config.IntOptions.CUBE_CACHE_SIZE_MB.getValue() * MB);
+    }
+
+    private static CompressionCodec getCompressionCodec(ICubicWorldServer world) {
+        WorldSavedCubicChunksData data = (WorldSavedCubicChunksData) ((World) world).getMapStorage()
+                .getOrLoadData(WorldSavedCubicChunksData.class, "cubicChunksData");
+        String name = data == null ? CubicChunks.Config.StringOptions.COMPRESSION_CODEC.getValue() : data.compression;
+        CompressionCodec codec = CompressionCodec.byName(name);
+        if (codec == null) {
+            LOGGER.error("Unknown compression codec {}, using {}", name, CompressionCodec.GZIP.getName());
+            return CompressionCodec.GZIP;
+        }
+        return codec;
     }
 
     @Override public void flush() throws IOException {
+        try {
+            if (!savePipeline.shutdown(5, TimeUnit.MINUTES)) {
+                LOGGER.error("Timed out waiting for save threads to finish, {} cubes and {} columns still queued",
+                        cubesToSave.size(), columnsToSave.size());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for save threads to finish", e);
+        }
         if (columnsToSave.size() != 0 || cubesToSave.size() != 0) {
             LOGGER.error("Attempt to flush() CubeIO when there are remaining cubes to save! Saving remaining cubes to avoid corruption");
             while (this.writeNextIO()) {
@@ -88,6 +137,7 @@ public class RegionCubeIO implements ICubeIO {
         }
 
         this.save.close();
+        saveExistenceIndex();
         //if (!this.save.isClosed()) {
         //	this.db.close();
         //} else {
@@ -95,45 +145,124 @@ public class RegionCubeIO implements ICubeIO {
         //}
     }
 
+    @Override public void flushToDisk() throws IOException {
+        try {
+            if (!savePipeline.awaitIdle(5, TimeUnit.MINUTES)) {
+                LOGGER.error("Timed out waiting for save threads, {} cubes and {} columns still queued",
+                        cubesToSave.size(), columnsToSave.size());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for save threads", e);
+        }
+        saveExistenceIndex();
+    }
+
     @Override @Nullable public IColumn loadColumn(int chunkX, int chunkZ) throws IOException {
         NBTTagCompound nbt;
         SaveEntry<EntryLocation2D> saveEntry;
         if ((saveEntry = columnsToSave.get(new ChunkPos(chunkX, chunkZ))) != null) {
             nbt = saveEntry.nbt;
         } else {
+            if (!columnIndex.mightExist(chunkX, 0, chunkZ)) {
+                return null;
+            }
             // IOException makes using Optional impossible :(
             Optional<ByteBuffer> buf = this.save.load(new EntryLocation2D(chunkX, chunkZ));
             if (!buf.isPresent()) {
                 return null;
             }
-            nbt = FMLCommonHandler.instance().getDataFixer().process(FixTypes.CHUNK, CompressedStreamTools.readCompressed(new ByteArrayInputStream(buf.get().array())));
+            byte[] data = CompressionCodec.decompress(buf.get().array());
+            nbt = FMLCommonHandler.instance().getDataFixer().process(FixTypes.CHUNK,
+                    IONbtReader.readNbtBytes(data));
         }
         return IONbtReader.readColumn(world, chunkX, chunkZ, nbt);
     }
 
     @Override @Nullable public ICubeIO.PartialCubeData loadCubeAsyncPart(IColumn column, int cubeY) throws IOException {
 
-        NBTTagCompound nbt;
         SaveEntry<EntryLocation3D> saveEntry;
-        if ((saveEntry = this.cubesToSave.get(new CubePos(column.getX(), cubeY, column.getZ()))) != null) {
-            nbt = saveEntry.nbt;
+        CubePos pos = new CubePos(column.getX(), cubeY, column.getZ());
+        // fingerprint of the data on disk, if it's known
+        long contentHash = 0;
+        byte[] data;
+        if ((saveEntry = this.cubesToSave.get(pos)) != null) {
+            // encode the snapshot waiting to be saved
+            data = saveEntry.serialize();
         } else {
-            // does the database have the cube?
-            Optional<ByteBuffer> buf = this.save.load(new EntryLocation3D(column.getX(), cubeY, column.getZ()));
-            if (!buf.isPresent()) {
-                return null;
+            // was it recently loaded or saved?
+            data = cubeCache.isEnabled() ? cubeCache.get(pos) : null;
+            if (data == null) {
+                if (!cubeIndex.mightExist(pos.getX(), pos.getY(), pos.getZ())) {
+                    // never saved, don't look for it on disk
+                    return null;
+                }
+                // was it already read by prefetch?
+                data = prefetchBuffer.isEnabled() ? prefetchBuffer.take(pos) : null;
+                if (data == null) {
+                    // does the database have the cube?
+                    Optional<ByteBuffer> buf = this.save.load(new EntryLocation3D(column.getX(), cubeY, column.getZ()));
+                    if (!buf.isPresent()) {
+                        return null;
+                    }
+                    data = CompressionCodec.decompress(buf.get().array());
+                }
+                if (cubeCache.isEnabled()) {
+                    cubeCache.put(pos, data);
+                }
             }
-            nbt = FMLCommonHandler.instance().getDataFixer().process(FixTypes.CHUNK, CompressedStreamTools.readCompressed(new ByteArrayInputStream(buf.get().array())));
+            contentHash = SaveEntry.contentHash(data);
         }
+        if (IOBinaryReader.isBinaryCube(data)) {
+            ICubeIO.PartialCubeData cubeData = IOBinaryReader.readCubeAsyncPart(column, column.getX(), cubeY, column.getZ(), data);
+            if (cubeData != null) {
+                cubeData.getCube().setSavedContentHash(contentHash);
+            }
+            return cubeData;
+        }
+        NBTTagCompound nbt = FMLCommonHandler.instance().getDataFixer().process(FixTypes.CHUNK,
+                IONbtReader.readNbtBytes(data));
 
         // restore the cube - async part
         Cube cube = IONbtReader.readCubeAsyncPart(column, column.getX(), cubeY, column.getZ(), nbt);
         if (cube == null) {
             return null;
         }
+        cube.setSavedContentHash(contentHash);
         return new ICubeIO.PartialCubeData(cube, nbt);
     }
 
+    @Override public void prefetchCube(int cubeX, int cubeY, int cubeZ) throws IOException {
+        if (!prefetchBuffer.isEnabled()) {
+            return;
+        }
+        CubePos pos = new CubePos(cubeX, cubeY, cubeZ);
+        // get the stamp first, if the cube is saved after that the prefetched data will be discarded
+        long saveStamp = prefetchBuffer.getSaveStamp(pos);
+        if (cubesToSave.containsKey(pos) || prefetchBuffer.contains(pos) || cubeCache.contains(pos)
+                || !cubeIndex.mightExist(cubeX, cubeY, cubeZ)) {
+            return;
+        }
+        Optional<ByteBuffer> buf = this.save.load(new EntryLocation3D(cubeX, cubeY, cubeZ));
+        if (!buf.isPresent()) {
+            return;
+        }
+        prefetchBuffer.put(pos, CompressionCodec.decompress(buf.get().array()), saveStamp);
+    }
+
+    @Override public Existence getCubeExistence(int cubeX, int cubeY, int cubeZ) {
+        return cubeIndex.getExistence(cubeX, cubeY, cubeZ);
+    }
+
+    @Override public Collection<List<CubePos>> groupByRegion(Collection<CubePos> cubes) {
+        Map<Object, List<CubePos>> regions = new LinkedHashMap<>();
+        for (CubePos pos : cubes) {
+            Object regionKey = new EntryLocation3D(pos.getX(), pos.getY(), pos.getZ()).getRegionKey();
+            regions.computeIfAbsent(regionKey, key -> new ArrayList<>()).add(pos);
+        }
+        return regions.values();
+    }
+
     @Override public void loadCubeSyncPart(ICubeIO.PartialCubeData info) {
         IONbtReader.readCubeSyncPart(info.cube, world, info.nbt);
     }
@@ -145,24 +274,79 @@ public class RegionCubeIO implements ICubeIO {
         // with concurrent access to world data structures
 
         // add the column to the save queue
-        this.columnsToSave
-                .put(column.getPos(), new SaveEntry<>(new EntryLocation2D(column.getX(), column.getZ()), IONbtWriter.write(column)));
+        ChunkPos pos = column.getPos();
+        SaveEntry<EntryLocation2D> entry = new SaveEntry<>(new EntryLocation2D(column.getX(), column.getZ()), IONbtWriter.write(column));
+        this.columnsToSave.put(pos, entry);
+        this.columnIndex.markExists(column.getX(), 0, column.getZ());
         column.markSaved();
 
-        // signal the IO thread to process the save queue
-        ThreadedFileIOBase.getThreadedIOInstance().queueIO(this);
+        // hand it to the save threads
+        this.savePipeline.submit(columnsToSave, pos, (location, uncompressed, data) -> save.save2d(location, data), false);
     }
 
     @Override public void saveCube(Cube cube) {
         // NOTE: this function blocks the world thread, so make it fast
 
-        this.cubesToSave.put(cube.getCoords(), new SaveEntry<>(new EntryLocation3D(cube.getX(), cube.getY(), cube.getZ()), IONbtWriter.write(cube)));
+        CubePos pos = cube.getCoords();
+        EntryLocation3D location = new EntryLocation3D(cube.getX(), cube.getY(), cube.getZ());
+        // only copy the cube here, it's encoded by the save threads
+        SaveEntry<EntryLocation3D> entry = new SaveEntry<>(location, CubeSnapshot.of(cube),
+                CubicChunks.Config.BoolOptions.USE_BINARY_CUBE_FORMAT.getValue(), cube);
+        this.cubesToSave.put(pos, entry);
+        this.prefetchBuffer.invalidate(pos);
+        this.cubeCache.invalidate(pos);
+        this.cubeIndex.markExists(cube.getX(), cube.getY(), cube.getZ());
         cube.markSaved();
 
-        // signal the IO thread to process the save queue
-        ThreadedFileIOBase.getThreadedIOInstance().queueIO(this);
+        // hand it to the save threads
+        this.savePipeline.submit(cubesToSave, pos, this::writeCube, true);
+    }
+
+    private void writeCube(EntryLocation3D location, byte[] uncompressed, ByteBuffer data) throws IOException {
+        this.save.save3d(location, data);
+        if (cubeCache.isEnabled()) {
+            // if the cube was saved again meanwhile, the newer save is still in the save queue and will be found first
+            cubeCache.put(new CubePos(location.getEntryX(), location.getEntryY(), location.getEntryZ()), uncompressed);
+        }
+    }
+
+    public CompressionCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * Writes changes of the existence index to disk. Until then, they are lost if the server crashes, which makes the
+     * changed parts of the index unusable.
+     */
+    public void saveExistenceIndex() {
+        try {
+            cubeIndex.persist();
+            columnIndex.persist();
+        } catch (IOException e) {
+            LOGGER.error("Unable to save cube existence index", e);
+        }
+    }
+
+    public ExistenceIndex getCubeIndex() {
+        return cubeIndex;
+    }
+
+    public CubeDataCache getCubeCache() {
+        return cubeCache;
+    }
+
+    public PrefetchBuffer getPrefetchBuffer() {
+        return prefetchBuffer;
+    }
+
+    public SavePipeline getSavePipeline() {
+        return savePipeline;
     }
 
+    /**
+     * Synchronously writes a batch of queued cubes and columns. Saving is normally done by {@link SavePipeline},
+     * this is only used to write whatever is left in the queue when flushing.
+     */
     @Override
     public boolean writeNextIO() {
         try {
@@ -185,7 +369,7 @@ public class RegionCubeIO implements ICubeIO {
                 entry = colIt.next();
                 try {
                     // save the column
-                    byte[] data = IONbtWriter.writeNbtBytes(entry.nbt);
+                    byte[] data = entry.compress(codec);
                     this.save.save2d(entry.pos, ByteBuffer.wrap(data));
                     //column can be removed from toSave queue only after writing to disk
                     //to avoid race conditions
@@ -205,9 +389,10 @@ public class RegionCubeIO implements ICubeIO {
                 entry = cubeIt.next();
                 try {
                     // save the cube
-                    byte[] data = IONbtWriter.writeNbtBytes(entry.nbt);
+                    byte[] data = entry.compress(codec);
                     try {
                         this.save.save3d(entry.pos, ByteBuffer.wrap(data));
+                        this.cubeCache.invalidate(new CubePos(entry.pos.getEntryX(), entry.pos.getEntryY(), entry.pos.getEntryZ()));
                     } finally {
                         //cube can be removed from toSave queue only after writing to disk
                         //to avoid race conditions
@@ -237,16 +422,4 @@ public class RegionCubeIO implements ICubeIO {
             return cubesToSave.size() != 0 || columnsToSave.size() != 0;
         }
     }
-
-    private static class SaveEntry<T extends IKey<?>> {
-
-        private final T pos;
-        private final NBTTagCompound nbt;
-
-        SaveEntry(T pos, NBTTagCompound nbt) {
-            this.pos = pos;
-            this.nbt = nbt;
-        }
-    }
-
 }
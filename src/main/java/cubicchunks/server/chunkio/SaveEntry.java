@@ -0,0 +1,96 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import com.google.common.hash.Hashing;
+import cubicchunks.CubicChunks;
+import cubicchunks.regionlib.IKey;
+import cubicchunks.world.cube.Cube;
+import net.minecraft.nbt.NBTTagCompound;
+
+import java.io.IOException;
+
+import javax.annotation.Nullable;
+
+/**
+ * A cube or column waiting in the save queue. Holds either NBT data of a column, or a snapshot of a cube which is
+ * encoded in the NBT or binary format when it's saved.
+ * <p>
+ * Cube entries also reference the cube, to skip writing it if its content is the same as on disk.
+ */
+class SaveEntry<T extends IKey<?>> {
+
+    final T pos;
+    @Nullable final NBTTagCompound nbt;
+    @Nullable final CubeSnapshot snapshot;
+    private final boolean binaryFormat;
+    @Nullable final Cube cube;
+
+    SaveEntry(T pos, NBTTagCompound nbt) {
+        this.pos = pos;
+        this.nbt = nbt;
+        this.snapshot = null;
+        this.binaryFormat = false;
+        this.cube = null;
+    }
+
+    SaveEntry(T pos, CubeSnapshot snapshot, boolean binaryFormat, Cube cube) {
+        this.pos = pos;
+        this.nbt = null;
+        this.snapshot = snapshot;
+        this.binaryFormat = binaryFormat;
+        this.cube = cube;
+    }
+
+    /**
+     * Fingerprint of serialized cube data, used to detect saves that wouldn't change anything on disk.
+     * Never returns 0, which means unknown.
+     */
+    static long contentHash(byte[] data) {
+        long hash = Hashing.murmur3_128().hashBytes(data).asLong();
+        return hash == 0 ? 1 : hash;
+    }
+
+    /**
+     * @return the uncompressed data as it's stored on disk
+     */
+    byte[] serialize() throws IOException {
+        if (nbt != null) {
+            return IONbtWriter.writeNbtBytes(nbt);
+        }
+        assert snapshot != null;
+        if (binaryFormat) {
+            try {
+                return IOBinaryWriter.write(snapshot);
+            } catch (IOException e) {
+                CubicChunks.LOGGER.error("Unable to write cube " + pos + " in binary format, saving it as NBT", e);
+            }
+        }
+        return IONbtWriter.writeNbtBytes(snapshot.toNbt());
+    }
+
+    byte[] compress(CompressionCodec codec) throws IOException {
+        return codec.compress(serialize());
+    }
+}
@@ -0,0 +1,330 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import com.google.common.collect.Sets;
+import cubicchunks.CubicChunks;
+import cubicchunks.regionlib.IKey;
+import cubicchunks.world.cube.Cube;
+import mcp.MethodsReturnNonnullByDefault;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Writes queued cubes and columns to disk in the background.
+ * <p>
+ * Entries are compressed on a pool of worker threads, and then handed to a writer lane chosen by region file,
+ * so each region file is only ever written by one thread while different regions are written in parallel.
+ * When too many entries are waiting, {@link #submit} blocks the calling (world) thread until the queue shrinks.
+ * <p>
+ * The pipeline never removes an entry from its save queue until it's on disk, and only writes an entry if it's still
+ * the latest one for that position, so saving the same cube again before the previous save is done is safe.
+ * <p>
+ * Saving something again while its previous save is still waiting for a compressor doesn't queue it again, the waiting
+ * task saves the latest data instead. Cubes whose serialized data has the same fingerprint as the data on disk aren't written at all.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+public class SavePipeline {
+
+    private static final Logger LOGGER = CubicChunks.LOGGER;
+    private static final long STATS_LOG_INTERVAL_MS = 10000;
+
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+
+    private final ThreadPoolExecutor compressors;
+    private final ThreadPoolExecutor[] writers;
+    private final Semaphore capacity;
+    private final CompressionCodec codec;
+
+    // save queue keys that have a task waiting for a compressor
+    private final Set<Object> waitingKeys = Sets.newConcurrentHashSet();
+
+    private final AtomicInteger queued = new AtomicInteger();
+    // notified when queued drops to 0
+    private final Object idleLock = new Object();
+    private final AtomicLong cubesWritten = new AtomicLong();
+    private final AtomicLong columnsWritten = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong supersededSaves = new AtomicLong();
+    private final AtomicLong unchangedSaves = new AtomicLong();
+    private final AtomicLong coalescedSaves = new AtomicLong();
+    private final AtomicLong backpressureWaitNanos = new AtomicLong();
+
+    private volatile long lastStatsTime = System.currentTimeMillis();
+    private volatile long lastStatsEntries = 0;
+
+    SavePipeline(int threads, int maxQueued, CompressionCodec codec) {
+        this.codec = codec;
+        this.compressors = createPool(threads, "Cube Save Thread #");
+        this.writers = new ThreadPoolExecutor[threads];
+        for (int i = 0; i < threads; i++) {
+            writers[i] = createPool(1, "Region Write Thread #");
+        }
+        this.capacity = new Semaphore(maxQueued);
+    }
+
+    private static ThreadPoolExecutor createPool(int threads, String name) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                r -> {
+                    Thread thread = new Thread(r, name + threadCounter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+        );
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Queue the entry stored in {@code queue} under {@code key} to be written.
+     * Blocks if the save queue is full, unless an earlier save of the same key is still waiting, which will then
+     * write this entry instead.
+     *
+     * @param queue the save queue the entry is stored in, used to check whether a newer save has replaced it
+     * @param key key of the entry in the save queue
+     * @param writer writes the compressed data to the region file, it's also given the uncompressed data
+     * @param isCube whether the entry is a cube or a column, only used for statistics
+     */
+    <K, T extends IKey<?>> void submit(ConcurrentMap<K, SaveEntry<T>> queue, K key, EntryWriter<T> writer,
+            boolean isCube) {
+        if (!waitingKeys.add(key)) {
+            coalescedSaves.incrementAndGet();
+            return;
+        }
+        if (!capacity.tryAcquire()) {
+            long start = System.nanoTime();
+            capacity.acquireUninterruptibly();
+            backpressureWaitNanos.addAndGet(System.nanoTime() - start);
+        }
+        queued.incrementAndGet();
+        compressors.execute(() -> compress(queue, key, writer, isCube));
+    }
+
+    private <K, T extends IKey<?>> void compress(ConcurrentMap<K, SaveEntry<T>> queue, K key, EntryWriter<T> writer, boolean isCube) {
+        // remove the key before getting the entry, so any entry put in the queue after this gets a new task
+        waitingKeys.remove(key);
+        SaveEntry<T> entry = queue.get(key);
+        if (entry == null) {
+            // already written by someone else
+            done();
+            return;
+        }
+        byte[] raw;
+        byte[] data;
+        long hash = 0;
+        try {
+            raw = entry.serialize();
+            if (entry.cube != null) {
+                hash = SaveEntry.contentHash(raw);
+                // the hash is reset while an older save of this cube is being written, so this can't skip a save
+                // that would replace different data
+                if (hash == entry.cube.getSavedContentHash()) {
+                    unchangedSaves.incrementAndGet();
+                    queue.remove(key, entry);
+                    done();
+                    return;
+                }
+            }
+            data = codec.compress(raw);
+        } catch (Throwable t) {
+            // leave it in the save queue, flush() will try again
+            LOGGER.error("Unable to compress " + entry.pos, t);
+            done();
+            return;
+        }
+        long contentHash = hash;
+        writerFor(entry.pos).execute(() -> write(queue, key, entry, writer, raw, data, contentHash, isCube));
+    }
+
+    private <K, T extends IKey<?>> void write(ConcurrentMap<K, SaveEntry<T>> queue, K key, SaveEntry<T> entry, EntryWriter<T> writer,
+            byte[] raw, byte[] data, long contentHash, boolean isCube) {
+        Cube cube = entry.cube;
+        try {
+            if (cube != null) {
+                // the data on disk is about to change, don't let a newer save compare to the old hash
+                cube.setSavedContentHash(0);
+            }
+            // all writes of one position go through the same writer, so if this entry is still the latest one,
+            // any newer entry will be written after it
+            if (queue.get(key) != entry) {
+                supersededSaves.incrementAndGet();
+                return;
+            }
+            writer.write(entry.pos, raw, ByteBuffer.wrap(data));
+            if (cube != null) {
+                cube.setSavedContentHash(contentHash);
+            }
+            bytesWritten.addAndGet(data.length);
+            (isCube ? cubesWritten : columnsWritten).incrementAndGet();
+        } catch (Throwable t) {
+            LOGGER.error("Unable to write " + entry.pos, t);
+        } finally {
+            // entry can be removed from toSave queue only after writing to disk to avoid race conditions
+            queue.remove(key, entry);
+            done();
+        }
+    }
+
+    private void done() {
+        if (queued.decrementAndGet() == 0) {
+            synchronized (idleLock) {
+                idleLock.notifyAll();
+            }
+        }
+        capacity.release();
+        logStats();
+    }
+
+    private ThreadPoolExecutor writerFor(IKey<?> pos) {
+        return writers[Math.floorMod(pos.getRegionKey().hashCode(), writers.length)];
+    }
+
+    private void logStats() {
+        long now = System.currentTimeMillis();
+        long last = lastStatsTime;
+        if (now - last < STATS_LOG_INTERVAL_MS || !LOGGER.isDebugEnabled()) {
+            return;
+        }
+        synchronized (this) {
+            if (lastStatsTime != last) {
+                return;
+            }
+            long entries = cubesWritten.get() + columnsWritten.get();
+            LOGGER.debug("Saving at {} entries/s, {} waiting; total {} cubes, {} columns, {}k written, {} unchanged cubes skipped",
+                    (entries - lastStatsEntries) * 1000 / Math.max(1, now - last), getQueueDepth(),
+                    cubesWritten.get(), columnsWritten.get(), bytesWritten.get() / 1024, unchangedSaves.get());
+            lastStatsEntries = entries;
+            lastStatsTime = now;
+        }
+    }
+
+    /**
+     * Wait until everything submitted so far is written. Unlike {@link #shutdown} the threads keep running, if more
+     * is submitted while waiting this also waits for that.
+     *
+     * @return true if everything was written in time
+     */
+    boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (idleLock) {
+            while (queued.get() != 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(idleLock, remaining);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Wait until everything submitted so far is written, and stop all threads. Nothing can be submitted afterwards.
+     *
+     * @return true if all threads stopped in time
+     */
+    boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        // compressors must finish first, they queue work for the writers
+        compressors.shutdown();
+        if (!compressors.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+            return false;
+        }
+        boolean finished = true;
+        for (ThreadPoolExecutor writer : writers) {
+            writer.shutdown();
+        }
+        for (ThreadPoolExecutor writer : writers) {
+            finished &= writer.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+        return finished;
+    }
+
+    /**
+     * @return the number of entries that are submitted but not yet written
+     */
+    public int getQueueDepth() {
+        return queued.get();
+    }
+
+    public long getCubesWritten() {
+        return cubesWritten.get();
+    }
+
+    public long getColumnsWritten() {
+        return columnsWritten.get();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    /**
+     * @return the number of saves that were dropped because a newer save of the same cube or column was queued
+     */
+    public long getSupersededSaves() {
+        return supersededSaves.get();
+    }
+
+    /**
+     * @return the number of saves that were merged into an earlier save of the same cube or column still waiting
+     */
+    public long getCoalescedSaves() {
+        return coalescedSaves.get();
+    }
+
+    /**
+     * @return the number of cube saves that weren't written because the data on disk was already the same
+     */
+    public long getUnchangedSaves() {
+        return unchangedSaves.get();
+    }
+
+    /**
+     * @return the total time the world thread spent waiting for free space in the save queue, in nanoseconds
+     */
+    public long getBackpressureWaitNanos() {
+        return backpressureWaitNanos.get();
+    }
+
+    @FunctionalInterface
+    interface EntryWriter<T extends IKey<?>> {
+
+        void write(T pos, byte[] uncompressed, ByteBuffer data) throws IOException;
+    }
+}
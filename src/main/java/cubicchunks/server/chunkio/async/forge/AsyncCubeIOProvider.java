@@ -21,6 +21,7 @@ package cubicchunks.server.chunkio.async.forge;
 
 import cubicchunks.CubicChunks;
 import cubicchunks.server.chunkio.ICubeIO;
+import cubicchunks.util.CubePos;
 import cubicchunks.world.column.IColumn;
 import cubicchunks.world.cube.Cube;
 import mcp.MethodsReturnNonnullByDefault;
@@ -45,14 +46,22 @@ class AsyncCubeIOProvider extends AsyncIOProvider<Cube> {
 
     @Nonnull private CompletableFuture<IColumn> futureColumn = new CompletableFuture<>();
     @Nullable private ICubeIO.PartialCubeData cubeData;
+    private boolean started = false;
 
     AsyncCubeIOProvider(QueuedCube cube, ICubeIO loader) {
         this.cubeInfo = cube;
         this.loader = loader;
     }
 
+    /**
+     * Loads the cube, unless it's already loaded. If another thread is loading it, waits until it's done.
+     */
     @Override
     public synchronized void run() {
+        if (started) {
+            return;
+        }
+        started = true;
         try {
             cubeData = this.loader.loadCubeAsyncPart(futureColumn.get(), this.cubeInfo.y);
         } catch (IOException e) {
@@ -86,6 +95,17 @@ class AsyncCubeIOProvider extends AsyncIOProvider<Cube> {
         return cubeData == null ? null : cubeData.getCube();
     }
 
+    CubePos getPos() {
+        return new CubePos(cubeInfo.x, cubeInfo.y, cubeInfo.z);
+    }
+
+    /**
+     * Completes when the column of this cube is set, {@link #run()} doesn't block after that
+     */
+    CompletableFuture<IColumn> getColumnFuture() {
+        return futureColumn;
+    }
+
     public void setColumn(@Nullable IColumn IColumn) {
         this.futureColumn.complete(IColumn);
     }
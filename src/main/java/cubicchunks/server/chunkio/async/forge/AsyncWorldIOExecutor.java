@@ -26,20 +26,29 @@ import com.google.common.collect.Sets;
 import cubicchunks.CubicChunks;
 import cubicchunks.server.CubeProviderServer;
 import cubicchunks.server.chunkio.ICubeIO;
+import cubicchunks.util.CubePos;
 import cubicchunks.world.ICubicWorld;
 import cubicchunks.world.IProviderExtras;
 import cubicchunks.world.column.IColumn;
 import cubicchunks.world.cube.Cube;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.math.ChunkPos;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.fml.common.Mod;
 import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
 import net.minecraftforge.fml.common.gameevent.PlayerEvent;
 import net.minecraftforge.fml.common.gameevent.TickEvent;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -93,6 +102,32 @@ public class AsyncWorldIOExecutor {
             // Sponge end
     );
 
+    // prefetching is only an optimization, when it can't keep up the oldest requests are dropped
+    private static final int MAX_QUEUED_PREFETCHES = 4096;
+    private static final Set<QueuedCube> queuedPrefetches = Sets.newConcurrentHashSet();
+    private static final ThreadPoolExecutor prefetchThreadPool = new ThreadPoolExecutor(BASE_THREADS, BASE_THREADS, 60L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(MAX_QUEUED_PREFETCHES),
+            r -> {
+                Thread thread = new Thread(r, "Cube Prefetch Thread #" + threadCounter.incrementAndGet());
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            },
+            (task, executor) -> {
+                if (executor.isShutdown()) {
+                    return;
+                }
+                Runnable oldest = executor.getQueue().poll();
+                if (oldest instanceof PrefetchTask) {
+                    queuedPrefetches.remove(((PrefetchTask) oldest).key);
+                }
+                executor.execute(task);
+            }
+    );
+    // cube loads collected between beginCubeLoadBatch and submitCubeLoadBatch, only accessed from the server thread
+    @Nullable private static CubeLoadBatch cubeLoadBatch;
+    private static int cubeLoadBatchDepth = 0;
+
     // this keeps track of which columns need to be kept loaded for which currently being loaded cubes
     // this allows to avoid a column being unloaded while a cube that uses it is being loaded, which would lead to hard to debug errors
     private static final Multimap<QueuedColumn, QueuedCube> loadingCubesColumnMap =
@@ -153,7 +188,10 @@ public class AsyncWorldIOExecutor {
      * Runs the async part in current thread or blocks until already running async part is finished
      */
     private static void runTask(AsyncCubeIOProvider task) {
-        runTask(cubeThreadPool, task);
+        // batched tasks aren't in the pool by themselves, but running a cube task twice is safe:
+        // it waits for the thread that started it and does nothing
+        cubeThreadPool.remove(task);
+        task.run();
     }
 
     /**
@@ -217,7 +255,11 @@ public class AsyncWorldIOExecutor {
             task.addCallback(runnable); // Add before calling execute for thread safety
             task.addCallback(c -> loadingCubesColumnMap.remove(columnKey, key));// add only the first time
             cubeTasks.put(key, task);
-            cubeThreadPool.execute(task);
+            if (cubeLoadBatch != null && cubeLoadBatch.loader == loader) {
+                cubeLoadBatch.tasks.add(task);
+            } else {
+                cubeThreadPool.execute(task);
+            }
         } else {
             task.addCallback(runnable);
         }
@@ -232,6 +274,73 @@ public class AsyncWorldIOExecutor {
 
     }
 
+    /**
+     * Start collecting cube loads for the given loader into a batch instead of reading each cube separately.
+     * New cube loads queued with {@link #queueCubeLoad} are only read after {@link #submitCubeLoadBatch}.
+     * Batches can be nested, the outermost one is submitted. Must be called from the server thread.
+     *
+     * @param loader The file loader whose loads should be batched
+     */
+    public static void beginCubeLoadBatch(ICubeIO loader) {
+        if (cubeLoadBatchDepth++ == 0) {
+            cubeLoadBatch = new CubeLoadBatch(loader);
+        }
+    }
+
+    /**
+     * Submit cube loads collected since {@link #beginCubeLoadBatch}. The cubes are grouped by region file, and
+     * each region's cubes are read together on one thread, nearest to {@code center} first. Cubes whose column is
+     * still loading are read once the column is there.
+     *
+     * @param center Position from which distance is measured, usually the player position
+     */
+    public static void submitCubeLoadBatch(CubePos center) {
+        if (cubeLoadBatchDepth == 0) {
+            throw new IllegalStateException("No cube load batch to submit");
+        }
+        if (--cubeLoadBatchDepth != 0) {
+            return;
+        }
+        CubeLoadBatch batch = cubeLoadBatch;
+        cubeLoadBatch = null;
+        assert batch != null;
+        if (batch.tasks.isEmpty()) {
+            return;
+        }
+        Map<CubePos, AsyncCubeIOProvider> tasksByPos = new HashMap<>();
+        for (AsyncCubeIOProvider task : batch.tasks) {
+            tasksByPos.put(task.getPos(), task);
+        }
+        List<CubePos> positions = new ArrayList<>(tasksByPos.keySet());
+        positions.sort(Comparator.comparingInt(center::distSquared));
+
+        for (List<CubePos> region : batch.loader.groupByRegion(positions)) {
+            List<AsyncCubeIOProvider> regionTasks = new ArrayList<>(region.size());
+            for (CubePos pos : region) {
+                regionTasks.add(tasksByPos.get(pos));
+            }
+            cubeThreadPool.execute(new CubeBatchTask(regionTasks));
+        }
+    }
+
+    /**
+     * Queue reading a cube from disk ahead of time, without loading it. If the cube is loaded later, it will be
+     * loaded from the prefetched data without accessing the disk. Does nothing if the cube is already being loaded.
+     *
+     * @param world The world of the cube
+     * @param loader The file loader for this world
+     * @param x cube x position
+     * @param y cube y position
+     * @param z cube z position
+     */
+    public static void queueCubePrefetch(ICubicWorld world, ICubeIO loader, int x, int y, int z) {
+        QueuedCube key = new QueuedCube(x, y, z, world);
+        if (cubeTasks.containsKey(key) || !queuedPrefetches.add(key)) {
+            return;
+        }
+        prefetchThreadPool.execute(new PrefetchTask(key, loader));
+    }
+
     /**
      * Queue a column load, running the specified callback when the load has finished
      *
@@ -344,6 +453,72 @@ public class AsyncWorldIOExecutor {
         return !loadingCubesColumnMap.containsKey(new QueuedColumn(x, z, world));
     }
 
+    private static final class CubeLoadBatch {
+
+        final ICubeIO loader;
+        final List<AsyncCubeIOProvider> tasks = new ArrayList<>();
+
+        CubeLoadBatch(ICubeIO loader) {
+            this.loader = loader;
+        }
+    }
+
+    /**
+     * Loads cubes from one region file one after another. Cubes whose column isn't there yet are split off by column
+     * and loaded by a new batch once their column is set, so a column that is still being loaded or generated
+     * doesn't hold up the rest of the region.
+     */
+    private static final class CubeBatchTask implements Runnable {
+
+        final List<AsyncCubeIOProvider> tasks;
+
+        CubeBatchTask(List<AsyncCubeIOProvider> tasks) {
+            this.tasks = tasks;
+        }
+
+        @Override public void run() {
+            Map<ChunkPos, List<AsyncCubeIOProvider>> waitingForColumn = new HashMap<>();
+            for (AsyncCubeIOProvider task : tasks) {
+                if (task.getColumnFuture().isDone()) {
+                    task.run();
+                } else {
+                    waitingForColumn.computeIfAbsent(task.getPos().chunkPos(), p -> new ArrayList<>()).add(task);
+                }
+            }
+            for (List<AsyncCubeIOProvider> columnTasks : waitingForColumn.values()) {
+                CompletableFuture<?>[] columns = new CompletableFuture<?>[columnTasks.size()];
+                for (int i = 0; i < columns.length; i++) {
+                    columns[i] = columnTasks.get(i).getColumnFuture();
+                }
+                CompletableFuture.allOf(columns).thenRun(() -> cubeThreadPool.execute(new CubeBatchTask(columnTasks)));
+            }
+        }
+    }
+
+    private static final class PrefetchTask implements Runnable {
+
+        final QueuedCube key;
+        final ICubeIO loader;
+
+        PrefetchTask(QueuedCube key, ICubeIO loader) {
+            this.key = key;
+            this.loader = loader;
+        }
+
+        @Override public void run() {
+            try {
+                // it may have been queued for loading in the meantime
+                if (!cubeTasks.containsKey(key)) {
+                    loader.prefetchCube(key.x, key.y, key.z);
+                }
+            } catch (IOException e) {
+                CubicChunks.LOGGER.error("Could not prefetch cube in {} @ ({}, {}, {})", key.world, key.x, key.y, key.z, e);
+            } finally {
+                queuedPrefetches.remove(key);
+            }
+        }
+    }
+
     // Resize thread pool based on player count
     @SubscribeEvent
     public static void onPlayerLoggedIn(@Nonnull PlayerEvent.PlayerLoggedInEvent evt) {
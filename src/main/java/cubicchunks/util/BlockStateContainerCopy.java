@@ -0,0 +1,103 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.util;
+
+import io.netty.buffer.Unpooled;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.network.PacketBuffer;
+import net.minecraft.world.chunk.BlockStateContainer;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Copies of {@link BlockStateContainer} in its network format, which is the palette followed by the backing long
+ * array. Taking a copy is cheap, and block state IDs can be decoded from it on any thread.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+public final class BlockStateContainerCopy {
+
+    public static final int BLOCKS = 16 * 16 * 16;
+
+    // BlockStateContainer uses a palette up to this many bits per block, above that it stores block state IDs directly
+    private static final int MAX_PALETTE_BITS = 8;
+
+    private BlockStateContainerCopy() {
+        throw new Error();
+    }
+
+    /**
+     * Copies the container. Must be called from the thread that modifies it.
+     *
+     * @param data the container
+     *
+     * @return the copy
+     */
+    public static byte[] copy(BlockStateContainer data) {
+        byte[] copy = new byte[data.getSerializedSize()];
+        PacketBuffer out = new PacketBuffer(Unpooled.wrappedBuffer(copy));
+        out.writerIndex(0);
+        data.write(out);
+        return copy;
+    }
+
+    /**
+     * Decodes block state IDs of all blocks, index of block x, y, z is (y &lt;&lt; 8 | z &lt;&lt; 4 | x)
+     *
+     * @param copy the copy made by {@link #copy(BlockStateContainer)}
+     * @param out array of {@link #BLOCKS} IDs to decode into
+     */
+    public static void getStateIds(byte[] copy, int[] out) {
+        PacketBuffer in = new PacketBuffer(Unpooled.wrappedBuffer(copy));
+        int bits = in.readUnsignedByte();
+        int paletteSize = in.readVarInt();
+        int[] palette = null;
+        if (bits <= MAX_PALETTE_BITS) {
+            palette = new int[paletteSize];
+            for (int i = 0; i < paletteSize; i++) {
+                palette[i] = in.readVarInt();
+            }
+        }
+        long[] words = new long[in.readVarInt()];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = in.readLong();
+        }
+
+        // same layout as net.minecraft.util.BitArray, entries may span two longs
+        long mask = (1L << bits) - 1;
+        for (int i = 0; i < BLOCKS; i++) {
+            long bitIndex = (long) i * bits;
+            int start = (int) (bitIndex >> 6);
+            int end = (int) (((long) (i + 1) * bits - 1) >> 6);
+            int offset = (int) (bitIndex & 63);
+            long value = words[start] >>> offset;
+            if (start != end) {
+                value |= words[end] << (64 - offset);
+            }
+            int entry = (int) (value & mask);
+            int id = palette == null ? entry : palette[entry];
+            out[i] = id < 0 ? 0 : id; // unregistered state, saved as air like vanilla does
+        }
+    }
+}
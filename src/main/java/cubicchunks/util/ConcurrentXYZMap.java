@@ -0,0 +1,472 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.util;
+
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Hash table for objects in a 3-dimensional cartesian coordinate system that can be read from any thread.
+ * <p>
+ * Entries are stored in an open addressing table keyed by {@link CubePos#asLong(int, int, int) packed coordinates}.
+ * Lookups never lock and never retry, so they are wait-free. Modifications and iteration are <b>not</b> thread safe
+ * and must all be done by a single owner thread (for cube maps, the server thread).
+ * <p>
+ * Values are published through volatile array writes, so a reader that finds a value also sees it fully constructed.
+ * Removed slots are marked instead of being cleared, so probe sequences seen by concurrent readers never break.
+ * When the table is rebuilt, the new table is filled completely before it is published and the old one is never
+ * modified again, so readers still working on it see a consistent (if slightly outdated) view.
+ * <p>
+ * Like in {@link XYZMap}, the values are also kept densely in an array, which is what iterators go over. An iterator
+ * marks the array as shared, and the first modification after that copies it, so iterators keep working on the values
+ * they were created with. They never throw {@link java.util.ConcurrentModificationException}, don't return values added
+ * after they were created, and skip values that were removed or replaced while iterating.
+ *
+ * @param <T> class of the objects to be contained in this map
+ *
+ * @see XYZMap
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class ConcurrentXYZMap<T extends XYZAddressable> implements Iterable<T> {
+
+    /**
+     * Marker for slots whose value has been removed
+     */
+    private static final Object REMOVED = new Object();
+
+    /**
+     * the current backing table, replaced as a whole when rebuilding
+     */
+    @Nonnull private volatile Table table;
+
+    /**
+     * all elements of this map, from index 0 to size. Only used by the owner thread
+     */
+    @Nonnull private XYZAddressable[] values;
+
+    /**
+     * true if an iterator may still be using the values array, then it has to be copied before it's modified
+     */
+    private boolean valuesShared = false;
+
+    /**
+     * the current number of elements in this map
+     */
+    private volatile int size = 0;
+
+    /**
+     * the number of slots in the current table that are not null, including removed slots
+     */
+    private int usedSlots = 0;
+
+    /**
+     * incremented by every removal or replacement, so that iterators know whether their values have to be checked
+     * against the table
+     */
+    private int removeCount = 0;
+
+    /**
+     * false once a value whose coordinates don't fit into a packed key has been added, until then matching keys don't
+     * need to be confirmed against the coordinates of the value
+     */
+    private volatile boolean exactKeys = true;
+
+    /**
+     * the maximum permissible load of the backing table, after reaching it the table will be rebuilt
+     */
+    private final float loadFactor;
+
+    /**
+     * the smallest capacity the table will shrink to when rebuilt
+     */
+    private final int minCapacity;
+
+    /**
+     * Creates a new ConcurrentXYZMap with the given load factor and initial capacity. The map will automatically grow
+     * if the specified load is surpassed.
+     *
+     * @param loadFactor the load factor
+     * @param capacity the initial capacity
+     */
+    public ConcurrentXYZMap(float loadFactor, int capacity) {
+        if (loadFactor <= 0 || loadFactor >= 1.0) {
+            throw new IllegalArgumentException("Load factor must be between 0 and 1 exclusive, but was " + loadFactor);
+        }
+        this.loadFactor = loadFactor;
+        this.minCapacity = tableSizeFor(capacity);
+        this.table = new Table(this.minCapacity, this.minCapacity, loadFactor);
+        this.values = new XYZAddressable[this.table.loadThreshold + 1];
+    }
+
+    /**
+     * Returns the number of elements in this map
+     *
+     * @return the number of elements in this map
+     */
+    public int getSize() {
+        return this.size;
+    }
+
+    /**
+     * Mixes the bits of a packed position so that neighbouring positions spread over the whole table.
+     *
+     * @param key the packed position
+     *
+     * @return a 32b hash based on the given key
+     */
+    private static int hash(long key) {
+        // first half of the murmur3 64-bit finalizer
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    private static boolean isAt(XYZAddressable value, int x, int y, int z) {
+        return value.getX() == x && value.getY() == y && value.getZ() == z;
+    }
+
+    /**
+     * Returns the value associated with the given coordinates or null if no such value exists. Can be called from any
+     * thread.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @param z the z-coordinate
+     *
+     * @return the entry associated with the specified coordinates or null if no such value exists
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public T get(int x, int y, int z) {
+        Table t = this.table;
+        long key = CubePos.asLong(x, y, z);
+        int index = hash(key) & t.mask;
+        while (true) {
+            Object value = t.values.get(index);
+            if (value == null) {
+                return null;
+            }
+            // the key array is only read after seeing a published value, a racing key write can only cause a mismatch
+            // here, which the coordinate check catches
+            if (value != REMOVED && t.keys[index] == key && (exactKeys || isAt((T) value, x, y, z))) {
+                return (T) value;
+            }
+            index = (index + 1) & t.mask;
+        }
+    }
+
+    /**
+     * Returns true if there exists an entry associated with the given xyz-coordinates in this map. Can be called from
+     * any thread.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @param z the z-coordinate
+     *
+     * @return true if there exists an entry associated with the given coordinates in this map
+     */
+    public boolean contains(int x, int y, int z) {
+        return get(x, y, z) != null;
+    }
+
+    /**
+     * Associates the given value with its xyz-coordinates. If the map previously contained a mapping for these
+     * coordinates, the old value is replaced. Must only be called from the owner thread.
+     *
+     * @param value value to be associated with its coordinates
+     *
+     * @return the previous value associated with the given value's coordinates or null if no such value exists
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public T put(T value) {
+        int x = value.getX();
+        int y = value.getY();
+        int z = value.getZ();
+        long key = CubePos.asLong(x, y, z);
+        if (exactKeys && !CubePos.fitsInLong(x, y, z)) {
+            // before it's added, so that readers never skip the coordinate check for it
+            exactKeys = false;
+        }
+        Table t = this.table;
+        int index = hash(key) & t.mask;
+        int freeIndex = -1;
+        while (true) {
+            Object current = t.values.get(index);
+            if (current == null) {
+                break;
+            }
+            if (current == REMOVED) {
+                if (freeIndex < 0) {
+                    freeIndex = index;
+                }
+            } else if (t.keys[index] == key && isAt((T) current, x, y, z)) {
+                t.values.set(index, value);
+                writableValues(this.size)[t.positions[index]] = value;
+                this.removeCount++;
+                return (T) current;
+            }
+            index = (index + 1) & t.mask;
+        }
+        if (freeIndex < 0) {
+            freeIndex = index;
+            this.usedSlots++;
+        }
+        int position = this.size;
+        writableValues(position + 1)[position] = value;
+        t.positions[freeIndex] = position;
+        // the key has to be written before the value is published
+        t.keys[freeIndex] = key;
+        t.values.set(freeIndex, value);
+        this.size = position + 1;
+
+        if (this.usedSlots > t.loadThreshold) {
+            rebuild();
+        }
+        return null;
+    }
+
+    /**
+     * Removes and returns the entry associated with the given coordinates. Must only be called from the owner thread.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @param z the z-coordinate
+     *
+     * @return the entry associated with the specified coordinates or null if no such entry exists
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public T remove(int x, int y, int z) {
+        long key = CubePos.asLong(x, y, z);
+        Table t = this.table;
+        int index = hash(key) & t.mask;
+        while (true) {
+            Object current = t.values.get(index);
+            if (current == null) {
+                return null;
+            }
+            if (current != REMOVED && t.keys[index] == key && isAt((T) current, x, y, z)) {
+                t.values.set(index, REMOVED);
+                removeValue(t, t.positions[index]);
+                this.removeCount++;
+                if (this.size < t.shrinkThreshold) {
+                    rebuild();
+                }
+                return (T) current;
+            }
+            index = (index + 1) & t.mask;
+        }
+    }
+
+    /**
+     * Removes and returns the entry associated with the given value's coordinates. Must only be called from the owner
+     * thread.
+     *
+     * @param value the value whose coordinates should be removed
+     *
+     * @return the entry associated with the specified coordinates or null if no such entry exists
+     */
+    @Nullable
+    public T remove(T value) {
+        return this.remove(value.getX(), value.getY(), value.getZ());
+    }
+
+    /**
+     * Returns the values array, copied first if an iterator may be using it or if it can't hold the given number of
+     * values.
+     */
+    private XYZAddressable[] writableValues(int minLength) {
+        if (this.valuesShared || this.values.length < minLength) {
+            this.values = Arrays.copyOf(this.values, Math.max(this.values.length, minLength));
+            this.valuesShared = false;
+        }
+        return this.values;
+    }
+
+    /**
+     * Removes the value at the given position from the values array by moving the last value into its place.
+     */
+    private void removeValue(Table t, int position) {
+        int last = this.size - 1;
+        XYZAddressable[] values = writableValues(this.size);
+        if (position != last) {
+            XYZAddressable moved = values[last];
+            values[position] = moved;
+            t.positions[slotOf(t, moved)] = position;
+        }
+        values[last] = null;
+        this.size = last;
+    }
+
+    /**
+     * Returns the slot of the given value, which must be in the given table.
+     */
+    private static int slotOf(Table t, XYZAddressable value) {
+        int index = hash(CubePos.asLong(value.getX(), value.getY(), value.getZ())) & t.mask;
+        while (t.values.get(index) != value) {
+            index = (index + 1) & t.mask;
+        }
+        return index;
+    }
+
+    /**
+     * Builds a new table containing only live entries and publishes it. The capacity is chosen so that the new table
+     * is filled to half the load factor, so this grows the map, drops removed slots and shrinks the table once most
+     * entries are gone.
+     */
+    private void rebuild() {
+        Table old = this.table;
+        int capacity = Math.max(this.minCapacity, tableSizeFor((int) (this.size * 2 / this.loadFactor) + 1));
+        Table t = new Table(capacity, this.minCapacity, this.loadFactor);
+        int count = 0;
+        for (int i = 0; i < old.keys.length; i++) {
+            Object value = old.values.get(i);
+            if (value == null || value == REMOVED) {
+                continue;
+            }
+            long key = old.keys[i];
+            int index = hash(key) & t.mask;
+            while (t.values.get(index) != null) {
+                index = (index + 1) & t.mask;
+            }
+            t.keys[index] = key;
+            t.positions[index] = old.positions[i];
+            t.values.set(index, value);
+            count++;
+        }
+        this.usedSlots = count;
+        // volatile write, publishes the fully built table
+        this.table = t;
+        if (this.values.length > t.loadThreshold + 1 && !this.valuesShared) {
+            this.values = Arrays.copyOf(this.values, Math.max(this.size, t.loadThreshold + 1));
+        }
+    }
+
+    private static int tableSizeFor(int capacity) {
+        int tCapacity = 2;
+        while (tCapacity < capacity) {
+            tCapacity <<= 1;
+        }
+        return tCapacity;
+    }
+
+    // Interface: Iterable<T>
+    // ------------------------------------------------------------------------------------------
+
+    /**
+     * Returns an iterator over the values of this map. Must only be used from the owner thread. Values removed or
+     * replaced while iterating are skipped, values added while iterating are not returned.
+     */
+    @Override
+    public Iterator<T> iterator() {
+        this.valuesShared = true;
+        XYZAddressable[] values = this.values;
+        int count = this.size;
+        return new Iterator<T>() {
+
+            int at = 0;
+            int expectedRemoveCount = removeCount;
+            @Nullable T last;
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public boolean hasNext() {
+                // only check the values against the table if something has been removed since the iterator was created
+                if (removeCount != expectedRemoveCount) {
+                    while (at < count) {
+                        T v = (T) values[at];
+                        if (get(v.getX(), v.getY(), v.getZ()) == v) {
+                            break;
+                        }
+                        at++;
+                    }
+                }
+                return at < count;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                T value = (T) values[at++];
+                last = value;
+                return value;
+            }
+
+            @Override
+            public void remove() {
+                T value = last;
+                if (value == null) {
+                    throw new IllegalStateException();
+                }
+                last = null;
+                boolean unchanged = removeCount == expectedRemoveCount;
+                ConcurrentXYZMap.this.remove(value.getX(), value.getY(), value.getZ());
+                // removing the value this iterator already returned doesn't affect the rest of them
+                if (unchanged) {
+                    expectedRemoveCount = removeCount;
+                }
+            }
+        };
+    }
+
+    private static final class Table {
+
+        /**
+         * packed coordinates of the values, only valid where the value slot is set
+         */
+        final long[] keys;
+        /**
+         * index of each value in the values array of the map, only used by the owner thread
+         */
+        final int[] positions;
+        final AtomicReferenceArray<Object> values;
+        final int mask;
+        final int loadThreshold;
+        final int shrinkThreshold;
+
+        Table(int capacity, int minCapacity, float loadFactor) {
+            this.keys = new long[capacity];
+            this.positions = new int[capacity];
+            this.values = new AtomicReferenceArray<>(capacity);
+            this.mask = capacity - 1;
+            // always keep at least one null slot so that probing terminates
+            this.loadThreshold = Math.min((int) (capacity * loadFactor), capacity - 1);
+            this.shrinkThreshold = capacity > minCapacity ? (int) (capacity * loadFactor / 4) : -1;
+        }
+    }
+}
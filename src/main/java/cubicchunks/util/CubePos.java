@@ -154,6 +154,48 @@ public class CubePos {
                 | Bits.packSignedToLong(cubeZ, Z_BITS, Z_BIT_OFFSET));
     }
 
+    /**
+     * Packs the coordinates of this cube into a single long.
+     *
+     * @return The packed coordinates
+     *
+     * @see #asLong(int, int, int)
+     */
+    public long asLong() {
+        return asLong(cubeX, cubeY, cubeZ);
+    }
+
+    /**
+     * Packs the given cube coordinates into a single long. The key is unique for all positions that fit into the packed
+     * bit ranges, which covers every cube of a vanilla sized world. Positions outside of it may share a key, so users
+     * of packed keys must still compare the actual coordinates.
+     *
+     * @param cubeX cube x coordinate
+     * @param cubeY cube y coordinate
+     * @param cubeZ cube z coordinate
+     * @return The packed coordinates
+     */
+    public static long asLong(int cubeX, int cubeY, int cubeZ) {
+        return Bits.packSignedToLong(cubeX, X_BITS, X_BIT_OFFSET)
+                | Bits.packSignedToLong(cubeY, Y_BITS, Y_BIT_OFFSET)
+                | Bits.packSignedToLong(cubeZ, Z_BITS, Z_BIT_OFFSET);
+    }
+
+    /**
+     * Checks whether the given cube coordinates fit into the packed bit ranges of {@link #asLong(int, int, int)}. Keys
+     * of such positions are only shared by positions that don't fit.
+     *
+     * @param cubeX cube x coordinate
+     * @param cubeY cube y coordinate
+     * @param cubeZ cube z coordinate
+     * @return true if the packed coordinates can be unpacked into the same position
+     */
+    public static boolean fitsInLong(int cubeX, int cubeY, int cubeZ) {
+        return cubeX >= Bits.getMinSigned(X_BITS) && cubeX <= Bits.getMaxSigned(X_BITS)
+                && cubeY >= Bits.getMinSigned(Y_BITS) && cubeY <= Bits.getMaxSigned(Y_BITS)
+                && cubeZ >= Bits.getMinSigned(Z_BITS) && cubeZ <= Bits.getMaxSigned(Z_BITS);
+    }
+
     /**
      * Gets the absolute position of the cube's center on the x axis.
      *
@@ -32,6 +32,7 @@ import cubicchunks.world.ICubeProvider;
 import cubicchunks.world.ICubicWorld;
 import cubicchunks.world.column.IColumn;
 import cubicchunks.world.cube.Cube;
+import cubicchunks.world.cube.UniformBlockStorage;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.block.state.IBlockState;
 import net.minecraft.crash.CrashReport;
@@ -64,6 +65,8 @@ public class FastCubeBlockAccess implements ILightBlockAccess {
     @Nonnull private final Cube[][][] cubes;
     private final int originX, originY, originZ;
     @Nonnull private final ICubicWorld world;
+    // passed to block state methods that need a position, so the int coordinate methods don't allocate
+    @Nonnull private final BlockPos.MutableBlockPos mutablePos = new BlockPos.MutableBlockPos();
 
     public FastCubeBlockAccess(ICubeProvider cache, Cube cube, int radius) {
         this(cube.getCubicWorld(), cache,
@@ -110,7 +113,7 @@ public class FastCubeBlockAccess implements ILightBlockAccess {
 
                         throw new ReportedException(report);
                     }
-                    ExtendedBlockStorage storage = cube.getStorage();
+                    ExtendedBlockStorage storage = cube.getReadOnlyStorage();
                     this.cache[relativeCubeX][relativeCubeY][relativeCubeZ] = storage;
                     this.cubes[relativeCubeX][relativeCubeY][relativeCubeZ] = cube;
                 }
@@ -143,10 +146,6 @@ public class FastCubeBlockAccess implements ILightBlockAccess {
         return this.cubes[cubeX - originX][cubeY - originY][cubeZ - originZ];
     }
 
-    private IBlockState getBlockState(BlockPos pos) {
-        return this.getBlockState(pos.getX(), pos.getY(), pos.getZ());
-    }
-
     private IBlockState getBlockState(int blockX, int blockY, int blockZ) {
         ExtendedBlockStorage ebs = this.getStorage(blockX, blockY, blockZ);
         if (ebs != null) {
@@ -156,15 +155,23 @@ public class FastCubeBlockAccess implements ILightBlockAccess {
     }
 
     @Override public int getBlockLightOpacity(BlockPos pos) {
-        return this.getBlockState(pos.getX(), pos.getY(), pos.getZ()).getLightOpacity((World) world, pos);
+        return getBlockLightOpacity(pos.getX(), pos.getY(), pos.getZ());
+    }
+
+    @Override public int getBlockLightOpacity(int blockX, int blockY, int blockZ) {
+        return this.getBlockState(blockX, blockY, blockZ).getLightOpacity((World) world, mutablePos.setPos(blockX, blockY, blockZ));
     }
 
     @Override public int getLightFor(EnumSkyBlock lightType, BlockPos pos) {
-        ExtendedBlockStorage ebs = this.getStorage(pos.getX(), pos.getY(), pos.getZ());
+        return getLightFor(lightType, pos.getX(), pos.getY(), pos.getZ());
+    }
+
+    @Override public int getLightFor(EnumSkyBlock lightType, int blockX, int blockY, int blockZ) {
+        ExtendedBlockStorage ebs = this.getStorage(blockX, blockY, blockZ);
         if (ebs != null) {
-            int localX = blockToLocal(pos.getX());
-            int localY = blockToLocal(pos.getY());
-            int localZ = blockToLocal(pos.getZ());
+            int localX = blockToLocal(blockX);
+            int localY = blockToLocal(blockY);
+            int localZ = blockToLocal(blockZ);
 
             if (lightType == EnumSkyBlock.SKY) {
                 return ebs.getSkyLight(localX, localY, localZ);
@@ -176,11 +183,23 @@ public class FastCubeBlockAccess implements ILightBlockAccess {
     }
 
     @Override public void setLightFor(EnumSkyBlock lightType, BlockPos pos, int val) {
-        ExtendedBlockStorage ebs = this.getStorage(pos.getX(), pos.getY(), pos.getZ());
+        setLightFor(lightType, pos.getX(), pos.getY(), pos.getZ(), val);
+    }
+
+    @Override public void setLightFor(EnumSkyBlock lightType, int blockX, int blockY, int blockZ, int val) {
+        ExtendedBlockStorage ebs = this.getStorage(blockX, blockY, blockZ);
+        if (ebs instanceof UniformBlockStorage) {
+            if (val == 0) {
+                return; // light in uniform cubes is always 0
+            }
+            // the storage is shared, let the cube copy it
+            ebs = getCube(blockX, blockY, blockZ).getStorage();
+            setStorage(blockX, blockY, blockZ, ebs);
+        }
         if (ebs != null) {
-            int localX = blockToLocal(pos.getX());
-            int localY = blockToLocal(pos.getY());
-            int localZ = blockToLocal(pos.getZ());
+            int localX = blockToLocal(blockX);
+            int localY = blockToLocal(blockY);
+            int localZ = blockToLocal(blockZ);
 
             if (lightType == EnumSkyBlock.SKY) {
                 ebs.setSkyLight(localX, localY, localZ, val);
@@ -189,24 +208,32 @@ public class FastCubeBlockAccess implements ILightBlockAccess {
             }
             return;
         }
-        Cube cube = getCube(pos.getX(), pos.getY(), pos.getZ());
-        cube.setLightFor(lightType, pos, val);
-        setStorage(pos.getX(), pos.getY(), pos.getZ(), cube.getStorage());
+        Cube cube = getCube(blockX, blockY, blockZ);
+        cube.setLightFor(lightType, new BlockPos(blockX, blockY, blockZ), val);
+        setStorage(blockX, blockY, blockZ, cube.getStorage());
     }
 
     @Override public boolean canSeeSky(BlockPos pos) {
-        Cube cube = getCube(pos.getX(), pos.getY(), pos.getZ());
+        return canSeeSky(pos.getX(), pos.getY(), pos.getZ());
+    }
+
+    @Override public boolean canSeeSky(int blockX, int blockY, int blockZ) {
+        Cube cube = getCube(blockX, blockY, blockZ);
         IColumn IColumn = cube.getColumn();
-        int height = IColumn.getHeightValue(blockToLocal(pos.getX()), blockToLocal(pos.getZ()));
-        return height <= pos.getY();
+        int height = IColumn.getHeightValue(blockToLocal(blockX), blockToLocal(blockZ));
+        return height <= blockY;
     }
 
     @Override public int getEmittedLight(BlockPos pos, EnumSkyBlock type) {
+        return getEmittedLight(pos.getX(), pos.getY(), pos.getZ(), type);
+    }
+
+    @Override public int getEmittedLight(int blockX, int blockY, int blockZ, EnumSkyBlock type) {
         switch (type) {
             case BLOCK:
-                return getBlockState(pos).getLightValue((IBlockAccess) world, pos);
+                return getBlockState(blockX, blockY, blockZ).getLightValue((IBlockAccess) world, mutablePos.setPos(blockX, blockY, blockZ));
             case SKY:
-                return canSeeSky(pos) ? 15 : 0;
+                return canSeeSky(blockX, blockY, blockZ) ? 15 : 0;
             default:
                 throw new AssertionError();
         }
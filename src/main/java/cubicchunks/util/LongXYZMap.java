@@ -0,0 +1,448 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.util;
+
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Hash table for objects in a 3-dimensional cartesian coordinate system, keyed by
+ * {@link CubePos#asLong(int, int, int) packed coordinates}.
+ * <p>
+ * Like {@link XYZMap}, the values are stored densely at the start of an array, so iterating only touches the values
+ * themselves, and a separate open addressing table points into it. Keys are kept in a long array parallel to the
+ * table, so probing compares primitive keys in consecutive slots and doesn't read the coordinates of the values as long
+ * as all of them fit into a packed key. Removal moves the last value into the gap and uses backward-shift deletion in
+ * the table, so there are no removed markers and no allocation. The table grows when the load factor is exceeded and
+ * shrinks again when it becomes sparse.
+ *
+ * @param <T> class of the objects to be contained in this map
+ *
+ * @see XYZAddressable
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class LongXYZMap<T extends XYZAddressable> implements Iterable<T> {
+
+    /**
+     * A larger prime number used as seed for hash calculation.
+     */
+    private static final int HASH_SEED = 1183822147;
+
+    /**
+     * open addressing table, each slot holds the index of a value plus one, 0 for free slots
+     */
+    @Nonnull private int[] slots;
+    /**
+     * packed coordinates of the value each slot points to, only valid where the slot is not free
+     */
+    @Nonnull private long[] keys;
+    /**
+     * all elements of this map, from index 0 to size
+     */
+    @Nonnull private XYZAddressable[] values;
+    /**
+     * the current number of elements in this map
+     */
+    private int size = 0;
+    /**
+     * the maximum permissible load of the table, after reaching it the table will be resized
+     */
+    private final float loadFactor;
+    /**
+     * the capacity this map was created with, it will never shrink below it
+     */
+    private final int minCapacity;
+    /**
+     * the load threshold of the table, after reaching it the table will grow
+     */
+    private int growThreshold;
+    /**
+     * the load below which the table will shrink
+     */
+    private int shrinkThreshold;
+    /**
+     * binary mask used to wrap slot indices
+     */
+    private int mask;
+    /**
+     * false once a value whose coordinates don't fit into a packed key has been added, until then matching keys don't
+     * need to be confirmed against the coordinates of the value
+     */
+    private boolean exactKeys = true;
+
+    /**
+     * Creates a new LongXYZMap with the given load factor and initial capacity. The map will automatically grow if
+     * the specified load is surpassed, and shrink back to the initial capacity when entries are removed.
+     *
+     * @param loadFactor the load factor
+     * @param capacity the initial capacity
+     */
+    public LongXYZMap(float loadFactor, int capacity) {
+        if (loadFactor <= 0 || loadFactor >= 1.0) {
+            throw new IllegalArgumentException("Load factor must be between 0 and 1 exclusive, but was " + loadFactor);
+        }
+        this.loadFactor = loadFactor;
+        this.minCapacity = tableSizeFor(capacity);
+        this.values = new XYZAddressable[0];
+        this.resize(this.minCapacity);
+    }
+
+    /**
+     * Returns the number of elements in this map
+     *
+     * @return the number of elements in this map
+     */
+    public int getSize() {
+        return this.size;
+    }
+
+    /**
+     * Computes a 32b hash based on the given coordinates.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @param z the z-coordinate
+     *
+     * @return a 32b hash based on the given coordinates
+     */
+    private static int hash(int x, int y, int z) {
+        int hash = HASH_SEED;
+        hash += x;
+        hash *= HASH_SEED;
+        hash += y;
+        hash *= HASH_SEED;
+        hash += z;
+        hash *= HASH_SEED;
+        return hash;
+    }
+
+    private static int hash(XYZAddressable value) {
+        return hash(value.getX(), value.getY(), value.getZ());
+    }
+
+    private static boolean isAt(XYZAddressable value, int x, int y, int z) {
+        return value.getX() == x && value.getY() == y && value.getZ() == z;
+    }
+
+    /**
+     * Returns the slot pointing to the entry at the given coordinates, or -1 if there is no such entry.
+     */
+    private int slotOf(long key, int x, int y, int z) {
+        int slot = hash(x, y, z) & this.mask;
+        int entry;
+        while ((entry = this.slots[slot]) != 0) {
+            // packed keys can collide far outside of the world, then a matching key is confirmed with the coordinates
+            if (this.keys[slot] == key && (this.exactKeys || isAt(this.values[entry - 1], x, y, z))) {
+                return slot;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Associates the given value with its xyz-coordinates. If the map previously contained a mapping for these
+     * coordinates, the old value is replaced.
+     *
+     * @param value value to be associated with its coordinates
+     *
+     * @return the previous value associated with the given value's coordinates or null if no such value exists
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public T put(T value) {
+        int x = value.getX();
+        int y = value.getY();
+        int z = value.getZ();
+        long key = CubePos.asLong(x, y, z);
+        if (this.exactKeys && !CubePos.fitsInLong(x, y, z)) {
+            this.exactKeys = false;
+        }
+        int slot = hash(x, y, z) & this.mask;
+        int entry;
+        while ((entry = this.slots[slot]) != 0) {
+            if (this.keys[slot] == key && isAt(this.values[entry - 1], x, y, z)) {
+                T current = (T) this.values[entry - 1];
+                this.values[entry - 1] = value;
+                return current;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+        this.values[this.size] = value;
+        this.keys[slot] = key;
+        this.slots[slot] = ++this.size;
+
+        // If the load threshold has been reached, increase the map's size.
+        if (this.size > this.growThreshold) {
+            this.resize(this.slots.length << 1);
+        }
+        return null;
+    }
+
+    /**
+     * Removes and returns the entry associated with the given coordinates.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @param z the z-coordinate
+     *
+     * @return the entry associated with the specified coordinates or null if no such entry exists
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public T remove(int x, int y, int z) {
+        int slot = this.slotOf(CubePos.asLong(x, y, z), x, y, z);
+        if (slot < 0) {
+            return null;
+        }
+        T value = (T) this.values[this.slots[slot] - 1];
+        this.removeSlot(slot);
+        if (this.size < this.shrinkThreshold) {
+            this.resize(this.slots.length >>> 1);
+        }
+        return value;
+    }
+
+    /**
+     * Removes and returns the entry associated with the given value's coordinates.
+     *
+     * @param value the value whose coordinates should be removed
+     *
+     * @return the entry associated with the specified coordinates or null if no such entry exists
+     */
+    @Nullable
+    public T remove(T value) {
+        return this.remove(value.getX(), value.getY(), value.getZ());
+    }
+
+    /**
+     * Returns the value associated with the given coordinates or null if no such value exists.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @param z the z-coordinate
+     *
+     * @return the entry associated with the specified coordinates or null if no such value exists
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public T get(int x, int y, int z) {
+        int slot = this.slotOf(CubePos.asLong(x, y, z), x, y, z);
+        return slot < 0 ? null : (T) this.values[this.slots[slot] - 1];
+    }
+
+    /**
+     * Returns true if there exists an entry associated with the given xyz-coordinates in this map.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @param z the z-coordinate
+     *
+     * @return true if there exists an entry associated with the given coordinates in this map
+     */
+    public boolean contains(int x, int y, int z) {
+        return this.slotOf(CubePos.asLong(x, y, z), x, y, z) >= 0;
+    }
+
+    /**
+     * Returns true if the given value is contained within this map
+     *
+     * @param value the value to check
+     *
+     * @return true if the given value is contained within this map
+     */
+    public boolean contains(T value) {
+        return this.get(value.getX(), value.getY(), value.getZ()) == value;
+    }
+
+    /**
+     * Removes all entries from this map. The table is shrunk to what the removed entries needed, so a map that is
+     * cleared regularly settles at the size of its typical contents instead of its peak.
+     */
+    public void clear() {
+        int capacity = Math.max(this.minCapacity, tableSizeFor((int) (this.size * 2 / this.loadFactor) + 1));
+        Arrays.fill(this.values, 0, this.size, null);
+        this.size = 0;
+        this.exactKeys = true;
+        if (capacity < this.slots.length) {
+            this.resize(capacity);
+        } else {
+            Arrays.fill(this.slots, 0);
+        }
+    }
+
+    /**
+     * Removes the entry the given slot points to. The last value is moved into its place, and the following slots of
+     * the probe sequence are shifted back to fill the gap in the table.
+     *
+     * @param slot slot of the entry to remove
+     */
+    private void removeSlot(int slot) {
+        int index = this.slots[slot] - 1;
+        int last = --this.size;
+        if (index != last) {
+            // point the slot of the last value to its new index
+            int lastSlot = hash(this.values[last]) & this.mask;
+            while (this.slots[lastSlot] != last + 1) {
+                lastSlot = (lastSlot + 1) & this.mask;
+            }
+            this.slots[lastSlot] = index + 1;
+            this.values[index] = this.values[last];
+        }
+        this.values[last] = null;
+
+        int gap = slot;
+        int current = slot;
+        while (true) {
+            current = (current + 1) & this.mask;
+            int entry = this.slots[current];
+            if (entry == 0) {
+                this.slots[gap] = 0;
+                return;
+            }
+            int home = hash(this.values[entry - 1]) & this.mask;
+            // move the entry if its home slot isn't cyclically between the gap and its current position
+            if (gap <= current ? gap >= home || home > current : gap >= home && home > current) {
+                this.slots[gap] = entry;
+                this.keys[gap] = this.keys[current];
+                gap = current;
+            }
+        }
+    }
+
+    /**
+     * Reallocates the table with the given capacity and the value array to fit as many values as the table allows, and
+     * fills the table again.
+     */
+    private void resize(int capacity) {
+        this.slots = new int[capacity];
+        this.keys = new long[capacity];
+        this.mask = capacity - 1;
+        // always keep at least one free slot so that probing terminates
+        this.growThreshold = Math.min((int) (capacity * this.loadFactor), capacity - 1);
+        this.shrinkThreshold = capacity > this.minCapacity ? (int) (capacity * this.loadFactor / 4) : -1;
+        this.values = Arrays.copyOf(this.values, this.growThreshold + 1);
+        for (int i = 0; i < this.size; i++) {
+            XYZAddressable value = this.values[i];
+            int slot = hash(value) & this.mask;
+            while (this.slots[slot] != 0) {
+                slot = (slot + 1) & this.mask;
+            }
+            this.keys[slot] = CubePos.asLong(value.getX(), value.getY(), value.getZ());
+            this.slots[slot] = i + 1;
+        }
+    }
+
+    private static int tableSizeFor(int capacity) {
+        int tCapacity = 2;
+        while (tCapacity < capacity) {
+            tCapacity <<= 1;
+        }
+        return tCapacity;
+    }
+
+    // Interface: Iterable<T>
+    // ------------------------------------------------------------------------------------------
+
+    /**
+     * Returns an iterator over the values of this map. Removing through the iterator is supported, but the map will
+     * not shrink until the next removal through {@link #remove(int, int, int)}.
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+
+            int at = 0;
+            int last = -1;
+
+            @Override
+            public boolean hasNext() {
+                return at < size;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public T next() {
+                if (at >= size) {
+                    throw new NoSuchElementException();
+                }
+                last = at;
+                return (T) values[at++];
+            }
+
+            @Override
+            public void remove() {
+                if (last < 0) {
+                    throw new IllegalStateException();
+                }
+                XYZAddressable value = values[last];
+                removeSlot(slotOf(CubePos.asLong(value.getX(), value.getY(), value.getZ()),
+                        value.getX(), value.getY(), value.getZ()));
+                // the last value has been moved into the removed one's place, and hasn't been returned yet
+                at = last;
+                last = -1;
+            }
+        };
+    }
+
+    /**
+     * Return iterator over elements started from random position defined by seed. Removal is not supported.
+     *
+     * @param seed - define start position.
+     **/
+    public Iterator<T> randomWrappedIterator(int seed) {
+        return new Iterator<T>() {
+
+            int remaining = size;
+            int at = size == 0 ? 0 : Math.floorMod(seed, size);
+
+            @Override
+            public boolean hasNext() {
+                return remaining > 0;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public T next() {
+                if (remaining <= 0) {
+                    throw new NoSuchElementException();
+                }
+                remaining--;
+                T value = (T) values[at];
+                if (++at == size) {
+                    at = 0;
+                }
+                return value;
+            }
+        };
+    }
+}
@@ -29,6 +29,7 @@ import mcp.MethodsReturnNonnullByDefault;
 import java.util.List;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
 @ParametersAreNonnullByDefault
@@ -36,7 +37,21 @@ import javax.annotation.ParametersAreNonnullByDefault;
 public class TicketList {
 
     private int tickRefs = 0;
-    @Nonnull private List<ITicket> tickets = Lists.newArrayListWithCapacity(1);
+    // most cubes only ever get one ticket, and cubes that only exist as population neighbours get none
+    @Nonnull private List<ITicket> tickets = Lists.newArrayListWithCapacity(0);
+    @Nullable private final Runnable onEmpty;
+    @Nullable private Runnable onTickingChanged;
+
+    public TicketList() {
+        this(null);
+    }
+
+    /**
+     * @param onEmpty called when the last ticket is removed from this list
+     */
+    public TicketList(@Nullable Runnable onEmpty) {
+        this.onEmpty = onEmpty;
+    }
 
     /**
      * Removes a ticket form this ticket list if present
@@ -44,8 +59,14 @@ public class TicketList {
      * @param ticket the ticket to remove
      */
     public void remove(ITicket ticket) {
-        if (tickets.remove(ticket) && ticket.shouldTick()) {
-            tickRefs--;
+        if (!tickets.remove(ticket)) {
+            return;
+        }
+        if (ticket.shouldTick() && --tickRefs == 0 && onTickingChanged != null) {
+            onTickingChanged.run();
+        }
+        if (tickets.isEmpty() && onEmpty != null) {
+            onEmpty.run();
         }
     }
 
@@ -59,7 +80,20 @@ public class TicketList {
             return; // we already have that ticket
         }
         tickets.add(ticket);
-        tickRefs += ticket.shouldTick() ? 1 : 0; // keep track of the number of tickets that want to tick
+        // keep track of the number of tickets that want to tick
+        if (ticket.shouldTick() && tickRefs++ == 0 && onTickingChanged != null) {
+            onTickingChanged.run();
+        }
+    }
+
+    /**
+     * Sets the listener notified whenever {@link #shouldTick()} changes its value. Only one listener is kept, so
+     * setting a new one replaces the previous listener.
+     *
+     * @param onTickingChanged the listener, or {@code null} to remove it
+     */
+    public void setTickingListener(@Nullable Runnable onTickingChanged) {
+        this.onTickingChanged = onTickingChanged;
     }
 
     /**
@@ -51,12 +51,13 @@ import javax.annotation.ParametersAreNonnullByDefault;
 @MethodsReturnNonnullByDefault
 public class EntityContainer {
 
-    @Nonnull protected ClassInheritanceMultiMap<Entity> entities;
+    // created when the first entity is added, most cubes never have any and the map is large
+    @Nullable protected ClassInheritanceMultiMap<Entity> entities;
     protected boolean hasActiveEntities; //TODO: hasActiveEntitys is like an isModifyed right?
     protected long lastSaveTime;
 
     public EntityContainer() {
-        this.entities = ClassInheritanceMultiMapFactory.create(Entity.class);
+        this.entities = null;
         this.hasActiveEntities = false;
         this.lastSaveTime = 0;
     }
@@ -66,28 +67,36 @@ public class EntityContainer {
     //=======================================
 
     public void addEntity(Entity entity) {
+        if (this.entities == null) {
+            this.entities = ClassInheritanceMultiMapFactory.create(Entity.class);
+        }
         this.entities.add(entity);
         this.hasActiveEntities = true;
     }
 
     public boolean remove(Entity entity) {
-        return this.entities.remove(entity);
+        return this.entities != null && this.entities.remove(entity);
     }
 
+    /**
+     * @return the entities, the returned map must not be modified
+     */
     public ClassInheritanceMultiMap<Entity> getEntitySet() {
-        return this.entities;
+        return this.entities == null ? ClassInheritanceMultiMapFactory.EMPTY_ARR[0] : this.entities;
     }
 
     public void clear() {
-        this.entities.clear();
+        if (this.entities != null) {
+            this.entities.clear();
+        }
     }
 
     public Collection<Entity> getEntities() {
-        return Collections.unmodifiableCollection(this.entities);
+        return this.entities == null ? Collections.emptyList() : Collections.unmodifiableCollection(this.entities);
     }
 
     public int size() {
-        return this.entities.size();
+        return this.entities == null ? 0 : this.entities.size();
     }
 
 
@@ -110,7 +119,7 @@ public class EntityContainer {
         this.hasActiveEntities = false;
         NBTTagList nbtEntities = new NBTTagList();
         nbt.setTag(name, nbtEntities);
-        for (Entity entity : this.entities) {
+        for (Entity entity : getEntitySet()) {
 
             NBTTagCompound nbtEntity = new NBTTagCompound();
             if (entity.writeToNBTOptional(nbtEntity)) {
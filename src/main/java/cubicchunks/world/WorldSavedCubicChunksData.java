@@ -24,6 +24,7 @@
 package cubicchunks.world;
 
 import cubicchunks.CubicChunks;
+import cubicchunks.server.chunkio.CompressionCodec;
 import cubicchunks.util.AddressTools;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.world.storage.WorldSavedData;
@@ -31,23 +32,28 @@ import net.minecraft.world.storage.WorldSavedData;
 public class WorldSavedCubicChunksData extends WorldSavedData {
 
     public int minHeight = 0, maxHeight = 256;
+    public String compression;
 
     public WorldSavedCubicChunksData(String name) {
         super(name);
         minHeight = CubicChunks.MIN_BLOCK_Y;
         maxHeight = CubicChunks.MAX_BLOCK_Y;
+        compression = CubicChunks.Config.StringOptions.COMPRESSION_CODEC.getValue();
     }
 
     @Override
     public void readFromNBT(NBTTagCompound nbt) {
         minHeight = nbt.getInteger("minHeight");
         maxHeight = nbt.getInteger("maxHeight");
+        // worlds created before compression could be selected always use gzip
+        compression = nbt.hasKey("compression") ? nbt.getString("compression") : CompressionCodec.GZIP.getName();
     }
 
     @Override
     public NBTTagCompound writeToNBT(NBTTagCompound compound) {
         compound.setInteger("minHeight", minHeight);
         compound.setInteger("maxHeight", maxHeight);
+        compound.setString("compression", compression);
         return compound;
     }
 
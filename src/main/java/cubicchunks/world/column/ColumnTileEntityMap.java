@@ -102,7 +102,7 @@ public class ColumnTileEntityMap implements Map<BlockPos, TileEntity> {
     @Override public TileEntity put(BlockPos blockPos, TileEntity tileEntity) {
         int y = Coords.blockToCube(blockPos.getY());
         Cube cube = column.getCube(y);
-        return cube.getTileEntityMap().put(blockPos, tileEntity);
+        return cube.getOrCreateTileEntityMap().put(blockPos, tileEntity);
     }
 
     @Override public TileEntity remove(Object o) {
@@ -23,31 +23,48 @@
  */
 package cubicchunks.world.column;
 
-import com.google.common.collect.Lists;
 import cubicchunks.world.cube.Cube;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 
-import java.util.ArrayList;
+import java.util.AbstractCollection;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.ConcurrentModificationException;
 import java.util.Iterator;
-import java.util.List;
+import java.util.NoSuchElementException;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
 /**
- * Stores cubes for columns
+ * Stores cubes for columns.
+ * <p>
+ * Cubes are kept in an array sorted by cube y position, so lookups and range queries are binary searches. Cubes that
+ * should tick are additionally tracked in a second sorted array, which is kept up to date by listening to ticket
+ * changes of each stored cube, so finding storages to tick doesn't need to look at every loaded cube.
  */
 @ParametersAreNonnullByDefault
 @MethodsReturnNonnullByDefault
 public class CubeMap implements Iterable<Cube> {
 
-    @Nonnull private final List<Cube> cubes = new ArrayList<>();
+    private static final Cube[] NO_CUBES = new Cube[0];
+    private static final ExtendedBlockStorage[] NO_STORAGES = new ExtendedBlockStorage[0];
 
-    @Nonnull private ExtendedBlockStorage[] toBlockTick = new ExtendedBlockStorage[0];
+    @Nonnull private Cube[] cubes = NO_CUBES;
+    private int size;
+
+    // subset of cubes with at least one ticking ticket, also sorted by y
+    @Nonnull private Cube[] ticking = NO_CUBES;
+    private int tickingSize;
+
+    @Nonnull private ExtendedBlockStorage[] toBlockTick = NO_STORAGES;
+
+    // incremented on every put/remove so that range iterators can fail fast, like the list they replaced
+    private int modCount;
+
+    @Nonnull private final Collection<Cube> allView = new AllCubes();
 
     /**
      * Removes the cube at {@code cubeY}
@@ -57,8 +74,18 @@ public class CubeMap implements Iterable<Cube> {
      * @return the removed cube if it existed, otherwise <code>null</code>
      */
     @Nullable public Cube remove(int cubeY) {
-        int index = binarySearch(cubeY);
-        return index < cubes.size() && cubes.get(index).getY() == cubeY ? cubes.remove(index) : null;
+        int index = binarySearch(cubes, size, cubeY);
+        if (!contains(cubeY, index)) {
+            return null;
+        }
+        Cube cube = cubes[index];
+        removeAt(cubes, size, index);
+        size--;
+        modCount++;
+
+        cube.getTickets().setTickingListener(null);
+        removeTicking(cube);
+        return cube;
     }
 
     /**
@@ -67,16 +94,26 @@ public class CubeMap implements Iterable<Cube> {
      * @param cube the cube to add
      */
     public void put(Cube cube) {
-        int searchIndex = binarySearch(cube.getY());
+        int searchIndex = binarySearch(cubes, size, cube.getY());
         if (this.contains(cube.getY(), searchIndex)) {
             throw new IllegalArgumentException("Cube at " + cube.getY() + " already exists!");
         }
-        cubes.add(searchIndex, cube);
+        cubes = insertAt(cubes, size, searchIndex, cube);
+        size++;
+        modCount++;
+
+        cube.getTickets().setTickingListener(() -> onTickingChanged(cube));
+        if (cube.getTickets().shouldTick()) {
+            addTicking(cube);
+        }
     }
 
     /**
      * Iterate over all cubes between <code>startY</code> and <code>endY</code> in this storage in order. If
      * <code>startY < endY</code>, order is bottom to top, otherwise order is top to bottom.
+     * <p>
+     * The returned iterable is a view of the cubes, iterating it after this map has been modified throws {@link
+     * ConcurrentModificationException}.
      *
      * @param startY initial cube y position
      * @param endY last cube y position
@@ -92,26 +129,22 @@ public class CubeMap implements Iterable<Cube> {
             reverse = true;
         }
 
-        int bottom = binarySearch(startY);
-        int top = binarySearch(endY + 1); // subList()'s second arg is exclusive so we need to add 1
+        int bottom = binarySearch(cubes, size, startY);
+        int top = binarySearch(cubes, size, endY + 1); // exclusive
 
-        if (bottom < cubes.size() && top <= cubes.size()) {
-            return reverse ? Lists.reverse(cubes.subList(bottom, top)) : cubes.subList(bottom, top);
-        } else {
-            return Collections.emptyList();
-        }
+        return new CubeRange(bottom, top, reverse);
     }
 
     /**
      * Check if the target cube is stored here
      *
      * @param cubeY the y coordinate of the cube
-     * @param searchIndex the index to search at (got form {@link #binarySearch(int)})
+     * @param searchIndex the index to search at (got form {@link #binarySearch(Cube[], int, int)})
      *
      * @return <code>true</code> if the cube is contained here, <code>false</code> otherwise
      */
     private boolean contains(int cubeY, int searchIndex) {
-        return searchIndex < cubes.size() && cubes.get(searchIndex).getY() == cubeY;
+        return searchIndex < size && cubes[searchIndex].getY() == cubeY;
     }
 
     /**
@@ -120,7 +153,7 @@ public class CubeMap implements Iterable<Cube> {
      * @return the iterator
      */
     @Override public Iterator<Cube> iterator() {
-        return cubes.iterator();
+        return new CubeIterator(0, size, false);
     }
 
     /**
@@ -129,7 +162,7 @@ public class CubeMap implements Iterable<Cube> {
      * @return the collection
      */
     public Collection<Cube> all() {
-        return cubes;
+        return allView;
     }
 
     /**
@@ -138,26 +171,35 @@ public class CubeMap implements Iterable<Cube> {
      * @return <code>true</code> if there are no cubes in this storage, <code>false</code> otherwise
      */
     public boolean isEmpty() {
-        return cubes.isEmpty();
+        return size == 0;
+    }
+
+    /**
+     * @return <code>true</code> if at least one cube in this storage has a ticket that wants it to tick
+     */
+    public boolean hasTickingCubes() {
+        return tickingSize != 0;
     }
 
     /**
      * @return An array of EBSs from cubes that need ticking
      */
     public ExtendedBlockStorage[] getStoragesToTick() {
+        // storages can still be replaced without a ticket change (uniform cubes being materialized, cubes being
+        // loaded into), so validate against the ticking cubes. That's only the cubes near players, not the whole column.
         if (!isToTickValid()) {
             int count = 0;
-            for (Cube cube : cubes) {
-                if (cube.getStorage() != null && cube.getTickets().shouldTick()) {
+            for (int i = 0; i < tickingSize; i++) {
+                if (needsBlockTick(ticking[i])) {
                     count++;
                 }
             }
 
-            toBlockTick = new ExtendedBlockStorage[count];
+            toBlockTick = count == 0 ? NO_STORAGES : new ExtendedBlockStorage[count];
             count = 0;
-            for (Cube cube : cubes) {
-                if (cube.getStorage() != null && cube.getTickets().shouldTick()) {
-                    toBlockTick[count++] = cube.getStorage();
+            for (int i = 0; i < tickingSize; i++) {
+                if (needsBlockTick(ticking[i])) {
+                    toBlockTick[count++] = ticking[i].getReadOnlyStorage();
                 }
             }
         }
@@ -167,12 +209,13 @@ public class CubeMap implements Iterable<Cube> {
 
     private boolean isToTickValid() {
         int index = 0;
-        for (Cube cube : cubes) {
-            if (cube.getStorage() != null && cube.getTickets().shouldTick()) {
+        for (int i = 0; i < tickingSize; i++) {
+            Cube cube = ticking[i];
+            if (needsBlockTick(cube)) {
                 if (index >= toBlockTick.length) {
                     return false;
                 }
-                if (toBlockTick[index++] != cube.getStorage()) {
+                if (toBlockTick[index++] != cube.getReadOnlyStorage()) {
                     return false;
                 }
             }
@@ -180,23 +223,74 @@ public class CubeMap implements Iterable<Cube> {
         return index == toBlockTick.length; // did we check everything there was in toBlockTick?
     }
 
+    // uniform cubes have no randomly ticking blocks, and their shared storage has no valid Y location
+    private static boolean needsBlockTick(Cube cube) {
+        return !cube.isUniform() && cube.getReadOnlyStorage() != null;
+    }
+
+    private void onTickingChanged(Cube cube) {
+        if (cube.getTickets().shouldTick()) {
+            addTicking(cube);
+        } else {
+            removeTicking(cube);
+        }
+    }
+
+    private void addTicking(Cube cube) {
+        int index = binarySearch(ticking, tickingSize, cube.getY());
+        if (index < tickingSize && ticking[index] == cube) {
+            return;
+        }
+        ticking = insertAt(ticking, tickingSize, index, cube);
+        tickingSize++;
+    }
+
+    private void removeTicking(Cube cube) {
+        int index = binarySearch(ticking, tickingSize, cube.getY());
+        if (index < tickingSize && ticking[index] == cube) {
+            removeAt(ticking, tickingSize, index);
+            tickingSize--;
+        }
+    }
+
+    /**
+     * Inserts a cube into a sorted array, growing it if it's full.
+     *
+     * @return the array containing the inserted cube, which may be a new array
+     */
+    private static Cube[] insertAt(Cube[] array, int length, int index, Cube cube) {
+        if (length == array.length) {
+            array = Arrays.copyOf(array, Math.max(8, length + (length >> 1)));
+        }
+        System.arraycopy(array, index, array, index + 1, length - index);
+        array[index] = cube;
+        return array;
+    }
+
+    private static void removeAt(Cube[] array, int length, int index) {
+        System.arraycopy(array, index + 1, array, index, length - index - 1);
+        array[length - 1] = null; // don't keep unloaded cubes reachable
+    }
+
     /**
      * Binary search for the index of the specified cube. If the cube is not present, returns the index at which it
      * should be inserted.
      *
+     * @param array sorted array of cubes to search
+     * @param length number of cubes in the array
      * @param cubeY cube y position
      *
      * @return the target index
      */
-    private int binarySearch(int cubeY) {
+    private static int binarySearch(Cube[] array, int length, int cubeY) {
         int start = 0;
-        int end = cubes.size() - 1;
+        int end = length - 1;
         int mid;
 
         while (start <= end) {
             mid = start + end >>> 1;
 
-            int at = cubes.get(mid).getY();
+            int at = array[mid].getY();
             if (at < cubeY) { // we are below the target;
                 start = mid + 1;
             } else if (at > cubeY) {
@@ -208,4 +302,70 @@ public class CubeMap implements Iterable<Cube> {
 
         return start; // not found :(
     }
+
+    /**
+     * View of a range of indices in {@link #cubes}. Range queries are almost always iterated exactly once by a for-each
+     * loop, so the view is its own first iterator, and only iterating it again creates a new one.
+     */
+    private class CubeRange extends CubeIterator implements Iterable<Cube> {
+
+        private boolean iteratorTaken;
+
+        CubeRange(int bottom, int top, boolean reverse) {
+            super(bottom, top, reverse);
+        }
+
+        @Override public Iterator<Cube> iterator() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (!iteratorTaken) {
+                iteratorTaken = true;
+                return this;
+            }
+            return new CubeIterator(bottom, top, reverse);
+        }
+    }
+
+    private class CubeIterator implements Iterator<Cube> {
+
+        final int bottom;
+        final int top; // exclusive
+        final boolean reverse;
+        final int expectedModCount = modCount;
+
+        private int next;
+
+        CubeIterator(int bottom, int top, boolean reverse) {
+            this.bottom = bottom;
+            this.top = top;
+            this.reverse = reverse;
+            this.next = reverse ? top - 1 : bottom;
+        }
+
+        @Override public boolean hasNext() {
+            return reverse ? next >= bottom : next < top;
+        }
+
+        @Override public Cube next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return cubes[reverse ? next-- : next++];
+        }
+    }
+
+    private class AllCubes extends AbstractCollection<Cube> {
+
+        @Override public Iterator<Cube> iterator() {
+            return CubeMap.this.iterator();
+        }
+
+        @Override public int size() {
+            return size;
+        }
+    }
 }
@@ -37,9 +37,6 @@ import net.minecraft.world.EnumSkyBlock;
 import net.minecraft.world.chunk.Chunk;
 import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 
-import java.util.HashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
-
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
@@ -53,12 +50,8 @@ public class BlankCube extends Cube {
 
     public BlankCube(IColumn column) {
         super(new TicketList(), column.getCubicWorld(), column, new CubePos(0, 0, 0),
-                Cube.NULL_STORAGE, new BlankEntityContainer(), new HashMap<>(), new ConcurrentLinkedQueue<>(),
-                new LightingManager.CubeLightUpdateInfo(null) {
-                    @Override
-                    public void tick() {
-                    }
-                });
+                Cube.NULL_STORAGE, new BlankEntityContainer(), null, null,
+                new LightingManager.CubeLightUpdateInfo(null));
     }
 
     @Override
@@ -49,14 +49,17 @@ import net.minecraft.tileentity.TileEntity;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.ChunkPos;
 import net.minecraft.world.EnumSkyBlock;
+import net.minecraft.world.IBlockAccess;
 import net.minecraft.world.NextTickListEntry;
 import net.minecraft.world.World;
 import net.minecraft.world.WorldServer;
 import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.NibbleArray;
 import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 import net.minecraftforge.fml.relauncher.Side;
 import net.minecraftforge.fml.relauncher.SideOnly;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -87,8 +90,9 @@ public class Cube implements XYZAddressable {
 
     @Nullable protected static final ExtendedBlockStorage NULL_STORAGE = null;
 
-    private final Set<NextTickListEntry> pendingTickListEntriesHashSet = new HashSet<NextTickListEntry>();
-    private final TreeSet<NextTickListEntry> pendingTickListEntriesTreeSet = new TreeSet<NextTickListEntry>();
+    // created by the first scheduled tick, cubes that are only generated or populated never get any
+    @Nullable private Set<NextTickListEntry> pendingTickListEntriesHashSet;
+    @Nullable private TreeSet<NextTickListEntry> pendingTickListEntriesTreeSet;
     /**
      * Side length of a cube
      */
@@ -132,25 +136,43 @@ public class Cube implements XYZAddressable {
      * Blocks in this cube
      */
     @Nullable private ExtendedBlockStorage storage;
+    /**
+     * Shared storage used instead of {@link #storage} while all blocks are the same opaque block, copied on first write
+     */
+    @Nullable private UniformBlockStorage uniformStorage;
+    /**
+     * Number of blocks with light opacity 0, and of blocks with light opacity of at least 15. -1 until they are counted
+     * on first use, kept up to date by {@link #onBlockOpacityChange(int, int)} after that.
+     */
+    private int transparentBlockCount = -1;
+    private int opaqueBlockCount = -1;
     /**
      * Entities in this cube
      */
     @Nonnull private final EntityContainer entities;
     /**
-     * The position of tile entities in this cube, and their corresponding tile entity
+     * The position of tile entities in this cube, and their corresponding tile entity. Created when the first tile
+     * entity is added, most cubes never have any.
      */
-    @Nonnull private final Map<BlockPos, TileEntity> tileEntityMap;
+    @Nullable private Map<BlockPos, TileEntity> tileEntityMap;
     /**
-     * The positions of tile entities queued for creation
+     * The positions of tile entities queued for creation. Nothing queues them for cubes yet, {@link
+     * Chunk#getTileEntity(BlockPos, Chunk.EnumCreateEntityType)} uses the queue of the column.
      */
-    @Nonnull private final ConcurrentLinkedQueue<BlockPos> tileEntityPosQueue;
+    @Nullable private final ConcurrentLinkedQueue<BlockPos> tileEntityPosQueue;
 
-    private final LightingManager.CubeLightUpdateInfo cubeLightUpdateInfo;
+    // created when a light update is first queued for this cube
+    @Nullable private LightingManager.CubeLightUpdateInfo cubeLightUpdateInfo;
 
     /**
      * Is this cube loaded and not queued for unload
      */
     private boolean isCubeLoaded;
+
+    /**
+     * Fingerprint of the serialized cube data that is on disk, 0 if unknown. Set by save threads.
+     */
+    private volatile long savedContentHash = 0;
     
     /**
      * Contains the current Linear Congruential Generator seed for block updates. Used with an A value of 3 and a C
@@ -171,13 +193,11 @@ public class Cube implements XYZAddressable {
         this.column = column;
         this.coords = new CubePos(column.getX(), cubeY, column.getZ());
 
-        this.tickets = new TicketList();
+        this.tickets = new TicketList(this::onTicketsEmpty);
 
         this.entities = new EntityContainer();
-        this.tileEntityMap = new HashMap<>();
-        this.tileEntityPosQueue = new ConcurrentLinkedQueue<>();
-
-        this.cubeLightUpdateInfo = world.getLightingManager().createCubeLightUpdateInfo(this);
+        this.tileEntityMap = null;
+        this.tileEntityPosQueue = null;
 
         this.storage = NULL_STORAGE;
     }
@@ -197,6 +217,11 @@ public class Cube implements XYZAddressable {
         int miny = Coords.cubeToMinBlock(cubeY);
         IHeightMap opindex = column.getOpacityIndex();
 
+        IBlockState uniformState = findUniformState(primer);
+        if (uniformState != null) {
+            uniformStorage = UniformBlockStorage.get(uniformState, cubeY, world.getProvider().hasSkyLight());
+        }
+
         for (int x = 0; x < 16; x++) {
             for (int z = 0; z < 16; z++) {
 
@@ -204,10 +229,12 @@ public class Cube implements XYZAddressable {
                     IBlockState newstate = primer.getBlockState(x, y, z);
 
                     if (newstate.getMaterial() != Material.AIR) {
-                        if (storage == NULL_STORAGE) {
-                            newStorage();
+                        if (uniformState == null) {
+                            if (storage == NULL_STORAGE) {
+                                newStorage();
+                            }
+                            storage.set(x, y, z, newstate);
                         }
-                        storage.set(x, y, z, newstate);
 
                         if (newstate.getLightOpacity() != 0) {
                             column.setModified(true); //TODO: this is a bit of am abstraction leak... maybe ServerHeightMap needs its own isModified
@@ -220,13 +247,32 @@ public class Cube implements XYZAddressable {
         isModified = true;
     }
 
+    @Nullable
+    private static IBlockState findUniformState(ICubePrimer primer) {
+        IBlockState state = primer.getBlockState(0, 0, 0);
+        if (!UniformBlockStorage.canBeUniform(state)) {
+            return null;
+        }
+        for (int y = 0; y < 16; y++) {
+            for (int z = 0; z < 16; z++) {
+                for (int x = 0; x < 16; x++) {
+                    if (primer.getBlockState(x, y, z) != state) {
+                        return null;
+                    }
+                }
+            }
+        }
+        return state;
+    }
+
 
     /**
      * Constructor to be used from subclasses to provide all field values
      */
     protected Cube(TicketList tickers, ICubicWorld world, IColumn column, CubePos coords, ExtendedBlockStorage storage,
-            EntityContainer entities, Map<BlockPos, TileEntity> tileEntityMap,
-            ConcurrentLinkedQueue<BlockPos> tileEntityPosQueue, LightingManager.CubeLightUpdateInfo lightInfo) {
+            EntityContainer entities, @Nullable Map<BlockPos, TileEntity> tileEntityMap,
+            @Nullable ConcurrentLinkedQueue<BlockPos> tileEntityPosQueue,
+            LightingManager.CubeLightUpdateInfo lightInfo) {
         this.tickets = tickers;
         this.world = world;
         this.column = column;
@@ -281,6 +327,9 @@ public class Cube implements XYZAddressable {
      * @see Cube#getBlockState(BlockPos)
      */
     public IBlockState getBlockState(int blockX, int localOrBlockY, int blockZ) {
+        if (uniformStorage != null) {
+            return uniformStorage.getState();
+        }
         if (storage == NULL_STORAGE) {
             return Blocks.AIR.getDefaultState();
         }
@@ -352,11 +401,14 @@ public class Cube implements XYZAddressable {
     }
 
     /**
-     * Update light and tile entities of cube
+     * Update tile entities of cube. Light updates are queued in {@link LightingManager} and done separately.
      *
      * @param tryToTickFaster Whether costly calculations should be skipped in order to catch up with ticks
      */
     public void tickCubeCommon(BooleanSupplier tryToTickFaster) {
+        if (this.tileEntityPosQueue == null) {
+            return;
+        }
         while (!this.tileEntityPosQueue.isEmpty()) {
             BlockPos blockpos = this.tileEntityPosQueue.poll();
 
@@ -370,10 +422,6 @@ public class Cube implements XYZAddressable {
                 this.world.markBlockRangeForRenderUpdate(blockpos, blockpos);
             }
         }
-
-        if (!tryToTickFaster.getAsBoolean() && this.cubeLightUpdateInfo != null) {
-            this.cubeLightUpdateInfo.tick();
-        }
     }
 
     /**
@@ -388,13 +436,16 @@ public class Cube implements XYZAddressable {
 
         tickCubeCommon(tryToTickFaster);
 
+        if (pendingTickListEntriesTreeSet == null) {
+            return;
+        }
         Iterator<NextTickListEntry> pti = pendingTickListEntriesTreeSet.iterator();
         while (pti.hasNext()) {
             NextTickListEntry ntle = pti.next();
             if (ntle.scheduledTime > world.getTotalWorldTime())
                 return;
             BlockPos pos = ntle.position;
-            IBlockState iblockstate = this.storage.get(pos.getX() & 15, pos.getY() & 15, pos.getZ() & 15);
+            IBlockState iblockstate = this.getBlockState(pos);
             if (iblockstate.getMaterial() != Material.AIR && iblockstate.getBlock() == ntle.getBlock()) {
                 iblockstate.getBlock().updateTick((WorldServer) world, ntle.position, iblockstate, rand);
             }
@@ -415,6 +466,9 @@ public class Cube implements XYZAddressable {
      * @param rand - World specific Random
      */
     public void randomTick(WorldServer worldServer, Random rand) {
+        if (this.storage == NULL_STORAGE) {
+            return; // uniform cubes never contain randomly ticking blocks
+        }
         this.updateLCG = this.updateLCG * 3 + 1013904223;
         int j1 = updateLCG >> 2;
         int localX = j1 & 15;
@@ -438,6 +492,10 @@ public class Cube implements XYZAddressable {
             NextTickListEntry nextticklistentry = new NextTickListEntry(pos, blockIn);
             nextticklistentry.setScheduledTime((long) delay + world.getTotalWorldTime());
             nextticklistentry.setPriority(priority);
+            if (this.pendingTickListEntriesHashSet == null) {
+                this.pendingTickListEntriesHashSet = new HashSet<>();
+                this.pendingTickListEntriesTreeSet = new TreeSet<>();
+            }
             this.pendingTickListEntriesHashSet.add(nextticklistentry);
         }
     }
@@ -452,6 +510,9 @@ public class Cube implements XYZAddressable {
      * @return <code>true</code> if this cube contains only air blocks, <code>false</code> otherwise
      */
     public boolean isEmpty() {
+        if (uniformStorage != null) {
+            return false;
+        }
         return storage == null || this.storage.isEmpty();
     }
 
@@ -530,25 +591,182 @@ public class Cube implements XYZAddressable {
                 && this.coords.getZ() == Coords.blockToCube(blockPos.getZ());
     }
 
+    /**
+     * Retrieve the block storage of this cube so that it can be modified. Uniform cubes get a private copy of their
+     * shared storage first, callers that only read should use {@link #getReadOnlyStorage()} instead.
+     *
+     * @return the storage, or null if the cube contains only air
+     */
     @Nullable public ExtendedBlockStorage getStorage() {
+        if (this.uniformStorage != null) {
+            this.storage = this.uniformStorage.copy();
+            this.uniformStorage = null;
+        }
         return this.storage;
     }
 
+    /**
+     * Retrieve the block storage of this cube for reading. For uniform cubes this is a {@link UniformBlockStorage}
+     * shared with other cubes, which must not be modified.
+     *
+     * @return the storage, or null if the cube contains only air
+     */
+    @Nullable public ExtendedBlockStorage getReadOnlyStorage() {
+        return this.uniformStorage != null ? this.uniformStorage : this.storage;
+    }
+
+    /**
+     * @return true if all blocks in this cube are the same opaque block and the storage is shared
+     */
+    public boolean isUniform() {
+        return this.uniformStorage != null;
+    }
+
     @Nullable public ExtendedBlockStorage setStorage(@Nullable ExtendedBlockStorage ebs) {
-        this.isModified = true;
+        markDirty();
+        this.uniformStorage = null;
+        this.transparentBlockCount = -1;
+        this.opaqueBlockCount = -1;
         return this.storage = ebs;
     }
 
+    /**
+     * Makes all blocks in this cube the given state, sharing the storage with other cubes. Used when loading cubes.
+     *
+     * @param state the block state, must satisfy {@link UniformBlockStorage#canBeUniform(IBlockState)}
+     */
+    public void setUniform(IBlockState state) {
+        this.uniformStorage = UniformBlockStorage.get(state, getY(), world.getProvider().hasSkyLight());
+        this.storage = NULL_STORAGE;
+        this.transparentBlockCount = -1;
+        this.opaqueBlockCount = -1;
+    }
+
+    /**
+     * Tells whether light can pass through all blocks of this cube, through none of them, or something in between. The
+     * blocks are counted once, later block changes update the counts through {@link #onBlockOpacityChange(int, int)}.
+     *
+     * @return the opacity summary of this cube
+     */
+    public OpacitySummary getOpacitySummary() {
+        if (transparentBlockCount < 0) {
+            countBlockOpacities();
+        }
+        if (transparentBlockCount == SIZE * SIZE * SIZE) {
+            return OpacitySummary.ALL_TRANSPARENT;
+        }
+        if (opaqueBlockCount == SIZE * SIZE * SIZE) {
+            return OpacitySummary.ALL_OPAQUE;
+        }
+        return OpacitySummary.MIXED;
+    }
+
+    /**
+     * Updates the opacity summary after a block in this cube has been replaced.
+     *
+     * @param oldOpacity light opacity of the replaced block
+     * @param newOpacity light opacity of the new block
+     */
+    public void onBlockOpacityChange(int oldOpacity, int newOpacity) {
+        if (transparentBlockCount < 0) {
+            return; // not counted yet, will be counted from the current blocks
+        }
+        transparentBlockCount += (newOpacity == 0 ? 1 : 0) - (oldOpacity == 0 ? 1 : 0);
+        opaqueBlockCount += (newOpacity >= 15 ? 1 : 0) - (oldOpacity >= 15 ? 1 : 0);
+    }
+
+    private void countBlockOpacities() {
+        ExtendedBlockStorage ebs = getReadOnlyStorage();
+        if (ebs == NULL_STORAGE || ebs.isEmpty()) {
+            transparentBlockCount = SIZE * SIZE * SIZE;
+            opaqueBlockCount = 0;
+            return;
+        }
+        if (ebs instanceof UniformBlockStorage) {
+            transparentBlockCount = 0;
+            opaqueBlockCount = SIZE * SIZE * SIZE;
+            return;
+        }
+        int transparent = 0, opaque = 0;
+        BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+        for (int y = 0; y < SIZE; y++) {
+            for (int z = 0; z < SIZE; z++) {
+                for (int x = 0; x < SIZE; x++) {
+                    pos.setPos(localToBlock(getX(), x), localToBlock(getY(), y), localToBlock(getZ(), z));
+                    int opacity = ebs.get(x, y, z).getLightOpacity((IBlockAccess) world, pos);
+                    if (opacity == 0) {
+                        transparent++;
+                    } else if (opacity >= 15) {
+                        opaque++;
+                    }
+                }
+            }
+        }
+        transparentBlockCount = transparent;
+        opaqueBlockCount = opaque;
+    }
+
+    /**
+     * Switches to shared storage if all blocks are the same opaque block without light, see {@link
+     * UniformBlockStorage}. Used after loading cubes.
+     */
+    public void compactStorage() {
+        ExtendedBlockStorage ebs = this.storage;
+        if (ebs == NULL_STORAGE) {
+            return;
+        }
+        IBlockState state = ebs.get(0, 0, 0);
+        if (!UniformBlockStorage.canBeUniform(state)) {
+            return;
+        }
+        for (int y = 0; y < 16; y++) {
+            for (int z = 0; z < 16; z++) {
+                for (int x = 0; x < 16; x++) {
+                    if (ebs.get(x, y, z) != state) {
+                        return;
+                    }
+                }
+            }
+        }
+        if (!isZero(ebs.getBlockLight()) || (ebs.getSkyLight() != null && !isZero(ebs.getSkyLight()))) {
+            return;
+        }
+        setUniform(state);
+    }
+
+    private static boolean isZero(NibbleArray array) {
+        for (byte b : array.getData()) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private void newStorage() {
         storage = new ExtendedBlockStorage(Coords.cubeToMinBlock(getY()), world.getProvider().hasSkyLight());
     }
 
     /**
-     * Retrieve a map of positions to their respective tile entities
+     * Retrieve a map of positions to their respective tile entities. While the cube has no tile entities this is an
+     * empty immutable map, new tile entities have to be added through {@link #getOrCreateTileEntityMap()}.
      *
      * @return a map containing all tile entities in this cube
      */
     public Map<BlockPos, TileEntity> getTileEntityMap() {
+        return this.tileEntityMap == null ? Collections.emptyMap() : this.tileEntityMap;
+    }
+
+    /**
+     * Retrieve the map of positions to their respective tile entities for adding tile entities, creating it if this
+     * cube doesn't have any yet.
+     *
+     * @return a modifiable map containing all tile entities in this cube
+     */
+    public Map<BlockPos, TileEntity> getOrCreateTileEntityMap() {
+        if (this.tileEntityMap == null) {
+            this.tileEntityMap = new HashMap<>();
+        }
         return this.tileEntityMap;
     }
 
@@ -570,9 +788,15 @@ public class Cube implements XYZAddressable {
             return;
         }
         // tell the world about tile entities
-        this.world.addTileEntities(this.tileEntityMap.values());
+        this.world.addTileEntities(this.getTileEntityMap().values());
         this.world.loadEntities(this.entities.getEntities());
         this.isCubeLoaded = true;
+        if (this.isModified) {
+            onBecameDirty();
+        }
+        if (this.tickets.canUnload()) {
+            onTicketsEmpty();
+        }
     }
 
     /**
@@ -599,9 +823,11 @@ public class Cube implements XYZAddressable {
         }
 
         // tell the world to forget about tile entities
-        for (TileEntity blockEntity : this.tileEntityMap.values()) {
+        for (TileEntity blockEntity : this.getTileEntityMap().values()) {
             this.world.markTileEntityForRemoval(blockEntity);
         }
+
+        this.world.getLightingManager().onCubeUnload(this);
     }
 
     /**
@@ -621,11 +847,44 @@ public class Cube implements XYZAddressable {
         this.isModified = false;
     }
 
+    /**
+     * @return fingerprint of the cube data last written to or read from disk, or 0 if unknown
+     */
+    public long getSavedContentHash() {
+        return savedContentHash;
+    }
+
+    /**
+     * Set the fingerprint of the cube data on disk. Can be called from any thread.
+     *
+     * @param hash the fingerprint, 0 if unknown
+     */
+    public void setSavedContentHash(long hash) {
+        this.savedContentHash = hash;
+    }
+
     /**
      * Mark this cube as one, who need to be saved to disk
      */
     public void markDirty() {
-        this.isModified = true;
+        if (!this.isModified) {
+            this.isModified = true;
+            onBecameDirty();
+        }
+    }
+
+    private void onBecameDirty() {
+        // only loaded cubes are autosaved, cubes that aren't loaded yet are queued in onLoad()
+        if (this.isCubeLoaded && !this.world.isRemote()) {
+            ((ICubicWorldServer) this.world).getCubeCache().markCubeDirty(this);
+        }
+    }
+
+    private void onTicketsEmpty() {
+        // cubes without tickets are unloaded by ChunkGc, cubes that aren't loaded yet are checked in onLoad()
+        if (this.isCubeLoaded && !this.world.isRemote()) {
+            ((ICubicWorldServer) this.world).getCubeCache().getChunkGc().markUnloadCandidate(this);
+        }
     }
 
     /**
@@ -658,11 +917,28 @@ public class Cube implements XYZAddressable {
         return 41 * hash + getZ();
     }
 
+    /**
+     * @return the light updates queued for this cube, or null if none have been queued yet or the world has no sky
+     * light
+     */
     @Nullable
     public LightingManager.CubeLightUpdateInfo getCubeLightUpdateInfo() {
         return this.cubeLightUpdateInfo;
     }
 
+    /**
+     * Like {@link #getCubeLightUpdateInfo()}, but creates it if needed.
+     *
+     * @return the light updates queued for this cube, or null if the world has no sky light
+     */
+    @Nullable
+    public LightingManager.CubeLightUpdateInfo getOrCreateCubeLightUpdateInfo() {
+        if (this.cubeLightUpdateInfo == null) {
+            this.cubeLightUpdateInfo = world.getLightingManager().createCubeLightUpdateInfo(this);
+        }
+        return this.cubeLightUpdateInfo;
+    }
+
     /**
      * Mark this cube as a client side cube. Less work is done in this case, as we expect to receive updates from the
      * server
@@ -693,7 +969,7 @@ public class Cube implements XYZAddressable {
      */
     public void setPopulated(boolean populated) {
         this.isPopulated = populated;
-        this.isModified = true;
+        markDirty();
     }
 
     /**
@@ -716,7 +992,7 @@ public class Cube implements XYZAddressable {
      */
     public void setFullyPopulated(boolean populated) {
         this.isFullyPopulated = populated;
-        this.isModified = true;
+        markDirty();
     }
 
     /**
@@ -733,7 +1009,7 @@ public class Cube implements XYZAddressable {
      */
     public void setInitialLightingDone(boolean initialLightingDone) {
         this.isInitialLightingDone = initialLightingDone;
-        this.isModified = true;
+        markDirty();
     }
 
     public void setCubeLoaded() {
@@ -748,4 +1024,22 @@ public class Cube implements XYZAddressable {
         LightingManager.CubeLightUpdateInfo info = this.getCubeLightUpdateInfo();
         return info != null && info.hasUpdates();
     }
+
+    /**
+     * How much light can pass through the blocks of a cube, see {@link #getOpacitySummary()}
+     */
+    public enum OpacitySummary {
+        /**
+         * All blocks have light opacity 0
+         */
+        ALL_TRANSPARENT,
+        /**
+         * All blocks have light opacity of at least 15, no light can get into them
+         */
+        ALL_OPAQUE,
+        /**
+         * Anything else
+         */
+        MIXED
+    }
 }
@@ -0,0 +1,174 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.world.cube;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import cubicchunks.util.Coords;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.material.Material;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.world.chunk.NibbleArray;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+import java.util.Objects;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Block storage of a cube made entirely of one opaque block, shared by all such cubes at the same Y position. The
+ * light in opaque blocks is always 0, so the whole storage depends only on the block state and the Y position.
+ * <p>
+ * Cubes only hand it out for reading, see {@link Cube#getReadOnlyStorage()}. Every path that writes to a cube goes
+ * through {@link Cube#getStorage()}, which replaces it with a private copy first, so the setters are never called on
+ * a shared instance. Instances are kept only as long as some cube uses them.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public final class UniformBlockStorage extends ExtendedBlockStorage {
+
+    private static final LoadingCache<Key, UniformBlockStorage> shared = CacheBuilder.newBuilder()
+            .weakValues()
+            .build(CacheLoader.from(UniformBlockStorage::new));
+
+    private final IBlockState state;
+    private final boolean frozen;
+
+    private UniformBlockStorage(Key key) {
+        super(Coords.cubeToMinBlock(key.cubeY), key.storeSkylight);
+        this.state = key.state;
+        fill(this, state);
+        this.frozen = true;
+    }
+
+    /**
+     * Checks whether a cube made only of this block state can share its storage. The block must be opaque and not emit
+     * light, so that all light values are 0, and it must not have random ticks or a tile entity.
+     *
+     * @param state the block state
+     *
+     * @return true if the state can be used for a uniform cube
+     */
+    @SuppressWarnings("deprecation")
+    public static boolean canBeUniform(IBlockState state) {
+        return state.getMaterial() != Material.AIR
+                && state.getLightOpacity() >= 15
+                && state.getLightValue() == 0
+                && !state.getBlock().getTickRandomly()
+                && !state.getBlock().hasTileEntity(state);
+    }
+
+    /**
+     * @param state the block state of all blocks, must satisfy {@link #canBeUniform(IBlockState)}
+     * @param cubeY y position of the cube
+     * @param storeSkylight whether the world has sky light
+     *
+     * @return the shared storage
+     */
+    public static UniformBlockStorage get(IBlockState state, int cubeY, boolean storeSkylight) {
+        return shared.getUnchecked(new Key(state, cubeY, storeSkylight));
+    }
+
+    /**
+     * Creates a modifiable copy, for a cube that is about to be changed.
+     *
+     * @return the new storage
+     */
+    public ExtendedBlockStorage copy() {
+        ExtendedBlockStorage ebs = new ExtendedBlockStorage(getYLocation(), getSkyLight() != null);
+        fill(ebs, state);
+        return ebs;
+    }
+
+    public IBlockState getState() {
+        return state;
+    }
+
+    private static void fill(ExtendedBlockStorage ebs, IBlockState state) {
+        for (int y = 0; y < Cube.SIZE; y++) {
+            for (int z = 0; z < Cube.SIZE; z++) {
+                for (int x = 0; x < Cube.SIZE; x++) {
+                    ebs.set(x, y, z, state);
+                }
+            }
+        }
+    }
+
+    // writes only ever reach a copy, see Cube.getStorage()
+
+    @Override public void set(int x, int y, int z, IBlockState state) {
+        assert !frozen : "Shared uniform cube storage modified";
+        super.set(x, y, z, state);
+    }
+
+    @Override public void setSkyLight(int x, int y, int z, int value) {
+        assert !frozen : "Shared uniform cube storage modified";
+        super.setSkyLight(x, y, z, value);
+    }
+
+    @Override public void setBlockLight(int x, int y, int z, int value) {
+        assert !frozen : "Shared uniform cube storage modified";
+        super.setBlockLight(x, y, z, value);
+    }
+
+    @Override public void setBlockLight(NibbleArray newBlocklightArray) {
+        assert !frozen : "Shared uniform cube storage modified";
+        super.setBlockLight(newBlocklightArray);
+    }
+
+    @Override public void setSkyLight(NibbleArray newSkylightArray) {
+        assert !frozen : "Shared uniform cube storage modified";
+        super.setSkyLight(newSkylightArray);
+    }
+
+    private static final class Key {
+
+        private final IBlockState state;
+        private final int cubeY;
+        private final boolean storeSkylight;
+
+        private Key(IBlockState state, int cubeY, boolean storeSkylight) {
+            this.state = state;
+            this.cubeY = cubeY;
+            this.storeSkylight = storeSkylight;
+        }
+
+        @Override public boolean equals(@Nullable Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return cubeY == key.cubeY && storeSkylight == key.storeSkylight && state == key.state;
+        }
+
+        @Override public int hashCode() {
+            return Objects.hash(state, cubeY, storeSkylight);
+        }
+    }
+}
@@ -0,0 +1,390 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks;
+
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.hasItem;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.Sets;
+import cubicchunks.util.ConcurrentXYZMap;
+import cubicchunks.util.XYZAddressable;
+import mcp.MethodsReturnNonnullByDefault;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestConcurrentXYZMap {
+
+    @Test
+    public void testSimpleGetEqual() {
+        XYZAddressable value = new Addressable(0, 0, 0, "1");
+        ConcurrentXYZMap<XYZAddressable> map = new ConcurrentXYZMap<>(0.75f, 10);
+        map.put(value);
+        assertEquals(value, map.get(0, 0, 0));
+    }
+
+    @Test
+    public void testGetEqualRandomPositionsReplace() {
+        ConcurrentXYZMap<XYZAddressable> map = new ConcurrentXYZMap<>(0.75f, 10);
+        //set seed so that tests are predictable
+        Random rand = new Random(42);
+        int maxPuts = 500;
+        Addressable[] values = new Addressable[maxPuts];
+        testPutRandom(map, rand, maxPuts, values);
+        rand = new Random(42);
+        //test that replacing works
+        testPutRandom(map, rand, maxPuts, values);
+        assertEquals(maxPuts, map.getSize());
+    }
+
+    private void testPutRandom(ConcurrentXYZMap<XYZAddressable> map, Random rand, int maxPuts, Addressable[] values) {
+        for (int i = 0; i < maxPuts; i++) {
+            values[i] = new Addressable(rand.nextInt(), rand.nextInt(), rand.nextInt(), String.valueOf(i));
+            map.put(values[i]);
+            //test all previous values
+            for (int j = 0; j <= i; j++) {
+                Addressable exp = values[j];
+                assertEquals(
+                        "added=" + values[i] + ", wrongValue=" + exp, exp, map.get(exp.getX(), exp.getY(), exp.getZ()));
+            }
+        }
+    }
+
+    @Test
+    public void testGetUnique() {
+        XYZAddressable value = new Addressable(0, 0, 0, "1");
+        ConcurrentXYZMap<XYZAddressable> map = new ConcurrentXYZMap<>(0.75f, 10);
+        map.put(value);
+        for (int x = -20; x < 20; x++) {
+            for (int y = -20; y < 20; y++) {
+                for (int z = -20; z < 20; z++) {
+                    if (x != 0 || y != 0 || z != 0) {
+                        assertNull(map.get(x, y, z));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testPackedKeyCollision() {
+        // y coordinates only differing above the packed bit range share a key
+        XYZAddressable low = new Addressable(1, 5, 1, "low");
+        XYZAddressable high = new Addressable(1, 5 + (1 << 20), 1, "high");
+        ConcurrentXYZMap<XYZAddressable> map = new ConcurrentXYZMap<>(0.75f, 10);
+        map.put(low);
+        map.put(high);
+        assertEquals(2, map.getSize());
+        assertSame(low, map.get(1, 5, 1));
+        assertSame(high, map.get(1, 5 + (1 << 20), 1));
+        assertSame(low, map.remove(1, 5, 1));
+        assertNull(map.get(1, 5, 1));
+        assertSame(high, map.get(1, 5 + (1 << 20), 1));
+    }
+
+    @Test
+    public void testRemoveAndReinsert() {
+        ConcurrentXYZMap<XYZAddressable> map = new ConcurrentXYZMap<>(0.75f, 4);
+        Random rand = new Random(42);
+        List<Addressable> values = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            Addressable value = new Addressable(rand.nextInt(64), rand.nextInt(64), rand.nextInt(64), String.valueOf(i));
+            if (map.get(value.getX(), value.getY(), value.getZ()) == null) {
+                map.put(value);
+                values.add(value);
+            }
+        }
+        // remove every other value, many times over, so that the table is rebuilt with removed slots in it
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < values.size(); i += 2) {
+                Addressable value = values.get(i);
+                assertSame(value, map.remove(value.getX(), value.getY(), value.getZ()));
+            }
+            for (int i = 0; i < values.size(); i++) {
+                Addressable value = values.get(i);
+                XYZAddressable expected = i % 2 == 0 ? null : value;
+                assertEquals(expected, map.get(value.getX(), value.getY(), value.getZ()));
+            }
+            for (int i = 0; i < values.size(); i += 2) {
+                assertNull(map.put(values.get(i)));
+            }
+            assertEquals(values.size(), map.getSize());
+        }
+    }
+
+    @Test
+    public void testIterator() {
+        ConcurrentXYZMap<XYZAddressable> map = new ConcurrentXYZMap<>(0.75f, 10);
+        Set<XYZAddressable> allElements = new HashSet<>();
+        Random rand = new Random(42);
+        int maxPut = 500;
+        for (int i = 0; i < maxPut; i++) {
+            Addressable newElement = new Addressable(rand.nextInt(), rand.nextInt(), rand.nextInt(), String.valueOf(i));
+            map.put(newElement);
+            allElements.add(newElement);
+        }
+        for (XYZAddressable element : map) {
+            assertThat(allElements, hasItem(element));
+            allElements.remove(element);
+        }
+        assertThat(allElements, empty());
+    }
+
+    @Test
+    public void testIteratorRemove() {
+        ConcurrentXYZMap<XYZAddressable> map = new ConcurrentXYZMap<>(0.75f, 10);
+        Random rand = new Random(42);
+        Set<XYZAddressable> kept = new HashSet<>();
+        for (int i = 0; i < 500; i++) {
+            Addressable newElement = new Addressable(rand.nextInt(), rand.nextInt(), rand.nextInt(), String.valueOf(i));
+            map.put(newElement);
+            if (i % 3 != 0) {
+                kept.add(newElement);
+            }
+        }
+        for (Iterator<XYZAddressable> it = map.iterator(); it.hasNext(); ) {
+            XYZAddressable element = it.next();
+            if (!kept.contains(element)) {
+                it.remove();
+            }
+        }
+        assertEquals(kept.size(), map.getSize());
+        for (XYZAddressable element : kept) {
+            assertSame(element, map.get(element.getX(), element.getY(), element.getZ()));
+        }
+    }
+
+    @Test
+    public void testIteratorSkipsRemovedAndReplaced() {
+        ConcurrentXYZMap<XYZAddressable> map = new ConcurrentXYZMap<>(0.75f, 10);
+        List<Addressable> values = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Addressable value = new Addressable(i, i * 3, -i, String.valueOf(i));
+            values.add(value);
+            map.put(value);
+        }
+        Set<XYZAddressable> removed = new HashSet<>();
+        Set<XYZAddressable> seen = new HashSet<>();
+        for (XYZAddressable element : map) {
+            assertTrue("Iterator returned removed or replaced " + element, !removed.contains(element));
+            seen.add(element);
+            // remove and replace some values the iterator may not have got to yet
+            for (Addressable value : values) {
+                if (!seen.contains(value) && !removed.contains(value) && removed.size() < 40) {
+                    if (removed.size() % 2 == 0) {
+                        map.remove(value);
+                    } else {
+                        map.put(new Addressable(value.getX(), value.getY(), value.getZ(), "replaced" + value.id));
+                    }
+                    removed.add(value);
+                    break;
+                }
+            }
+        }
+        assertEquals(40, removed.size());
+    }
+
+    @Test
+    public void testIteratorAfterRebuild() {
+        ConcurrentXYZMap<XYZAddressable> map = new ConcurrentXYZMap<>(0.75f, 4);
+        List<Addressable> values = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            Addressable value = new Addressable(i, -i, i * 5, String.valueOf(i));
+            values.add(value);
+            map.put(value);
+        }
+        Iterator<XYZAddressable> it = map.iterator();
+        // removing most of the values shrinks the table, the iterator still works on the old one
+        for (int i = 0; i < 180; i++) {
+            map.remove(values.get(i));
+        }
+        Set<XYZAddressable> seen = new HashSet<>();
+        while (it.hasNext()) {
+            seen.add(it.next());
+        }
+        assertEquals(new HashSet<>(values.subList(180, 200)), seen);
+    }
+
+    @Test
+    public void testIteratorRemoveReturned() {
+        ConcurrentXYZMap<XYZAddressable> map = new ConcurrentXYZMap<>(0.75f, 10);
+        Set<XYZAddressable> expected = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            Addressable value = new Addressable(i, -i, i, String.valueOf(i));
+            expected.add(value);
+            map.put(value);
+        }
+        // removing values that have already been returned, which moves not yet returned ones in the map
+        List<XYZAddressable> seen = new ArrayList<>();
+        for (XYZAddressable element : map) {
+            seen.add(element);
+            map.remove(element);
+        }
+        assertEquals(expected.size(), seen.size());
+        assertEquals(expected, new HashSet<>(seen));
+        assertEquals(0, map.getSize());
+    }
+
+    @Test
+    public void testIteratorAfterModification() {
+        ConcurrentXYZMap<XYZAddressable> map = new ConcurrentXYZMap<>(0.75f, 10);
+        Set<XYZAddressable> expected = new HashSet<>();
+        for (int i = 0; i < 50; i++) {
+            Addressable value = new Addressable(i, i, i, String.valueOf(i));
+            expected.add(value);
+            map.put(value);
+        }
+        assertEquals(expected, Sets.newHashSet(map));
+        // the values array has been shared with the iterators, the next modifications copy it
+        assertEquals(expected, Sets.newHashSet(map));
+
+        Addressable added = new Addressable(100, 100, 100, "added");
+        map.put(added);
+        expected.add(added);
+        assertEquals(expected, Sets.newHashSet(map));
+
+        XYZAddressable removed = map.remove(10, 10, 10);
+        expected.remove(removed);
+        Addressable replacement = new Addressable(20, 20, 20, "replaced");
+        expected.remove(map.put(replacement));
+        expected.add(replacement);
+        assertEquals(expected, Sets.newHashSet(map));
+    }
+
+    @Test
+    public void testConcurrentReads() throws InterruptedException {
+        ConcurrentXYZMap<XYZAddressable> map = new ConcurrentXYZMap<>(0.75f, 4);
+        // permanent entries must always be visible to readers, no matter what the writer does
+        List<Addressable> permanent = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Addressable value = new Addressable(i, -i, i * 7, "p" + i);
+            permanent.add(value);
+            map.put(value);
+        }
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<String> failure = new AtomicReference<>();
+        List<Thread> readers = new ArrayList<>();
+        for (int r = 0; r < 4; r++) {
+            Thread reader = new Thread(() -> {
+                while (!done.get()) {
+                    for (Addressable value : permanent) {
+                        if (map.get(value.getX(), value.getY(), value.getZ()) != value) {
+                            failure.compareAndSet(null, "Missing " + value);
+                            return;
+                        }
+                    }
+                }
+            });
+            reader.start();
+            readers.add(reader);
+        }
+        Random rand = new Random(42);
+        for (int round = 0; round < 200; round++) {
+            List<Addressable> temporary = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                Addressable value = new Addressable(1000 + rand.nextInt(1000), rand.nextInt(1000), rand.nextInt(1000), "t" + i);
+                map.put(value);
+                temporary.add(value);
+            }
+            for (Addressable value : temporary) {
+                map.remove(value);
+            }
+        }
+        done.set(true);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertNull(failure.get(), failure.get());
+        assertEquals(permanent.size(), map.getSize());
+    }
+
+    /**
+     * Simple implementation of Addressable for testing, equal only if id of them is equal
+     */
+    private static class Addressable implements XYZAddressable {
+
+        private final int x;
+        private final int y;
+        private final int z;
+        private Object id;
+
+        public Addressable(int x, int y, int z, Object id) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.id = id;
+        }
+
+        @Override public int getX() {
+            return x;
+        }
+
+        @Override public int getY() {
+            return y;
+        }
+
+        @Override public int getZ() {
+            return z;
+        }
+
+        @Override public boolean equals(@Nullable Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+
+            Addressable that = (Addressable) o;
+
+            return this.id.equals(that.id);
+
+        }
+
+        @Override public int hashCode() {
+            return id.hashCode();
+        }
+
+        @Override public String toString() {
+            return id + "@" + x + "," + y + "," + z;
+        }
+    }
+}
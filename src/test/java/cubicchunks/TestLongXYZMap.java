@@ -0,0 +1,327 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks;
+
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.hasItem;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import cubicchunks.util.LongXYZMap;
+import cubicchunks.util.XYZAddressable;
+import mcp.MethodsReturnNonnullByDefault;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestLongXYZMap {
+
+    @Test
+    public void testSimpleGetEqual() {
+        XYZAddressable value = new Addressable(0, 0, 0, "1");
+        LongXYZMap<XYZAddressable> map = new LongXYZMap<>(0.75f, 10);
+        map.put(value);
+        assertEquals(value, map.get(0, 0, 0));
+    }
+
+    @Test
+    public void testGetEqualRandomPositionsReplace() {
+        LongXYZMap<XYZAddressable> map = new LongXYZMap<>(0.75f, 10);
+        //set seed so that tests are predictable
+        Random rand = new Random(42);
+        int maxPuts = 500;
+        Addressable[] values = new Addressable[maxPuts];
+        testPutRandom(map, rand, maxPuts, values);
+        rand = new Random(42);
+        //test that replacing works
+        testPutRandom(map, rand, maxPuts, values);
+        assertEquals(maxPuts, map.getSize());
+    }
+
+    private void testPutRandom(LongXYZMap<XYZAddressable> map, Random rand, int maxPuts, Addressable[] values) {
+        for (int i = 0; i < maxPuts; i++) {
+            values[i] = new Addressable(rand.nextInt(), rand.nextInt(), rand.nextInt(), String.valueOf(i));
+            map.put(values[i]);
+            //test all previous values
+            for (int j = 0; j <= i; j++) {
+                Addressable exp = values[j];
+                assertEquals(
+                        "added=" + values[i] + ", wrongValue=" + exp, exp, map.get(exp.getX(), exp.getY(), exp.getZ()));
+            }
+        }
+    }
+
+    @Test
+    public void testGetUnique() {
+        XYZAddressable value = new Addressable(0, 0, 0, "1");
+        LongXYZMap<XYZAddressable> map = new LongXYZMap<>(0.75f, 10);
+        map.put(value);
+        for (int x = -20; x < 20; x++) {
+            for (int y = -20; y < 20; y++) {
+                for (int z = -20; z < 20; z++) {
+                    if (x != 0 || y != 0 || z != 0) {
+                        assertNull(map.get(x, y, z));
+                        assertFalse(map.contains(x, y, z));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testPackedKeyCollision() {
+        // y coordinates only differing above the packed bit range share a key
+        XYZAddressable low = new Addressable(1, 5, 1, "low");
+        XYZAddressable high = new Addressable(1, 5 + (1 << 20), 1, "high");
+        LongXYZMap<XYZAddressable> map = new LongXYZMap<>(0.75f, 10);
+        map.put(low);
+        map.put(high);
+        assertEquals(2, map.getSize());
+        assertSame(low, map.get(1, 5, 1));
+        assertSame(high, map.get(1, 5 + (1 << 20), 1));
+        assertSame(low, map.remove(1, 5, 1));
+        assertNull(map.get(1, 5, 1));
+        assertSame(high, map.get(1, 5 + (1 << 20), 1));
+    }
+
+    @Test
+    public void testRemove() {
+        // a small dense area produces long probe sequences, which backward-shift deletion has to keep intact
+        LongXYZMap<XYZAddressable> map = new LongXYZMap<>(0.9f, 4);
+        Random rand = new Random(42);
+        List<Addressable> values = new ArrayList<>();
+        for (int x = 0; x < 12; x++) {
+            for (int y = 0; y < 12; y++) {
+                for (int z = 0; z < 12; z++) {
+                    Addressable value = new Addressable(x, y, z, x + "," + y + "," + z);
+                    map.put(value);
+                    values.add(value);
+                }
+            }
+        }
+        while (!values.isEmpty()) {
+            Addressable removed = values.remove(rand.nextInt(values.size()));
+            assertSame(removed, map.remove(removed.getX(), removed.getY(), removed.getZ()));
+            assertNull(map.get(removed.getX(), removed.getY(), removed.getZ()));
+            if (values.size() % 97 == 0) {
+                for (Addressable value : values) {
+                    assertSame(value, map.get(value.getX(), value.getY(), value.getZ()));
+                }
+            }
+            assertEquals(values.size(), map.getSize());
+        }
+    }
+
+    @Test
+    public void testIterator() {
+        LongXYZMap<XYZAddressable> map = new LongXYZMap<>(0.75f, 10);
+        Set<XYZAddressable> allElements = new HashSet<>();
+        Random rand = new Random(42);
+        int maxPut = 500;
+        for (int i = 0; i < maxPut; i++) {
+            Addressable newElement = new Addressable(rand.nextInt(), rand.nextInt(), rand.nextInt(), String.valueOf(i));
+            map.put(newElement);
+            allElements.add(newElement);
+        }
+        for (XYZAddressable element : map) {
+            assertThat(allElements, hasItem(element));
+            allElements.remove(element);
+        }
+        assertThat(allElements, empty());
+    }
+
+    @Test
+    public void testIteratorRemove() {
+        Random rand = new Random(42);
+        for (int attempt = 0; attempt < 100; attempt++) {
+            // small tables at a high load wrap probe sequences around the end of the table
+            LongXYZMap<XYZAddressable> map = new LongXYZMap<>(0.9f, 4);
+            Set<XYZAddressable> kept = new HashSet<>();
+            Set<XYZAddressable> seen = new HashSet<>();
+            for (int i = 0; i < 200; i++) {
+                Addressable newElement = new Addressable(rand.nextInt(8), rand.nextInt(8), rand.nextInt(8), String.valueOf(i));
+                if (map.contains(newElement.getX(), newElement.getY(), newElement.getZ())) {
+                    continue;
+                }
+                map.put(newElement);
+                if (rand.nextBoolean()) {
+                    kept.add(newElement);
+                }
+            }
+            int total = map.getSize();
+            for (Iterator<XYZAddressable> it = map.iterator(); it.hasNext(); ) {
+                XYZAddressable element = it.next();
+                assertTrue("Seen twice: " + element, seen.add(element));
+                if (!kept.contains(element)) {
+                    it.remove();
+                }
+            }
+            assertEquals(total, seen.size());
+            assertEquals(kept.size(), map.getSize());
+            for (XYZAddressable element : kept) {
+                assertSame(element, map.get(element.getX(), element.getY(), element.getZ()));
+            }
+        }
+    }
+
+    @Test
+    public void testRandomWrappedIterator() {
+        LongXYZMap<XYZAddressable> map = new LongXYZMap<>(0.75f, 10);
+        Set<XYZAddressable> allElements = new HashSet<>();
+        Random rand = new Random(42);
+        for (int i = 0; i < 500; i++) {
+            Addressable newElement = new Addressable(rand.nextInt(), rand.nextInt(), rand.nextInt(), String.valueOf(i));
+            map.put(newElement);
+            allElements.add(newElement);
+        }
+        for (Iterator<XYZAddressable> it = map.randomWrappedIterator(rand.nextInt()); it.hasNext(); ) {
+            XYZAddressable element = it.next();
+            assertTrue(allElements.remove(element));
+        }
+        assertThat(allElements, empty());
+    }
+
+    @Test
+    public void testIteratorRemoveWrapped() {
+        Random rand = new Random(42);
+        for (int attempt = 0; attempt < 200; attempt++) {
+            // every removal moves the last value into the removed one's place, which the iterator still has to
+            // return, and shifts the probe sequences of the table, which often wrap around its end
+            LongXYZMap<XYZAddressable> map = new LongXYZMap<>(0.9f, 4);
+            Set<XYZAddressable> seen = new HashSet<>();
+            for (int i = 0; i < 200; i++) {
+                Addressable newElement = new Addressable(rand.nextInt(8), rand.nextInt(8), rand.nextInt(8), String.valueOf(i));
+                if (!map.contains(newElement.getX(), newElement.getY(), newElement.getZ())) {
+                    map.put(newElement);
+                }
+            }
+            int total = map.getSize();
+            Set<XYZAddressable> kept = new HashSet<>();
+            for (Iterator<XYZAddressable> it = map.iterator(); it.hasNext(); ) {
+                XYZAddressable element = it.next();
+                assertTrue("Seen twice: " + element, seen.add(element));
+                // keep a few, so that removals in the middle of probe sequences are covered too
+                if (rand.nextInt(8) == 0) {
+                    kept.add(element);
+                } else {
+                    it.remove();
+                }
+            }
+            assertEquals(total, seen.size());
+            assertEquals(kept.size(), map.getSize());
+            for (XYZAddressable element : kept) {
+                assertSame(element, map.get(element.getX(), element.getY(), element.getZ()));
+            }
+        }
+    }
+
+    @Test
+    public void testShrinkAndClear() {
+        LongXYZMap<XYZAddressable> map = new LongXYZMap<>(0.75f, 16);
+        List<Addressable> values = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            Addressable value = new Addressable(i, -i, i >> 3, String.valueOf(i));
+            map.put(value);
+            values.add(value);
+        }
+        for (int i = 10; i < values.size(); i++) {
+            Addressable value = values.get(i);
+            assertSame(value, map.remove(value));
+        }
+        assertEquals(10, map.getSize());
+        for (int i = 0; i < 10; i++) {
+            assertSame(values.get(i), map.get(values.get(i).getX(), values.get(i).getY(), values.get(i).getZ()));
+        }
+        map.clear();
+        assertEquals(0, map.getSize());
+        assertFalse(map.iterator().hasNext());
+        assertNull(map.get(0, 0, 0));
+    }
+
+    /**
+     * Simple implementation of Addressable for testing, equal only if id of them is equal
+     */
+    private static class Addressable implements XYZAddressable {
+
+        private final int x;
+        private final int y;
+        private final int z;
+        private Object id;
+
+        public Addressable(int x, int y, int z, Object id) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.id = id;
+        }
+
+        @Override public int getX() {
+            return x;
+        }
+
+        @Override public int getY() {
+            return y;
+        }
+
+        @Override public int getZ() {
+            return z;
+        }
+
+        @Override public boolean equals(@Nullable Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+
+            Addressable that = (Addressable) o;
+
+            return this.id.equals(that.id);
+
+        }
+
+        @Override public int hashCode() {
+            return id.hashCode();
+        }
+
+        @Override public String toString() {
+            return id + "@" + x + "," + y + "," + z;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.lighting;
+
+import static cubicchunks.util.Coords.blockToLocal;
+import static cubicchunks.util.Coords.cubeToMinBlock;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import cubicchunks.server.CubeProviderServer;
+import cubicchunks.server.PlayerCubeMap;
+import cubicchunks.testutil.MinecraftEnvironment;
+import cubicchunks.util.CubePos;
+import cubicchunks.world.ICubicWorldServer;
+import cubicchunks.world.column.IColumn;
+import cubicchunks.world.cube.Cube;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.Block;
+import net.minecraft.init.Blocks;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.WorldProvider;
+import net.minecraft.world.WorldServer;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.spongepowered.lwts.runner.LaunchWrapperTestRunner;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Checks the block light pass of {@link FirstLightProcessor#diffuseSkylight(Cube)}: light sources placed by terrain
+ * generation have to light up the blocks around them, including blocks in neighboring cubes.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+@RunWith(LaunchWrapperTestRunner.class)
+public class TestFirstLightProcessor {
+
+    // FastCubeBlockAccess used by the light pass needs all cubes in this radius to be loaded
+    private static final int RADIUS = 2;
+
+    private final Map<CubePos, Cube> cubes = new HashMap<>();
+    private ICubicWorldServer world;
+    private FirstLightProcessor processor;
+
+    @Before
+    public void setUp() {
+        MinecraftEnvironment.init();
+
+        WorldServer worldServer = mock(WorldServer.class);
+        world = (ICubicWorldServer) worldServer;
+        WorldProvider provider = mock(WorldProvider.class);
+        when(provider.hasSkyLight()).thenReturn(false);
+        when(world.getProvider()).thenReturn(provider);
+        when(world.isRemote()).thenReturn(false);
+        when(world.getLightingManager()).thenReturn(mock(LightingManager.class));
+        when(world.getPlayerCubeMap()).thenReturn(mock(PlayerCubeMap.class));
+        when(world.testForCubes(any(BlockPos.class), anyInt(), any())).thenReturn(true);
+        when(world.testForCubes(any(CubePos.class), any(CubePos.class), any())).thenReturn(true);
+        when(worldServer.getBlockState(any(BlockPos.class))).thenAnswer(invocation -> {
+            BlockPos pos = invocation.getArgument(0);
+            return cubes.get(CubePos.fromBlockCoords(pos)).getBlockState(pos);
+        });
+
+        CubeProviderServer cubeCache = mock(CubeProviderServer.class);
+        when(world.getCubeCache()).thenReturn(cubeCache);
+        when(cubeCache.getLoadedCube(anyInt(), anyInt(), anyInt())).thenAnswer(invocation -> cubes.get(
+                new CubePos(invocation.getArgument(0), invocation.getArgument(1), invocation.getArgument(2))));
+
+        for (int cubeX = -RADIUS; cubeX <= RADIUS; cubeX++) {
+            for (int cubeZ = -RADIUS; cubeZ <= RADIUS; cubeZ++) {
+                IColumn column = mock(IColumn.class);
+                when(column.getCubicWorld()).thenReturn(world);
+                when(column.getX()).thenReturn(cubeX);
+                when(column.getZ()).thenReturn(cubeZ);
+                for (int cubeY = -RADIUS; cubeY <= RADIUS; cubeY++) {
+                    Cube cube = new Cube(column, cubeY);
+                    cube.setStorage(new ExtendedBlockStorage(cubeToMinBlock(cubeY), false));
+                    cubes.put(cube.getCoords(), cube);
+                }
+            }
+        }
+
+        processor = new FirstLightProcessor(world);
+    }
+
+    @Test
+    public void emitterLightsNeighborCube() {
+        Cube cube = cubes.get(new CubePos(0, 0, 0));
+        BlockPos emitter = new BlockPos(15, 8, 8);
+        setBlock(emitter, Blocks.GLOWSTONE);
+
+        processor.diffuseSkylight(cube);
+
+        assertEquals(15, getBlockLight(emitter));
+        assertEquals(14, getBlockLight(emitter.west()));
+        // the cube at x=1 was already there, it should be lit too
+        assertEquals(14, getBlockLight(emitter.east()));
+        assertEquals(13, getBlockLight(emitter.east(2)));
+        assertEquals(12, getBlockLight(emitter.east().up(2)));
+        assertEquals(1, getBlockLight(emitter.east(14)));
+        assertEquals(0, getBlockLight(emitter.east(15)));
+    }
+
+    @Test
+    public void emitterLightIsBlockedByOpaqueBlocks() {
+        Cube cube = cubes.get(new CubePos(0, 0, 0));
+        BlockPos emitter = new BlockPos(15, 8, 8);
+        setBlock(emitter, Blocks.GLOWSTONE);
+        setBlock(emitter.east(), Blocks.STONE);
+
+        processor.diffuseSkylight(cube);
+
+        assertEquals(0, getBlockLight(emitter.east()));
+        // light has to go around the stone block
+        assertEquals(11, getBlockLight(emitter.east(2)));
+    }
+
+    @Test
+    public void lightFromNeighborCubeEntersGeneratedCube() {
+        Cube cube = cubes.get(new CubePos(0, 0, 0));
+        BlockPos litInNeighbor = new BlockPos(16, 8, 8);
+        setBlockLight(litInNeighbor, 10);
+
+        processor.diffuseSkylight(cube);
+
+        assertEquals(9, getBlockLight(litInNeighbor.west()));
+        assertEquals(8, getBlockLight(litInNeighbor.west(2)));
+        assertEquals(1, getBlockLight(litInNeighbor.west(9)));
+    }
+
+    private void setBlock(BlockPos pos, Block block) {
+        int x = blockToLocal(pos.getX()), y = blockToLocal(pos.getY()), z = blockToLocal(pos.getZ());
+        getStorage(pos).set(x, y, z, block.getDefaultState());
+    }
+
+    private void setBlockLight(BlockPos pos, int light) {
+        int x = blockToLocal(pos.getX()), y = blockToLocal(pos.getY()), z = blockToLocal(pos.getZ());
+        getStorage(pos).setBlockLight(x, y, z, light);
+    }
+
+    private int getBlockLight(BlockPos pos) {
+        int x = blockToLocal(pos.getX()), y = blockToLocal(pos.getY()), z = blockToLocal(pos.getZ());
+        return getStorage(pos).getBlockLight(x, y, z);
+    }
+
+    private ExtendedBlockStorage getStorage(BlockPos pos) {
+        ExtendedBlockStorage storage = cubes.get(CubePos.fromBlockCoords(pos)).getStorage();
+        assert storage != null;
+        return storage;
+    }
+}
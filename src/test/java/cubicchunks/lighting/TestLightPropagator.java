@@ -31,6 +31,8 @@ import static org.junit.Assert.fail;
 
 import com.google.common.collect.Lists;
 import cubicchunks.testutil.TestLightBlockAccessImpl;
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.util.EnumFacing;
 import net.minecraft.util.ReportedException;
@@ -40,6 +42,9 @@ import net.minecraft.world.EnumSkyBlock;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 import javax.annotation.ParametersAreNonnullByDefault;
 
@@ -645,6 +650,93 @@ public class TestLightPropagator {
         //success if no crash
     }
 
+    // packed coordinates
+
+    @Test
+    public void testPackCoords() {
+        for (int x = LightUpdateQueue.MIN_POS; x <= LightUpdateQueue.MAX_POS; x += 5) {
+            for (int y = LightUpdateQueue.MIN_POS; y <= LightUpdateQueue.MAX_POS; y += 7) {
+                for (int z = LightUpdateQueue.MIN_POS; z <= LightUpdateQueue.MAX_POS; z += 3) {
+                    int packed = LightPropagator.packCoords(x, y, z);
+                    assertEquals(x, LightPropagator.unpackX(packed));
+                    assertEquals(y, LightPropagator.unpackY(packed));
+                    assertEquals(z, LightPropagator.unpackZ(packed));
+                }
+            }
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testPackCoordsOutOfRange() {
+        LightPropagator.packCoords(0, LightUpdateQueue.MAX_POS + 1, 0);
+    }
+
+    @Test
+    public void testPackedCoordsSameAsBlockPos() {
+        int size = 20;
+        BlockPos center = pos(0, 0, 0);
+        BlockPos start = pos(-3, -2, -3);
+        BlockPos end = pos(3, 2, 3);
+
+        TestLightBlockAccessImpl blockPosAccess = lightAccess(size).
+                withOpaque(posRange(pos(-30, -4, -30), pos(30, -4, 30))).
+                currentHeightsForInitSkyLight().
+                make();
+        TestLightBlockAccessImpl packedAccess = lightAccess(size).
+                withOpaque(posRange(pos(-30, -4, -30), pos(30, -4, 30))).
+                currentHeightsForInitSkyLight().
+                make();
+        for (TestLightBlockAccessImpl access : new TestLightBlockAccessImpl[]{blockPosAccess, packedAccess}) {
+            access.setOpacity(pos(0, 2, 0), 255);
+            access.setOpacity(pos(1, 0, -2), 255);
+            access.setBlockLightSource(pos(-2, -1, 1), 14);
+            access.setBlockLightSource(pos(3, 1, 3), 7);
+        }
+
+        List<BlockPos> blockPosChanges = new ArrayList<>();
+        List<BlockPos> packedChanges = new ArrayList<>();
+        TIntList packed = new TIntArrayList();
+        BlockPos.getAllInBox(start, end).forEach(p -> packed.add(LightPropagator.packCoords(p.getX(), p.getY(), p.getZ())));
+
+        LightPropagator propagator = new LightPropagator();
+        for (EnumSkyBlock type : EnumSkyBlock.values()) {
+            propagator.propagateLight(center, BlockPos.getAllInBox(start, end), blockPosAccess, type, blockPosChanges::add);
+            propagator.propagateLight(center.getX(), center.getY(), center.getZ(), packed, packedAccess, type,
+                    (x, y, z) -> packedChanges.add(pos(x, y, z)));
+        }
+
+        assertEquals(blockPosChanges, packedChanges);
+        for (EnumSkyBlock type : EnumSkyBlock.values()) {
+            for (BlockPos p : BlockPos.getAllInBox(pos(-size, -size, -size), pos(size, size, size))) {
+                assertEquals("Wrong " + type + " light at " + p, blockPosAccess.getLightFor(type, p), packedAccess.getLightFor(type, p));
+            }
+        }
+    }
+
+    @Test
+    public void testPackedCallbacks() {
+        int size = 20;
+        TestLightBlockAccessImpl access = lightAccess(size).
+                currentHeightsForInitSkyLight().
+                make();
+        BlockPos center = pos(5, 5, 5);
+        BlockPos toSet = pos(4, 6, 5);
+
+        access.setBlockLightSource(toSet, 2);
+
+        Set<BlockPos> changed = new HashSet<>();
+        TIntList coords = new TIntArrayList();
+        coords.add(LightPropagator.packCoords(-1, 1, 0));
+        new LightPropagator().propagateLight(center.getX(), center.getY(), center.getZ(), coords, access,
+                EnumSkyBlock.BLOCK, (x, y, z) -> changed.add(pos(x, y, z)));
+
+        Set<BlockPos> expected = new HashSet<>();
+        expected.add(toSet);
+        for (EnumFacing facing : EnumFacing.values()) {
+            expected.add(toSet.offset(facing));
+        }
+        assertEquals(expected, changed);
+    }
 
     // utils
 
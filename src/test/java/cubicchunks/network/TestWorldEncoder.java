@@ -0,0 +1,199 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import cubicchunks.testutil.MinecraftEnvironment;
+import cubicchunks.util.Coords;
+import cubicchunks.world.ClientHeightMap;
+import cubicchunks.world.ICubicWorld;
+import cubicchunks.world.IHeightMap;
+import cubicchunks.world.ServerHeightMap;
+import cubicchunks.world.column.IColumn;
+import cubicchunks.world.cube.Cube;
+import io.netty.handler.codec.DecoderException;
+import net.minecraft.block.BlockColored;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+import net.minecraft.item.EnumDyeColor;
+import net.minecraft.network.PacketBuffer;
+import net.minecraft.world.IBlockAccess;
+import net.minecraft.world.WorldProvider;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class TestWorldEncoder {
+
+    private static final int CUBE_X = -5;
+    private static final int CUBE_Z = 9;
+
+    @Before
+    public void setUp() {
+        MinecraftEnvironment.init();
+    }
+
+    @Test public void testCubesRoundTrip() {
+        IColumn serverColumn = makeColumn(new ServerHeightMap());
+        List<Cube> sent = Arrays.asList(
+                new Cube(serverColumn, -3), // empty
+                makeMixedCube(serverColumn, -2, new Random(7)),
+                makeUniformCube(serverColumn, -1, Blocks.STONE.getDefaultState()),
+                makeUniformCube(serverColumn, 0, wool(EnumDyeColor.BLUE)),
+                makeMixedCube(serverColumn, 1, new Random(8)));
+
+        List<Cube> received = decode(encode(sent), sent);
+
+        for (int i = 0; i < sent.size(); i++) {
+            assertCubesEqual(sent.get(i), received.get(i));
+        }
+        assertTrue(received.get(2).isUniform());
+        assertTrue(received.get(3).isUniform());
+        assertFalse(received.get(1).isUniform());
+    }
+
+    @Test public void testUniformStorageHasCubeY() {
+        IColumn serverColumn = makeColumn(new ServerHeightMap());
+        List<Cube> sent = Arrays.asList(
+                makeUniformCube(serverColumn, -4, Blocks.STONE.getDefaultState()),
+                makeUniformCube(serverColumn, 6, Blocks.STONE.getDefaultState()));
+
+        List<Cube> received = decode(encode(sent), sent);
+
+        for (Cube cube : received) {
+            //noinspection ConstantConditions
+            assertEquals(Coords.cubeToMinBlock(cube.getY()), cube.getReadOnlyStorage().getYLocation());
+        }
+    }
+
+    @Test(expected = DecoderException.class)
+    public void testOtherProtocolVersionIsRejected() {
+        IColumn serverColumn = makeColumn(new ServerHeightMap());
+        List<Cube> sent = Arrays.asList(makeMixedCube(serverColumn, 0, new Random(10)));
+        byte[] data = encode(sent);
+        data[0] = (byte) (WorldEncoder.CUBES_PROTOCOL_VERSION - 1);
+        decode(data, sent);
+    }
+
+    private static byte[] encode(List<Cube> cubes) {
+        byte[] data = new byte[WorldEncoder.getEncodedSize(cubes)];
+        PacketBuffer out = new PacketBuffer(WorldEncoder.createByteBufForWrite(data));
+        WorldEncoder.encodeCubes(out, cubes);
+        assertEquals("encoded size", data.length, out.writerIndex());
+        return data;
+    }
+
+    private static List<Cube> decode(byte[] data, List<Cube> sent) {
+        IColumn clientColumn = makeColumn(new ClientHeightMap(mock(IColumn.class), new int[Cube.SIZE * Cube.SIZE]));
+        List<Cube> received = new ArrayList<>();
+        for (Cube cube : sent) {
+            received.add(new Cube(clientColumn, cube.getY()));
+        }
+        PacketBuffer in = new PacketBuffer(WorldEncoder.createByteBufForRead(data));
+        WorldEncoder.decodeCube(in, received);
+        assertEquals("bytes left", 0, in.readableBytes());
+        return received;
+    }
+
+    private static void assertCubesEqual(Cube expected, Cube actual) {
+        assertEquals(expected.getY(), actual.getY());
+        assertEquals(expected.isEmpty(), actual.isEmpty());
+
+        ExtendedBlockStorage expectedEbs = expected.getReadOnlyStorage();
+        ExtendedBlockStorage actualEbs = actual.getReadOnlyStorage();
+        if (expectedEbs == null) {
+            assertNull(actualEbs);
+            return;
+        }
+        for (int y = 0; y < Cube.SIZE; y++) {
+            for (int z = 0; z < Cube.SIZE; z++) {
+                for (int x = 0; x < Cube.SIZE; x++) {
+                    String at = x + ", " + y + ", " + z;
+                    assertEquals(at, expectedEbs.get(x, y, z), actualEbs.get(x, y, z));
+                    assertEquals(at, expectedEbs.getBlockLight(x, y, z), actualEbs.getBlockLight(x, y, z));
+                    assertEquals(at, expectedEbs.getSkyLight(x, y, z), actualEbs.getSkyLight(x, y, z));
+                }
+            }
+        }
+    }
+
+    private static Cube makeMixedCube(IColumn column, int cubeY, Random rand) {
+        ExtendedBlockStorage ebs = new ExtendedBlockStorage(Coords.cubeToMinBlock(cubeY), true);
+        IBlockState[] states = {
+                Blocks.AIR.getDefaultState(),
+                Blocks.STONE.getDefaultState(),
+                Blocks.GLASS.getDefaultState(),
+                wool(EnumDyeColor.WHITE),
+                wool(EnumDyeColor.LIME),
+        };
+        for (int y = 0; y < Cube.SIZE; y++) {
+            for (int z = 0; z < Cube.SIZE; z++) {
+                for (int x = 0; x < Cube.SIZE; x++) {
+                    ebs.set(x, y, z, states[rand.nextInt(states.length)]);
+                    ebs.setBlockLight(x, y, z, rand.nextInt(16));
+                    ebs.setSkyLight(x, y, z, rand.nextInt(16));
+                }
+            }
+        }
+        ebs.recalculateRefCounts();
+        Cube cube = new Cube(column, cubeY);
+        cube.setStorage(ebs);
+        return cube;
+    }
+
+    private static Cube makeUniformCube(IColumn column, int cubeY, IBlockState state) {
+        Cube cube = new Cube(column, cubeY);
+        cube.setUniform(state);
+        return cube;
+    }
+
+    private static IBlockState wool(EnumDyeColor color) {
+        return Blocks.WOOL.getDefaultState().withProperty(BlockColored.COLOR, color);
+    }
+
+    private static IColumn makeColumn(IHeightMap heightMap) {
+        ICubicWorld world = mock(ICubicWorld.class, withSettings().extraInterfaces(IBlockAccess.class));
+        WorldProvider provider = mock(WorldProvider.class);
+        when(provider.hasSkyLight()).thenReturn(true);
+        when(world.getProvider()).thenReturn(provider);
+        IColumn column = mock(IColumn.class);
+        when(column.getCubicWorld()).thenReturn(world);
+        when(column.getX()).thenReturn(CUBE_X);
+        when(column.getZ()).thenReturn(CUBE_Z);
+        when(column.getOpacityIndex()).thenReturn(heightMap);
+        return column;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import mcp.MethodsReturnNonnullByDefault;
+import org.junit.Test;
+
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * The pools are the ones Java 8 reports for each collector, with the threshold support it reports for them.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestMemoryGovernor {
+
+    @Test
+    public void testSerialCollector() {
+        assertEquals("Tenured Gen", tenuredPoolName("Eden Space", "Survivor Space", "Tenured Gen"));
+    }
+
+    @Test
+    public void testParallelCollector() {
+        assertEquals("PS Old Gen", tenuredPoolName("PS Eden Space", "PS Survivor Space", "PS Old Gen"));
+    }
+
+    @Test
+    public void testConcurrentMarkSweepCollector() {
+        assertEquals("CMS Old Gen", tenuredPoolName("Par Eden Space", "Par Survivor Space", "CMS Old Gen"));
+    }
+
+    @Test
+    public void testG1Collector() {
+        assertEquals("G1 Old Gen", tenuredPoolName("G1 Eden Space", "G1 Survivor Space", "G1 Old Gen"));
+    }
+
+    @Test
+    public void testOnlyNonHeapPools() {
+        List<MemoryPoolMXBean> pools = Arrays.asList(
+                pool("Code Cache", MemoryType.NON_HEAP, true, false),
+                pool("Metaspace", MemoryType.NON_HEAP, true, false));
+        assertNull(MemoryGovernor.findTenuredPool(pools));
+    }
+
+    @Nullable
+    private static String tenuredPoolName(String eden, String survivor, String tenured) {
+        List<MemoryPoolMXBean> pools = Arrays.asList(
+                pool("Code Cache", MemoryType.NON_HEAP, true, false),
+                pool("Metaspace", MemoryType.NON_HEAP, true, false),
+                pool("Compressed Class Space", MemoryType.NON_HEAP, true, false),
+                pool(eden, MemoryType.HEAP, false, true),
+                pool(survivor, MemoryType.HEAP, false, true),
+                pool(tenured, MemoryType.HEAP, true, true));
+        MemoryPoolMXBean pool = MemoryGovernor.findTenuredPool(pools);
+        return pool == null ? null : pool.getName();
+    }
+
+    private static MemoryPoolMXBean pool(String name, MemoryType type, boolean usageThreshold,
+            boolean collectionUsageThreshold) {
+        MemoryPoolMXBean pool = mock(MemoryPoolMXBean.class);
+        when(pool.getName()).thenReturn(name);
+        when(pool.getType()).thenReturn(type);
+        when(pool.isUsageThresholdSupported()).thenReturn(usageThreshold);
+        when(pool.isCollectionUsageThresholdSupported()).thenReturn(collectionUsageThreshold);
+        return pool;
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import cubicchunks.testutil.MinecraftEnvironment;
+import cubicchunks.util.ticket.ITicket;
+import cubicchunks.world.ICubicWorld;
+import cubicchunks.world.column.IColumn;
+import cubicchunks.world.cube.Cube;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.world.IBlockAccess;
+import net.minecraft.world.WorldProvider;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestTicketManager {
+
+    private ICubicWorld world;
+    private IColumn column;
+
+    @Before
+    public void setUp() {
+        MinecraftEnvironment.init();
+        world = mock(ICubicWorld.class, withSettings().extraInterfaces(IBlockAccess.class));
+        WorldProvider provider = mock(WorldProvider.class);
+        when(provider.hasSkyLight()).thenReturn(true);
+        when(world.getProvider()).thenReturn(provider);
+        column = mock(IColumn.class);
+        when(column.getCubicWorld()).thenReturn(world);
+    }
+
+    @Test
+    public void addAddsTicketToCube() {
+        TicketManager manager = new TicketManager();
+        ITicket ticket = ticket(false);
+        Cube cube = new Cube(column, 0);
+
+        manager.add(ticket, cube);
+
+        assertTrue(cube.getTickets().contains(ticket));
+        assertFalse(cube.getTickets().canUnload());
+        assertEquals(1, manager.getCubes(ticket).size());
+        assertTrue(manager.getCubes(ticket).contains(cube));
+    }
+
+    @Test
+    public void addTwiceKeepsOneEntry() {
+        TicketManager manager = new TicketManager();
+        ITicket ticket = ticket(false);
+        Cube cube = new Cube(column, 0);
+
+        manager.add(ticket, cube);
+        manager.add(ticket, cube);
+
+        assertEquals(1, manager.getCubes(ticket).size());
+        manager.remove(ticket, cube);
+        assertTrue(cube.getTickets().canUnload());
+        assertTrue(manager.getCubes(ticket).isEmpty());
+    }
+
+    @Test
+    public void removeOnlyAffectsOneCube() {
+        TicketManager manager = new TicketManager();
+        ITicket ticket = ticket(false);
+        Cube cube1 = new Cube(column, 0);
+        Cube cube2 = new Cube(column, 1);
+        manager.add(ticket, cube1);
+        manager.add(ticket, cube2);
+
+        manager.remove(ticket, cube1);
+
+        assertFalse(cube1.getTickets().contains(ticket));
+        assertTrue(cube2.getTickets().contains(ticket));
+        assertEquals(1, manager.getCubes(ticket).size());
+        assertTrue(manager.getCubes(ticket).contains(cube2));
+    }
+
+    @Test
+    public void removeUnknownTicketIsIgnored() {
+        TicketManager manager = new TicketManager();
+        Cube cube = new Cube(column, 0);
+
+        manager.remove(ticket(false), cube);
+
+        assertTrue(cube.getTickets().canUnload());
+    }
+
+    @Test
+    public void releaseAllRemovesTicketFromEveryCube() {
+        TicketManager manager = new TicketManager();
+        ITicket ticket = ticket(true);
+        Cube[] cubes = new Cube[8];
+        for (int i = 0; i < cubes.length; i++) {
+            cubes[i] = new Cube(column, i);
+            manager.add(ticket, cubes[i]);
+            assertTrue(cubes[i].getTickets().shouldTick());
+        }
+
+        assertEquals(cubes.length, manager.releaseAll(ticket));
+
+        for (Cube cube : cubes) {
+            assertFalse(cube.getTickets().contains(ticket));
+            assertFalse(cube.getTickets().shouldTick());
+            assertTrue(cube.getTickets().canUnload());
+        }
+        assertTrue(manager.getCubes(ticket).isEmpty());
+        assertEquals(0, manager.releaseAll(ticket));
+    }
+
+    @Test
+    public void releaseAllKeepsOtherTickets() {
+        TicketManager manager = new TicketManager();
+        ITicket area = ticket(false);
+        ITicket other = ticket(false);
+        Cube cube = new Cube(column, 0);
+        manager.add(area, cube);
+        cube.getTickets().add(other);
+
+        manager.releaseAll(area);
+
+        assertFalse(cube.getTickets().contains(area));
+        assertTrue(cube.getTickets().contains(other));
+        assertFalse(cube.getTickets().canUnload());
+    }
+
+    @Test
+    public void releaseAllDoesNotLoadCubes() {
+        TicketManager manager = new TicketManager();
+        ITicket ticket = ticket(false);
+        for (int y = -4; y < 4; y++) {
+            manager.add(ticket, new Cube(column, y));
+        }
+
+        manager.releaseAll(ticket);
+
+        // releasing must only touch the cubes the ticket was added to, never look them up through the world
+        verify(world, never()).getCubeCache();
+        verify(world, never()).getCubeFromCubeCoords(anyInt(), anyInt(), anyInt());
+    }
+
+    private static ITicket ticket(boolean shouldTick) {
+        ITicket ticket = mock(ITicket.class);
+        when(ticket.shouldTick()).thenReturn(shouldTick);
+        return ticket;
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import cubicchunks.testutil.MinecraftEnvironment;
+import cubicchunks.util.Coords;
+import cubicchunks.world.ICubicWorldServer;
+import cubicchunks.world.column.IColumn;
+import cubicchunks.world.cube.Cube;
+import net.minecraft.block.BlockColored;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+import net.minecraft.item.EnumDyeColor;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.util.datafix.DataFixer;
+import net.minecraft.world.IBlockAccess;
+import net.minecraft.world.WorldProvider;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+public class TestBinaryCubeFormat {
+
+    private static final int CUBE_X = 3;
+    private static final int CUBE_Y = -7;
+    private static final int CUBE_Z = 12;
+
+    @Before
+    public void setUp() {
+        MinecraftEnvironment.init();
+    }
+
+    @Test public void testMixedCubeRoundTrip() throws IOException {
+        Cube cube = makeCube(true);
+        fillRandom(cube, new Random(42));
+        assertRoundTrip(cube);
+    }
+
+    @Test public void testMixedCubeWithoutSkyLightRoundTrip() throws IOException {
+        Cube cube = makeCube(false);
+        fillRandom(cube, new Random(42));
+        assertRoundTrip(cube);
+    }
+
+    @Test public void testSingleStateCubeRoundTrip() throws IOException {
+        // a palette with a single entry is written without any indices
+        Cube cube = makeCube(true);
+        ExtendedBlockStorage ebs = new ExtendedBlockStorage(Coords.cubeToMinBlock(CUBE_Y), true);
+        for (int i = 0; i < IOBinaryWriter.BLOCKS; i++) {
+            ebs.set(i & 0xF, i >> 8, (i >> 4) & 0xF, wool(EnumDyeColor.RED));
+            ebs.setBlockLight(i & 0xF, i >> 8, (i >> 4) & 0xF, 3);
+        }
+        cube.setStorage(ebs);
+        assertRoundTrip(cube);
+    }
+
+    @Test public void testUniformCubeRoundTrip() throws IOException {
+        Cube cube = makeCube(true);
+        cube.setUniform(Blocks.STONE.getDefaultState());
+        Cube binary = assertRoundTrip(cube);
+        assertTrue(binary.isUniform());
+    }
+
+    @Test public void testEmptyCubeRoundTrip() throws IOException {
+        Cube cube = makeCube(true);
+        Cube binary = assertRoundTrip(cube);
+        assertNull(binary.getReadOnlyStorage());
+    }
+
+    @Test public void testWrongPositionIsRejected() throws IOException {
+        Cube cube = makeCube(true);
+        byte[] data = IOBinaryWriter.write(CubeSnapshot.of(cube, makeNonBlockData()));
+        assertNull(IOBinaryReader.readCubeAsyncPart(cube.getColumn(), CUBE_X, CUBE_Y + 1, CUBE_Z, data,
+                new DataFixer(0)));
+    }
+
+    /**
+     * Writes the cube in the binary format and in the NBT format used when the binary format is disabled, and checks
+     * that both read back the same blocks, light, cube flags and non-block NBT.
+     *
+     * @return the cube read from the binary format
+     */
+    private static Cube assertRoundTrip(Cube cube) throws IOException {
+        NBTTagCompound nonBlockData = makeNonBlockData();
+
+        byte[] binary = IOBinaryWriter.write(CubeSnapshot.of(cube, nonBlockData));
+        assertTrue(IOBinaryReader.isBinaryCube(binary));
+        ICubeIO.PartialCubeData binaryCube =
+                IOBinaryReader.readCubeAsyncPart(cube.getColumn(), CUBE_X, CUBE_Y, CUBE_Z, binary, new DataFixer(0));
+        assertNotNull(binaryCube);
+        assertCubesEqual(cube, binaryCube.cube);
+        assertEquals(nonBlockData, binaryCube.nbt);
+
+        byte[] nbt = IONbtWriter.writeNbtBytes(CubeSnapshot.of(cube, nonBlockData).toNbt());
+        assertFalse(IOBinaryReader.isBinaryCube(nbt));
+        NBTTagCompound nbtData = IONbtReader.readNbtBytes(nbt);
+        Cube nbtCube = IONbtReader.readCubeAsyncPart(cube.getColumn(), CUBE_X, CUBE_Y, CUBE_Z, nbtData);
+        assertNotNull(nbtCube);
+        assertCubesEqual(cube, nbtCube);
+        NBTTagCompound level = nbtData.getCompoundTag("Level");
+        NBTTagCompound expectedLevel = nonBlockData.getCompoundTag("Level");
+        for (String key : expectedLevel.getKeySet()) {
+            assertEquals(key, expectedLevel.getTag(key), level.getTag(key));
+        }
+        return binaryCube.cube;
+    }
+
+    private static void assertCubesEqual(Cube expected, Cube actual) {
+        assertEquals(expected.getX(), actual.getX());
+        assertEquals(expected.getY(), actual.getY());
+        assertEquals(expected.getZ(), actual.getZ());
+        assertEquals(expected.isPopulated(), actual.isPopulated());
+        assertEquals(expected.isFullyPopulated(), actual.isFullyPopulated());
+        assertEquals(expected.isInitialLightingDone(), actual.isInitialLightingDone());
+
+        ExtendedBlockStorage expectedEbs = expected.getReadOnlyStorage();
+        ExtendedBlockStorage actualEbs = actual.getReadOnlyStorage();
+        assertEquals(expectedEbs == null, actualEbs == null);
+        if (expectedEbs == null || actualEbs == null) {
+            return;
+        }
+        boolean skyLight = expected.getCubicWorld().getProvider().hasSkyLight();
+        for (int y = 0; y < Cube.SIZE; y++) {
+            for (int z = 0; z < Cube.SIZE; z++) {
+                for (int x = 0; x < Cube.SIZE; x++) {
+                    String at = x + ", " + y + ", " + z;
+                    assertEquals(at, expectedEbs.get(x, y, z), actualEbs.get(x, y, z));
+                    assertEquals(at, expectedEbs.getBlockLight(x, y, z), actualEbs.getBlockLight(x, y, z));
+                    if (skyLight) {
+                        assertEquals(at, expectedEbs.getSkyLight(x, y, z), actualEbs.getSkyLight(x, y, z));
+                    }
+                }
+            }
+        }
+    }
+
+    private static void fillRandom(Cube cube, Random rand) {
+        boolean skyLight = cube.getCubicWorld().getProvider().hasSkyLight();
+        ExtendedBlockStorage ebs = new ExtendedBlockStorage(Coords.cubeToMinBlock(CUBE_Y), skyLight);
+        IBlockState[] states = {
+                Blocks.AIR.getDefaultState(),
+                Blocks.STONE.getDefaultState(),
+                Blocks.DIRT.getDefaultState(),
+                Blocks.TORCH.getDefaultState(),
+                wool(EnumDyeColor.WHITE),
+                wool(EnumDyeColor.LIME),
+                wool(EnumDyeColor.BLACK),
+        };
+        for (int i = 0; i < IOBinaryWriter.BLOCKS; i++) {
+            int x = i & 0xF, y = i >> 8, z = (i >> 4) & 0xF;
+            ebs.set(x, y, z, states[rand.nextInt(states.length)]);
+            ebs.setBlockLight(x, y, z, rand.nextInt(16));
+            if (skyLight) {
+                ebs.setSkyLight(x, y, z, rand.nextInt(16));
+            }
+        }
+        ebs.recalculateRefCounts();
+        cube.setStorage(ebs);
+        cube.setPopulated(true);
+        cube.setInitialLightingDone(true);
+    }
+
+    private static IBlockState wool(EnumDyeColor color) {
+        return Blocks.WOOL.getDefaultState().withProperty(BlockColored.COLOR, color);
+    }
+
+    /**
+     * Stands in for what {@link IONbtWriter#writeNonBlockData(Cube)} writes, which needs a running server.
+     */
+    private static NBTTagCompound makeNonBlockData() {
+        NBTTagCompound cubeNbt = new NBTTagCompound();
+        NBTTagCompound level = new NBTTagCompound();
+        cubeNbt.setTag("Level", level);
+
+        NBTTagList tileEntities = new NBTTagList();
+        NBTTagCompound te = new NBTTagCompound();
+        te.setString("id", "minecraft:chest");
+        te.setInteger("x", CUBE_X * Cube.SIZE + 1);
+        te.setInteger("y", CUBE_Y * Cube.SIZE + 2);
+        te.setInteger("z", CUBE_Z * Cube.SIZE + 3);
+        tileEntities.appendTag(te);
+        level.setTag("TileEntities", tileEntities);
+        level.setTag("Entities", new NBTTagList());
+        level.setTag("TileTicks", new NBTTagList());
+
+        NBTTagCompound lightingInfo = new NBTTagCompound();
+        lightingInfo.setIntArray("LastHeightMap", new int[Cube.SIZE * Cube.SIZE]);
+        level.setTag("LightingInfo", lightingInfo);
+        return cubeNbt;
+    }
+
+    private static Cube makeCube(boolean hasSkyLight) {
+        ICubicWorldServer world = mock(ICubicWorldServer.class, withSettings().extraInterfaces(IBlockAccess.class));
+        WorldProvider provider = mock(WorldProvider.class);
+        when(provider.hasSkyLight()).thenReturn(hasSkyLight);
+        when(world.getProvider()).thenReturn(provider);
+        IColumn column = mock(IColumn.class);
+        when(column.getCubicWorld()).thenReturn(world);
+        when(column.getX()).thenReturn(CUBE_X);
+        when(column.getZ()).thenReturn(CUBE_Z);
+        return new Cube(column, CUBE_Y);
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+public class TestCompressionCodec {
+
+    @Test public void testEmpty() throws IOException {
+        for (CompressionCodec codec : CompressionCodec.values()) {
+            assertArrayEquals(codec.getName(), new byte[0], CompressionCodec.decompress(codec.compress(new byte[0])));
+        }
+    }
+
+    @Test public void testRandomData() throws IOException {
+        Random rand = new Random(42);
+        for (int i = 0; i < 200; i++) {
+            byte[] data = new byte[rand.nextInt(20000)];
+            rand.nextBytes(data);
+            testRoundTrip(data);
+        }
+    }
+
+    @Test public void testRepetitiveData() throws IOException {
+        Random rand = new Random(42);
+        for (int i = 0; i < 200; i++) {
+            byte[] data = new byte[rand.nextInt(70000)];
+            int run = 1 + rand.nextInt(300);
+            for (int j = 0; j < data.length; j++) {
+                data[j] = (byte) ((j / run) % 5 == 0 ? rand.nextInt(3) : j / run);
+            }
+            testRoundTrip(data);
+        }
+    }
+
+    @Test public void testCodecIdIsStored() throws IOException {
+        byte[] data = new byte[4096];
+        for (CompressionCodec codec : CompressionCodec.values()) {
+            assertEquals(codec.id, codec.compress(data)[0]);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnknownCodec() throws IOException {
+        CompressionCodec.decompress(new byte[]{42, 0, 0, 0});
+    }
+
+    private void testRoundTrip(byte[] data) throws IOException {
+        for (CompressionCodec codec : CompressionCodec.values()) {
+            assertArrayEquals(codec.getName(), data, CompressionCodec.decompress(codec.compress(data)));
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import cubicchunks.util.CubePos;
+import org.junit.Test;
+
+public class TestCubeDataCache {
+
+    @Test public void testGetAfterPut() {
+        CubeDataCache cache = new CubeDataCache(1024 * 1024);
+        byte[] data = {1, 2, 3};
+        cache.put(new CubePos(1, 2, 3), data);
+        assertArrayEquals(data, cache.get(new CubePos(1, 2, 3)));
+        assertNull(cache.get(new CubePos(3, 2, 1)));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test public void testInvalidate() {
+        CubeDataCache cache = new CubeDataCache(1024 * 1024);
+        cache.put(new CubePos(0, 0, 0), new byte[100]);
+        cache.invalidate(new CubePos(0, 0, 0));
+        assertNull(cache.get(new CubePos(0, 0, 0)));
+        assertEquals(0, cache.getSizeBytes());
+    }
+
+    @Test public void testEvictsLeastRecentlyUsed() {
+        CubeDataCache cache = new CubeDataCache(3 * 1100);
+        cache.put(new CubePos(0, 0, 0), new byte[1000]);
+        cache.put(new CubePos(1, 0, 0), new byte[1000]);
+        cache.put(new CubePos(2, 0, 0), new byte[1000]);
+        // make cube 0 the most recently used one
+        cache.get(new CubePos(0, 0, 0));
+        cache.put(new CubePos(3, 0, 0), new byte[1000]);
+
+        assertEquals(3, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertNull(cache.get(new CubePos(1, 0, 0)));
+        assertEquals(1000, cache.get(new CubePos(0, 0, 0)).length);
+    }
+
+    @Test public void testReplaceUpdatesSize() {
+        CubeDataCache cache = new CubeDataCache(1024 * 1024);
+        cache.put(new CubePos(0, 0, 0), new byte[1000]);
+        long size = cache.getSizeBytes();
+        cache.put(new CubePos(0, 0, 0), new byte[500]);
+        assertEquals(size - 500, cache.getSizeBytes());
+    }
+
+    @Test public void testTooLargeEntryNotCached() {
+        CubeDataCache cache = new CubeDataCache(1000);
+        cache.put(new CubePos(0, 0, 0), new byte[2000]);
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getSizeBytes());
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+public class TestExistenceIndex {
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test public void testNewWorld() throws IOException {
+        ExistenceIndex index = new ExistenceIndex(folder.getRoot().toPath(), "cubes", 4, 4, true);
+        assertEquals(ICubeIO.Existence.NEVER_SAVED, index.getExistence(1, -2, 3));
+        assertFalse(index.mightExist(1, -2, 3));
+        index.markExists(1, -2, 3);
+        assertEquals(ICubeIO.Existence.SAVED, index.getExistence(1, -2, 3));
+        assertTrue(index.mightExist(1, -2, 3));
+        assertEquals(ICubeIO.Existence.NEVER_SAVED, index.getExistence(1, -1, 3));
+    }
+
+    @Test public void testExistingWorldIsUnknown() throws IOException {
+        // a world saved before the index existed, the index doesn't know anything
+        ExistenceIndex index = new ExistenceIndex(folder.getRoot().toPath(), "cubes", 4, 4, false);
+        assertEquals(ICubeIO.Existence.UNKNOWN, index.getExistence(1, -2, 3));
+        assertTrue(index.mightExist(1, -2, 3));
+        index.markExists(1, -2, 3);
+        assertEquals(ICubeIO.Existence.UNKNOWN, index.getExistence(1, -2, 3));
+    }
+
+    @Test public void testPersist() throws IOException {
+        Path dir = folder.getRoot().toPath();
+        ExistenceIndex index = new ExistenceIndex(dir, "cubes", 4, 4, true);
+        index.markExists(100, 5, -100);
+        index.persist();
+        ExistenceIndex reloaded = new ExistenceIndex(dir, "cubes", 4, 4, false);
+        assertEquals(ICubeIO.Existence.SAVED, reloaded.getExistence(100, 5, -100));
+        assertEquals(ICubeIO.Existence.NEVER_SAVED, reloaded.getExistence(100, 6, -100));
+    }
+
+    @Test public void testUnsavedRegionIsUnknownAfterCrash() throws IOException {
+        Path dir = folder.getRoot().toPath();
+        ExistenceIndex index = new ExistenceIndex(dir, "cubes", 4, 4, true);
+        index.markExists(7, 7, 7);
+        // no persist(), the region is still in the journal
+        ExistenceIndex reloaded = new ExistenceIndex(dir, "cubes", 4, 4, false);
+        assertEquals(ICubeIO.Existence.UNKNOWN, reloaded.getExistence(7, 7, 7));
+        assertEquals(ICubeIO.Existence.UNKNOWN, reloaded.getExistence(7, 8, 7));
+    }
+}
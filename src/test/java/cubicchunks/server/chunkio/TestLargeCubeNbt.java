@@ -0,0 +1,101 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import cubicchunks.world.cube.Cube;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Random;
+
+public class TestLargeCubeNbt {
+
+    private static final int VANILLA_LIMIT_BYTES = 2097152 / 8;
+
+    @Test public void testLargeCubeRoundTrip() throws IOException {
+        NBTTagCompound cubeNbt = makeLargeCube();
+        byte[] raw = IONbtWriter.writeNbtBytes(cubeNbt);
+        assertTrue("cube NBT is only " + raw.length + " bytes", raw.length > VANILLA_LIMIT_BYTES);
+
+        for (CompressionCodec codec : CompressionCodec.values()) {
+            byte[] data = CompressionCodec.decompress(codec.compress(raw));
+            assertEquals(codec.getName(), cubeNbt, IONbtReader.readNbtBytes(data));
+        }
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testVanillaDefaultLimitRejectsLargeCube() throws IOException {
+        byte[] raw = IONbtWriter.writeNbtBytes(makeLargeCube());
+        CompressedStreamTools.read(new DataInputStream(new ByteArrayInputStream(raw)));
+    }
+
+    /**
+     * A cube in the same layout as {@link IONbtWriter} writes, with enough tile entities to go over the vanilla NBT size limit.
+     */
+    private static NBTTagCompound makeLargeCube() {
+        Random rand = new Random(42);
+        NBTTagCompound cubeNbt = new NBTTagCompound();
+        NBTTagCompound level = new NBTTagCompound();
+        cubeNbt.setTag("Level", level);
+        level.setByte("v", (byte) 1);
+        level.setInteger("x", 3);
+        level.setInteger("y", -7);
+        level.setInteger("z", 12);
+
+        NBTTagList sectionList = new NBTTagList();
+        NBTTagCompound section = new NBTTagCompound();
+        byte[] blocks = new byte[Cube.SIZE * Cube.SIZE * Cube.SIZE];
+        rand.nextBytes(blocks);
+        section.setByteArray("Blocks", blocks);
+        section.setByteArray("Data", new byte[blocks.length / 2]);
+        section.setByteArray("BlockLight", new byte[blocks.length / 2]);
+        section.setByteArray("SkyLight", new byte[blocks.length / 2]);
+        sectionList.appendTag(section);
+        level.setTag("Sections", sectionList);
+
+        // a chest with some contents in every block of the cube
+        NBTTagList tileEntities = new NBTTagList();
+        for (int i = 0; i < Cube.SIZE * Cube.SIZE * Cube.SIZE; i++) {
+            NBTTagCompound te = new NBTTagCompound();
+            te.setString("id", "minecraft:chest");
+            te.setInteger("x", 3 * Cube.SIZE + (i & 0xF));
+            te.setInteger("y", -7 * Cube.SIZE + (i >> 8));
+            te.setInteger("z", 12 * Cube.SIZE + ((i >> 4) & 0xF));
+            byte[] contents = new byte[64];
+            rand.nextBytes(contents);
+            te.setByteArray("Contents", contents);
+            tileEntities.appendTag(te);
+        }
+        level.setTag("TileEntities", tileEntities);
+        return cubeNbt;
+    }
+}
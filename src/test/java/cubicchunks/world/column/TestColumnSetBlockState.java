@@ -0,0 +1,120 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.world.column;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import cubicchunks.lighting.LightingManager;
+import cubicchunks.server.CubeProviderServer;
+import cubicchunks.testutil.MinecraftEnvironment;
+import cubicchunks.world.ICubicWorldServer;
+import cubicchunks.world.cube.Cube;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.WorldProvider;
+import net.minecraft.world.WorldServer;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.spongepowered.lwts.runner.LaunchWrapperTestRunner;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Checks that block changes made through {@link Chunk#setBlockState(BlockPos, IBlockState)} of a column reach the
+ * opacity summary of the cube, which needs the light opacity of both the old and the new block.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+@RunWith(LaunchWrapperTestRunner.class)
+public class TestColumnSetBlockState {
+
+    private Chunk column;
+    private Cube cube;
+
+    @Before
+    public void setUp() {
+        MinecraftEnvironment.init();
+
+        WorldServer world = mock(WorldServer.class);
+        ICubicWorldServer cubicWorld = (ICubicWorldServer) world;
+        WorldProvider provider = mock(WorldProvider.class);
+        when(provider.hasSkyLight()).thenReturn(true);
+        when(cubicWorld.getProvider()).thenReturn(provider);
+        when(cubicWorld.isCubicWorld()).thenReturn(true);
+        when(cubicWorld.isRemote()).thenReturn(false);
+        when(cubicWorld.getLightingManager()).thenReturn(mock(LightingManager.class));
+        CubeProviderServer cubeCache = mock(CubeProviderServer.class);
+        when(cubicWorld.getCubeCache()).thenReturn(cubeCache);
+
+        this.column = new Chunk(world, 0, 0);
+        this.cube = new Cube((IColumn) column, 0);
+        ExtendedBlockStorage storage = new ExtendedBlockStorage(0, true);
+        for (int y = 0; y < Cube.SIZE; y++) {
+            for (int z = 0; z < Cube.SIZE; z++) {
+                for (int x = 0; x < Cube.SIZE; x++) {
+                    storage.set(x, y, z, Blocks.STONE.getDefaultState());
+                }
+            }
+        }
+        cube.setStorage(storage);
+        ((IColumn) column).addCube(cube);
+
+        when(cubeCache.getCube(0, 0, 0)).thenReturn(cube);
+        when(cubeCache.getLoadedCube(0, 0, 0)).thenReturn(cube);
+        when(cubicWorld.getCubeFromBlockCoords(any(BlockPos.class))).thenReturn(cube);
+    }
+
+    @Test
+    public void replacingOpaqueBlockMakesCubeMixed() {
+        assertEquals(Cube.OpacitySummary.ALL_OPAQUE, cube.getOpacitySummary());
+
+        column.setBlockState(new BlockPos(3, 4, 5), Blocks.GLASS.getDefaultState());
+        assertEquals(Blocks.GLASS.getDefaultState(), cube.getBlockState(3, 4, 5));
+        assertEquals(Cube.OpacitySummary.MIXED, cube.getOpacitySummary());
+
+        column.setBlockState(new BlockPos(3, 4, 5), Blocks.STONE.getDefaultState());
+        assertEquals(Cube.OpacitySummary.ALL_OPAQUE, cube.getOpacitySummary());
+    }
+
+    @Test
+    public void replacingAllBlocksMakesCubeTransparent() {
+        cube.getOpacitySummary();
+        for (int y = 0; y < Cube.SIZE; y++) {
+            for (int z = 0; z < Cube.SIZE; z++) {
+                for (int x = 0; x < Cube.SIZE; x++) {
+                    column.setBlockState(new BlockPos(x, y, z), Blocks.AIR.getDefaultState());
+                }
+            }
+        }
+        assertEquals(Cube.OpacitySummary.ALL_TRANSPARENT, cube.getOpacitySummary());
+    }
+}
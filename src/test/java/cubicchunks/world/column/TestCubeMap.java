@@ -28,17 +28,24 @@ import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.hasItem;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import cubicchunks.util.ticket.ITicket;
+import cubicchunks.util.ticket.TicketList;
 import cubicchunks.world.cube.Cube;
 import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 import org.junit.Test;
 
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Random;
 import java.util.Set;
 
@@ -122,6 +129,93 @@ public class TestCubeMap {
         checkRange(testedCubeMap, -500, -500);
     }
 
+    @Test
+    public void trackTickingCubes() {
+        CubeMap testedCubeMap = new CubeMap();
+        Cube[] cubes = new Cube[20];
+        for (int y = 0; y < cubes.length; y++) {
+            cubes[y] = createCube(y);
+        }
+        ITicket ticking = () -> true;
+        ITicket notTicking = () -> false;
+
+        // tickets added before the cube is in the map
+        cubes[15].getTickets().add(ticking);
+        for (int y = cubes.length - 1; y >= 0; y--) {
+            testedCubeMap.put(cubes[y]);
+        }
+        assertArrayEquals(storages(cubes[15]), testedCubeMap.getStoragesToTick());
+
+        // tickets added after the cube is in the map
+        cubes[3].getTickets().add(ticking);
+        cubes[7].getTickets().add(notTicking);
+        cubes[9].getTickets().add(ticking);
+        assertTrue(testedCubeMap.hasTickingCubes());
+        assertArrayEquals(storages(cubes[3], cubes[9], cubes[15]), testedCubeMap.getStoragesToTick());
+
+        // replaced storage of a ticking cube
+        when(cubes[9].getReadOnlyStorage()).thenReturn(mock(ExtendedBlockStorage.class));
+        assertArrayEquals(storages(cubes[3], cubes[9], cubes[15]), testedCubeMap.getStoragesToTick());
+
+        cubes[3].getTickets().remove(ticking);
+        testedCubeMap.remove(15);
+        assertArrayEquals(storages(cubes[9]), testedCubeMap.getStoragesToTick());
+
+        // removed cubes are no longer tracked
+        cubes[15].getTickets().remove(ticking);
+        cubes[15].getTickets().add(ticking);
+        assertArrayEquals(storages(cubes[9]), testedCubeMap.getStoragesToTick());
+
+        cubes[9].getTickets().remove(ticking);
+        assertFalse(testedCubeMap.hasTickingCubes());
+        assertEquals(0, testedCubeMap.getStoragesToTick().length);
+    }
+
+    @Test
+    public void reverseRange() {
+        CubeMap testedCubeMap = new CubeMap();
+        for (int y = -10; y < 10; y++) {
+            testedCubeMap.put(createCube(y));
+        }
+
+        int expected = 5;
+        for (Cube cube : testedCubeMap.cubes(5, -5)) {
+            assertEquals(expected--, cube.getY());
+        }
+        assertEquals(-6, expected);
+    }
+
+    @Test
+    public void rangesAreIndependent() {
+        CubeMap testedCubeMap = new CubeMap();
+        for (int y = -10; y < 10; y++) {
+            testedCubeMap.put(createCube(y));
+        }
+
+        Iterable<Cube> lower = testedCubeMap.cubes(-10, -1);
+        Iterable<Cube> upper = testedCubeMap.cubes(9, 0);
+        Iterator<Cube> lowerIt = lower.iterator();
+        assertEquals(-10, lowerIt.next().getY());
+        // another query or another iteration of the same range don't affect an iteration in progress
+        assertEquals(9, upper.iterator().next().getY());
+        assertEquals(-10, lower.iterator().next().getY());
+        assertEquals(-9, lowerIt.next().getY());
+
+        int expected = -10;
+        for (Cube cube : lower) {
+            assertEquals(expected++, cube.getY());
+        }
+        assertEquals(0, expected);
+    }
+
+    private ExtendedBlockStorage[] storages(Cube... cubes) {
+        ExtendedBlockStorage[] storages = new ExtendedBlockStorage[cubes.length];
+        for (int i = 0; i < cubes.length; i++) {
+            storages[i] = cubes[i].getReadOnlyStorage();
+        }
+        return storages;
+    }
+
     private void checkRange(CubeMap cubeMap, int lowerBound, int upperBound) {
         Iterable<Cube> range = cubeMap.cubes(lowerBound, upperBound);
         Set<Cube> rangeSet = new HashSet<>();
@@ -160,6 +254,10 @@ public class TestCubeMap {
     private Cube createCube(int cubeY) {
         Cube cube = mock(Cube.class);
         when(cube.getY()).thenReturn(cubeY);
+        TicketList tickets = new TicketList();
+        when(cube.getTickets()).thenReturn(tickets);
+        ExtendedBlockStorage storage = mock(ExtendedBlockStorage.class);
+        when(cube.getReadOnlyStorage()).thenReturn(storage);
         return cube;
     }
 }
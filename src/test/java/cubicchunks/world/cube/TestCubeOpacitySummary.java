@@ -0,0 +1,123 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.world.cube;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import cubicchunks.testutil.MinecraftEnvironment;
+import cubicchunks.world.ICubicWorld;
+import cubicchunks.world.column.IColumn;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.Block;
+import net.minecraft.init.Blocks;
+import net.minecraft.world.IBlockAccess;
+import net.minecraft.world.WorldProvider;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestCubeOpacitySummary {
+
+    @Before
+    public void setUp() {
+        MinecraftEnvironment.init();
+    }
+
+    @Test
+    public void emptyCubeIsTransparent() {
+        Cube cube = createCube();
+        assertEquals(Cube.OpacitySummary.ALL_TRANSPARENT, cube.getOpacitySummary());
+    }
+
+    @Test
+    public void uniformCubeIsOpaque() {
+        Cube cube = createCube();
+        cube.setUniform(Blocks.STONE.getDefaultState());
+        assertEquals(Cube.OpacitySummary.ALL_OPAQUE, cube.getOpacitySummary());
+    }
+
+    @Test
+    public void countsBlocksInStorage() {
+        Cube cube = createCube();
+        ExtendedBlockStorage storage = new ExtendedBlockStorage(0, true);
+        fill(storage, Blocks.STONE);
+        cube.setStorage(storage);
+        assertEquals(Cube.OpacitySummary.ALL_OPAQUE, cube.getOpacitySummary());
+
+        storage.set(3, 4, 5, Blocks.GLASS.getDefaultState());
+        cube.setStorage(storage);
+        assertEquals(Cube.OpacitySummary.MIXED, cube.getOpacitySummary());
+
+        fill(storage, Blocks.GLASS);
+        cube.setStorage(storage);
+        assertEquals(Cube.OpacitySummary.ALL_TRANSPARENT, cube.getOpacitySummary());
+    }
+
+    @Test
+    public void updatesAfterBlockChanges() {
+        Cube cube = createCube();
+        assertEquals(Cube.OpacitySummary.ALL_TRANSPARENT, cube.getOpacitySummary());
+
+        cube.onBlockOpacityChange(0, 255);
+        assertEquals(Cube.OpacitySummary.MIXED, cube.getOpacitySummary());
+        cube.onBlockOpacityChange(255, 1);
+        assertEquals(Cube.OpacitySummary.MIXED, cube.getOpacitySummary());
+        cube.onBlockOpacityChange(1, 0);
+        assertEquals(Cube.OpacitySummary.ALL_TRANSPARENT, cube.getOpacitySummary());
+
+        cube.setUniform(Blocks.STONE.getDefaultState());
+        assertEquals(Cube.OpacitySummary.ALL_OPAQUE, cube.getOpacitySummary());
+        cube.onBlockOpacityChange(255, 3);
+        assertEquals(Cube.OpacitySummary.MIXED, cube.getOpacitySummary());
+        cube.onBlockOpacityChange(3, 15);
+        assertEquals(Cube.OpacitySummary.ALL_OPAQUE, cube.getOpacitySummary());
+    }
+
+    private static void fill(ExtendedBlockStorage storage, Block block) {
+        for (int y = 0; y < Cube.SIZE; y++) {
+            for (int z = 0; z < Cube.SIZE; z++) {
+                for (int x = 0; x < Cube.SIZE; x++) {
+                    storage.set(x, y, z, block.getDefaultState());
+                }
+            }
+        }
+    }
+
+    private static Cube createCube() {
+        ICubicWorld world = mock(ICubicWorld.class, withSettings().extraInterfaces(IBlockAccess.class));
+        WorldProvider provider = mock(WorldProvider.class);
+        when(provider.hasSkyLight()).thenReturn(true);
+        when(world.getProvider()).thenReturn(provider);
+        IColumn column = mock(IColumn.class);
+        when(column.getCubicWorld()).thenReturn(world);
+        return new Cube(column, 0);
+    }
+}